@@ -11,25 +11,24 @@ public class AutoBattlerController{
 	}
 	
 	public void startAttackPhase() {
+		GameTrace.CommandEvent trace = GameTrace.command();
 		model.attackPhase();
+		GameTrace.end(trace, "startAttackPhase", model, null);
 	}
 	
 	public void startShopPhase() {
+		GameTrace.CommandEvent trace = GameTrace.command();
 		model.shopPhase();
+		GameTrace.end(trace, "startShopPhase", model, null);
 	}
 	
 	public int levelup(Player player) {
-		return model.playerLevelUp(player);
+		GameTrace.CommandEvent trace = GameTrace.command();
+		int level = model.playerLevelUp(player);
+		GameTrace.end(trace, "levelup", model, player);
+		return level;
 	} 
 	
-	/**
-     * call this right before shop phase or after attack phase. Resets all the 
-     * champion stats to their original hp and atk
-     */
-    public void resetChampionStats() {
-        model.resetChampStats();
-    }
-	
 	public Champion[] getShop(Player player){
 		return model.getShop(player);
 	}
@@ -39,15 +38,27 @@ public class AutoBattlerController{
 	 * as P2
 	 */
 	public void AIturn() {
+		GameTrace.CommandEvent trace = GameTrace.command();
 		model.AIturn();
+		GameTrace.end(trace, "AIturn", model, model.getP2());
+	}
+	
+	/**
+	 * starts thinking about the AI's turn in the background, call after startShopPhase
+	 * @param millis how long until AIturn is called
+	 */
+	public void startAIturn(long millis) {
+		model.startAIturn(System.nanoTime() + millis * 1_000_000L);
 	}
 	
 	/**
 	 * Call this right before we call attack Phase
 	 */
 	public void giveTraitBonuses() {
+		GameTrace.CommandEvent trace = GameTrace.command();
 		model.giveOutTraitBonuses(model.getP1());
 		model.giveOutTraitBonuses(model.getP2());
+		GameTrace.end(trace, "giveTraitBonuses", model, null);
 	}
 	
 	/**
@@ -67,7 +78,10 @@ public class AutoBattlerController{
 	}
 	
 	public Champion[] rerollShop(Player player){
-		return model.rerollShop(player);
+		GameTrace.CommandEvent trace = GameTrace.command();
+		Champion[] shop = model.rerollShop(player);
+		GameTrace.end(trace, "rerollShop", model, player);
+		return shop;
 	}
 
 	/**
@@ -78,7 +92,9 @@ public class AutoBattlerController{
 	 * @param index the current index of the champion that we want to sell
 	 */
 	public void sellChampion(Player player, int benchOrBattleField, int index) {
+		GameTrace.CommandEvent trace = GameTrace.command();
 		model.sellChampion(player, benchOrBattleField, index);
+		GameTrace.end(trace, "sellChampion", model, player);
 	}
 	
 	/**
@@ -91,7 +107,20 @@ public class AutoBattlerController{
      * @return            	true if the move was successful.
      */
 	public boolean changePosition(int[] origin, int player, int[] destination) {
-		return model.moveChampion(origin, player, destination);
+		GameTrace.CommandEvent trace = GameTrace.command();
+		boolean moved = model.moveChampion(origin, player, destination);
+		GameTrace.end(trace, "changePosition", model, player == 1 ? model.getP1() : model.getP2());
+		return moved;
+	}
+	
+	/**
+	 * The battlefield the player would have after changePosition, nothing is moved
+	 * @param origin      {0 for bench or 1 for battlefield, index}
+	 * @param destination the same for where the champion goes
+	 * @return a copy of the battlefield after the move
+	 */
+	public Champion[] previewMove(Player player, int[] origin, int[] destination) {
+		return model.previewMove(player, origin, destination);
 	}
 	
 	/**
@@ -100,7 +129,9 @@ public class AutoBattlerController{
 	 * @param location the index where the player clicked on.
 	 */
 	public void buyCharacter(Player player, int location) {
+		GameTrace.CommandEvent trace = GameTrace.command();
 		model.buyCharacter(player,location);
+		GameTrace.end(trace, "buyCharacter", model, player);
 	}
 	
 	/**
@@ -110,7 +141,86 @@ public class AutoBattlerController{
 	 * @param champion the champion that they want to use the item on
 	 */
 	public void useItem(Player player, Item item, Champion champion) { 
-		player.useItem(item, champion);
+		GameTrace.CommandEvent trace = GameTrace.command();
+		model.useItem(player, item, champion);
+		GameTrace.end(trace, "useItem", model, player);
+	}
+	
+	/**
+	 * Suggests which champion each of the player's items should go to
+	 * @param player the player holding the items
+	 * @return one line per item worth using, like "polarStar on Ganyu"
+	 */
+	public String suggestItems(Player player) {
+		Player opponent = player == model.getP1() ? model.getP2() : model.getP1();
+		int[] assignment = ItemAssigner.assign(player, opponent.getBattleField());
+		String res = "";
+		for (int i = 0; i < assignment.length; i++) {
+			if (assignment[i] >= 0) {
+				res += player.getItems()[i].getName();
+				res += " on ";
+				res += player.getBattleField()[assignment[i]].getName();
+				res += "\n";
+			}
+		}
+		return res.isEmpty() ? "Keep your items for now" : res;
+	}
+	
+	/**
+	 * The player's odds of finding champions if they spend all their gold on rerolls
+	 * @param player the player shopping
+	 * @return the chance for each tier, then for every champion the player already owns
+	 */
+	public String getShopOdds(Player player) {
+		int level = player.getLevel();
+		int gold = player.getGold();
+		String res = "With " + gold + " gold:";
+		for (int stars = 1; stars <= 3; stars++) {
+			res += String.format(" %d* %.0f%%", stars, ShopOdds.tierChance(level, stars, gold) * 100);
+		}
+		ArrayList<String> owned = new ArrayList<>();
+		for (Champion[] champs : new Champion[][] { player.getBattleField(), player.getBench() }) {
+			for (Champion champ : champs) {
+				if (champ != null && !owned.contains(champ.getName())) {
+					owned.add(champ.getName());
+					res += String.format("%n%s %.0f%%", champ.getName(),
+							ShopOdds.hitChance(level, champ.getName(), gold) * 100);
+				}
+			}
+		}
+		return res;
+	}
+	
+	/**
+	 * Suggests an order for the player's battlefield against the other player's
+	 * @param player the player to order
+	 * @return the champions from the left and the chance to win with them
+	 */
+	public String suggestOrder(Player player) {
+		return describeOrder(model.optimizeOrder(player));
+	}
+
+	/**
+	 * Suggests an order for a battlefield against another, without touching the game,
+	 * so it can run off the FX thread on copies of the boards
+	 * @return the champions from the left and the chance to win with them
+	 */
+	public String suggestOrder(Champion[] battleField, Champion[] opponent) {
+		return describeOrder(model.optimizeOrder(battleField, opponent));
+	}
+
+	private static String describeOrder(PositionOptimizer.Result order) {
+		if (order == null) {
+			return "No suggestions";
+		}
+		String res = "";
+		for (Champion champ : order.getBattleField()) {
+			if (champ != null) {
+				res += champ.getName();
+				res += " ";
+			}
+		}
+		return res + String.format("%nwins %.0f%% of the time", order.getWinChance() * 100);
 	}
 	
 	/**
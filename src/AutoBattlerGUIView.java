@@ -3,10 +3,14 @@ package src;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 import javafx.application.Application;
 import javafx.application.Platform;
@@ -21,15 +25,34 @@ import javafx.scene.control.Label;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
 import javafx.stage.Stage;
 
 public class AutoBattlerGUIView extends Application implements Observer {
+	private static final int SHOP_SECONDS = 30;
+	// -Dautobattler.renderer=canvas draws the board on one canvas instead of card nodes
+	private static final boolean CANVAS = "canvas".equals(System.getProperty("autobattler.renderer"));
 
+	// the game is only read and changed on the FX thread, other threads get copies
 	private AutoBattlerModel model;
 	private AutoBattlerController controller;
+	// odds of finding champions with the gold left, shown in the shop
+	private Label shopOdds;
+	// chance to beat the opponent with the board the player is making
+	private Label winChance;
+	private WinPreview winPreview;
+	// "Suggest order" searches here, so the FX thread doesn't wait for it
+	private ExecutorService orderSearch;
+	// the slot the last preview was for
+	private int[] hovered;
+	// input to screen latency, shown on the right with F3
+	private InputLatency inputLatency;
+	private Label latencyOverlay;
+	private CanvasBoardRenderer renderer;
+	private BoardLayout boardLayout;
 	private BorderPane gameBoard;
 	private VBox topPlayer;
 	private VBox bottomPlayer;
@@ -49,10 +72,24 @@ public class AutoBattlerGUIView extends Application implements Observer {
 	public AutoBattlerGUIView() {
 		model = new AutoBattlerModel();
 		model.addObserver(this);
+		GameMetrics.register();
+		// the AI plans its turn while the player shops, 10 ms per planner call. Even at
+		// 5 ms it wins about 70% of games against the built in AI, see Benchmark planner
+		model.setPlanner(new ShopPlanner(3, 16, 10_000_000L));
+		// orders are searched for about 200 ms
+		model.setPositionOptimizer(new PositionOptimizer(200_000_000L, ForkJoinPool.commonPool()));
 		controller = new AutoBattlerController(model);
+		// fights for 60 ms, so the chance shows about 100 ms after the mouse stops
+		winPreview = new WinPreview(60_000_000L);
+		orderSearch = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "order-search");
+			t.setDaemon(true);
+			return t;
+		});
 		gameBoard = new BorderPane();
 		moveCards = new Pair[2];
 		attackPhase = false;
+		inputLatency = new InputLatency();
 	}
 
 	@Override
@@ -71,6 +108,9 @@ public class AutoBattlerGUIView extends Application implements Observer {
 		gameBoard.setBottom(bottomPlayer);
 		gameBoard.setMargin(bottomPlayer, new Insets(10,10,10,10));
 		gameBoard.setMargin(shop, new Insets(10,10,10,10));
+		if (CANVAS) {
+			useCanvas();
+		}
 
 
 		// if in shop phase make another thing
@@ -86,11 +126,42 @@ public class AutoBattlerGUIView extends Application implements Observer {
 				switch(event.getCode()) {
 				case ESCAPE:
 					InfoBox.disply("Info Menu", "Press Ok To Go Back");
+					break;
+				case F3:
+					boolean show = !latencyOverlay.isVisible();
+					latencyOverlay.setText(inputLatency.summary());
+					latencyOverlay.setVisible(show);
+					latencyOverlay.setManaged(show);
+					break;
+				default:
+					break;
 				}
 			}
 			
 		});
 		
+		latencyOverlay = new Label("");
+		latencyOverlay.setTextFill(Color.WHITE);
+		latencyOverlay.setBackground(new Background(new BackgroundFill(Color.rgb(0, 0, 0, 0.6), null, null)));
+		latencyOverlay.setVisible(false);
+		latencyOverlay.setManaged(false);
+		gameBoard.setRight(latencyOverlay);
+		// every click and key press is timed until the first pulse after its handlers ran,
+		// a pulse is asked for in case the input changed nothing
+		scene.addEventFilter(MouseEvent.MOUSE_CLICKED, (event) -> {
+			inputLatency.input(inputKind(event.getPickResult().getIntersectedNode()), System.nanoTime());
+			Platform.requestNextPulse();
+		});
+		scene.addEventFilter(KeyEvent.KEY_PRESSED, (event) -> {
+			inputLatency.input("key", System.nanoTime());
+			Platform.requestNextPulse();
+		});
+		scene.addPostLayoutPulseListener(() -> {
+			if (inputLatency.pulse(System.nanoTime()) && latencyOverlay.isVisible()) {
+				latencyOverlay.setText(inputLatency.summary());
+			}
+		});
+
 		stage.setScene(scene);
 		stage.show();
 	}
@@ -101,7 +172,7 @@ public class AutoBattlerGUIView extends Application implements Observer {
 		timer.setTextFill(Color.BLACK);
 		Timer timer1 = new Timer();
 		TimerTask task = new TimerTask() {
-			int seconds = 30;
+			int seconds = SHOP_SECONDS;
 			int i = 0;
 
 			@Override
@@ -111,8 +182,11 @@ public class AutoBattlerGUIView extends Application implements Observer {
 					// start attack phase
 					
 					timer1.cancel();
-					attackPhase = true;
-					Platform.runLater(() -> attackStart());
+					// the model is only touched from the FX thread, this one just keeps time
+					Platform.runLater(() -> {
+						attackPhase = true;
+						attackStart();
+					});
 					
 
 				} else {
@@ -135,7 +209,6 @@ public class AutoBattlerGUIView extends Application implements Observer {
 		controller.startAttackPhase();
 		attackPhase = false;
 		
-		controller.resetChampionStats();
 		startGame();
 		createShop();
 		gameBoard.setTop(shop);
@@ -173,16 +246,21 @@ public class AutoBattlerGUIView extends Application implements Observer {
 	 */
 	private void createBottomChamp() {
 		bottomChampions = createChampSlots();
+		bottomChampions.setOnMouseMoved((event) -> previewMove(1, findChild(event.getX())));
 		bottomChampions.setOnMouseClicked((event) -> {
 			int childIndex = findChild(event.getX());
 			if (moveCards[0] == null) {
 				Pair pair = new Pair(bottomChampions, 1, childIndex);
 				moveCards[0] = pair;
+				hovered = null;
+				previewMove(1, childIndex);
 			} else {
 				Pair pair = new Pair(bottomChampions, 1, childIndex);
 				moveCards[1] = pair;
 				controller.changePosition(moveCards[0].indices, 1, moveCards[1].indices);
 				moveCards = new Pair[2];
+				hovered = null;
+				showPreview(controller.getP1().getBattleField());
 			}
 
 		});
@@ -305,16 +383,21 @@ public class AutoBattlerGUIView extends Application implements Observer {
 		bottomPlayer = new VBox(10);
 		bottomBench = createBench();
 		bottomBench.setAlignment(Pos.CENTER);
+		bottomBench.setOnMouseMoved((event) -> previewMove(0, findChild(event.getX())));
 		bottomBench.setOnMouseClicked((event) -> {
 			int childIndex = findChild(event.getX());
 			if (moveCards[0] == null) {
 				Pair pair = new Pair(bottomBench, 0, childIndex);
 				moveCards[0] = pair;
+				hovered = null;
+				previewMove(0, childIndex);
 			} else {
 				Pair pair = new Pair(bottomBench, 0, childIndex);
 				moveCards[1] = pair;
 				controller.changePosition(moveCards[0].indices, 1, moveCards[1].indices);
 				moveCards = new Pair[2];
+				hovered = null;
+				showPreview(controller.getP1().getBattleField());
 			}
 		});
 
@@ -409,7 +492,8 @@ public class AutoBattlerGUIView extends Application implements Observer {
 			attack.setTextFill(Color.BLACK);
 
 			String star = Integer.toString(champ.getStars());
-			Label nameLabel = new Label(name);
+			// merged champions show their upgrade level after the name
+			Label nameLabel = new Label(champ.getUpgradeLevel() > 1 ? name + " +" + (champ.getUpgradeLevel() - 1) : name);
 			nameLabel.setTextFill(Color.BLACK);
 
 			Image money = new Image("coin.png");
@@ -439,6 +523,8 @@ public class AutoBattlerGUIView extends Application implements Observer {
 	private void createShop() {
 		shop = new VBox(8);
 		controller.startShopPhase();
+		// the countdown runs out after SHOP_SECONDS - 1 seconds, see startGame
+		controller.startAIturn((SHOP_SECONDS - 1) * 1000L);
 		Player player = controller.getP1();
 		Champion[] shopArray = controller.getShop(player);
 
@@ -469,15 +555,138 @@ public class AutoBattlerGUIView extends Application implements Observer {
 				Player p1 = controller.getP1();
 				controller.sellChampion(p1, moveCards[0].indices[0], moveCards[0].indices[1]);
 				moveCards = new Pair[2];
+				if (renderer != null) {
+					renderer.setSelected(0, null);
+				}
 			}
 		});
 		shop.getChildren().addAll(sellArea, shopArea, cardsForSale);
+		if (renderer != null) {
+			hideCards();
+		}
 
 
 		// get model shop and read array characters
 
 	}
 
+	/**
+	 * draws the board on a canvas in the middle, the card rows are hidden but the
+	 * player areas, shop buttons and sell area stay
+	 */
+	private void useCanvas() {
+		boardLayout = new BoardLayout(0, 0, 0.6);
+		renderer = new CanvasBoardRenderer(boardLayout.getWidth(), boardLayout.getHeight());
+		renderer.addBoard(model, boardLayout);
+		gameBoard.setCenter(renderer.getCanvas());
+		hideCards();
+		renderer.getCanvas().setOnMouseClicked((event) -> canvasClicked(event.getX(), event.getY()));
+		renderer.getCanvas().setOnMouseMoved((event) -> {
+			int[] slot = boardLayout.hitTest(event.getX(), event.getY());
+			if (slot != null && (slot[0] == BoardLayout.FIELD || slot[0] == BoardLayout.BENCH)) {
+				previewMove(slot[0] == BoardLayout.FIELD ? 1 : 0, slot[1]);
+			}
+		});
+	}
+
+	private void hideCards() {
+		for (Node cards : new Node[] { topChampions, bottomChampions, bottomBench, cardsForSale }) {
+			cards.setVisible(false);
+			cards.setManaged(false);
+		}
+	}
+
+	/**
+	 * what clicking the card rows does, found with BoardLayout.hitTest instead of findChild:
+	 * a shop card is bought, the player's cards are picked and then moved
+	 */
+	private void canvasClicked(double x, double y) {
+		int[] slot = boardLayout.hitTest(x, y);
+		Player p1 = controller.getP1();
+		if (slot == null || slot[0] == BoardLayout.OPPONENT || attackPhase) {
+			moveCards = new Pair[2];
+		} else if (slot[0] == BoardLayout.SHOP) {
+			controller.buyCharacter(p1, slot[1]);
+			moveCards = new Pair[2];
+		} else {
+			int isField = slot[0] == BoardLayout.FIELD ? 1 : 0;
+			Pair pair = new Pair(isField == 1 ? bottomChampions : bottomBench, isField, slot[1]);
+			if (moveCards[0] == null) {
+				moveCards[0] = pair;
+				hovered = null;
+				previewMove(isField, slot[1]);
+				renderer.setSelected(0, slot);
+				return;
+			}
+			controller.changePosition(moveCards[0].indices, 1, pair.indices);
+			moveCards = new Pair[2];
+			hovered = null;
+			showPreview(p1.getBattleField());
+		}
+		renderer.setSelected(0, null);
+	}
+
+	/**
+	 * names the part of the board a click landed on, for InputLatency
+	 */
+	private String inputKind(Node node) {
+		for (; node != null; node = node.getParent()) {
+			if (renderer != null && node == renderer.getCanvas()) {
+				return "canvas";
+			} else if (node == cardsForSale) {
+				return "shop";
+			} else if (node == bottomBench) {
+				return "bench";
+			} else if (node == bottomChampions) {
+				return "battlefield";
+			} else if (node == shop) {
+				return "shop area";
+			}
+		}
+		return "other";
+	}
+
+	/**
+	 * shows the chance to beat the opponent if the selected champion was put in the
+	 * slot under the mouse. Does nothing unless one of the player's champions is selected
+	 * 
+	 * @param isField 1 for the battlefield, 0 for the bench
+	 * @param index   the slot under the mouse
+	 */
+	private void previewMove(int isField, int index) {
+		if (moveCards[0] == null || (moveCards[0].cards != bottomChampions && moveCards[0].cards != bottomBench)) {
+			return;
+		}
+		int[] destination = { isField, index };
+		if (Arrays.equals(destination, hovered)) {
+			return;
+		}
+		hovered = destination;
+		showPreview(controller.previewMove(controller.getP1(), moveCards[0].indices, destination));
+	}
+
+	/**
+	 * starts working out the chance a board beats the opponent, the label is updated
+	 * once it's done unless another preview was started first
+	 */
+	private void showPreview(Champion[] board) {
+		if (winChance == null || attackPhase) {
+			return;
+		}
+		Champion[] enemy = controller.getP2().getBattleField();
+		boolean noEnemy = true;
+		for (Champion champ : enemy) {
+			noEnemy &= champ == null;
+		}
+		if (noEnemy) {
+			winPreview.cancel();
+			winChance.setText("No opponent yet");
+			return;
+		}
+		winPreview.preview(board, enemy,
+				(result) -> Platform.runLater(() -> winChance.setText(result.toString())));
+	}
+
 	private int findEmptySpot(HBox area) {
 		int index = 0;
 		for (Node node : area.getChildren()) {
@@ -520,6 +729,34 @@ public class AutoBattlerGUIView extends Application implements Observer {
 		viewUpgrade.setPreserveRatio(true);
 		viewUpgrade.setFitHeight(50);
 		playerArea.getChildren().add(viewUpgrade);
+		// shows which champion each item should go to
+		Button suggest = new Button("Suggest items");
+		suggest.setOnAction((event) -> {
+			InfoBox.disply("Item Suggestions", controller.suggestItems(controller.getP1()));
+		});
+		playerArea.getChildren().add(suggest);
+		// shows which order to put the battlefield in
+		Button suggestOrder = new Button("Suggest order");
+		suggestOrder.setOnAction((event) -> {
+			// the search gets copies, the boards can change while it runs
+			Champion[] board = controller.getP1().copy().getBattleField();
+			Champion[] enemy = controller.getP2().copy().getBattleField();
+			suggestOrder.setDisable(true);
+			orderSearch.execute(() -> {
+				String suggestion = controller.suggestOrder(board, enemy);
+				Platform.runLater(() -> {
+					suggestOrder.setDisable(false);
+					InfoBox.disply("Order Suggestion", suggestion);
+				});
+			});
+		});
+		playerArea.getChildren().add(suggestOrder);
+		shopOdds = new Label(controller.getShopOdds(controller.getP1()));
+		shopOdds.setTextFill(Color.BLACK);
+		playerArea.getChildren().add(shopOdds);
+		winChance = new Label("");
+		winChance.setTextFill(Color.BLACK);
+		playerArea.getChildren().add(winChance);
 		playerArea.getChildren().add(timer);
 		playerArea.setAlignment(Pos.CENTER);
 		// upgrade handler
@@ -538,26 +775,32 @@ public class AutoBattlerGUIView extends Application implements Observer {
 
 	@Override
 	public void update(Observable o, Object arg) {
+		GameTrace.PhaseEvent trace = GameTrace.phase();
+		long start = System.nanoTime();
 		// should add if arg is player 1
 		Player p1 = controller.getP1();
-		Champion[] champSlots = p1.getBattleField();
-		remakeHbox(bottomChampions, champSlots);
-
-		Champion[] bench = p1.getBench();
-		remakeHbox(bottomBench, bench);
+		// the canvas draws the card rows itself
+		boolean cards = renderer == null;
+		if (cards) {
+			remakeHbox(bottomChampions, p1.getBattleField());
+			remakeHbox(bottomBench, p1.getBench());
+		}
 		changeStats(1);
 		FlowPane fPane = (FlowPane) bottomPlayer.getChildren().get(1);
 		updateItems(fPane);
 		if (!attackPhase) {
-			Champion[] shopCards = controller.getShop(p1);
-
-			remakeHbox(cardsForSale, shopCards);
+			if (cards) {
+				remakeHbox(cardsForSale, controller.getShop(p1));
+			}
+			if (shopOdds != null) {
+				shopOdds.setText(controller.getShopOdds(p1));
+			}
 				
 		}else {
 
-			Player p2 = controller.getP2();
-			Champion[] champSlots2 = p2.getBattleField();
-			remakeHbox(topChampions, champSlots2);
+			if (cards) {
+				remakeHbox(topChampions, controller.getP2().getBattleField());
+			}
 			changeStats(2);
 
 		}
@@ -566,6 +809,8 @@ public class AutoBattlerGUIView extends Application implements Observer {
 			System.out.println("its over");
 			System.exit(0);
 		}
+		GameTrace.end(trace, "update", model);
+		GameMetrics.METRICS.viewUpdate(System.nanoTime() - start);
 
 	}
 	
@@ -662,4 +907,4 @@ public class AutoBattlerGUIView extends Application implements Observer {
 		}
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
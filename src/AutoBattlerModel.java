@@ -1,10 +1,11 @@
 package src;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.List;
 import java.util.Observable;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 
 /**
@@ -13,9 +14,30 @@ import java.util.Random;
  * the state and progression of the game.
  */
 public class AutoBattlerModel extends Observable {
+	private static final List<Supplier<Item>> ONE_STARS = List.of(
+			Dull_Blade::new, Great_Sword::new, Polearm::new, Basic_Book::new, Regular_Bow::new);
+	private static final List<Supplier<Item>> TWO_STARS = List.of(
+			Festering_Desire::new, Dragon_Pike::new, Rain_Slasher::new, Favonius_Book::new, Moonbow::new);
+	private static final List<Supplier<Item>> THREE_STARS = List.of(
+			Skyward_Blade::new, Homa::new, Grave_Stone::new, Electro_Book::new, Polarstar::new);
+    // hands out game ids, so traces from different games can be told apart
+    private static final AtomicLong GAMES = new AtomicLong();
+    private long gameId;
     private final Player p1;
     private final Player p2;
     private int round;
+    private final Random rng;
+    private GhostStore ghosts;
+    // p2's battlefield came from the ghost store, so it isn't saved again
+    private boolean ghostOpponent;
+    private TelemetryWriter telemetry;
+    private ShopPlanner planner;
+    private BackgroundAI backgroundAI;
+    private PositionOptimizer positionOptimizer;
+    // plays the fights on a clock when set, see setCombatEngine
+    private CombatEngine combatEngine;
+    // System.nanoTime() when the last round started, for GameMetrics
+    private long lastRoundStart = -1;
 
 
     /**
@@ -26,6 +48,28 @@ public class AutoBattlerModel extends Observable {
         p1 = new Player();
         p2 = new Player();
         round = 0;
+        rng = new Random();
+        gameId = GAMES.incrementAndGet();
+    }
+
+    /**
+     * Starts a new game with the same players, observers and settings, so many games
+     * can be played on one model. Any AI turn being planned is dropped, and the game
+     * gets a new id.
+     */
+    public void newGame() {
+    	if (backgroundAI != null) {
+    		backgroundAI.close();
+    		backgroundAI = null;
+    	}
+    	p1.reset();
+    	p2.reset();
+    	round = 0;
+    	ghostOpponent = false;
+    	lastRoundStart = -1;
+    	gameId = GAMES.incrementAndGet();
+    	setChanged();
+    	notifyObservers(null);
     }
 
     /**
@@ -36,23 +80,37 @@ public class AutoBattlerModel extends Observable {
      * 
      */
     public void attackPhase()  {
+    	GameTrace.PhaseEvent trace = GameTrace.phase();
+    	long start = System.nanoTime();
     	round += 1;
-        Random rng = new Random();
+    	if (ghosts != null) {
+    		ghosts.record(round, p1.getLevel(), p1.getBattleField());
+    		if (!ghostOpponent) {
+    			ghosts.record(round, p2.getLevel(), p2.getBattleField());
+    		}
+    	}
+        int p1Gold = p1.getGold();
+        int p1Health = p1.getHealth();
+        int p2Gold = p2.getGold();
+        int p2Health = p2.getHealth();
         int attackRound = rng.nextInt(2);
+        int attacks = combatEngine == null ? 0 : timedFight();
         boolean roundOver = false;
-        while (isRoundOver() == 0) {
+        while (combatEngine == null && isRoundOver() == 0) {
+            attacks++;
 
+            CombatEvent attack;
             if (attackRound % 2 == 0) { 
                 // p1 attacks
-                findChamps(rng, p1, p2);
+                attack = findChamps(rng, p1, p2);
             }
             else {
                 // p2 attacks
-                findChamps(rng, p2, p1);
+                attack = findChamps(rng, p2, p1);
             }
             attackRound++;
             setChanged();
-        	notifyObservers(null);
+        	notifyObservers(attack);
 
         }
         //p1 won the round
@@ -66,30 +124,77 @@ public class AutoBattlerModel extends Observable {
         	p2.earnGold(2*round);
         	p1.loseHealth(round);
         }
-        resetChampStats();
+        if (telemetry != null) {
+        	telemetry.record(round, 1, p1, isRoundOver(), p1Gold, p1Health);
+        	telemetry.record(round, 2, p2, isRoundOver(), p2Gold, p2Health);
+        }
+        endFight(p1);
+        endFight(p2);
         setChanged();
     	notifyObservers(null);
-       
+    	GameTrace.end(trace, "attackPhase", this);
+    	GameMetrics.METRICS.round(attacks, System.nanoTime() - start, lastRoundStart < 0 ? -1 : start - lastRoundStart);
+    	lastRoundStart = start;
     }
     
     /**
-     * Gives out Trait bonuses on the players battlefield
-     * @param player the current player
+     * Plays the fight with the CombatEngine and leaves the battlefields with the hp
+     * it ended with. Every hit is passed to the observers as a CombatEvent where only
+     * the defender takes damage. A kill earns 2 gold and an item.
+     * @return how many swings and casts were made
      */
-    public void giveOutTraitBonuses(Player player) {
-    	HashMap<String, Integer> traits = player.getActiveTraits();
-    	for (String bonus: traits.keySet()) {
-    		for (int i = 0; i < 7; i++) {
-    			if (player.getBattleField()[i] == null) {
-    				continue;
-    			// if the champions type is in the traits keyset, give that champion a bonus
-    			} else if (player.getBattleField()[i].getType().equals(bonus)) {
-    				player.getBattleField()[i].addBonus(bonus);
-    			}
+    private int timedFight() {
+    	Champion[][] sides = { p1.getBattleField(), p2.getBattleField() };
+    	combatEngine.load(sides[0], sides[1]);
+    	combatEngine.setListener(countObservers() == 0 ? null : (time, attacker, target, damage, reaction, ability) -> {
+    		setChanged();
+    		notifyObservers(new CombatEvent(round, attacker < 7 ? 1 : 2, attacker % 7, target % 7, 0, damage,
+    				combatEngine.getHp(attacker), combatEngine.getHp(target)));
+    	});
+    	combatEngine.fight(rng);
+    	for (int unit = 0; unit < 14; unit++) {
+    		Champion champ = sides[unit / 7][unit % 7];
+    		if (champ == null || champ.getHp() <= 0) {
+    			continue;
+    		}
+    		champ.loseHp(champ.getHp() - combatEngine.getHp(unit));
+    		if (champ.getHp() <= 0) {
+    			// the other player made the kill
+    			Player killer = unit < 7 ? p2 : p1;
+    			killer.earnGold(2);
+    			giveItem(killer);
     		}
     	}
+    	return combatEngine.getActions();
+    }
+    
+    /**
+     * counts the notification in GameMetrics, then notifies like Observable does
+     */
+    @Override
+    public void notifyObservers(Object arg) {
+    	if (hasChanged()) {
+    		GameMetrics.METRICS.notification();
+    	}
+    	if (countObservers() == 0) {
+    		// Observable copies its observers into a new array on every call, even none
+    		clearChanged();
+    		return;
+    	}
+    	super.notifyObservers(arg);
+    }
+    
+    /**
+     * Gives out Trait bonuses on the players battlefield, replacing any bonus a
+     * champion already has
+     * @param player the current player
+     */
+    public void giveOutTraitBonuses(Player player) {
+    	GameTrace.PhaseEvent trace = GameTrace.phase();
+    	player.applyTraitBonuses();
     	setChanged();
     	notifyObservers(player);
+    	GameTrace.end(trace, "giveOutTraitBonuses", this);
     }
     
     /**
@@ -98,8 +203,10 @@ public class AutoBattlerModel extends Observable {
     public void shopPhase() {
 		// at the beginning of the shop phase this gives the players 
 		// all new shops based on their level
+    	GameTrace.PhaseEvent trace = GameTrace.phase();
 		p1.getShop().rerollShop(p1.getLevel());
 		p2.getShop().rerollShop(p2.getLevel());
+		GameTrace.end(trace, "shopPhase", this);
     }
     
     /**
@@ -120,6 +227,7 @@ public class AutoBattlerModel extends Observable {
     public Champion[] rerollShop(Player player){
     	if (player.getGold() > 0) {
     		player.spendGold(1);
+    		GameMetrics.METRICS.reroll();
     		setChanged();
         	notifyObservers(player);
     		return player.getShop().rerollShop(player.getLevel());
@@ -148,8 +256,9 @@ public class AutoBattlerModel extends Observable {
      * @param rng       A Random object for choosing a defending champion to attack.
      * @param attacking Player that is attacking.
      * @param defending Player that is defending.
+     * @return the attack for the observers, null if there are none
      */
-    private void findChamps(Random rng, Player attacking, Player defending) { 
+    private CombatEvent findChamps(Random rng, Player attacking, Player defending) { 
         int i = 0;
         int j;
         Champion attacker = null;
@@ -169,8 +278,13 @@ public class AutoBattlerModel extends Observable {
             defender = defending.getBattleField()[j];
             defenderLocation = j;
         }
+        int attackerHp = attacker.getHp();
+        int defenderHp = defender.getHp();
         int result = executeAttack(attacker, defender);
-        // TODO pass attacking and defending players and indices for their battlefield to Observer.
+        // only made for observers, this runs for every attack
+        CombatEvent attack = countObservers() == 0 ? null
+        		: new CombatEvent(round, attacking == p1 ? 1 : 2, attackerLocation, defenderLocation,
+        				attackerHp - attacker.getHp(), defenderHp - defender.getHp(), attacker.getHp(), defender.getHp());
         if (result == 0) {
         	defending.earnGold(2);
         	giveItem(defending);
@@ -183,26 +297,22 @@ public class AutoBattlerModel extends Observable {
         	giveItem(defending);
         	giveItem(attacking);
         }
+        return attack;
     }
     
     /**
-     * resets traits of champions on battlefield
+     * drops the trait bonuses and combat damage of a player's battlefield, they only
+     * last for one fight
      */
-    public void resetChampStats() {
-    		Champion[] p1BattleField = p1.getBattleField();
-    		Champion[] p2BattleField = p2.getBattleField();
+    private void endFight(Player player) {
+    	GameTrace.PhaseEvent trace = GameTrace.phase();
+    	Champion[] battleField = player.getBattleField();
 		for (int i = 0; i < 7; i++) {
-			if (p1BattleField[i] != null) {
-				p1BattleField[i].setHp(p1BattleField[i].getInitialHp());
-				p1BattleField[i].setAtk(p1BattleField[i].getInitialAtk());
-			}
-			if (p2BattleField[i] != null) {
-				p2BattleField[i].setHp(p2BattleField[i].getInitialHp());
-				p2BattleField[i].setAtk(p2BattleField[i].getInitialAtk());
+			if (battleField[i] != null) {
+				battleField[i].resetStats();
 			}
 		}
-		setChanged();
-    	notifyObservers(null);
+		GameTrace.end(trace, "endFight", this);
     }
     
     /**
@@ -213,26 +323,23 @@ public class AutoBattlerModel extends Observable {
      * @return the Item that the player is rewarded with
      */
     private void giveItem(Player player) {
-    	//idk why but it makes me add all of the items one by one
-    	Random rand = new Random();
-    	ArrayList<Item> oneStars = new ArrayList<Item>(Arrays.asList(
-    			new Dull_Blade(), new Great_Sword(), new Polearm(),
-    			new Basic_Book(), new Regular_Bow()));
-    	ArrayList<Item> twoStars = new ArrayList<Item>(Arrays.asList(
-    			new Festering_Desire(), new Dragon_Pike(), new Rain_Slasher(),
-    			new Favonius_Book(), new Moonbow()));
-    	ArrayList<Item> threeStars = new ArrayList<Item>(Arrays.asList(
-    			new Skyward_Blade(), new Homa(), new Grave_Stone(),
-    			new Electro_Book(), new Polarstar()));
-    	int chance = rand.nextInt(100); 
-    	int weaponSelection = rand.nextInt(5);
+    	// only the item that drops is created, this runs on every kill
+    	int chance = rng.nextInt(100); 
+    	int weaponSelection = rng.nextInt(5);
+    	Item item = null;
     	// 3% chance for 3 star
     	if (chance <= 2 + player.getLevel()) {
-    		player.addItem(threeStars.get(weaponSelection));
+    		item = THREE_STARS.get(weaponSelection).get();
+    		GameMetrics.METRICS.itemDrop(3);
     	} else if (chance <= 5 + player.getLevel()) {
-    		player.addItem(twoStars.get(weaponSelection));
+    		item = TWO_STARS.get(weaponSelection).get();
+    		GameMetrics.METRICS.itemDrop(2);
     	} else if (chance <= 7 + player.getLevel()) {
-    		player.addItem(oneStars.get(weaponSelection));
+    		item = ONE_STARS.get(weaponSelection).get();
+    		GameMetrics.METRICS.itemDrop(1);
+    	}
+    	if (item != null && !player.addItem(item)) {
+    		GameMetrics.METRICS.itemLost();
     	}
     	setChanged();
     	notifyObservers(player);
@@ -317,16 +424,41 @@ public class AutoBattlerModel extends Observable {
             player = p1;
         else
             player = p2;
+        boolean moved;
         if (destination[0] == 0 && origin[0] == 1) 
-            return battleToBench(origin[1], player, destination[1]);
+            moved = battleToBench(origin[1], player, destination[1]);
         else if (destination[0] == 1 && origin[0] == 0) 
-            return benchToBattle(origin[1], player, destination[1]);
+            moved = benchToBattle(origin[1], player, destination[1]);
          else 
-            return champSwap(origin, player, destination[1]);
+            moved = champSwap(origin, player, destination[1]);
+        if (moved) {
+        	battleFieldChanged(player);
+        }
+        return moved;
         
         // TODO send update to observer with foundAt and location indices and player object.
     }
 
+    /**
+     * The battlefield a player would have after moveChampion(), without moving anything.
+     * Every move swaps the two slots, so that is all this does, on copies.
+     * @param player      the player moving a champion
+     * @param origin      {0 for the bench or 1 for the battlefield, index}
+     * @param destination the same for where the champion goes
+     * @return a copy of the battlefield after the move
+     */
+    public Champion[] previewMove(Player player, int[] origin, int[] destination) {
+    	Champion[][] slots = { player.getBench().clone(), player.getBattleField().clone() };
+    	Champion[] from = slots[origin[0]];
+    	Champion[] to = slots[destination[0]];
+    	if (origin[1] >= 0 && origin[1] < from.length && destination[1] >= 0 && destination[1] < to.length) {
+    		Champion temp = to[destination[1]];
+    		to[destination[1]] = from[origin[1]];
+    		from[origin[1]] = temp;
+    	}
+    	return slots[1];
+    }
+
     /**
      * Moves champion from battlefield to bench.
      * @param destination destination index of champion on the battlefield.
@@ -341,8 +473,8 @@ public class AutoBattlerModel extends Observable {
         	return false;
         }
         Champion temp = player.getBench()[destination];
-        player.getBench()[destination] = player.getBattleField()[origin];
-        player.getBattleField()[origin] = temp;
+        player.setBench(destination, player.getBattleField()[origin]);
+        player.setBattleField(origin, temp);
         setChanged();
     	notifyObservers(player);
         return true;
@@ -364,8 +496,8 @@ public class AutoBattlerModel extends Observable {
         if (player.getBench()[origin] == null)
             return false;
         Champion temp = player.getBattleField()[destination];
-        player.getBattleField()[destination] = player.getBench()[origin];
-        player.getBench()[origin] = temp;
+        player.setBattleField(destination, player.getBench()[origin]);
+        player.setBench(origin, temp);
         setChanged();
     	notifyObservers(player);
         return true;
@@ -386,15 +518,15 @@ public class AutoBattlerModel extends Observable {
             if (player.getBench()[origin[1]] == null && player.getBench()[destination] == null)
                 return false;
             Champion temp = player.getBench()[origin[1]];
-            player.getBench()[origin[1]] = player.getBench()[destination];
-            player.getBench()[destination] = temp;
+            player.setBench(origin[1], player.getBench()[destination]);
+            player.setBench(destination, temp);
         }
         else {
             if (player.getBattleField()[origin[1]] == null && player.getBattleField()[destination] == null)
                 return false;
             Champion temp = player.getBattleField()[origin[1]];
-            player.getBattleField()[origin[1]] = player.getBattleField()[destination];
-            player.getBattleField()[destination] = temp;
+            player.setBattleField(origin[1], player.getBattleField()[destination]);
+            player.setBattleField(destination, temp);
         }
         setChanged();
     	notifyObservers(player);
@@ -424,30 +556,192 @@ public class AutoBattlerModel extends Observable {
     		if (toRemove == null) {
     			return;
     		}
-    		player.getBench()[index] = null;
-    		player.earnGold(toRemove.getStars());
+    		player.setBench(index, null);
+    		player.earnGold(sellValue(toRemove));
+    		GameMetrics.METRICS.sell();
     	} else if (benchOrBattleField == 1) {
     		Champion toRemove = player.getBattleField()[index];
     		if (toRemove == null) {
     			return;
     		}
-    		player.getBattleField()[index] = null;
-    		player.earnGold(toRemove.getStars());
+    		player.setBattleField(index, null);
+    		player.earnGold(sellValue(toRemove));
+    		GameMetrics.METRICS.sell();
+    		battleFieldChanged(player);
     	}
     	setChanged();
     	notifyObservers(player);
     }
     
+    /**
+     * gold given back for selling a champion, the cost of every copy merged into it
+     * @param champion the champion being sold
+     * @return the gold the player gets
+     */
+    private int sellValue(Champion champion) {
+    	int copies = 1;
+    	for (int i = 1; i < champion.getUpgradeLevel(); i++) {
+    		copies *= 3;
+    	}
+    	return champion.getStars() * copies;
+    }
+    
     public void buyCharacter(Player player,int location) {
     	player.buyCharacter(location);
+    	// buying the third copy merges it, maybe on the battlefield
+    	battleFieldChanged(player);
     	setChanged();
     	notifyObservers(player);
     }
     
     /**
-     * makes an AI turn
+     * Uses an item on a champion
+     * @param player the player with the item
+     * @param item the item to use
+     * @param champion the champion to use it on
+     */
+    public void useItem(Player player, Item item, Champion champion) {
+    	player.useItem(item, champion);
+    	battleFieldChanged(player);
+    }
+    
+    /**
+     * Call after anything that may change the champions on a player's battlefield. If
+     * it's p1's, the AI planning in the background orders its board against it again.
+     */
+    private void battleFieldChanged(Player player) {
+    	if (player == p1 && backgroundAI != null) {
+    		backgroundAI.opponentChanged(p1.getBattleField());
+    	}
+    }
+    
+    /**
+     * Saves every board fought with to a ghost store, and lets AIturn field boards from
+     * it instead of building its own.
+     * @param ghosts the store, null to stop using one
+     */
+    public void setGhostStore(GhostStore ghosts) {
+    	this.ghosts = ghosts;
+    }
+    
+    /**
+     * Records a telemetry row for both players after every round fought.
+     * @param telemetry where to record, null to stop recording
+     */
+    public void setTelemetry(TelemetryWriter telemetry) {
+    	this.telemetry = telemetry;
+    }
+    
+    /**
+     * Lets a ShopPlanner play the AI's shop phases instead of the built in greedy AI.
+     * A ghost store still goes first if both are set.
+     * @param planner the planner, null to go back to the built in AI
+     */
+    public void setPlanner(ShopPlanner planner) {
+    	if (backgroundAI != null) {
+    		backgroundAI.close();
+    		backgroundAI = null;
+    	}
+    	this.planner = planner;
+    }
+    
+    /**
+     * Lets a PositionOptimizer put the AI's champions in order against p1 at the end of
+     * every AI turn, and suggest orders to the player. A turn planned with startAIturn()
+     * is ordered on the background thread instead.
+     * @param positionOptimizer the optimizer, null to leave the order as the AI built it
+     */
+    public void setPositionOptimizer(PositionOptimizer positionOptimizer) {
+    	if (backgroundAI != null) {
+    		backgroundAI.close();
+    		backgroundAI = null;
+    	}
+    	this.positionOptimizer = positionOptimizer;
+    }
+    
+    /**
+     * Plays the attack phase with a CombatEngine, with attack speed, abilities and
+     * elemental reactions, instead of one swing each in turn.
+     * @param combatEngine the engine, null to go back to taking turns
+     */
+    public void setCombatEngine(CombatEngine combatEngine) {
+    	this.combatEngine = combatEngine;
+    }
+    
+    /**
+     * Finds the best order for a player's battlefield against the other player's.
+     * @param player the player to order
+     * @return the order found, null without a position optimizer
+     */
+    public PositionOptimizer.Result optimizeOrder(Player player) {
+    	Player opponent = player == p1 ? p2 : p1;
+    	return optimizeOrder(player.getBattleField(), opponent.getBattleField());
+    }
+    
+    /**
+     * Finds the best order for a battlefield against another. Only the optimizer is
+     * used, so it can run on any thread if it's given copies of the battlefields.
+     * @return the order found, null without a position optimizer
+     */
+    public PositionOptimizer.Result optimizeOrder(Champion[] battleField, Champion[] opponent) {
+    	if (positionOptimizer == null) {
+    		return null;
+    	}
+    	return positionOptimizer.optimize(battleField, List.<Champion[]>of(opponent));
+    }
+    
+    /**
+     * Starts planning the AI's turn on a background thread, call it once the shop phase
+     * has begun. AIturn() then commits the best turn found so far without waiting.
+     * Does nothing without a planner.
+     * @param deadlineNanos System.nanoTime() when AIturn() will be called
+     */
+    public void startAIturn(long deadlineNanos) {
+    	if (planner == null) {
+    		return;
+    	}
+    	if (backgroundAI == null) {
+    		backgroundAI = new BackgroundAI(this, p2, planner, positionOptimizer);
+    	}
+    	backgroundAI.start(deadlineNanos);
+    }
+    
+    /**
+     * makes an AI turn. With a ghost store the AI fields a stored board from a real
+     * player of about the same strength as p1, if there is one for this round. If
+     * startAIturn() was called the turn planned in the background is committed.
      */
     public void AIturn() {
+    	GameTrace.PhaseEvent trace = GameTrace.phase();
+    	playAIturn();
+    	GameTrace.end(trace, "AIturn", this);
+    }
+    
+    private void playAIturn() {
+    	boolean prepared = backgroundAI != null && backgroundAI.finish();
+    	if (ghostTurn()) {
+    		setChanged();
+    		notifyObservers(null);
+    		return;
+    	}
+    	ghostOpponent = false;
+    	if (prepared) {
+    		// already ordered in the background, but without the items
+    		if (ItemAssigner.apply(p2, p1.getBattleField()) > 0) {
+    			orderAI();
+    		}
+    		setChanged();
+    		notifyObservers(null);
+    		return;
+    	}
+    	if (planner != null) {
+    		planner.playTurn(this, p2);
+    		ItemAssigner.apply(p2, p1.getBattleField());
+    		orderAI();
+    		setChanged();
+    		notifyObservers(null);
+    		return;
+    	}
     	while (p2.getGold() >= 1) {
     		playerLevelUp(p2);
     		p2.buyCharacter(0);
@@ -464,32 +758,75 @@ public class AutoBattlerModel extends Observable {
     		if (firstChampLocation == -1) {
     			break;
     		}
-    		int i = 0;
     		// puts champion from bench to battlefield at farthest left position
-    		while (p2.getBattleField()[i] != null) {
-    			i += 1;
-    		}
+    		int i = Integer.numberOfTrailingZeros(~p2.getBattleFieldMask() & 0x7F);
     		benchToBattle(firstChampLocation, p2, i);
     	}
-    	for (int i = 0; i < 6; i++) {
-    		p2.useItem(p2.getItems()[0], p2.getBattleField()[0]);
-    	}
+    	ItemAssigner.apply(p2, p1.getBattleField());
+    	orderAI();
     	setChanged();
     	notifyObservers(null);
     }
     
+    /**
+     * puts p2's battlefield in the best order against p1's, if there is an optimizer
+     */
+    private void orderAI() {
+    	PositionOptimizer.Result order = optimizeOrder(p2);
+    	if (order != null) {
+    		PositionOptimizer.arrange(p2, order);
+    	}
+    }
+    
+    /**
+     * replaces p2's battlefield with a ghost comparable to p1's board
+     * @return false if there is no ghost store or no ghost for the coming round
+     */
+    private boolean ghostTurn() {
+    	if (ghosts == null) {
+    		return false;
+    	}
+    	Champion[] ghost;
+    	try {
+    		ghost = ghosts.findOpponent(round + 1, p1.getLevel(), GhostStore.strength(p1.getBattleField()));
+    	} catch (IOException e) {
+    		return false;
+    	}
+    	if (ghost == null) {
+    		return false;
+    	}
+    	for (int i = 0; i < 7; i++) {
+    		p2.setBattleField(i, ghost[i]);
+    	}
+    	ghostOpponent = true;
+    	return true;
+    }
+    
     /**
      * returns the index of the first Champion on a players bench, if 
      * no champions on bench return -1
      * @param player
      */
     private int getFirstOnBench(Player player) {
-    	for (int i = 0; i < player.getBench().length; i++) {
-    		if (player.getBench()[i] != null) {
-    			return i;
-    		}
+    	if (player.getBenchMask() == 0) {
+    		return -1;
     	}
-		return -1;
+		return Integer.numberOfTrailingZeros(player.getBenchMask());
+    }
+    
+    /**
+     * @return the id of this game, unique in the process
+     */
+    public long getGameId() {
+    	return gameId;
+    }
+    
+    /**
+     * returns how many rounds have been fought
+     * @return
+     */
+    public int getRound() {
+    	return round;
     }
     
     /**
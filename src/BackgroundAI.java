@@ -0,0 +1,271 @@
+package src;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Plays the AI's shop phase with a ShopPlanner on a background thread while the human
+ * is still shopping, so the AI's turn is ready when the countdown runs out.
+ *
+ * start() is called once the AI's shop is rolled, and takes a copy of the AI's player.
+ * The thread then picks one action at a time, running the planner over and over and
+ * adding up its votes until that action's share of the time left is used, and plays it
+ * on the copy. finish() stops it at the deadline, plays the action that was winning the
+ * vote and moves the copy's champions, shop and gold onto the real player, so the turn
+ * is committed without waiting for the search. The copy is only touched while holding
+ * this object's lock and the planner runs in short calls, so finish() never waits
+ * longer than one planner call.
+ *
+ * The real player is only changed by start() and finish(), on the thread running the
+ * model, so the view can keep reading it while the AI thinks.
+ *
+ * With a PositionOptimizer, shopping gets three quarters of the time and the thread then
+ * puts the battlefield in the best order against p1's. The model hands over a copy of
+ * p1's battlefield whenever it changes, through opponentChanged(), and the order is
+ * found again, so finish() applies an order found against p1's board as it was at most
+ * one change ago. If shopping ran up to the deadline there's no order, and the
+ * champions stay strongest first.
+ *
+ * Nothing here notifies observers, so the GUI isn't updated from the background
+ * thread. AutoBattlerModel.AIturn() does that once the turn is committed.
+ */
+public class BackgroundAI {
+	private static final int MAX_ACTIONS = 10;
+
+	private final AutoBattlerModel model;
+	private final Player player;
+	private final ShopPlanner planner;
+	private final PositionOptimizer optimizer;
+	private final ExecutorService thread;
+	// bumped by start() and finish(), a thinking thread stops once it has changed
+	private volatile int turn;
+	// a turn was started and hasn't been committed by finish() yet, guarded by this
+	private boolean started;
+	// the turn ended on its own
+	private boolean done;
+	// the action winning the vote, -1 if there is no vote yet
+	private int leading;
+	// the copy of the player the turn is played on, guarded by this
+	private Player turnPlayer;
+	// a copy of p1's battlefield and its stats, guarded by this
+	private Champion[] opponent;
+	private int[] opponentStats;
+	// the best order found for turnPlayer's battlefield, null if there is none, guarded by this
+	private Champion[] order;
+
+	/**
+	 * @param model   the game
+	 * @param player  the AI's player
+	 * @param planner   picks the actions, its budget is how long one planner call takes
+	 * @param optimizer orders the battlefield once shopping is done, null to leave it
+	 */
+	public BackgroundAI(AutoBattlerModel model, Player player, ShopPlanner planner, PositionOptimizer optimizer) {
+		this.model = model;
+		this.player = player;
+		this.planner = planner;
+		this.optimizer = optimizer;
+		thread = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "background-ai");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Starts planning the AI's turn, dropping any turn that wasn't committed. Call
+	 * start() and finish() from the same thread.
+	 * @param deadlineNanos System.nanoTime() when the turn will be needed
+	 */
+	public void start(long deadlineNanos) {
+		int round = model.getRound();
+		Player copy = player.copy();
+		int id;
+		synchronized (this) {
+			id = ++turn;
+			started = true;
+			done = false;
+			leading = -1;
+			turnPlayer = copy;
+			order = null;
+			opponentStats = null;
+		}
+		opponentChanged(model.getP1().getBattleField());
+		long now = System.nanoTime();
+		long shopping = optimizer == null ? deadlineNanos : now + (deadlineNanos - now) / 4 * 3;
+		thread.execute(() -> think(id, round, shopping));
+	}
+
+	/**
+	 * Hands over p1's battlefield to order against, call it from the thread running the
+	 * model whenever it may have changed. It's only copied if its hp or atk changed.
+	 */
+	public void opponentChanged(Champion[] battleField) {
+		// started is only written on the model's thread, the one calling this
+		if (optimizer == null || !started) {
+			return;
+		}
+		int[] stats = new int[14];
+		for (int i = 0; i < 7; i++) {
+			if (battleField[i] != null) {
+				stats[i] = battleField[i].getHp();
+				stats[i + 7] = battleField[i].getAtk();
+			}
+		}
+		synchronized (this) {
+			if (Arrays.equals(stats, opponentStats)) {
+				return;
+			}
+			Champion[] copy = new Champion[7];
+			for (int i = 0; i < 7; i++) {
+				copy[i] = battleField[i] == null ? null : battleField[i].copy();
+			}
+			opponentStats = stats;
+			opponent = copy;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Commits the turn right away with the best actions found so far, and puts the
+	 * strongest champions on the battlefield. Call it from the thread running the model.
+	 * @return false if there was no turn started, so the AI still has to play
+	 */
+	public boolean finish() {
+		turn++;
+		synchronized (this) {
+			if (!started) {
+				return false;
+			}
+			started = false;
+			if (!done) {
+				if (leading > BattlerEnv.END_TURN) {
+					play(leading);
+				}
+				ShopPlanner.arrange(turnPlayer);
+			} else if (order != null) {
+				for (int i = 0; i < 7; i++) {
+					turnPlayer.setBattleField(i, null);
+				}
+				for (int i = 0; i < 7; i++) {
+					turnPlayer.setBattleField(i, order[i]);
+				}
+			}
+			player.takeTurn(turnPlayer);
+			turnPlayer = null;
+			opponent = null;
+			notifyAll();
+			return true;
+		}
+	}
+
+	/**
+	 * stops the background thread, a started turn isn't committed
+	 */
+	public void close() {
+		turn++;
+		synchronized (this) {
+			notifyAll();
+		}
+		thread.shutdown();
+	}
+
+	private void think(int id, int round, long deadlineNanos) {
+		for (int i = 0; i < MAX_ACTIONS; i++) {
+			// give every action that may still come an equal share of the time left
+			long until = System.nanoTime() + (deadlineNanos - System.nanoTime()) / (MAX_ACTIONS - i);
+			long[] votes = new long[BattlerEnv.BUY + 3];
+			do {
+				synchronized (this) {
+					if (turn != id) {
+						return;
+					}
+					ShopPlanner.Plan plan = planner.plan(turnPlayer, round);
+					votes[plan.getAction()] += Math.max(1, plan.getSamples());
+					leading = 0;
+					for (int a = 1; a < votes.length; a++) {
+						if (votes[a] > votes[leading]) {
+							leading = a;
+						}
+					}
+				}
+			} while (System.nanoTime() < until && turn == id);
+			synchronized (this) {
+				if (turn != id) {
+					return;
+				}
+				if (leading == BattlerEnv.END_TURN) {
+					break;
+				}
+				play(leading);
+				leading = -1;
+			}
+		}
+		synchronized (this) {
+			if (turn != id) {
+				return;
+			}
+			ShopPlanner.arrange(turnPlayer);
+			done = true;
+		}
+		Champion[] ordered = null;
+		while (optimizer != null) {
+			Champion[] field;
+			Champion[] lineup = new Champion[7];
+			Champion[] against;
+			synchronized (this) {
+				while (turn == id && opponent == ordered) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (turn != id) {
+					return;
+				}
+				against = opponent;
+				field = turnPlayer.getBattleField().clone();
+			}
+			// the optimizer gets copies, the champions go to the real player once committed
+			for (int i = 0; i < 7; i++) {
+				lineup[i] = field[i] == null ? null : field[i].copy();
+			}
+			Champion[] arranged = optimizer.optimize(lineup, List.<Champion[]>of(against)).getBattleField();
+			Champion[] found = new Champion[7];
+			for (int i = 0; i < 7; i++) {
+				for (int j = 0; j < 7 && arranged[i] != null; j++) {
+					if (lineup[j] == arranged[i]) {
+						found[i] = field[j];
+					}
+				}
+			}
+			synchronized (this) {
+				if (turn != id) {
+					return;
+				}
+				order = found;
+				ordered = against;
+			}
+		}
+	}
+
+	/**
+	 * plays an action on the copy, like BattlerEnv's shop actions
+	 */
+	private void play(int action) {
+		Player player = turnPlayer;
+		if (action == BattlerEnv.REROLL) {
+			if (player.getGold() > 0) {
+				player.spendGold(1);
+				GameMetrics.METRICS.reroll();
+				player.getShop().rerollShop(player.getLevel());
+			}
+		} else if (action == BattlerEnv.LEVEL_UP) {
+			model.playerLevelUp(player);
+		} else {
+			player.buyCharacter(action - BattlerEnv.BUY);
+		}
+	}
+}
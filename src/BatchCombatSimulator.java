@@ -0,0 +1,191 @@
+package src;
+
+/**
+ * Plays many independent fights at once using the same rules as CombatSimulator.
+ * Every running match gets a lane, and each step advances every lane by one attack.
+ * Since the lanes don't depend on each other the CPU can work on several of them at
+ * the same time, instead of waiting on one fight's chain of random pick, hp load and
+ * death check before it can start the next attack.
+ *
+ * A lane is stored as flat ints: 16 hp and 16 atk values (8 per side, slot 7 unused)
+ * and one bitmask of the living champions, p1 in bits 0-6 and p2 in bits 8-14. With the
+ * mask, the attacker is just the lowest set bit and the defender is the nth set bit,
+ * so no slots have to be scanned. Each lane has its own xorshift generator.
+ *
+ * Fights don't all take the same number of attacks, so as soon as a lane finishes it is
+ * loaded with the next match that hasn't been played yet.
+ *
+ * This class plays the lanes one after another. create() gives a VectorCombatSimulator
+ * instead when the JVM was started with --add-modules jdk.incubator.vector and the CPU
+ * has wide enough vectors, which plays the same lanes with the same results.
+ */
+public class BatchCombatSimulator {
+	private static final int P1_MASK = 0x7F;
+	private static final int P2_MASK = 0x7F00;
+
+	// the lane state is shared with VectorCombatSimulator, which keeps the same layout
+	final int lanes;
+	final int[] hp;
+	final int[] atk;
+	final int[] alive;
+	final int[] turn;
+	final int[] rng;
+	// which match each lane is playing, -1 if the lane is idle
+	final int[] match;
+
+	/**
+	 * creates a batch that plays the given number of matches side by side
+	 * @param lanes how many matches are played together
+	 */
+	public BatchCombatSimulator(int lanes) {
+		this.lanes = lanes;
+		hp = new int[lanes * 16];
+		atk = new int[lanes * 16];
+		alive = new int[lanes];
+		turn = new int[lanes];
+		rng = new int[lanes];
+		match = new int[lanes];
+	}
+
+	/**
+	 * Makes the fastest simulator this JVM can run, the vector one if the incubator
+	 * module is there and the CPU has at least 256 bit vectors, otherwise this one.
+	 * Either way the results are the same for the same seed.
+	 * @param lanes how many matches are played together, rounded up to a whole number
+	 *              of vectors for the vector simulator
+	 */
+	public static BatchCombatSimulator create(int lanes) {
+		if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			try {
+				// loaded by name so this class never links against the incubator module
+				Class<?> vector = Class.forName("src.VectorCombatSimulator");
+				Object sim = vector.getMethod("create", int.class).invoke(null, lanes);
+				if (sim != null) {
+					return (BatchCombatSimulator) sim;
+				}
+			} catch (ReflectiveOperationException | LinkageError e) {
+				// no usable vectors, the scalar loop below still works
+			}
+		}
+		return new BatchCombatSimulator(lanes);
+	}
+
+	/**
+	 * Plays every match to the end. The arrays are indexed by match, and each entry is
+	 * the hp or atk of a board (length 7). None of the arrays are changed.
+	 * @param seed seed for the random choices
+	 * @return for every match, 1 if p1 won, 2 if p2 won, 3 if everything is dead
+	 */
+	public int[] simulate(int[][] p1Hp, int[][] p1Atk, int[][] p2Hp, int[][] p2Atk, long seed) {
+		int matches = p1Hp.length;
+		int[] results = new int[matches];
+		int next = 0;
+		start(seed);
+		int running = lanes;
+		while (running > 0) {
+			running = 0;
+			for (int l = 0; l < lanes; l++) {
+				next = refill(l, next, results, p1Hp, p1Atk, p2Hp, p2Atk);
+				if (match[l] < 0) {
+					continue;
+				}
+				attack(l, alive[l]);
+				running++;
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * If the lane is done, records its result and loads the next match into it.
+	 * Afterwards the lane is either playing or idle with match -1.
+	 * @param next the next match that hasn't been loaded
+	 * @return the next match that hasn't been loaded after this lane is filled
+	 */
+	int refill(int l, int next, int[] results, int[][] p1Hp, int[][] p1Atk, int[][] p2Hp, int[][] p2Atk) {
+		int mask = alive[l];
+		while ((mask & P1_MASK) == 0 || (mask & P2_MASK) == 0) {
+			// the lane is done, record it and start the next match
+			if (match[l] >= 0) {
+				results[match[l]] = (mask & P1_MASK) != 0 ? 1 : (mask & P2_MASK) != 0 ? 2 : 3;
+				match[l] = -1;
+			}
+			if (next == p1Hp.length) {
+				break;
+			}
+			load(l, next, p1Hp[next], p1Atk[next], p2Hp[next], p2Atk[next]);
+			mask = alive[l];
+			next++;
+		}
+		return next;
+	}
+
+	/**
+	 * seeds every lane and marks them all idle
+	 */
+	void start(long seed) {
+		for (int l = 0; l < lanes; l++) {
+			// every lane gets its own non zero xorshift state
+			long mixed = (seed + l) * 0x9E3779B97F4A7C15L;
+			rng[l] = (int) (mixed ^ (mixed >>> 32)) | 1;
+			alive[l] = 0;
+			match[l] = -1;
+		}
+	}
+
+	void load(int lane, int matchIndex, int[] p1Hp, int[] p1Atk, int[] p2Hp, int[] p2Atk) {
+		int base = lane * 16;
+		int mask = 0;
+		for (int slot = 0; slot < 7; slot++) {
+			hp[base + slot] = p1Hp[slot];
+			atk[base + slot] = p1Atk[slot];
+			hp[base + 8 + slot] = p2Hp[slot];
+			atk[base + 8 + slot] = p2Atk[slot];
+			if (p1Hp[slot] > 0) {
+				mask |= 1 << slot;
+			}
+			if (p2Hp[slot] > 0) {
+				mask |= 1 << (8 + slot);
+			}
+		}
+		alive[lane] = mask;
+		turn[lane] = (rng[lane] >>> 7) & 1;
+		match[lane] = matchIndex;
+	}
+
+	/**
+	 * one attack in a lane where both sides are still alive
+	 */
+	private void attack(int lane, int mask) {
+		int x = rng[lane];
+		x ^= x << 13;
+		x ^= x >>> 17;
+		x ^= x << 5;
+		rng[lane] = x;
+
+		int attacking = turn[lane] == 0 ? mask & P1_MASK : mask & P2_MASK;
+		int defending = turn[lane] == 0 ? mask & P2_MASK : mask & P1_MASK;
+		// the attacker is the leftmost living champion
+		int attacker = Integer.numberOfTrailingZeros(attacking);
+		// the defender is the nth living champion on the other side, n picked at random
+		int pick = (int) (((x & 0xFFFFFFFFL) * Integer.bitCount(defending)) >>> 32);
+		for (int i = 0; i < pick; i++) {
+			defending &= defending - 1;
+		}
+		int defender = Integer.numberOfTrailingZeros(defending);
+
+		int base = lane * 16;
+		int attackerHp = Math.max(0, hp[base + attacker] - atk[base + defender]);
+		int defenderHp = Math.max(0, hp[base + defender] - atk[base + attacker]);
+		hp[base + attacker] = attackerHp;
+		hp[base + defender] = defenderHp;
+		if (attackerHp == 0) {
+			mask &= ~(1 << attacker);
+		}
+		if (defenderHp == 0) {
+			mask &= ~(1 << defender);
+		}
+		alive[lane] = mask;
+		turn[lane] ^= 1;
+	}
+}
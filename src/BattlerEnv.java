@@ -0,0 +1,257 @@
+package src;
+
+/**
+ * A reinforcement learning environment around AutoBattlerModel, in the usual
+ * reset / step / observe shape. The agent plays p1 against the built in AI (p2).
+ *
+ * Observations are written into a float array that is allocated once, as raw values
+ * laid out by the constants below. reset() reuses the model and players, and every
+ * shop action allocates nothing once the environment is warmed up: a reroll shows
+ * champions the shop already made and nobody bought, and the player's copy index keeps
+ * an entry for every champion bought in an earlier game. END_TURN is left out, it plays
+ * the AI's turn and the fight, which drop items and count traits. Every champion slot
+ * is its id (position in Shop.getChampionNames() plus one, 0 for empty), upgrade level,
+ * hp and atk.
+ *
+ * Actions are ints from 0 to ACTIONS - 1:
+ * - END_TURN     fight the round and start the next shop phase
+ * - REROLL, LEVEL_UP
+ * - BUY + i              buy shop slot i (0-2)
+ * - SELL_BENCH + i       sell bench slot i (0-6)
+ * - SELL_BATTLEFIELD + i sell battlefield slot i (0-6)
+ * - PLACE + i * 7 + j    move bench slot i to battlefield slot j, swapping if taken
+ * An action that can't be done costs INVALID_PENALTY and changes nothing. The turn
+ * ends on its own after MAX_SHOP_ACTIONS so an agent can't stall forever.
+ *
+ * The reward for a round is the health the opponent lost minus the health p1 lost,
+ * and the game ends with +1 for a win or -1 for a loss.
+ */
+public class BattlerEnv {
+	public static final int END_TURN = 0;
+	public static final int REROLL = 1;
+	public static final int LEVEL_UP = 2;
+	public static final int BUY = 3;
+	public static final int SELL_BENCH = BUY + 3;
+	public static final int SELL_BATTLEFIELD = SELL_BENCH + 7;
+	public static final int PLACE = SELL_BATTLEFIELD + 7;
+	public static final int ACTIONS = PLACE + 49;
+
+	// observation layout
+	public static final int GOLD = 0;
+	public static final int LEVEL = 1;
+	public static final int HEALTH = 2;
+	public static final int OPPONENT_HEALTH = 3;
+	public static final int ROUND = 4;
+	public static final int SLOT_FEATURES = 4;
+	public static final int BATTLEFIELD = 5;
+	public static final int BENCH = BATTLEFIELD + 7 * SLOT_FEATURES;
+	// shop slots are id and stars
+	public static final int SHOP = BENCH + 7 * SLOT_FEATURES;
+	public static final int ITEMS = SHOP + 3 * 2;
+	public static final int OBS_SIZE = ITEMS + 6;
+
+	public static final float INVALID_PENALTY = 0.01f;
+	public static final int MAX_SHOP_ACTIONS = 32;
+	// rounds before a game is called off as a draw
+	public static final int MAX_ROUNDS = 60;
+
+	private final float[] obs;
+	private final int offset;
+	// scratch for moveChampion, so a step doesn't allocate
+	private final int[] origin;
+	private final int[] destination;
+	private AutoBattlerModel model;
+	private AutoBattlerController controller;
+	private TelemetryWriter telemetry;
+	private int shopActions;
+	private boolean done;
+
+	/**
+	 * An environment writing its observations into part of a shared array, used by
+	 * VectorBattlerEnv.
+	 * @param obs    where observations go
+	 * @param offset where this environment's OBS_SIZE floats start
+	 */
+	public BattlerEnv(float[] obs, int offset) {
+		this.obs = obs;
+		this.offset = offset;
+		origin = new int[2];
+		destination = new int[2];
+		reset();
+	}
+
+	public BattlerEnv() {
+		this(new float[OBS_SIZE], 0);
+	}
+
+	/**
+	 * Starts a new game and writes its first observation. The model is made once and
+	 * reused for every game.
+	 */
+	public void reset() {
+		if (model == null) {
+			model = new AutoBattlerModel();
+			model.setTelemetry(telemetry);
+			controller = new AutoBattlerController(model);
+		} else {
+			model.newGame();
+		}
+		controller.startShopPhase();
+		shopActions = 0;
+		done = false;
+		observe();
+	}
+
+	/**
+	 * Plays one action and writes the new observation.
+	 * @param action the action, see the class comment
+	 * @return the reward for it
+	 */
+	public float step(int action) {
+		if (done) {
+			throw new IllegalStateException("game is over, call reset()");
+		}
+		float reward;
+		if (action == END_TURN || shopActions >= MAX_SHOP_ACTIONS) {
+			reward = endTurn();
+		} else {
+			shopActions++;
+			reward = shopAction(action) ? 0 : -INVALID_PENALTY;
+		}
+		observe();
+		return reward;
+	}
+
+	/**
+	 * @return true once the game is over, step() can't be called until reset()
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return the array the observation is written to, starting at getOffset()
+	 */
+	public float[] getObservation() {
+		return obs;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Records every round this environment plays, in this game and the next ones.
+	 * @param telemetry where to record, null to stop
+	 */
+	public void setTelemetry(TelemetryWriter telemetry) {
+		this.telemetry = telemetry;
+		model.setTelemetry(telemetry);
+	}
+
+	/**
+	 * @return the model being played, for inspecting the game
+	 */
+	public AutoBattlerModel getModel() {
+		return model;
+	}
+
+	private float endTurn() {
+		Player p1 = model.getP1();
+		Player p2 = model.getP2();
+		int health = p1.getHealth();
+		int opponentHealth = p2.getHealth();
+		controller.AIturn();
+		controller.giveTraitBonuses();
+		controller.startAttackPhase();
+		controller.startShopPhase();
+		shopActions = 0;
+		float reward = (opponentHealth - p2.getHealth()) - (health - p1.getHealth());
+		if (controller.isGameOver()) {
+			done = true;
+			reward += p1.getHealth() > 0 ? 1 : -1;
+		} else if (model.getRound() >= MAX_ROUNDS) {
+			done = true;
+		}
+		return reward;
+	}
+
+	/**
+	 * @return false if the action couldn't be done
+	 */
+	private boolean shopAction(int action) {
+		Player p1 = model.getP1();
+		if (action == REROLL) {
+			if (p1.getGold() < 1) {
+				return false;
+			}
+			model.rerollShop(p1);
+			return true;
+		}
+		if (action == LEVEL_UP) {
+			int level = p1.getLevel();
+			model.playerLevelUp(p1);
+			return p1.getLevel() != level;
+		}
+		if (action < SELL_BENCH) {
+			int gold = p1.getGold();
+			p1.buyCharacter(action - BUY);
+			return p1.getGold() != gold;
+		}
+		if (action < PLACE) {
+			int area = action < SELL_BATTLEFIELD ? 0 : 1;
+			int index = action - (area == 0 ? SELL_BENCH : SELL_BATTLEFIELD);
+			if ((area == 0 ? p1.getBench() : p1.getBattleField())[index] == null) {
+				return false;
+			}
+			model.sellChampion(p1, area, index);
+			return true;
+		}
+		if (action < ACTIONS) {
+			origin[0] = 0;
+			origin[1] = (action - PLACE) / 7;
+			destination[0] = 1;
+			destination[1] = (action - PLACE) % 7;
+			return model.moveChampion(origin, 1, destination);
+		}
+		return false;
+	}
+
+	private void observe() {
+		Player p1 = model.getP1();
+		obs[offset + GOLD] = p1.getGold();
+		obs[offset + LEVEL] = p1.getLevel();
+		obs[offset + HEALTH] = p1.getHealth();
+		obs[offset + OPPONENT_HEALTH] = model.getP2().getHealth();
+		obs[offset + ROUND] = model.getRound();
+		Champion[] battleField = p1.getBattleField();
+		Champion[] bench = p1.getBench();
+		for (int i = 0; i < 7; i++) {
+			writeSlot(battleField[i], offset + BATTLEFIELD + i * SLOT_FEATURES);
+			writeSlot(bench[i], offset + BENCH + i * SLOT_FEATURES);
+		}
+		Champion[] shop = p1.getShop().getShop();
+		for (int i = 0; i < 3; i++) {
+			obs[offset + SHOP + i * 2] = GameProtocol.championCode(shop[i]) & 0xFF;
+			obs[offset + SHOP + i * 2 + 1] = shop[i] == null ? 0 : shop[i].getStars();
+		}
+		Item[] items = p1.getItems();
+		for (int i = 0; i < 6; i++) {
+			obs[offset + ITEMS + i] = items[i] == null ? 0 : items[i].getRarity();
+		}
+	}
+
+	private void writeSlot(Champion champ, int at) {
+		if (champ == null) {
+			obs[at] = 0;
+			obs[at + 1] = 0;
+			obs[at + 2] = 0;
+			obs[at + 3] = 0;
+		} else {
+			obs[at] = GameProtocol.championCode(champ) & 0xFF;
+			obs[at + 1] = champ.getUpgradeLevel();
+			obs[at + 2] = champ.getHp();
+			obs[at + 3] = champ.getAtk();
+		}
+	}
+}
@@ -0,0 +1,353 @@
+package src;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Headless benchmarks for the simulation code. Run with the name of the benchmark
+ * as the first argument, with no arguments every benchmark is run.
+ */
+public class Benchmark {
+
+	public static void main(String[] args) {
+		String which = args.length > 0 ? args[0] : "all";
+		if (which.equals("solver") || which.equals("all")) {
+			solver();
+		}
+		if (which.equals("batch") || which.equals("all")) {
+			batch();
+		}
+		if (which.equals("engine") || which.equals("all")) {
+			engine();
+		}
+		if (which.equals("env") || which.equals("all")) {
+			env();
+		}
+		if (which.equals("telemetry") || which.equals("all")) {
+			telemetry();
+		}
+		if (which.equals("planner") || which.equals("all")) {
+			planner();
+		}
+		if (which.equals("metrics")) {
+			metrics();
+		}
+	}
+
+	/**
+	 * a battlefield of 7 random champions from every tier of the shop
+	 */
+	static Champion[] randomBoard(Random rng) {
+		Champion[] board = new Champion[7];
+		for (int i = 0; i < 7; i++) {
+			Champion[] roster = {
+					new Sucrose(), new QiQi(), new Lisa(), new Noelle(), new Barbara(), new Amber(),
+					new Jean(), new Ayaka(), new Beidou(), new Ningguang(), new Kokomi(), new Xiangling(),
+					new Xiao(), new Ganyu(), new Keqing(), new Zhongli(), new Mona(), new Hutao() };
+			board[i] = roster[rng.nextInt(roster.length)];
+		}
+		return board;
+	}
+
+	/**
+	 * Fights per second on one thread, playing the same random 7v7 matchups one at a
+	 * time with CombatSimulator and all together with BatchCombatSimulator, and with
+	 * VectorCombatSimulator when the JVM was started with --add-modules
+	 * jdk.incubator.vector.
+	 */
+	private static void batch() {
+		int matches = 4096;
+		Random rng = new Random(2);
+		int[][] hp1 = new int[matches][];
+		int[][] atk1 = new int[matches][];
+		int[][] hp2 = new int[matches][];
+		int[][] atk2 = new int[matches][];
+		for (int m = 0; m < matches; m++) {
+			Champion[] a = randomBoard(rng);
+			Champion[] b = randomBoard(rng);
+			hp1[m] = CombatSimulator.hpOf(a);
+			atk1[m] = CombatSimulator.atkOf(a);
+			hp2[m] = CombatSimulator.hpOf(b);
+			atk2[m] = CombatSimulator.atkOf(b);
+		}
+
+		int[] h1 = new int[7];
+		int[] h2 = new int[7];
+		long p1Wins = 0;
+		long fights = 0;
+		long start = System.nanoTime();
+		long end = start + 3_000_000_000L;
+		while (System.nanoTime() < end) {
+			for (int m = 0; m < matches; m++) {
+				System.arraycopy(hp1[m], 0, h1, 0, 7);
+				System.arraycopy(hp2[m], 0, h2, 0, 7);
+				if (CombatSimulator.fight(h1, atk1[m], h2, atk2[m], rng) == 1) {
+					p1Wins++;
+				}
+			}
+			fights += matches;
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("scalar: %.0f fights/s per core (p1 won %.3f)%n",
+				fights / seconds, p1Wins / (double) fights);
+
+		batch("batch: ", new BatchCombatSimulator(64), hp1, atk1, hp2, atk2);
+		BatchCombatSimulator vector = BatchCombatSimulator.create(64);
+		if (vector instanceof VectorCombatSimulator) {
+			batch("vector:", vector, hp1, atk1, hp2, atk2);
+		} else {
+			System.out.println("vector: not available, needs --add-modules jdk.incubator.vector and 256 bit vectors");
+		}
+	}
+
+	private static void batch(String name, BatchCombatSimulator batch, int[][] hp1, int[][] atk1,
+			int[][] hp2, int[][] atk2) {
+		int matches = hp1.length;
+		long p1Wins = 0;
+		long fights = 0;
+		long seed = 0;
+		long start = System.nanoTime();
+		long end = start + 3_000_000_000L;
+		while (System.nanoTime() < end) {
+			int[] results = batch.simulate(hp1, atk1, hp2, atk2, seed++);
+			for (int m = 0; m < matches; m++) {
+				if (results[m] == 1) {
+					p1Wins++;
+				}
+			}
+			fights += matches;
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%s %.0f fights/s per core (p1 won %.3f)%n",
+				name, fights / seconds, p1Wins / (double) fights);
+	}
+
+	/**
+	 * Fights per second and bytes allocated per fight for the CombatEngine, on the same
+	 * random matchups as the batch benchmark plays with CombatSimulator.
+	 */
+	private static void engine() {
+		int matches = 4096;
+		Random rng = new Random(2);
+		Champion[][] p1 = new Champion[matches][];
+		Champion[][] p2 = new Champion[matches][];
+		for (int m = 0; m < matches; m++) {
+			p1[m] = randomBoard(rng);
+			p2[m] = randomBoard(rng);
+		}
+		CombatEngine engine = new CombatEngine();
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		long p1Wins = 0;
+		long fights = 0;
+		long actions = 0;
+		long bytes = 0;
+		long start = System.nanoTime();
+		long end = start + 3_000_000_000L;
+		while (System.nanoTime() < end) {
+			for (int m = 0; m < matches; m++) {
+				engine.load(p1[m], p2[m]);
+				// only the fights are measured, not loading the boards
+				long before = threads.getThreadAllocatedBytes(thread);
+				for (int n = 0; n < 16; n++) {
+					if (engine.fight(rng) == 1) {
+						p1Wins++;
+					}
+					actions += engine.getActions();
+				}
+				bytes += threads.getThreadAllocatedBytes(thread) - before;
+			}
+			fights += matches * 16;
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("engine: %.0f fights/s per core, %.1f actions/fight, %.2f bytes/fight (p1 won %.3f)%n",
+				fights / seconds, actions / (double) fights, bytes / (double) fights, p1Wins / (double) fights);
+	}
+
+	/**
+	 * Compares the exact solver against sampling fights until the sampled win rate
+	 * is as accurate as 0.001 (one standard error).
+	 */
+	private static void solver() {
+		Champion[][] boards = {
+				{ new Zhongli(), new Ningguang(), new Mona(), new Xiao(), new Jean(), new Noelle(), new Kokomi() },
+				{ new Ningguang(), new Zhongli(), new Ayaka(), new Jean(), new Mona(), new Ganyu(), new Xiangling() },
+				{ new Sucrose(), new QiQi(), new Lisa(), new Noelle(), new Barbara(), new Amber(), new Beidou() },
+				{ new Keqing(), new Hutao(), new Ganyu(), new Xiao(), new Mona(), new Zhongli(), new Beidou() },
+		};
+		Random rng = new Random(1);
+		for (int a = 0; a < boards.length; a++) {
+			for (int b = a + 1; b < boards.length; b++) {
+				long start = System.nanoTime();
+				MatchupOdds odds = CombatSolver.solve(boards[a], boards[b]);
+				long solveNanos = System.nanoTime() - start;
+				if (odds == null) {
+					System.out.printf("board %d vs %d: more than %d states, gave up in %.1f ms%n",
+							a, b, CombatSolver.DEFAULT_MAX_STATES, solveNanos / 1e6);
+					continue;
+				}
+
+				double p = odds.getP1Win();
+				// samples needed so that sqrt(p(1-p)/n) <= 0.001
+				int samples = (int) Math.max(1000, Math.ceil(p * (1 - p) / 1e-6));
+				start = System.nanoTime();
+				int[] sampled = CombatSimulator.simulate(boards[a], boards[b], samples, rng);
+				long sampleNanos = System.nanoTime() - start;
+
+				System.out.printf("board %d vs %d: exact %s (%d states) in %.1f ms%n",
+						a, b, odds, odds.getStatesSolved(), solveNanos / 1e6);
+				System.out.printf("    sampled p1 %.4f over %d fights in %.1f ms%n",
+						sampled[0] / (double) samples, samples, sampleNanos / 1e6);
+			}
+		}
+	}
+
+	/**
+	 * Environment steps per second with random actions, biased towards buying and
+	 * placing so games look somewhat like real ones.
+	 */
+	private static void env() {
+		int threads = Runtime.getRuntime().availableProcessors();
+		try (VectorBattlerEnv envs = new VectorBattlerEnv(256, threads)) {
+			Random rng = new Random(3);
+			int[] actions = new int[envs.size()];
+			long steps = 0;
+			long games = 0;
+			long start = System.nanoTime();
+			long end = start + 3_000_000_000L;
+			while (System.nanoTime() < end) {
+				for (int i = 0; i < actions.length; i++) {
+					int roll = rng.nextInt(10);
+					actions[i] = roll == 0 ? BattlerEnv.END_TURN
+							: roll < 4 ? BattlerEnv.BUY + rng.nextInt(3)
+							: roll < 8 ? BattlerEnv.PLACE + rng.nextInt(49)
+							: rng.nextInt(BattlerEnv.ACTIONS);
+				}
+				envs.step(actions);
+				for (boolean done : envs.getDones()) {
+					if (done) {
+						games++;
+					}
+				}
+				steps += actions.length;
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("env: %.0f steps/s on %d threads, %d games finished%n",
+					steps / seconds, threads, games);
+		}
+	}
+
+	/**
+	 * The env benchmark with the game metrics over JMX and printed every second.
+	 */
+	private static void metrics() {
+		GameMetrics.register();
+		GameMetrics.METRICS.reset();
+		ScheduledFuture<?> snapshots = GameMetrics.startSnapshots(1000, System.out::println);
+		env();
+		snapshots.cancel(false);
+		System.out.println(GameMetrics.METRICS.getSummary());
+	}
+
+	/**
+	 * Rounds per second played with and without recording telemetry, then a query
+	 * over what was recorded.
+	 */
+	private static void telemetry() {
+		try {
+			Path file = Files.createTempFile("telemetry", ".dat");
+			try {
+				// the first run only warms up the JIT
+				roundsPerSecond(null);
+				double without = roundsPerSecond(null);
+				double with;
+				try (TelemetryWriter telemetry = TelemetryWriter.create(file)) {
+					with = roundsPerSecond(telemetry);
+				}
+				System.out.printf("telemetry: %.0f rounds/s without, %.0f rounds/s with, %d bytes%n",
+						without, with, Files.size(file));
+				try (TelemetryQuery query = TelemetryQuery.open(file)) {
+					long start = System.nanoTime();
+					TelemetryQuery.Result result = query.where("level", TelemetryQuery.GE, 2)
+							.groupBy("cryo").mean("won");
+					System.out.printf("  win rate by Cryo units at level 2+ (%d rows, %.1f ms):%n",
+							query.size(), (System.nanoTime() - start) / 1e6);
+					for (int cryo : result.getGroups()) {
+						System.out.printf("  %d: %.3f over %d rows%n", cryo, result.getMean(cryo),
+								result.getCount(cryo));
+					}
+				}
+			} finally {
+				Files.delete(file);
+			}
+		} catch (IOException e) {
+			System.err.println("telemetry benchmark failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Search speed of ShopPlanner at the start of a game, then games of the planner
+	 * against the built in AI. Both sides use their items the same way, with
+	 * ItemAssigner, and the win rate is printed with a 95% interval.
+	 */
+	private static void planner() {
+		ShopPlanner planner = new ShopPlanner(3, 16, 100_000_000L);
+		// the first plans only warm up the JIT
+		for (int i = 0; i < 10; i++) {
+			planner.plan(new Player(), 0);
+		}
+		System.out.println("planner: " + planner.plan(new Player(), 0));
+		int wins = 0;
+		int games = 200;
+		for (int g = 0; g < games; g++) {
+			AutoBattlerModel model = new AutoBattlerModel();
+			AutoBattlerController controller = new AutoBattlerController(model);
+			// weaker than the GUI's planner, which gets 10 ms a call in the background
+			ShopPlanner fast = new ShopPlanner(3, 8, 5_000_000L);
+			controller.startShopPhase();
+			while (!controller.isGameOver() && model.getRound() < BattlerEnv.MAX_ROUNDS) {
+				fast.playTurn(model, model.getP1());
+				ItemAssigner.apply(model.getP1(), model.getP2().getBattleField());
+				controller.AIturn();
+				controller.giveTraitBonuses();
+				controller.startAttackPhase();
+				controller.startShopPhase();
+			}
+			if (model.getP1().getHealth() > model.getP2().getHealth()) {
+				wins++;
+			}
+		}
+		double rate = wins / (double) games;
+		double margin = 1.96 * Math.sqrt(rate * (1 - rate) / games);
+		System.out.printf("  planner won %d of %d games against the built in AI, %.1f%% +- %.1f%%%n", wins, games,
+				100 * rate, 100 * margin);
+	}
+
+	private static double roundsPerSecond(TelemetryWriter telemetry) {
+		BattlerEnv env = new BattlerEnv();
+		env.setTelemetry(telemetry);
+		Random rng = new Random(4);
+		long rounds = 0;
+		long start = System.nanoTime();
+		long end = start + 3_000_000_000L;
+		while (System.nanoTime() < end) {
+			int roll = rng.nextInt(4);
+			int action = roll == 0 ? BattlerEnv.END_TURN
+					: roll == 1 ? BattlerEnv.BUY + rng.nextInt(3)
+					: roll == 2 ? BattlerEnv.PLACE + rng.nextInt(49)
+					: BattlerEnv.LEVEL_UP;
+			env.step(action);
+			if (action == BattlerEnv.END_TURN) {
+				rounds++;
+			}
+			if (env.isDone()) {
+				env.reset();
+			}
+		}
+		return rounds / ((System.nanoTime() - start) / 1e9);
+	}
+}
@@ -0,0 +1,127 @@
+package src;
+
+/**
+ * Where everything of one board goes when it's drawn on a canvas, and which slot a
+ * click lands on. A board is four rows of slots like the node view's: the opponent's
+ * battlefield, the shop, the player's battlefield and the bench, scaled as a whole so
+ * several boards fit on one canvas.
+ */
+public class BoardLayout {
+	public static final int OPPONENT = 0;
+	public static final int SHOP = 1;
+	public static final int FIELD = 2;
+	public static final int BENCH = 3;
+	public static final int ROWS = 4;
+	// sizes at scale 1, the same as the node view's cards
+	public static final double SLOT = 125;
+	public static final double GAP = 8;
+	public static final double ROW_GAP = 16;
+	private static final int[] SLOTS = { 7, 3, 7, 7 };
+
+	private final double x;
+	private final double y;
+	private final double scale;
+
+	/**
+	 * @param x     left edge of the board on the canvas
+	 * @param y     top edge of the board on the canvas
+	 * @param scale size compared to the node view
+	 */
+	public BoardLayout(double x, double y, double scale) {
+		this.x = x;
+		this.y = y;
+		this.scale = scale;
+	}
+
+	/**
+	 * Lays out boards in a grid as big as fits in the canvas.
+	 * @param boards how many boards
+	 * @param width  width of the canvas
+	 * @param height height of the canvas
+	 * @return the boards from left to right, then top to bottom
+	 */
+	public static BoardLayout[] grid(int boards, double width, double height) {
+		// the column count that lets the boards be biggest
+		double best = 0;
+		int bestColumns = 1;
+		for (int columns = 1; columns <= boards; columns++) {
+			int rows = (boards + columns - 1) / columns;
+			double scale = Math.min(width / (columns * boardWidth()), height / (rows * boardHeight()));
+			if (scale > best) {
+				best = scale;
+				bestColumns = columns;
+			}
+		}
+		BoardLayout[] layouts = new BoardLayout[boards];
+		for (int i = 0; i < boards; i++) {
+			layouts[i] = new BoardLayout(i % bestColumns * boardWidth() * best, i / bestColumns * boardHeight() * best,
+					best);
+		}
+		return layouts;
+	}
+
+	/**
+	 * @return how many slots a row has
+	 */
+	public static int slots(int row) {
+		return SLOTS[row];
+	}
+
+	public double getX() { return x; }
+
+	public double getY() { return y; }
+
+	public double getScale() { return scale; }
+
+	public double getWidth() { return boardWidth() * scale; }
+
+	public double getHeight() { return boardHeight() * scale; }
+
+	/**
+	 * @return the side of a slot on the canvas
+	 */
+	public double slotSize() {
+		return SLOT * scale;
+	}
+
+	/**
+	 * @return left edge of a slot on the canvas
+	 */
+	public double slotX(int index) {
+		return x + index * (SLOT + GAP) * scale;
+	}
+
+	/**
+	 * @return top edge of a row on the canvas
+	 */
+	public double rowY(int row) {
+		return y + row * (SLOT + ROW_GAP) * scale;
+	}
+
+	/**
+	 * Finds the slot a point on the canvas is in, what findChild() does for the node view.
+	 * @return {row, index}, null if the point is between slots or off the board
+	 */
+	public int[] hitTest(double px, double py) {
+		double col = (px - x) / ((SLOT + GAP) * scale);
+		double row = (py - y) / ((SLOT + ROW_GAP) * scale);
+		if (col < 0 || row < 0 || row >= ROWS) {
+			return null;
+		}
+		int index = (int) col;
+		int r = (int) row;
+		// in the gap after the slot
+		if (index >= SLOTS[r] || px - slotX(index) > slotSize() || py - rowY(r) > slotSize()) {
+			return null;
+		}
+		return new int[] { r, index };
+	}
+
+	private static double boardWidth() {
+		return 7 * SLOT + 7 * GAP;
+	}
+
+	private static double boardHeight() {
+		return ROWS * (SLOT + ROW_GAP);
+	}
+}
@@ -0,0 +1,406 @@
+package src;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Random;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Application;
+import javafx.geometry.VPos;
+import javafx.scene.Scene;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.image.WritableImage;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.FontWeight;
+import javafx.scene.text.TextAlignment;
+import javafx.stage.Stage;
+
+/**
+ * Draws boards on one Canvas instead of building nodes for every slot and card. Each
+ * board is drawn where its BoardLayout says, from player 1's side: the opponent's
+ * battlefield, player 1's shop, battlefield and bench.
+ *
+ * Every card is drawn once per champion and upgrade level into a sprite, so a frame
+ * is a fill and a drawImage per slot with the hp and atk written on top. A board is
+ * only drawn again when its model changed or it has something animating, in an
+ * AnimationTimer on the FX thread, so the models have to be changed on the FX thread.
+ *
+ * The model sends a CombatEvent to its observers for every attack, all at once since
+ * the attack phase runs in one go. They're queued and played back one every STEP: the
+ * two champions flash red, the damage floats up from them and the ones that died fade
+ * out. While a fight plays back, the battlefields show the hp from the events rather
+ * than the model's, which is already reset by then. A new fight cuts short one that's
+ * still playing back.
+ */
+public class CanvasBoardRenderer {
+	// time between attacks played back, and how long each effect lasts
+	private static final long STEP = 180_000_000L;
+	private static final long HIT = 200_000_000L;
+	private static final long DEATH = 450_000_000L;
+	private static final long DAMAGE = 700_000_000L;
+
+	private final Canvas canvas;
+	private final GraphicsContext g;
+	private final List<Board> boards;
+	// a card for every champion name and upgrade level, drawn at scale 1
+	private final HashMap<String, Image> sprites;
+	private final Image baseCard;
+	private final AnimationTimer timer;
+	private long frames;
+	private long fpsFrom;
+	private double fps;
+
+	/**
+	 * Makes the canvas and starts drawing.
+	 * @param width  width of the canvas
+	 * @param height height of the canvas
+	 */
+	public CanvasBoardRenderer(double width, double height) {
+		canvas = new Canvas(width, height);
+		g = canvas.getGraphicsContext2D();
+		boards = new ArrayList<>();
+		sprites = new HashMap<>();
+		baseCard = new Image("baseCard.png");
+		timer = new AnimationTimer() {
+			@Override
+			public void handle(long now) {
+				frame(now);
+			}
+		};
+		timer.start();
+	}
+
+	public Canvas getCanvas() {
+		return canvas;
+	}
+
+	/**
+	 * Starts drawing a game.
+	 * @param model  the game, watched until stop()
+	 * @param layout where to draw it
+	 * @return the board's number, for setSelected()
+	 */
+	public int addBoard(AutoBattlerModel model, BoardLayout layout) {
+		Board board = new Board(model, layout);
+		model.addObserver(board);
+		boards.add(board);
+		return boards.size() - 1;
+	}
+
+	/**
+	 * Outlines a slot, like a card picked to be moved.
+	 * @param slot {row, index} as BoardLayout.hitTest() gives, null for none
+	 */
+	public void setSelected(int board, int[] slot) {
+		boards.get(board).selected = slot;
+		boards.get(board).dirty = true;
+	}
+
+	/**
+	 * @return frames drawn a second, over the last second
+	 */
+	public double getFps() {
+		return fps;
+	}
+
+	/**
+	 * stops drawing and watching the models
+	 */
+	public void stop() {
+		timer.stop();
+		for (Board board : boards) {
+			board.model.deleteObserver(board);
+		}
+	}
+
+	private void frame(long now) {
+		frames++;
+		if (now - fpsFrom >= 1_000_000_000L) {
+			fps = frames * 1e9 / (now - fpsFrom);
+			frames = 0;
+			fpsFrom = now;
+		}
+		for (Board board : boards) {
+			board.step(now);
+			if (board.dirty || !board.effects.isEmpty()) {
+				board.dirty = false;
+				draw(board, now);
+			}
+			board.effects.removeIf(effect -> effect.progress(now) >= 1);
+		}
+	}
+
+	private void draw(Board board, long now) {
+		BoardLayout layout = board.layout;
+		double size = layout.slotSize();
+		g.clearRect(layout.getX(), layout.getY(), layout.getWidth(), layout.getHeight());
+		g.setFont(board.font);
+		g.setTextAlign(TextAlignment.CENTER);
+		g.setTextBaseline(VPos.CENTER);
+		Player p1 = board.model.getP1();
+		Player p2 = board.model.getP2();
+		Champion[][] rows = { p2.getBattleField(), p1.getShop().getShop(), p1.getBattleField(), p1.getBench() };
+		for (int row = 0; row < BoardLayout.ROWS; row++) {
+			double y = layout.rowY(row);
+			for (int index = 0; index < BoardLayout.slots(row); index++) {
+				double x = layout.slotX(index);
+				g.setFill(Color.SADDLEBROWN);
+				g.fillRect(x, y, size, size);
+				Champion champ = index < rows[row].length ? rows[row][index] : null;
+				if (champ == null) {
+					continue;
+				}
+				int player = row == BoardLayout.OPPONENT ? 2 : row == BoardLayout.FIELD ? 1 : 0;
+				int hp = player > 0 && board.shownHp != null ? board.shownHp[player][index] : champ.getHp();
+				double alpha = 1;
+				double hit = 0;
+				for (Effect effect : board.effects) {
+					if (effect.row == row && effect.slot == index) {
+						if (effect.kind == DEATH) {
+							alpha = 1 - effect.progress(now);
+						} else if (effect.kind == HIT) {
+							hit = 1 - effect.progress(now);
+						}
+					}
+				}
+				if (hp <= 0 && alpha == 1 && board.shownHp != null && player > 0) {
+					// died earlier in the fight being played back
+					continue;
+				}
+				g.setGlobalAlpha(Math.max(0, alpha));
+				g.drawImage(sprite(champ), x, y, size, size);
+				g.setFill(Color.BLACK);
+				g.fillText(Integer.toString(Math.max(0, hp)), x + size * 0.3, y + size * 0.82);
+				g.fillText(Integer.toString(champ.getAtk()), x + size * 0.7, y + size * 0.82);
+				if (hit > 0) {
+					g.setFill(Color.rgb(255, 0, 0, 0.5 * hit));
+					g.fillRect(x, y, size, size);
+				}
+				g.setGlobalAlpha(1);
+			}
+		}
+		if (board.selected != null) {
+			g.setStroke(Color.GOLD);
+			g.setLineWidth(Math.max(1, 4 * layout.getScale()));
+			g.strokeRect(layout.slotX(board.selected[1]), layout.rowY(board.selected[0]), size, size);
+		}
+		for (Effect effect : board.effects) {
+			if (effect.kind == DAMAGE) {
+				double progress = effect.progress(now);
+				g.setGlobalAlpha(Math.max(0, 1 - progress));
+				g.setFill(Color.RED);
+				g.fillText("-" + effect.amount, layout.slotX(effect.slot) + size / 2,
+						layout.rowY(effect.row) + size * (0.45 - 0.35 * progress));
+				g.setGlobalAlpha(1);
+			}
+		}
+	}
+
+	/**
+	 * the card of a champion without its hp and atk, drawn the first time it's needed
+	 */
+	private Image sprite(Champion champ) {
+		String key = champ.getName() + "+" + champ.getUpgradeLevel();
+		Image sprite = sprites.get(key);
+		if (sprite != null) {
+			return sprite;
+		}
+		double side = BoardLayout.SLOT;
+		Canvas card = new Canvas(side, side);
+		GraphicsContext c = card.getGraphicsContext2D();
+		double cardWidth = baseCard.getWidth() * side / baseCard.getHeight();
+		c.drawImage(baseCard, (side - cardWidth) / 2, 0, cardWidth, side);
+		String name = champ.getName();
+		Image portrait = new Image(name + ".png");
+		// the same sizes as the node view's cards
+		double height = name.equalsIgnoreCase("kokomi") || name.equalsIgnoreCase("amber")
+				|| name.equalsIgnoreCase("ningguang") || name.equalsIgnoreCase("ayaka") ? 50 : 75;
+		double width = portrait.getWidth() * height / portrait.getHeight();
+		c.drawImage(portrait, (side - width) / 2, (side - height) / 2, width, height);
+		c.setFill(Color.BLACK);
+		c.setTextAlign(TextAlignment.CENTER);
+		c.setTextBaseline(VPos.CENTER);
+		c.fillText(champ.getUpgradeLevel() > 1 ? name + " +" + (champ.getUpgradeLevel() - 1) : name, side / 2,
+				side * 0.12);
+		c.setFill(Color.GOLDENROD);
+		c.fillText(champ.getStars() + "g", side * 0.15, side * 0.12);
+		SnapshotParameters parameters = new SnapshotParameters();
+		parameters.setFill(Color.TRANSPARENT);
+		sprite = card.snapshot(parameters, new WritableImage((int) side, (int) side));
+		sprites.put(key, sprite);
+		return sprite;
+	}
+
+	/**
+	 * one game being drawn, and the fight it's playing back
+	 */
+	private class Board implements Observer {
+		private final AutoBattlerModel model;
+		private final BoardLayout layout;
+		private final Font font;
+		private final ArrayDeque<CombatEvent> attacks;
+		private final List<Effect> effects;
+		// hp of each player's battlefield while a fight plays back, by player 1 and 2
+		private int[][] shownHp;
+		private int round;
+		private long nextStep;
+		private int[] selected;
+		private boolean dirty;
+
+		Board(AutoBattlerModel model, BoardLayout layout) {
+			this.model = model;
+			this.layout = layout;
+			font = Font.font("System", FontWeight.BOLD, Math.max(6, 16 * layout.getScale()));
+			attacks = new ArrayDeque<>();
+			effects = new ArrayList<>();
+			dirty = true;
+		}
+
+		@Override
+		public void update(Observable o, Object arg) {
+			dirty = true;
+			if (!(arg instanceof CombatEvent)) {
+				return;
+			}
+			CombatEvent attack = (CombatEvent) arg;
+			if (shownHp == null || attack.getRound() != round) {
+				// the first attack of a fight, only its two champions have been hit yet.
+				// A fight still playing back is cut short
+				attacks.clear();
+				effects.clear();
+				round = attack.getRound();
+				shownHp = new int[3][];
+				shownHp[1] = CombatSimulator.hpOf(model.getP1().getBattleField());
+				shownHp[2] = CombatSimulator.hpOf(model.getP2().getBattleField());
+				shownHp[attack.getAttacker()][attack.getAttackerSlot()] = attack.getAttackerHp()
+						+ attack.getAttackerDamage();
+				shownHp[attack.getDefender()][attack.getDefenderSlot()] = attack.getDefenderHp()
+						+ attack.getDefenderDamage();
+			}
+			attacks.add(attack);
+		}
+
+		/**
+		 * plays the next attack if it's time, and goes back to the model once it's over
+		 */
+		void step(long now) {
+			if (now < nextStep) {
+				return;
+			}
+			CombatEvent attack = attacks.poll();
+			if (attack == null) {
+				if (shownHp != null && effects.isEmpty()) {
+					shownHp = null;
+					dirty = true;
+				}
+				return;
+			}
+			int attackerRow = attack.getAttacker() == 1 ? BoardLayout.FIELD : BoardLayout.OPPONENT;
+			int defenderRow = attack.getDefender() == 1 ? BoardLayout.FIELD : BoardLayout.OPPONENT;
+			shownHp[attack.getAttacker()][attack.getAttackerSlot()] = attack.getAttackerHp();
+			shownHp[attack.getDefender()][attack.getDefenderSlot()] = attack.getDefenderHp();
+			hit(attackerRow, attack.getAttackerSlot(), attack.getAttackerDamage(), attack.attackerDied(), now);
+			hit(defenderRow, attack.getDefenderSlot(), attack.getDefenderDamage(), attack.defenderDied(), now);
+			nextStep = now + STEP;
+			dirty = true;
+		}
+
+		private void hit(int row, int slot, int damage, boolean died, long now) {
+			effects.add(new Effect(HIT, row, slot, 0, now));
+			effects.add(new Effect(DAMAGE, row, slot, damage, now));
+			if (died) {
+				effects.add(new Effect(DEATH, row, slot, 0, now));
+			}
+		}
+	}
+
+	/**
+	 * an animation on a slot, its kind is how long it lasts
+	 */
+	private static class Effect {
+		private final long kind;
+		private final int row;
+		private final int slot;
+		private final int amount;
+		private final long start;
+
+		Effect(long kind, int row, int slot, int amount, long start) {
+			this.kind = kind;
+			this.row = row;
+			this.slot = slot;
+			this.amount = amount;
+			this.start = start;
+		}
+
+		double progress(long now) {
+			return (double) (now - start) / kind;
+		}
+	}
+
+	/**
+	 * Eight games fighting random boards every second, with the frame rate printed
+	 * every five seconds. Run with: java src.CanvasBoardRenderer
+	 */
+	public static void main(String[] args) {
+		Application.launch(Demo.class, args);
+	}
+
+	public static class Demo extends Application {
+		private static final int BOARDS = 8;
+
+		@Override
+		public void start(Stage stage) {
+			double width = 1600;
+			double height = 900;
+			CanvasBoardRenderer renderer = new CanvasBoardRenderer(width, height);
+			BoardLayout[] layouts = BoardLayout.grid(BOARDS, width, height);
+			AutoBattlerModel[] models = new AutoBattlerModel[BOARDS];
+			for (int i = 0; i < BOARDS; i++) {
+				models[i] = new AutoBattlerModel();
+				models[i].shopPhase();
+				renderer.addBoard(models[i], layouts[i]);
+			}
+			Random rng = new Random();
+			AnimationTimer fights = new AnimationTimer() {
+				private long next;
+				private long report;
+
+				@Override
+				public void handle(long now) {
+					if (now >= report) {
+						System.out.printf("%.1f fps%n", renderer.getFps());
+						report = now + 5_000_000_000L;
+					}
+					if (now < next) {
+						return;
+					}
+					next = now + 1_000_000_000L;
+					for (AutoBattlerModel model : models) {
+						Champion[] p1 = Benchmark.randomBoard(rng);
+						Champion[] p2 = Benchmark.randomBoard(rng);
+						for (int slot = 0; slot < 7; slot++) {
+							model.getP1().setBattleField(slot, p1[slot]);
+							model.getP2().setBattleField(slot, p2[slot]);
+						}
+						model.giveOutTraitBonuses(model.getP1());
+						model.giveOutTraitBonuses(model.getP2());
+						model.attackPhase();
+					}
+				}
+			};
+			fights.start();
+			stage.setTitle("Canvas renderer, " + BOARDS + " boards");
+			stage.setScene(new Scene(new Pane(renderer.getCanvas()), width, height));
+			stage.show();
+		}
+	}
+}
@@ -8,8 +8,19 @@ package src;
  *
  */
 public abstract class Champion {
-	private int initialHp;
-	private int initialAtk;
+	/*
+	 * Stats are a stack of modifiers: the base stats (set once, doubled by upgrade()),
+	 * items, the trait bonus, and whatever happened in combat. hp and atk cache the sum
+	 * and are recomputed whenever one of them changes, so the getters cost nothing and
+	 * dropping a layer doesn't need the stats it was applied to.
+	 */
+	private int baseHp;
+	private int baseAtk;
+	private int itemAtk;
+	private int traitHp;
+	private int traitAtk;
+	private int combatHp;
+	private int combatAtk;
     private int hp;
     private int atk;
     private String name;
@@ -18,10 +29,12 @@ public abstract class Champion {
     private boolean initializedHp;
     private boolean initializedAtk;
     private String weaponType;
+    private int upgradeLevel;
     
     public Champion() {
     	initializedHp = false;
     	initializedAtk = false;
+    	upgradeLevel = 1;
     }
     
     /**
@@ -31,21 +44,23 @@ public abstract class Champion {
     public int getHp(){ return hp; }
 
     /**
-     * gets the initial hp of the champion without buffs, never changes
+     * gets the hp of the champion with its items but no trait bonus or combat damage
      * @return
      */
-    public int getInitialHp() { return initialHp; }
+    public int getInitialHp() { return baseHp; }
     
     /**
-     * sets the hp of the champion
+     * sets the hp of the champion, the first call sets its base hp
      * @param hp
      */
     public void setHp(int hp){ 
-    	this.hp = hp;
     	if (initializedHp == false) {
-    		initialHp = hp;
+    		baseHp = hp;
     		initializedHp = true;
+    	} else {
+    		combatHp += hp - this.hp;
     	}
+    	recompute();
     }
     
     /**
@@ -55,21 +70,23 @@ public abstract class Champion {
     public int getAtk(){ return atk; }
     
     /**
-     * gets the initial atk of the champion without buffs, never changes
+     * gets the atk of the champion with its items but no trait bonus or combat changes
      * @return
      */
-    public int getInitialAtk() {return initialAtk; }
+    public int getInitialAtk() {return baseAtk + itemAtk; }
 
     /**
-     * sets the initial atk of the champion
+     * sets the atk of the champion, the first call sets its base atk
      * @param atk 
      */
     public void setAtk(int atk){
-    	this.atk = atk;
     	if (initializedAtk == false) {
-    		initialAtk = atk;
+    		baseAtk = atk;
     		initializedAtk = true;
+    	} else {
+    		combatAtk += atk - this.atk;
     	}
+    	recompute();
     }
 
     /**
@@ -114,7 +131,8 @@ public abstract class Champion {
      * @return The hp after the addition 
      */
     public int gainHp(int toAdd){ 
-        hp += toAdd; 
+        combatHp += toAdd; 
+        recompute();
         return hp;
     }
 
@@ -124,10 +142,8 @@ public abstract class Champion {
      * @return The hp after the subtraction 
      */
     public int loseHp(int damage){ 
-        hp -= damage; 
-        if (hp < 0) {
-        	hp = 0;
-        } 
+        combatHp += Math.max(hp - damage, 0) - hp; 
+        recompute();
         return hp;
     }
 
@@ -137,7 +153,8 @@ public abstract class Champion {
      * @return the atk of the champion after the addition
      */
     public int increaseAtk(int toAdd){ 
-        atk += toAdd; 
+        combatAtk += toAdd; 
+        recompute();
         return atk;
     }
 
@@ -147,7 +164,8 @@ public abstract class Champion {
      * @return the atk of the champion after the subtraction
      */
     public int decreaseAtk(int toSub){ 
-        atk -= toSub; 
+        combatAtk -= toSub; 
+        recompute();
         return atk;
     }
     
@@ -158,24 +176,85 @@ public abstract class Champion {
      */
     public void addBonus(String type) {
     	if (type.equals("Cryo")) {
-    		increaseAtk(2);
-        	gainHp(4);
+    		traitAtk += 2;
+    		traitHp += 4;
     	} else if (type.equals("Anemo")) {
-    		increaseAtk(3);
-        	gainHp(5);
+    		traitAtk += 3;
+    		traitHp += 5;
     	} else if (type.equals("Electro")) {
-    		increaseAtk(4);
-        	gainHp(2);
+    		traitAtk += 4;
+    		traitHp += 2;
     	} else if (type.equals("Geo")) {
-        	increaseAtk(5);
-        	gainHp(3);
+    		traitAtk += 5;
+    		traitHp += 3;
     	} else if (type.equals("Hydro")) {
-        	gainHp(3);
-        	increaseAtk(3);
+    		traitHp += 3;
+    		traitAtk += 3;
     	} else if (type.equals("Pyro")) {
-        	increaseAtk(4);
-        	gainHp(3);
+    		traitAtk += 4;
+    		traitHp += 3;
     	}
+    	recompute();
+    }
+    
+    /**
+     * removes the class bonus
+     */
+    public void clearBonus() {
+    	traitHp = 0;
+    	traitAtk = 0;
+    	recompute();
+    }
+    
+    /**
+     * Drops the class bonus and everything that happened in combat, leaving the
+     * champion at getInitialHp() and getInitialAtk()
+     */
+    public void resetStats() {
+    	traitHp = 0;
+    	traitAtk = 0;
+    	combatHp = 0;
+    	combatAtk = 0;
+    	recompute();
+    }
+    
+    /**
+     * Makes a new champion with the same name, upgrades and stats, so a copy of a player
+     * can be changed without touching this one
+     * @return the copy
+     */
+    public Champion copy() {
+    	Champion copy = Shop.createChampion(name);
+    	copy.baseHp = baseHp;
+    	copy.baseAtk = baseAtk;
+    	copy.itemAtk = itemAtk;
+    	copy.traitHp = traitHp;
+    	copy.traitAtk = traitAtk;
+    	copy.combatHp = combatHp;
+    	copy.combatAtk = combatAtk;
+    	copy.type = type;
+    	copy.stars = stars;
+    	copy.initializedHp = initializedHp;
+    	copy.initializedAtk = initializedAtk;
+    	copy.weaponType = weaponType;
+    	copy.upgradeLevel = upgradeLevel;
+    	copy.recompute();
+    	return copy;
+    }
+    
+    /**
+     * Sets the hp and atk the champion goes back to after a fight, for boards stored as
+     * getInitialHp() and getInitialAtk(). The atk from items is counted as base atk.
+     * @param initialHp  the hp without trait bonus or combat damage
+     * @param initialAtk the atk with items but without trait bonus or combat changes
+     */
+    void restoreStats(int initialHp, int initialAtk) {
+    	baseHp = initialHp;
+    	baseAtk = initialAtk;
+    	itemAtk = 0;
+    	initializedHp = true;
+    	initializedAtk = true;
+    	resetStats();
     }
     
     public void setWeaponType(String weaponType) {
@@ -186,12 +265,36 @@ public abstract class Champion {
     	return weaponType;
     }
     
+    /**
+     * Returns how many times the champion has been upgraded by merging copies, 1 for
+     * a champion straight from the shop
+     * @return the upgrade level
+     */
+    public int getUpgradeLevel() { return upgradeLevel; }
+    
+    /**
+     * Upgrades the champion after three copies are merged. Doubles the base hp and
+     * atk and refills the champion to them.
+     */
+    public void upgrade() {
+    	upgradeLevel += 1;
+    	baseHp *= 2;
+    	baseAtk *= 2;
+    	resetStats();
+    }
+    
     /**
      * Adds Item stats to the Champion
      * @param item the item we're adding
      */
     public void addItem(Item item) {
-    	initialAtk += item.getAtk();
+    	itemAtk += item.getAtk();
+    	recompute();
+    }
+    
+    private void recompute() {
+    	hp = baseHp + traitHp + combatHp;
+    	atk = baseAtk + itemAtk + traitAtk + combatAtk;
     }
 }
 
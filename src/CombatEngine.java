@@ -0,0 +1,363 @@
+package src;
+
+import java.util.Random;
+
+/**
+ * Plays out fights on a clock instead of one swing each in turn. Every champion attacks
+ * on its own timer, set by its weapon, at a random living enemy. Attacks charge mana,
+ * and a champion with full mana casts its element's ability instead of attacking.
+ * Elements are applied to whoever is hit and react with the one already on them, so a
+ * Pyro hit on a champion soaked by Hydro is a vaporize for double damage.
+ *
+ * The fight is a queue of scheduled actions kept as a binary heap of longs, the time in
+ * the high bits and the slot in the low four, so ties go to the lower slot and nothing
+ * is allocated per action. Every living champion has exactly one action in the queue,
+ * its next swing. A frozen champion isn't moved in the heap, its swing is just put back
+ * when it comes up before readyAt. Dead champions' swings are dropped when they come up.
+ *
+ * Slots 0-6 are p1's battlefield and 7-13 are p2's. Unlike the attack phase, only the
+ * one hit takes damage, there are no counter hits. Nothing is changed on the Champions
+ * and an engine can be reused for any number of fights, but not by two threads at once.
+ */
+public class CombatEngine {
+	public static final int NONE = 0;
+	public static final int PYRO = 1;
+	public static final int HYDRO = 2;
+	public static final int CRYO = 3;
+	public static final int ELECTRO = 4;
+	public static final int ANEMO = 5;
+	public static final int GEO = 6;
+	private static final String[] ELEMENTS = { "None", "Pyro", "Hydro", "Cryo", "Electro", "Anemo", "Geo" };
+
+	// a tick is 10 ms of fight, a fight still going after a minute is a draw
+	public static final int MAX_TICKS = 6000;
+	// ticks between swings of each weapon
+	private static final String[] WEAPONS = { "Sword", "Polearm", "Bow", "Catalyst", "Claymore" };
+	private static final int[] WEAPON_TICKS = { 80, 90, 100, 110, 130 };
+	private static final int DEFAULT_TICKS = 100;
+	public static final int MAX_MANA = 100;
+	private static final int MANA_PER_ATTACK = 25;
+	private static final int MANA_ON_HIT = 10;
+	// how long a frozen champion can't swing
+	private static final int FREEZE_TICKS = 150;
+
+	// reaction on a champion carrying the first element hit by the second, NONE if they
+	// don't react. The damage is scaled by PERCENT, and a reaction uses up the aura
+	public static final int[][] REACTION = new int[7][7];
+	public static final int[][] PERCENT = new int[7][7];
+	// reactions get their own numbers past the elements, for listeners
+	public static final int VAPORIZE = 7;
+	public static final int MELT = 8;
+	public static final int OVERLOADED = 9;
+	public static final int SUPERCONDUCT = 10;
+	public static final int ELECTRO_CHARGED = 11;
+	public static final int FROZEN = 12;
+	public static final int SWIRL = 13;
+	public static final int CRYSTALLIZE = 14;
+
+	static {
+		for (int aura = 0; aura < 7; aura++) {
+			for (int hit = 0; hit < 7; hit++) {
+				PERCENT[aura][hit] = 100;
+			}
+		}
+		react(HYDRO, PYRO, VAPORIZE, 150);
+		react(PYRO, HYDRO, VAPORIZE, 200);
+		react(CRYO, PYRO, MELT, 200);
+		react(PYRO, CRYO, MELT, 150);
+		react(PYRO, ELECTRO, OVERLOADED, 175);
+		react(ELECTRO, PYRO, OVERLOADED, 175);
+		react(CRYO, ELECTRO, SUPERCONDUCT, 150);
+		react(ELECTRO, CRYO, SUPERCONDUCT, 150);
+		react(HYDRO, ELECTRO, ELECTRO_CHARGED, 150);
+		react(ELECTRO, HYDRO, ELECTRO_CHARGED, 150);
+		react(HYDRO, CRYO, FROZEN, 100);
+		react(CRYO, HYDRO, FROZEN, 100);
+		for (int aura = PYRO; aura <= ELECTRO; aura++) {
+			react(aura, ANEMO, SWIRL, 125);
+			react(aura, GEO, CRYSTALLIZE, 125);
+		}
+	}
+
+	private static void react(int aura, int hit, int reaction, int percent) {
+		REACTION[aura][hit] = reaction;
+		PERCENT[aura][hit] = percent;
+	}
+
+	/**
+	 * Told about every hit as it happens, slots are 0-13.
+	 */
+	public interface Listener {
+		/**
+		 * @param time     ticks since the fight started
+		 * @param reaction the reaction it caused, NONE if there wasn't one
+		 * @param ability  true if it was from a cast rather than a swing
+		 */
+		void hit(int time, int attacker, int target, int damage, int reaction, boolean ability);
+	}
+
+	// what was loaded, kept so the same fight can be played again
+	private final int[] startHp = new int[14];
+	private final int[] atk = new int[14];
+	private final int[] element = new int[14];
+	private final int[] ticks = new int[14];
+	// state of the fight being played
+	private final int[] hp = new int[14];
+	private final int[] mana = new int[14];
+	private final int[] aura = new int[14];
+	private final int[] readyAt = new int[14];
+	private final long[] queue = new long[14];
+	private int queued;
+	private int alive;
+	private int actions;
+	private int time;
+	private Listener listener;
+
+	/**
+	 * @param listener told about every hit, null for none
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return the element number of a champion's type, NONE if it has none
+	 */
+	public static int element(String type) {
+		for (int i = 1; i < ELEMENTS.length; i++) {
+			if (ELEMENTS[i].equals(type)) {
+				return i;
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * @return ticks between swings for a weapon type
+	 */
+	public static int attackTicks(String weaponType) {
+		for (int i = 0; i < WEAPONS.length; i++) {
+			if (WEAPONS[i].equals(weaponType)) {
+				return WEAPON_TICKS[i];
+			}
+		}
+		return DEFAULT_TICKS;
+	}
+
+	/**
+	 * Copies both battlefields' current stats in for the next fights.
+	 */
+	public void load(Champion[] p1Board, Champion[] p2Board) {
+		load(1, p1Board);
+		load(2, p2Board);
+	}
+
+	private void load(int player, Champion[] board) {
+		for (int i = 0; i < 7; i++) {
+			Champion champ = board[i];
+			if (champ == null) {
+				load(player, i, 0, 0, NONE, DEFAULT_TICKS);
+			} else {
+				load(player, i, champ.getHp(), champ.getAtk(), element(champ.getType()),
+						attackTicks(champ.getWeaponType()));
+			}
+		}
+	}
+
+	/**
+	 * Puts one champion in, for boards that are only numbers.
+	 * @param player 1 or 2
+	 * @param slot   battlefield slot, 0-6
+	 * @param hp     0 for an empty slot
+	 * @param ticks  ticks between swings
+	 */
+	public void load(int player, int slot, int hp, int atk, int element, int ticks) {
+		int unit = (player - 1) * 7 + slot;
+		startHp[unit] = Math.max(0, hp);
+		this.atk[unit] = atk;
+		this.element[unit] = element;
+		this.ticks[unit] = Math.max(1, ticks);
+	}
+
+	/**
+	 * Plays the loaded boards against each other from the start.
+	 * @param rng random source for the first swings and the targets
+	 * @return 1 if p1 won, 2 if p2 won, 3 if everything is dead or time ran out
+	 */
+	public int fight(Random rng) {
+		queued = 0;
+		alive = 0;
+		actions = 0;
+		time = 0;
+		for (int unit = 0; unit < 14; unit++) {
+			hp[unit] = startHp[unit];
+			mana[unit] = 0;
+			aura[unit] = NONE;
+			readyAt[unit] = 0;
+			if (hp[unit] > 0) {
+				alive |= 1 << unit;
+				// a random first swing, so the sides don't always go in slot order
+				push((long) rng.nextInt(ticks[unit]) << 4 | unit);
+			}
+		}
+		while ((alive & 0x7F) != 0 && (alive & 0x3F80) != 0 && queued > 0) {
+			long action = pop();
+			time = (int) (action >>> 4);
+			if (time > MAX_TICKS) {
+				break;
+			}
+			int unit = (int) (action & 0xF);
+			if ((alive & 1 << unit) == 0) {
+				continue;
+			}
+			if (time < readyAt[unit]) {
+				// frozen when its swing came up
+				push((long) readyAt[unit] << 4 | unit);
+				continue;
+			}
+			actions++;
+			act(unit, rng);
+			push((long) (time + ticks[unit]) << 4 | unit);
+		}
+		boolean p1Alive = (alive & 0x7F) != 0;
+		boolean p2Alive = (alive & 0x3F80) != 0;
+		if (p1Alive && !p2Alive) {
+			return 1;
+		} else if (p2Alive && !p1Alive) {
+			return 2;
+		}
+		return 3;
+	}
+
+	/**
+	 * Plays many fights between the loaded boards.
+	 * @return {p1 wins, p2 wins, draws}
+	 */
+	public int[] simulate(int fights, Random rng) {
+		int[] results = new int[3];
+		for (int n = 0; n < fights; n++) {
+			results[fight(rng) - 1]++;
+		}
+		return results;
+	}
+
+	/**
+	 * @return hp left after the last fight, by slot 0-13
+	 */
+	public int getHp(int unit) {
+		return hp[unit];
+	}
+
+	/**
+	 * @return swings and casts in the last fight
+	 */
+	public int getActions() {
+		return actions;
+	}
+
+	/**
+	 * @return ticks the last fight took
+	 */
+	public int getTime() {
+		return time;
+	}
+
+	/**
+	 * a swing, or the ability once mana is full
+	 */
+	private void act(int unit, Random rng) {
+		int enemies = unit < 7 ? alive & 0x3F80 : alive & 0x7F;
+		int target = nthBit(enemies, rng.nextInt(Integer.bitCount(enemies)));
+		if (mana[unit] < MAX_MANA) {
+			mana[unit] += MANA_PER_ATTACK;
+			hit(unit, target, atk[unit], element[unit], false);
+			return;
+		}
+		mana[unit] = 0;
+		switch (element[unit]) {
+		case HYDRO:
+		case ANEMO:
+			// half atk to every enemy
+			for (int rest = enemies; rest != 0; rest &= rest - 1) {
+				hit(unit, Integer.numberOfTrailingZeros(rest), (atk[unit] + 1) / 2, element[unit], true);
+			}
+			break;
+		case GEO:
+			// a shield of twice its atk, then a normal hit
+			hp[unit] += 2 * atk[unit];
+			hit(unit, target, atk[unit], GEO, true);
+			break;
+		default:
+			hit(unit, target, 2 * atk[unit], element[unit], true);
+			break;
+		}
+	}
+
+	private void hit(int attacker, int target, int damage, int applied, boolean ability) {
+		int reaction = NONE;
+		if (applied != NONE) {
+			int on = aura[target];
+			reaction = REACTION[on][applied];
+			damage = (damage * PERCENT[on][applied] + 50) / 100;
+			if (reaction != NONE) {
+				aura[target] = NONE;
+				if (reaction == FROZEN) {
+					readyAt[target] = Math.max(readyAt[target], time + FREEZE_TICKS);
+				}
+			} else if (applied <= ELECTRO) {
+				// anemo and geo don't stay on
+				aura[target] = applied;
+			}
+		}
+		hp[target] = Math.max(0, hp[target] - damage);
+		mana[target] = Math.min(MAX_MANA, mana[target] + MANA_ON_HIT);
+		if (hp[target] == 0) {
+			alive &= ~(1 << target);
+		}
+		if (listener != null) {
+			listener.hit(time, attacker, target, damage, reaction, ability);
+		}
+	}
+
+	private static int nthBit(int bits, int n) {
+		for (; n > 0; n--) {
+			bits &= bits - 1;
+		}
+		return Integer.numberOfTrailingZeros(bits);
+	}
+
+	private void push(long action) {
+		int i = queued++;
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (queue[parent] <= action) {
+				break;
+			}
+			queue[i] = queue[parent];
+			i = parent;
+		}
+		queue[i] = action;
+	}
+
+	private long pop() {
+		long top = queue[0];
+		long last = queue[--queued];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= queued) {
+				break;
+			}
+			if (child + 1 < queued && queue[child + 1] < queue[child]) {
+				child++;
+			}
+			if (last <= queue[child]) {
+				break;
+			}
+			queue[i] = queue[child];
+			i = child;
+		}
+		queue[i] = last;
+		return top;
+	}
+}
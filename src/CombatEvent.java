@@ -0,0 +1,73 @@
+package src;
+
+/**
+ * One attack of the attack phase, passed to the model's observers right after it's
+ * made, so views can animate the fight. Both champions hit each other, so both take
+ * damage and either or both can die.
+ */
+public class CombatEvent {
+	private final int round;
+	private final int attacker;
+	private final int attackerSlot;
+	private final int defenderSlot;
+	private final int attackerDamage;
+	private final int defenderDamage;
+	private final int attackerHp;
+	private final int defenderHp;
+
+	/**
+	 * @param round          the round being fought
+	 * @param attacker       the attacking player, 1 or 2
+	 * @param attackerSlot   the attacking champion's battlefield slot
+	 * @param defenderSlot   the defending champion's slot on the other battlefield
+	 * @param attackerDamage damage the attacker took
+	 * @param defenderDamage damage the defender took
+	 * @param attackerHp     the attacker's hp after the attack
+	 * @param defenderHp     the defender's hp after the attack
+	 */
+	public CombatEvent(int round, int attacker, int attackerSlot, int defenderSlot, int attackerDamage,
+			int defenderDamage, int attackerHp, int defenderHp) {
+		this.round = round;
+		this.attacker = attacker;
+		this.attackerSlot = attackerSlot;
+		this.defenderSlot = defenderSlot;
+		this.attackerDamage = attackerDamage;
+		this.defenderDamage = defenderDamage;
+		this.attackerHp = attackerHp;
+		this.defenderHp = defenderHp;
+	}
+
+	public int getRound() { return round; }
+
+	/**
+	 * @return the attacking player, 1 or 2
+	 */
+	public int getAttacker() { return attacker; }
+
+	/**
+	 * @return the defending player, 1 or 2
+	 */
+	public int getDefender() { return 3 - attacker; }
+
+	public int getAttackerSlot() { return attackerSlot; }
+
+	public int getDefenderSlot() { return defenderSlot; }
+
+	public int getAttackerDamage() { return attackerDamage; }
+
+	public int getDefenderDamage() { return defenderDamage; }
+
+	public int getAttackerHp() { return attackerHp; }
+
+	public int getDefenderHp() { return defenderHp; }
+
+	public boolean attackerDied() { return attackerHp <= 0; }
+
+	public boolean defenderDied() { return defenderHp <= 0; }
+
+	@Override
+	public String toString() {
+		return String.format("round %d: p%d slot %d (-%d, %d left) hits p%d slot %d (-%d, %d left)", round, attacker,
+				attackerSlot, attackerDamage, attackerHp, getDefender(), defenderSlot, defenderDamage, defenderHp);
+	}
+}
@@ -0,0 +1,152 @@
+package src;
+
+import java.util.Random;
+
+/**
+ * Headless version of the attack phase. Plays out fights between two battlefields
+ * using only hp and atk arrays, following the same rules as AutoBattlerModel:
+ * a random starting player, the leftmost living champion always attacks, the
+ * defender is a random living champion, and both champions lose hp equal to the
+ * others atk. Nothing is mutated on the Champions and no observers are notified,
+ * so this is safe to call as many times as needed.
+ */
+public class CombatSimulator {
+
+	/**
+	 * Copies the current hp of a battlefield into an array, empty slots get 0
+	 * @param battleField the battlefield to copy
+	 * @return hp of each slot
+	 */
+	public static int[] hpOf(Champion[] battleField) {
+		int[] hp = new int[7];
+		for (int i = 0; i < 7; i++) {
+			if (battleField[i] != null) {
+				hp[i] = Math.max(0, battleField[i].getHp());
+			}
+		}
+		return hp;
+	}
+
+	/**
+	 * Copies the current atk of a battlefield into an array, empty slots get 0
+	 * @param battleField the battlefield to copy
+	 * @return atk of each slot
+	 */
+	public static int[] atkOf(Champion[] battleField) {
+		int[] atk = new int[7];
+		for (int i = 0; i < 7; i++) {
+			if (battleField[i] != null) {
+				atk[i] = battleField[i].getAtk();
+			}
+		}
+		return atk;
+	}
+
+	/**
+	 * Simulates many fights between two battlefields.
+	 * @param p1Board battlefield of player 1
+	 * @param p2Board battlefield of player 2
+	 * @param fights  how many fights to play
+	 * @param rng     random source for the starting player and defenders
+	 * @return {p1 wins, p2 wins, draws}
+	 */
+	public static int[] simulate(Champion[] p1Board, Champion[] p2Board, int fights, Random rng) {
+		return simulate(hpOf(p1Board), atkOf(p1Board), hpOf(p2Board), atkOf(p2Board), fights, rng);
+	}
+
+	/**
+	 * Simulates many fights between two boards given as hp and atk arrays.
+	 * The given arrays are not changed.
+	 * @return {p1 wins, p2 wins, draws}
+	 */
+	public static int[] simulate(int[] p1Hp, int[] p1Atk, int[] p2Hp, int[] p2Atk, int fights, Random rng) {
+		int[] results = new int[3];
+		int[] hp1 = new int[7];
+		int[] hp2 = new int[7];
+		for (int n = 0; n < fights; n++) {
+			System.arraycopy(p1Hp, 0, hp1, 0, 7);
+			System.arraycopy(p2Hp, 0, hp2, 0, 7);
+			int result = fight(hp1, p1Atk, hp2, p2Atk, rng);
+			if (result == 1) {
+				results[0]++;
+			} else if (result == 2) {
+				results[1]++;
+			} else {
+				results[2]++;
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Plays one fight to the end. The hp arrays are used as scratch space and hold
+	 * the remaining hp afterwards.
+	 * @return 1 if p1 won, 2 if p2 won, 3 if everything is dead
+	 */
+	public static int fight(int[] hp1, int[] atk1, int[] hp2, int[] atk2, Random rng) {
+		int alive1 = countAlive(hp1);
+		int alive2 = countAlive(hp2);
+		int attackRound = rng.nextInt(2);
+		while (alive1 > 0 && alive2 > 0) {
+			if (attackRound % 2 == 0) {
+				int deaths = attack(hp1, atk1, hp2, atk2, alive2, rng);
+				alive1 -= deaths >> 1;
+				alive2 -= deaths & 1;
+			} else {
+				int deaths = attack(hp2, atk2, hp1, atk1, alive1, rng);
+				alive2 -= deaths >> 1;
+				alive1 -= deaths & 1;
+			}
+			attackRound++;
+		}
+		if (alive1 > 0) {
+			return 1;
+		} else if (alive2 > 0) {
+			return 2;
+		}
+		return 3;
+	}
+
+	/**
+	 * One swing of the leftmost living attacker into a random living defender.
+	 * @param defendersAlive how many defenders are still alive
+	 * @return bit 1 set if the attacker died, bit 0 set if the defender died
+	 */
+	private static int attack(int[] atkHp, int[] atkAtk, int[] defHp, int[] defAtk,
+			int defendersAlive, Random rng) {
+		int attacker = 0;
+		while (atkHp[attacker] <= 0) {
+			attacker++;
+		}
+		// picking the nth living defender is the same as retrying random slots until one is alive
+		int pick = rng.nextInt(defendersAlive);
+		int defender = 0;
+		while (defHp[defender] <= 0 || pick-- > 0) {
+			defender++;
+		}
+		int damage = atkAtk[attacker];
+		defHp[defender] = Math.max(0, defHp[defender] - damage);
+		atkHp[attacker] = Math.max(0, atkHp[attacker] - defAtk[defender]);
+		int deaths = 0;
+		if (atkHp[attacker] == 0) {
+			deaths |= 2;
+		}
+		if (defHp[defender] == 0) {
+			deaths |= 1;
+		}
+		return deaths;
+	}
+
+	/**
+	 * counts how many slots still have hp left
+	 */
+	public static int countAlive(int[] hp) {
+		int alive = 0;
+		for (int i = 0; i < hp.length; i++) {
+			if (hp[i] > 0) {
+				alive++;
+			}
+		}
+		return alive;
+	}
+}
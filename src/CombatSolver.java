@@ -0,0 +1,524 @@
+package src;
+
+import java.util.Arrays;
+
+/**
+ * Computes the exact chances of a fight instead of sampling it. The only random parts
+ * of the attack phase are the starting player and the defender, which is picked
+ * uniformly from the living champions. Everything else is fixed, so a fight only
+ * depends on the hp of every slot and whose turn it is (the attacker is always the
+ * leftmost living champion).
+ *
+ * Three things keep the number of states down:
+ * - Empty and dead slots don't change anything except the order of the living
+ *   champions, so each side is stored as just its living champions from left to right.
+ * - Hp only matters for when a champion dies, and a champion can only ever take damage
+ *   equal to a sum of enemy atk values. So hp is rounded up to the next sum the enemy
+ *   can actually deal, which merges states that always play out the same way.
+ * - Only the living enemies count for that. Once the last champion with some atk value
+ *   dies the other side is rounded again with fewer sums, which merges a lot of the
+ *   states late in a fight. For two full boards of tanky champions this is about four
+ *   times fewer states.
+ *
+ * Instead of solving states recursively and remembering every one, the chance of
+ * reaching each state is pushed forward from the start. Every attack either kills
+ * someone or lowers the total hp, so states are handled in buckets of the same number
+ * of living champions and total hp, from the most to the least. A bucket has had
+ * everything pushed into it by the time it comes up, and is dropped once it is done.
+ * Pushing only appends to a bucket and the same states are added up when it comes up,
+ * which keeps the random memory access to one bucket at a time. Only the buckets not
+ * done yet are kept, the tankiest full boards need under 100 MB.
+ */
+public class CombatSolver {
+	private static final int MAX_HP = 255;
+	private static final int MAX_CODES = 255;
+	private static final long TURN_BIT = 1L << 63;
+	// a side's champions take up the low 7 bytes, see key
+	private static final long STATE_BITS = (1L << 56) - 1;
+	private static final int MASK_SHIFT = 56;
+	// states in a chunk of a bucket
+	private static final int CHUNK_BITS = 9;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	// total hp of both sides goes from 0 to this
+	private static final int HP_TOTALS = 14 * MAX_HP + 1;
+	// the tankiest full boards in Benchmark need under 3M, in under a second once warmed up
+	public static final int DEFAULT_MAX_STATES = 1 << 22;
+
+	private final Side side1;
+	private final Side side2;
+	// states waiting to be pushed on, by living champions * HP_TOTALS + total hp
+	private final Bucket[] buckets = new Bucket[15 * HP_TOTALS];
+	private int states;
+	// where each state of a bucket was first reached, see merge
+	private int[] firsts = new int[1024];
+	private int[] merged = new int[512];
+	// chunks of buckets that are done
+	private long[][] freeChunks = new long[64][];
+	private int freeCount;
+	// chances summed over the ends of the fight
+	private double p1Win;
+	private double draw;
+	private double p1Left;
+	private double p2Left;
+
+	private CombatSolver(int[] atk1, int[] atk2) {
+		side1 = new Side(atk1, atk2);
+		side2 = new Side(atk2, atk1);
+	}
+
+	/**
+	 * Solves a fight between two battlefields using the champions current hp and atk,
+	 * giving up after DEFAULT_MAX_STATES states.
+	 * @param p1Board battlefield of player 1
+	 * @param p2Board battlefield of player 2
+	 * @return the exact odds of the fight, or null if it needed too many states, sample
+	 *         it with CombatSimulator instead
+	 */
+	public static MatchupOdds solve(Champion[] p1Board, Champion[] p2Board) {
+		return solve(CombatSimulator.hpOf(p1Board), CombatSimulator.atkOf(p1Board),
+				CombatSimulator.hpOf(p2Board), CombatSimulator.atkOf(p2Board), DEFAULT_MAX_STATES);
+	}
+
+	/**
+	 * Solves a fight between two boards given as hp and atk arrays of length 7.
+	 * @param maxStates gives up once this many states have been reached
+	 * @return the exact odds of the fight, or null if it needed more than maxStates states
+	 */
+	public static MatchupOdds solve(int[] p1Hp, int[] p1Atk, int[] p2Hp, int[] p2Atk, int maxStates) {
+		CombatSolver solver = new CombatSolver(p1Atk, p2Atk);
+		long start1 = solver.side1.pack(p1Hp, p1Atk);
+		long start2 = solver.side2.pack(p2Hp, p2Atk);
+		start1 = solver.side1.round(start1, solver.side2.mask(start2));
+		start2 = solver.side2.round(start2, solver.side1.mask(start1));
+		long key1 = key(start1, solver.side1.mask(start1));
+		long key2 = key(start2, solver.side2.mask(start2));
+		int total = solver.side1.hpTotal(start1) + solver.side2.hpTotal(start2);
+		// the starting player is a coin flip
+		solver.reach(key1, key2, false, total, 0.5);
+		solver.reach(key1, key2, true, total, 0.5);
+		for (int potential = solver.buckets.length - 1; potential >= 0; potential--) {
+			Bucket bucket = solver.buckets[potential];
+			if (bucket == null) {
+				continue;
+			}
+			solver.buckets[potential] = null;
+			int size = solver.merge(bucket);
+			solver.states += size;
+			if (solver.states > maxStates) {
+				return null;
+			}
+			for (int i = 0; i < size; i++) {
+				int first = solver.merged[i];
+				solver.attack(bucket.key1(first), bucket.key2(first), potential % HP_TOTALS, bucket.chance(first));
+			}
+			solver.release(bucket);
+		}
+		double p2Win = Math.max(0, 1 - solver.p1Win - solver.draw);
+		return new MatchupOdds(solver.p1Win, p2Win, solver.draw, solver.p1Left, solver.p2Left, solver.states);
+	}
+
+	/**
+	 * Adds up the chances of every time a state in the bucket was reached, into the
+	 * first time it was reached. Both are in the order they were reached, so the bucket
+	 * is read straight through, and the table only holds where each state first was.
+	 * @return how many different states the bucket has, the first time each was reached
+	 *         is at the start of merged
+	 */
+	private int merge(Bucket bucket) {
+		int capacity = Integer.highestOneBit(Math.max(16, bucket.count) * 2 - 1) * 2;
+		if (capacity > firsts.length) {
+			firsts = new int[capacity];
+			merged = new int[capacity / 2];
+		} else {
+			Arrays.fill(firsts, 0, capacity, 0);
+		}
+		int mask = capacity - 1;
+		int size = 0;
+		for (int i = 0; i < bucket.count; i++) {
+			long key1 = bucket.key1(i);
+			long key2 = bucket.key2(i);
+			long h = (key1 * 0x9E3779B97F4A7C15L + key2) * 0xC2B2AE3D27D4EB4FL;
+			// the top bits, the low bits of a product only depend on the low bits of the keys
+			int slot = (int) (h >>> 32) & mask;
+			while (true) {
+				int first = firsts[slot] - 1;
+				if (first < 0) {
+					firsts[slot] = i + 1;
+					merged[size++] = i;
+					break;
+				}
+				if (bucket.key1(first) == key1 && bucket.key2(first) == key2) {
+					bucket.addChance(first, bucket.chance(i));
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * gives the bucket's chunks back to be used again
+	 */
+	private void release(Bucket bucket) {
+		for (int i = 0; i < bucket.chunks.length && bucket.chunks[i] != null; i++) {
+			if (freeCount == freeChunks.length) {
+				freeChunks = Arrays.copyOf(freeChunks, freeCount * 2);
+			}
+			freeChunks[freeCount++] = bucket.chunks[i];
+		}
+	}
+
+	/**
+	 * Pushes the chance of a state on to every defender that can be picked from it.
+	 * @param key1   player 1's side, see key
+	 * @param key2   player 2's side
+	 * @param total  hp of both sides added up
+	 * @param chance chance of reaching this state
+	 */
+	private void attack(long key1, long key2, int total, double chance) {
+		boolean p2Attacks = (key1 & TURN_BIT) != 0;
+		Side attacking = p2Attacks ? side2 : side1;
+		Side defending = p2Attacks ? side1 : side2;
+		long attackingState = (p2Attacks ? key2 : key1) & STATE_BITS;
+		long defendingState = (p2Attacks ? key1 : key2) & STATE_BITS;
+		int attackingMask = (int) ((p2Attacks ? key2 : key1) >>> MASK_SHIFT) & 0x7F;
+		int defendingMask = (int) ((p2Attacks ? key1 : key2) >>> MASK_SHIFT) & 0x7F;
+		int defenders = Side.alive(defendingState);
+
+		// the attacker is always the first living champion
+		int attacker = Side.codeAt(attackingState, 0);
+		int attackerHp = attacking.hp[attacker];
+		double each = chance / defenders;
+		for (int i = 0; i < defenders; i++) {
+			int defender = Side.codeAt(defendingState, i);
+			int hitAttacker = attacking.afterHit(attacker, defending.atkClass[defender], defendingMask);
+			int hitDefender = defending.afterHit(defender, attacking.atkClass[attacker], attackingMask);
+			long newAttacking = Side.replace(attackingState, 0, hitAttacker);
+			long newDefending = Side.replace(defendingState, i, hitDefender);
+			int newTotal = total - attackerHp - defending.hp[defender]
+					+ attacking.hp[hitAttacker] + defending.hp[hitDefender];
+			int newAttackingMask = attackingMask;
+			int newDefendingMask = defendingMask;
+			// a death can take the last of an atk value off the board, then the other
+			// side's hp can be rounded to fewer sums
+			boolean rounded = false;
+			if (hitDefender == 0) {
+				newDefendingMask = defending.mask(newDefending);
+				if (newDefendingMask != defendingMask) {
+					newAttacking = attacking.round(newAttacking, newDefendingMask);
+					rounded = true;
+				}
+			}
+			if (hitAttacker == 0) {
+				newAttackingMask = attacking.mask(newAttacking);
+				if (newAttackingMask != attackingMask) {
+					newDefending = defending.round(newDefending, newAttackingMask);
+					rounded = true;
+				}
+			}
+			if (rounded) {
+				newTotal = attacking.hpTotal(newAttacking) + defending.hpTotal(newDefending);
+			}
+			if (p2Attacks) {
+				reach(key(newDefending, newDefendingMask), key(newAttacking, newAttackingMask), false, newTotal, each);
+			} else {
+				reach(key(newAttacking, newAttackingMask), key(newDefending, newDefendingMask), true, newTotal, each);
+			}
+		}
+	}
+
+	/**
+	 * adds to the chance of a state, or to the results if the fight is over there
+	 */
+	private void reach(long key1, long key2, boolean p2Attacks, int total, double chance) {
+		int alive1 = Side.alive(key1 & STATE_BITS);
+		int alive2 = Side.alive(key2 & STATE_BITS);
+		if (alive1 == 0 || alive2 == 0) {
+			if (alive1 > 0) {
+				p1Win += chance;
+			} else if (alive2 == 0) {
+				draw += chance;
+			}
+			p1Left += chance * alive1;
+			p2Left += chance * alive2;
+			return;
+		}
+		int potential = (alive1 + alive2) * HP_TOTALS + total;
+		Bucket bucket = buckets[potential];
+		if (bucket == null) {
+			bucket = new Bucket();
+			buckets[potential] = bucket;
+		}
+		if ((bucket.count & CHUNK_MASK) == 0) {
+			bucket.addChunk(freeCount > 0 ? freeChunks[--freeCount] : new long[3 * CHUNK_SIZE]);
+		}
+		bucket.add(p2Attacks ? key1 | TURN_BIT : key1, key2, chance);
+	}
+
+	/**
+	 * A side as it is kept in a bucket, with the atk classes still alive in the byte
+	 * the champions leave free, so they don't have to be worked out again every attack.
+	 */
+	private static long key(long state, int mask) {
+		return state | (long) mask << MASK_SHIFT;
+	}
+
+	/**
+	 * One player's side of the fight. Every distinct (hp, atk) champion that shows up
+	 * gets a code from 1 to 255, and the side is a long holding the codes of its living
+	 * champions from left to right, one byte each, lowest byte first.
+	 *
+	 * Hp is kept rounded up to the sums the enemy's living champions can deal. Which
+	 * atk values are still alive on a side is a mask of atk classes, an index into
+	 * atkValues, so rounding tables and hits are looked up by that mask.
+	 */
+	private static final class Side {
+		private final int[] hp = new int[MAX_CODES + 1];
+		private final int[] atk = new int[MAX_CODES + 1];
+		// index of each code's atk in atkValues, its bit in a mask
+		private final int[] atkClass = new int[MAX_CODES + 1];
+		// code for every atk class and hp, 0 if not given out yet
+		private final int[][] codes;
+		// code after a hit, by enemy mask and the atk class that hit, -1 if not worked out yet
+		private final int[][] afterHit;
+		// code rounded for each enemy mask, -1 if not worked out yet
+		private final int[][] rounded;
+		// hp rounded up to the sums of each mask of enemy atk values, by hp
+		private final int[][] roundings;
+		private final int[] atkValues;
+		private final int[] enemyAtkValues;
+		private int codeCount;
+
+		Side(int[] ownAtk, int[] enemyAtk) {
+			atkValues = Arrays.stream(ownAtk).distinct().toArray();
+			enemyAtkValues = Arrays.stream(enemyAtk).distinct().toArray();
+			codes = new int[atkValues.length][MAX_HP + 1];
+			afterHit = new int[MAX_CODES + 1][];
+			rounded = new int[MAX_CODES + 1][];
+			roundings = new int[1 << enemyAtkValues.length][];
+		}
+
+		/**
+		 * packs the living champions of a board, their hp isn't rounded yet
+		 */
+		long pack(int[] boardHp, int[] boardAtk) {
+			long state = 0;
+			int count = 0;
+			for (int i = 0; i < 7; i++) {
+				if (boardHp[i] > MAX_HP) {
+					throw new IllegalArgumentException("hp above " + MAX_HP + " can't be solved: " + boardHp[i]);
+				}
+				if (boardHp[i] > 0 && boardAtk[i] < 1) {
+					// two of them could hit each other forever
+					throw new IllegalArgumentException("atk below 1 can't be solved: " + boardAtk[i]);
+				}
+				if (boardHp[i] > 0) {
+					state |= (long) code(boardHp[i], boardAtk[i]) << (count * 8);
+					count++;
+				}
+			}
+			return state;
+		}
+
+		/**
+		 * Damages a champion.
+		 * @param code      code of the champion
+		 * @param hitBy     atk class of the enemy champion it fought
+		 * @param enemyMask atk classes living on the enemy side
+		 * @return code of the champion after the hit, 0 if it died
+		 */
+		int afterHit(int code, int hitBy, int enemyMask) {
+			int[] hits = afterHit[code];
+			if (hits == null) {
+				hits = new int[roundings.length * 8];
+				Arrays.fill(hits, -1);
+				afterHit[code] = hits;
+			}
+			int index = enemyMask << 3 | hitBy;
+			int newCode = hits[index];
+			if (newCode < 0) {
+				int newHp = Math.max(0, hp[code] - enemyAtkValues[hitBy]);
+				newCode = newHp == 0 ? 0 : code(rounding(enemyMask)[newHp], atk[code]);
+				hits[index] = newCode;
+			}
+			return newCode;
+		}
+
+		/**
+		 * puts a new code at the given position among the living champions, code 0
+		 * removes the champion
+		 */
+		static long replace(long state, int position, int code) {
+			int shift = position * 8;
+			if (code != 0) {
+				return (state & ~(0xFFL << shift)) | ((long) code << shift);
+			}
+			// dead, slide everyone after it one place to the left
+			long below = state & ((1L << shift) - 1);
+			long above = shift + 8 < 64 ? (state >>> (shift + 8)) << shift : 0;
+			return below | above;
+		}
+
+		/**
+		 * rounds every champion's hp for what the enemy has left, which never kills anyone
+		 */
+		long round(long state, int enemyMask) {
+			long result = 0;
+			for (int shift = 0; state >>> shift != 0 && shift < 64; shift += 8) {
+				int code = (int) (state >>> shift) & 0xFF;
+				int[] byMask = rounded[code];
+				if (byMask == null) {
+					byMask = new int[roundings.length];
+					Arrays.fill(byMask, -1);
+					rounded[code] = byMask;
+				}
+				if (byMask[enemyMask] < 0) {
+					byMask[enemyMask] = code(rounding(enemyMask)[hp[code]], atk[code]);
+				}
+				result |= (long) byMask[enemyMask] << shift;
+			}
+			return result;
+		}
+
+		/**
+		 * @return the rounded hp of the living champions added up
+		 */
+		int hpTotal(long state) {
+			int total = 0;
+			for (; state != 0; state >>>= 8) {
+				total += hp[(int) state & 0xFF];
+			}
+			return total;
+		}
+
+		/**
+		 * @return the atk classes of the living champions
+		 */
+		int mask(long state) {
+			int mask = 0;
+			for (; state != 0; state >>>= 8) {
+				mask |= 1 << atkClass[(int) state & 0xFF];
+			}
+			return mask;
+		}
+
+		private int code(int unitHp, int unitAtk) {
+			int cls = 0;
+			while (atkValues[cls] != unitAtk) {
+				cls++;
+			}
+			if (codes[cls][unitHp] == 0) {
+				if (codeCount == MAX_CODES) {
+					throw new IllegalArgumentException("too many different champions to solve");
+				}
+				codeCount++;
+				hp[codeCount] = unitHp;
+				atk[codeCount] = unitAtk;
+				atkClass[codeCount] = cls;
+				codes[cls][unitHp] = codeCount;
+			}
+			return codes[cls][unitHp];
+		}
+
+		private int[] rounding(int enemyMask) {
+			if (roundings[enemyMask] == null) {
+				roundings[enemyMask] = roundingTable(enemyAtkValues, enemyMask);
+			}
+			return roundings[enemyMask];
+		}
+
+		static int codeAt(long state, int position) {
+			return (int) (state >>> (position * 8)) & 0xFF;
+		}
+
+		static int alive(long state) {
+			return (64 - Long.numberOfLeadingZeros(state) + 7) / 8;
+		}
+
+		/**
+		 * Works out which hp values can be merged. Hp is rounded up to the smallest total
+		 * the enemy can deal that is at least that much, since a champion with either hp
+		 * dies on exactly the same hits. Once an atk value is gone from the enemy side
+		 * there are fewer totals, so more hp values are merged.
+		 * @param enemyAtk the enemy's atk values
+		 * @param mask     which of them are still alive
+		 * @return the rounded hp for every hp from 0 to 255
+		 */
+		private static int[] roundingTable(int[] enemyAtk, int mask) {
+			boolean[] reachable = new boolean[MAX_HP + 1];
+			reachable[0] = true;
+			for (int total = 1; total <= MAX_HP; total++) {
+				for (int i = 0; i < enemyAtk.length; i++) {
+					if ((mask & 1 << i) != 0 && enemyAtk[i] > 0 && enemyAtk[i] <= total
+							&& reachable[total - enemyAtk[i]]) {
+						reachable[total] = true;
+						break;
+					}
+				}
+			}
+			int[] table = new int[MAX_HP + 1];
+			int next = -1;
+			for (int hp = MAX_HP; hp >= 0; hp--) {
+				if (reachable[hp]) {
+					next = hp;
+				}
+				// nothing the enemy can deal reaches this hp, so leave it as it is
+				table[hp] = next >= 0 ? next : hp;
+			}
+			return table;
+		}
+	}
+
+	/**
+	 * Every time a state of one potential was reached and with what chance, not added
+	 * up yet. Only ever appended to, so pushing into a bucket stays in cache however
+	 * many buckets are waiting. It is kept in chunks that are used again once the bucket
+	 * is done, a solve goes through hundreds of MB of them otherwise.
+	 */
+	private static final class Bucket {
+		// CHUNK_SIZE times player 1's side with the turn bit, player 2's side and the
+		// chance's bits
+		private long[][] chunks = new long[4][];
+		private int count;
+
+		void addChunk(long[] chunk) {
+			int index = count >> CHUNK_BITS;
+			if (index == chunks.length) {
+				chunks = Arrays.copyOf(chunks, index * 2);
+			}
+			chunks[index] = chunk;
+		}
+
+		/**
+		 * adds a state, there has to be room for it in the last chunk
+		 */
+		void add(long key1, long key2, double chance) {
+			long[] chunk = chunks[count >> CHUNK_BITS];
+			int at = 3 * (count & CHUNK_MASK);
+			chunk[at] = key1;
+			chunk[at + 1] = key2;
+			chunk[at + 2] = Double.doubleToRawLongBits(chance);
+			count++;
+		}
+
+		long key1(int index) {
+			return chunks[index >> CHUNK_BITS][3 * (index & CHUNK_MASK)];
+		}
+
+		long key2(int index) {
+			return chunks[index >> CHUNK_BITS][3 * (index & CHUNK_MASK) + 1];
+		}
+
+		double chance(int index) {
+			return Double.longBitsToDouble(chunks[index >> CHUNK_BITS][3 * (index & CHUNK_MASK) + 2]);
+		}
+
+		void addChance(int index, double chance) {
+			long[] chunk = chunks[index >> CHUNK_BITS];
+			int at = 3 * (index & CHUNK_MASK) + 2;
+			chunk[at] = Double.doubleToRawLongBits(Double.longBitsToDouble(chunk[at]) + chance);
+		}
+	}
+}
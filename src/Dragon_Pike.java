@@ -5,6 +5,6 @@ public class Dragon_Pike extends Item{
 	public Dragon_Pike() {
         setName("dragonPike");
         setRarity(2);
-        setType("Spear");
+        setType("Polearm");
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
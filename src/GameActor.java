@@ -0,0 +1,121 @@
+package src;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Runs one headless game, for running many games in one process. Any thread can submit
+ * commands, they are queued and run one at a time against the game's controller, in the
+ * order they were submitted. Only one thread runs a game's commands at once, so the
+ * model needs no locks, and many games can share one thread pool.
+ *
+ * Other threads read the game through getSnapshot(), an immutable copy published after
+ * every batch of commands, so they never see a half-finished fight or move.
+ *
+ * The JavaFX view doesn't use this, it calls its controller straight from the FX thread
+ * and draws from the live model. That's only safe because everything there that touches
+ * the model runs on the FX thread: the countdown hands back with Platform.runLater and
+ * the AI, order search and win preview work on copies. Nothing enforces that, so code
+ * added to the view has to keep to it.
+ */
+public class GameActor {
+	// commands run before a snapshot is published and the thread is given back
+	private static final int BATCH = 64;
+
+	private final AutoBattlerModel model;
+	private final AutoBattlerController controller;
+	private final Executor executor;
+	private final ConcurrentLinkedQueue<Consumer<AutoBattlerController>> commands;
+	// true while a drain is queued on or running in the executor
+	private final AtomicBoolean scheduled;
+	private volatile GameSnapshot snapshot;
+	private long batches;
+
+	/**
+	 * Takes over a game. Nothing else should touch the model afterwards.
+	 * @param model    the game
+	 * @param executor runs the commands
+	 */
+	public GameActor(AutoBattlerModel model, Executor executor) {
+		this.model = model;
+		this.executor = executor;
+		controller = new AutoBattlerController(model);
+		commands = new ConcurrentLinkedQueue<>();
+		scheduled = new AtomicBoolean();
+		snapshot = GameSnapshot.of(0, model);
+	}
+
+	/**
+	 * Starts a new game.
+	 * @param executor runs the commands
+	 */
+	public GameActor(Executor executor) {
+		this(new AutoBattlerModel(), executor);
+	}
+
+	/**
+	 * Queues a command, it runs later on the game's writer.
+	 * @param command what to do with the game
+	 */
+	public void submit(Consumer<AutoBattlerController> command) {
+		commands.add(command);
+		schedule();
+	}
+
+	/**
+	 * Queues a command that returns something.
+	 * @param query what to do with the game
+	 * @return completes with the result once the command has run
+	 */
+	public <T> CompletableFuture<T> ask(Function<AutoBattlerController, T> query) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		submit(c -> {
+			try {
+				result.complete(query.apply(c));
+			} catch (RuntimeException e) {
+				result.completeExceptionally(e);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @return the game as of the last finished batch of commands
+	 */
+	public GameSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			executor.execute(this::drain);
+		}
+	}
+
+	/**
+	 * Runs up to a batch of commands, then publishes a snapshot. If more commands are
+	 * waiting it schedules itself again instead of looping, so one busy game can't keep
+	 * a pool thread from the others.
+	 */
+	private void drain() {
+		Consumer<AutoBattlerController> command;
+		for (int i = 0; i < BATCH && (command = commands.poll()) != null; i++) {
+			try {
+				command.accept(controller);
+			} catch (RuntimeException e) {
+				// one bad command shouldn't stop the game
+				System.err.println("game command failed: " + e);
+			}
+		}
+		batches++;
+		snapshot = GameSnapshot.of(batches, model);
+		scheduled.set(false);
+		if (!commands.isEmpty()) {
+			schedule();
+		}
+	}
+}
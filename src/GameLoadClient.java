@@ -0,0 +1,176 @@
+package src;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Scripted load generator for GameServer. Opens many connections from one thread and
+ * has each of them play through a fixed list of commands, sending the next command as
+ * soon as the reply to the last one arrives. Prints throughput and latency percentiles.
+ *
+ * Run with: java src.GameLoadClient port connections commandsPerConnection
+ * A port of 0 starts a GameServer in this process first.
+ */
+public class GameLoadClient {
+	// what every connection does, over and over
+	private static final int[][] SCRIPT = {
+			{ GameProtocol.REROLL },
+			{ GameProtocol.BUY, 0 },
+			{ GameProtocol.BUY, 1 },
+			{ GameProtocol.BUY, 2 },
+			{ GameProtocol.MOVE, 0, 0, 1, 0 },
+			{ GameProtocol.MOVE, 1, 0, 1, 3 },
+			{ GameProtocol.LEVEL_UP },
+			{ GameProtocol.SELL, 0, 1 },
+			{ GameProtocol.READY },
+	};
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int port = Integer.parseInt(args[0]);
+		int connections = Integer.parseInt(args[1]);
+		int commands = Integer.parseInt(args[2]);
+		GameServer server = null;
+		if (port == 0) {
+			server = new GameServer(0);
+			port = server.getPort();
+			Thread thread = new Thread(server, "game-server");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		long[] latencies = run(port, connections, commands);
+		if (server != null) {
+			server.stop();
+		}
+		report(connections, latencies);
+	}
+
+	/**
+	 * Plays the script on every connection.
+	 * @return the nanoseconds between sending each command and getting its reply, with
+	 *         the total run time in nanoseconds as the last element
+	 */
+	public static long[] run(int port, int connections, int commands) throws IOException {
+		Selector selector = Selector.open();
+		Client[] clients = new Client[connections];
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+		for (int i = 0; i < connections; i++) {
+			SocketChannel channel = SocketChannel.open(address);
+			channel.socket().setTcpNoDelay(true);
+			channel.configureBlocking(false);
+			clients[i] = new Client(channel, commands);
+			channel.register(selector, SelectionKey.OP_READ, clients[i]);
+		}
+		long start = System.nanoTime();
+		for (Client client : clients) {
+			client.sendNext();
+		}
+		int finished = 0;
+		while (finished < connections) {
+			selector.select();
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				Client client = (Client) key.attachment();
+				if (client.read()) {
+					finished++;
+					key.cancel();
+					client.channel.close();
+				}
+			}
+		}
+		long total = System.nanoTime() - start;
+		selector.close();
+
+		long[] latencies = new long[connections * commands + 1];
+		for (int i = 0; i < connections; i++) {
+			System.arraycopy(clients[i].latencies, 0, latencies, i * commands, commands);
+		}
+		latencies[latencies.length - 1] = total;
+		return latencies;
+	}
+
+	private static void report(int connections, long[] results) {
+		long total = results[results.length - 1];
+		long[] latencies = Arrays.copyOf(results, results.length - 1);
+		Arrays.sort(latencies);
+		System.out.printf("%d connections, %d commands in %.2f s, %.0f commands/s%n",
+				connections, latencies.length, total / 1e9, latencies.length / (total / 1e9));
+		System.out.printf("latency p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n",
+				percentile(latencies, 0.5), percentile(latencies, 0.9), percentile(latencies, 0.99),
+				percentile(latencies, 0.999), latencies[latencies.length - 1] / 1e6);
+	}
+
+	private static double percentile(long[] sorted, double p) {
+		return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e6;
+	}
+
+	private static class Client {
+		private final SocketChannel channel;
+		private final long[] latencies;
+		private final ByteBuffer in;
+		private final ByteBuffer out;
+		private final int[] state;
+		private int sent;
+		private long sentAt;
+
+		Client(SocketChannel channel, int commands) {
+			this.channel = channel;
+			latencies = new long[commands];
+			in = ByteBuffer.allocate(4096);
+			out = ByteBuffer.allocate(64);
+			state = new int[GameProtocol.FIELDS];
+		}
+
+		void sendNext() throws IOException {
+			int[] step = SCRIPT[sent % SCRIPT.length];
+			out.clear();
+			GameProtocol.writeCommand(step[0], sent + 1, out, Arrays.copyOfRange(step, 1, step.length));
+			out.flip();
+			sentAt = System.nanoTime();
+			while (out.hasRemaining()) {
+				channel.write(out);
+			}
+		}
+
+		/**
+		 * reads whatever arrived and sends the next command if the reply is in
+		 * @return true once every command has been answered
+		 */
+		boolean read() throws IOException {
+			if (channel.read(in) < 0) {
+				throw new IOException("server closed the connection");
+			}
+			in.flip();
+			while (in.remaining() >= 2) {
+				int length = in.getShort(in.position()) & 0xFFFF;
+				if (in.remaining() < length + 2) {
+					break;
+				}
+				int end = in.position() + 2 + length;
+				in.position(in.position() + 3);
+				int seq = in.getInt();
+				GameProtocol.readState(in, state);
+				in.position(end);
+				if (seq != 0 && seq == sent + 1) {
+					latencies[sent] = System.nanoTime() - sentAt;
+					sent++;
+					if (sent == latencies.length) {
+						in.compact();
+						return true;
+					}
+					sendNext();
+				}
+			}
+			in.compact();
+			return false;
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package src;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and histograms of how the game runs, shared by every game in the process.
+ *
+ * Everything is recorded into LongAdders, which keep a cell per contending thread, so
+ * recording never takes a lock and costs about as much as an increment even with every
+ * core running games. Reading adds the cells up, so a reading taken while games run is
+ * close but not exact. register() shows the metrics over JMX, and startSnapshots()
+ * prints them every so often for headless runs.
+ */
+public class GameMetrics implements GameMetricsMBean {
+	public static final GameMetrics METRICS = new GameMetrics();
+	public static final String NAME = "src:type=GameMetrics";
+
+	private final Histogram attacksPerRound = new Histogram();
+	private final Histogram roundNanos = new Histogram();
+	private final Histogram attackPhaseNanos = new Histogram();
+	private final Histogram viewUpdateNanos = new Histogram();
+	private final LongAdder rerolls = new LongAdder();
+	private final LongAdder buys = new LongAdder();
+	private final LongAdder sells = new LongAdder();
+	// by stars, the first is unused
+	private final LongAdder[] itemDrops = { new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder() };
+	// items that dropped while the player's 6 slots were full
+	private final LongAdder itemsLost = new LongAdder();
+	private final LongAdder notifications = new LongAdder();
+	// {System.nanoTime(), notifications} when the rate was last worked out from
+	private final AtomicReference<long[]> rateFrom;
+
+	GameMetrics() {
+		rateFrom = new AtomicReference<>(new long[] { System.nanoTime(), 0 });
+	}
+
+	/**
+	 * Records a round fought.
+	 * @param attacks          attacks made in the round
+	 * @param attackPhaseNanos how long attackPhase() took
+	 * @param roundNanos       time since the last round started, negative for the first
+	 */
+	public void round(int attacks, long attackPhaseNanos, long roundNanos) {
+		attacksPerRound.record(attacks);
+		this.attackPhaseNanos.record(attackPhaseNanos);
+		if (roundNanos >= 0) {
+			this.roundNanos.record(roundNanos);
+		}
+	}
+
+	public void reroll() {
+		rerolls.increment();
+	}
+
+	public void buy() {
+		buys.increment();
+	}
+
+	public void sell() {
+		sells.increment();
+	}
+
+	/**
+	 * @param stars the stars of the item dropped
+	 */
+	public void itemDrop(int stars) {
+		itemDrops[stars].increment();
+	}
+
+	public void itemLost() {
+		itemsLost.increment();
+	}
+
+	public void notification() {
+		notifications.increment();
+	}
+
+	/**
+	 * @param nanos how long the view took to redraw after a notification
+	 */
+	public void viewUpdate(long nanos) {
+		viewUpdateNanos.record(nanos);
+	}
+
+	@Override
+	public long getRounds() { return attacksPerRound.getCount(); }
+
+	@Override
+	public double getMeanAttacksPerRound() { return attacksPerRound.getMean(); }
+
+	@Override
+	public long getMaxAttacksPerRound() { return attacksPerRound.getMax(); }
+
+	@Override
+	public double getMeanRoundMicros() { return roundNanos.getMean() / 1e3; }
+
+	@Override
+	public double getMeanAttackPhaseMicros() { return attackPhaseNanos.getMean() / 1e3; }
+
+	@Override
+	public long getAttackPhaseP99Micros() { return attackPhaseNanos.getPercentile(0.99) / 1000; }
+
+	@Override
+	public long getRerolls() { return rerolls.sum(); }
+
+	@Override
+	public long getBuys() { return buys.sum(); }
+
+	@Override
+	public long getSells() { return sells.sum(); }
+
+	@Override
+	public long[] getItemDrops() {
+		return new long[] { itemDrops[1].sum(), itemDrops[2].sum(), itemDrops[3].sum() };
+	}
+
+	@Override
+	public long getItemsLost() { return itemsLost.sum(); }
+
+	@Override
+	public long getNotifications() { return notifications.sum(); }
+
+	/**
+	 * Notifications per second since this was last asked, or over the last second if it
+	 * was asked more often than that.
+	 */
+	@Override
+	public double getNotificationsPerSecond() {
+		long now = System.nanoTime();
+		long count = notifications.sum();
+		long[] from = rateFrom.get();
+		if (now - from[0] >= 1_000_000_000L) {
+			rateFrom.compareAndSet(from, new long[] { now, count });
+		}
+		return now == from[0] ? 0 : (count - from[1]) * 1e9 / (now - from[0]);
+	}
+
+	@Override
+	public double getMeanViewUpdateMicros() { return viewUpdateNanos.getMean() / 1e3; }
+
+	@Override
+	public long getViewUpdateP99Micros() { return viewUpdateNanos.getPercentile(0.99) / 1000; }
+
+	@Override
+	public String getSummary() {
+		long[] drops = getItemDrops();
+		return String.format("rounds %d, attacks/round %.1f (max %d), round %.0f us, attackPhase %.1f us"
+				+ " (p99 %d us), rerolls %d, buys %d, sells %d, items %d/%d/%d (%d lost), notifications %d (%.0f/s),"
+				+ " view update %.0f us (p99 %d us)",
+				getRounds(), getMeanAttacksPerRound(), getMaxAttacksPerRound(), getMeanRoundMicros(),
+				getMeanAttackPhaseMicros(), getAttackPhaseP99Micros(), getRerolls(), getBuys(), getSells(),
+				drops[0], drops[1], drops[2], getItemsLost(), getNotifications(), getNotificationsPerSecond(),
+				getMeanViewUpdateMicros(), getViewUpdateP99Micros());
+	}
+
+	@Override
+	public void reset() {
+		attacksPerRound.reset();
+		roundNanos.reset();
+		attackPhaseNanos.reset();
+		viewUpdateNanos.reset();
+		rerolls.reset();
+		buys.reset();
+		sells.reset();
+		for (LongAdder drops : itemDrops) {
+			drops.reset();
+		}
+		itemsLost.reset();
+		notifications.reset();
+		rateFrom.set(new long[] { System.nanoTime(), 0 });
+	}
+
+	/**
+	 * Shows the metrics over JMX as NAME, does nothing if that's already done.
+	 */
+	public static void register() {
+		try {
+			ObjectName name = new ObjectName(NAME);
+			if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(METRICS, name);
+			}
+		} catch (JMException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Gives the summary to out every period on a daemon thread.
+	 * @return cancel it to stop
+	 */
+	public static ScheduledFuture<?> startSnapshots(long periodMillis, Consumer<String> out) {
+		ScheduledExecutorService thread = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "metrics");
+			t.setDaemon(true);
+			return t;
+		});
+		ScheduledFuture<?> snapshots = thread.scheduleAtFixedRate(() -> out.accept(METRICS.getSummary()),
+				periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+		thread.shutdown();
+		return snapshots;
+	}
+
+	/**
+	 * Counts values into buckets by their highest bit, so every bucket covers twice the
+	 * values of the one before and 64 buckets cover every long. Percentiles are the top
+	 * of the bucket they fall in, so they're at most twice the real value.
+	 */
+	public static final class Histogram {
+		private final LongAdder[] buckets = new LongAdder[64];
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+		public Histogram() {
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		/**
+		 * @param value the value, negative ones count as 0
+		 */
+		public void record(long value) {
+			value = Math.max(0, value);
+			buckets[63 - Long.numberOfLeadingZeros(value | 1)].increment();
+			count.increment();
+			sum.add(value);
+			max.accumulate(value);
+		}
+
+		public long getCount() { return count.sum(); }
+
+		public double getMean() {
+			long n = count.sum();
+			return n == 0 ? 0 : (double) sum.sum() / n;
+		}
+
+		public long getMax() { return max.get(); }
+
+		/**
+		 * @param share between 0 and 1
+		 * @return a value at least share of the values are below, 0 if there are none
+		 */
+		public long getPercentile(double share) {
+			long n = count.sum();
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i].sum();
+				if (seen > 0 && seen >= share * n) {
+					return i == 63 ? Long.MAX_VALUE : Math.min((1L << (i + 1)) - 1, getMax());
+				}
+			}
+			return 0;
+		}
+
+		public void reset() {
+			for (LongAdder bucket : buckets) {
+				bucket.reset();
+			}
+			count.reset();
+			sum.reset();
+			max.reset();
+		}
+	}
+}
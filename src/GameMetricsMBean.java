@@ -0,0 +1,54 @@
+package src;
+
+/**
+ * What GameMetrics shows over JMX. Times are in microseconds, percentiles are to
+ * within a factor of two, see GameMetrics.Histogram.
+ */
+public interface GameMetricsMBean {
+
+	long getRounds();
+
+	double getMeanAttacksPerRound();
+
+	long getMaxAttacksPerRound();
+
+	double getMeanRoundMicros();
+
+	double getMeanAttackPhaseMicros();
+
+	long getAttackPhaseP99Micros();
+
+	long getRerolls();
+
+	long getBuys();
+
+	long getSells();
+
+	/**
+	 * @return items dropped, by stars from one to three
+	 */
+	long[] getItemDrops();
+
+	/**
+	 * @return items that dropped for a player who already had 6
+	 */
+	long getItemsLost();
+
+	long getNotifications();
+
+	double getNotificationsPerSecond();
+
+	double getMeanViewUpdateMicros();
+
+	long getViewUpdateP99Micros();
+
+	/**
+	 * the snapshot as one line
+	 */
+	String getSummary();
+
+	/**
+	 * sets everything back to zero
+	 */
+	void reset();
+}
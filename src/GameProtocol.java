@@ -0,0 +1,184 @@
+package src;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * The binary protocol between GameServer and its clients.
+ *
+ * Every frame is a 2 byte length (of everything after it), a 1 byte op and a 4 byte
+ * sequence number, followed by the op's arguments, all big endian.
+ * Client to server:
+ * - BUY      shop index
+ * - MOVE     from area, from index, to area, to index (area 0 = bench, 1 = battlefield)
+ * - SELL     area, index
+ * - REROLL, LEVEL_UP, READY (no arguments, READY ends the shop phase)
+ * Server to client:
+ * - STATE    1 byte count, then count times (1 byte field, 4 byte value)
+ * - KEYFRAME, DELTA  same layout as STATE, sent to spectators by SpectatorFeed
+ *
+ * A client's state is a fixed list of int fields (see snapshot), and STATE only carries
+ * the fields that changed since the last STATE sent to that client. Replies to a command
+ * carry the command's sequence number, updates the client didn't ask for use 0.
+ */
+public class GameProtocol {
+	public static final int BUY = 1;
+	public static final int MOVE = 2;
+	public static final int SELL = 3;
+	public static final int REROLL = 4;
+	public static final int LEVEL_UP = 5;
+	public static final int READY = 6;
+	public static final int STATE = 16;
+	// sent by SpectatorFeed, same layout as STATE
+	public static final int KEYFRAME = 17;
+	public static final int DELTA = 18;
+
+	// fields of a snapshot
+	public static final int GOLD = 0;
+	public static final int HEALTH = 1;
+	public static final int LEVEL = 2;
+	public static final int ROUND = 3;
+	public static final int OPPONENT_HEALTH = 4;
+	public static final int BENCH = 5;
+	public static final int BATTLEFIELD = BENCH + 7;
+	public static final int SHOP = BATTLEFIELD + 7;
+	public static final int ITEMS = SHOP + 3;
+	public static final int FIELDS = ITEMS + 6;
+
+	// frame header is the length, op and sequence number
+	public static final int HEADER_BYTES = 7;
+	public static final int MAX_FRAME = HEADER_BYTES + 1 + FIELDS * 5;
+
+	private static final String[] NAMES = Shop.getChampionNames();
+	private static final HashMap<String, Integer> IDS = new HashMap<>();
+	static {
+		for (int i = 0; i < NAMES.length; i++) {
+			IDS.put(NAMES[i], i + 1);
+		}
+	}
+
+	/**
+	 * Code sent for a champion, 0 for an empty slot. The low byte is the champion's
+	 * position in Shop.getChampionNames() plus one, the next byte its upgrade level.
+	 */
+	public static int championCode(Champion champ) {
+		if (champ == null) {
+			return 0;
+		}
+		return IDS.getOrDefault(champ.getName(), 0) | champ.getUpgradeLevel() << 8;
+	}
+
+	/**
+	 * @return the name of the champion in a code sent by championCode, null if empty
+	 */
+	public static String championName(int code) {
+		int id = code & 0xFF;
+		return id == 0 ? null : NAMES[id - 1];
+	}
+
+	/**
+	 * Fills in everything a player can see of the game.
+	 * @param self     the player the snapshot is for
+	 * @param opponent the other player in the game
+	 * @param round    the current round
+	 * @param fields   array of length FIELDS to fill
+	 */
+	public static void snapshot(Player self, Player opponent, int round, int[] fields) {
+		fields[GOLD] = self.getGold();
+		fields[HEALTH] = self.getHealth();
+		fields[LEVEL] = self.getLevel();
+		fields[ROUND] = round;
+		fields[OPPONENT_HEALTH] = opponent.getHealth();
+		for (int i = 0; i < 7; i++) {
+			fields[BENCH + i] = championCode(self.getBench()[i]);
+			fields[BATTLEFIELD + i] = championCode(self.getBattleField()[i]);
+		}
+		Champion[] shop = self.getShop().getShop();
+		for (int i = 0; i < 3; i++) {
+			fields[SHOP + i] = championCode(shop[i]);
+		}
+		Item[] items = self.getItems();
+		for (int i = 0; i < 6; i++) {
+			fields[ITEMS + i] = items[i] == null ? 0 : items[i].getRarity();
+		}
+	}
+
+	/**
+	 * Writes a STATE frame with the fields that differ between two snapshots, and
+	 * copies the changed fields into the old snapshot.
+	 * @param seq    sequence number of the command being answered, 0 for none
+	 * @param sent   the fields the client already has, updated to now
+	 * @param now    the current fields
+	 * @param out    where the frame is written, needs MAX_FRAME bytes free
+	 * @return how many fields changed
+	 */
+	public static int writeState(int seq, int[] sent, int[] now, ByteBuffer out) {
+		return writeFields(STATE, seq, sent, now, out);
+	}
+
+	/**
+	 * writeState for any op whose frame is a list of changed fields
+	 */
+	public static int writeFields(int op, int seq, int[] sent, int[] now, ByteBuffer out) {
+		int start = out.position();
+		out.putShort((short) 0);
+		out.put((byte) op);
+		out.putInt(seq);
+		int countAt = out.position();
+		out.put((byte) 0);
+		int changed = 0;
+		for (int field = 0; field < now.length; field++) {
+			if (sent[field] != now[field]) {
+				out.put((byte) field);
+				out.putInt(now[field]);
+				sent[field] = now[field];
+				changed++;
+			}
+		}
+		out.put(countAt, (byte) changed);
+		out.putShort(start, (short) (out.position() - start - 2));
+		return changed;
+	}
+
+	/**
+	 * Applies a STATE frame's fields to a client's copy of its state.
+	 * @param frame positioned just after the sequence number
+	 * @param state the client's fields, updated in place
+	 */
+	public static void readState(ByteBuffer frame, int[] state) {
+		int count = frame.get() & 0xFF;
+		for (int i = 0; i < count; i++) {
+			int field = frame.get() & 0xFF;
+			state[field] = frame.getInt();
+		}
+	}
+
+	/**
+	 * @return how many argument bytes a command from a client carries
+	 */
+	public static int argBytes(int op) {
+		switch (op) {
+		case BUY:
+			return 1;
+		case MOVE:
+			return 4;
+		case SELL:
+			return 2;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Writes a command frame.
+	 * @param args the op's arguments, each sent as one byte
+	 */
+	public static void writeCommand(int op, int seq, ByteBuffer out, int... args) {
+		out.putShort((short) (HEADER_BYTES - 2 + args.length));
+		out.put((byte) op);
+		out.putInt(seq);
+		for (int arg : args) {
+			out.put((byte) arg);
+		}
+	}
+}
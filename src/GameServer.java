@@ -0,0 +1,388 @@
+package src;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Hosts AutoBattlerModel games over the network, speaking GameProtocol. Every client
+ * that connects is put in the game that is waiting for a second player, or starts a
+ * new one. All connections are handled by one thread with an NIO selector, and since
+ * that thread is the only one touching the models no locking is needed.
+ *
+ * After every command, each player in the game is sent the fields of their state that
+ * changed. The round is fought once every connected player in the game is READY. If a
+ * player leaves a game that has started, the AI takes over their side so the one left
+ * still has someone to fight.
+ *
+ * Run with: java src.GameServer port
+ */
+public class GameServer implements Runnable {
+	private final Selector selector;
+	private final ServerSocketChannel server;
+	private final ByteBuffer scratch;
+	// a client with this many replies it hasn't read is dropped
+	private static final int MAX_QUEUED = 64;
+	private Game waiting;
+	private volatile boolean running;
+
+	/**
+	 * Opens the server socket, call run() to start serving.
+	 * @param port the port to listen on, 0 for any free port
+	 * @throws IOException if the port can't be opened
+	 */
+	public GameServer(int port) throws IOException {
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(port));
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		scratch = ByteBuffer.allocate(GameProtocol.MAX_FRAME);
+		running = true;
+	}
+
+	public static void main(String[] args) throws IOException {
+		GameServer gameServer = new GameServer(Integer.parseInt(args[0]));
+		GameMetrics.register();
+		System.out.println("listening on " + gameServer.getPort());
+		gameServer.run();
+	}
+
+	/**
+	 * @return the port the server is listening on
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * stops the server, it closes every connection once run() notices
+	 */
+	public void stop() {
+		running = false;
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				selector.select();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (!key.isValid()) {
+							continue;
+						}
+						if (key.isAcceptable()) {
+							accept();
+						}
+						if (key.isValid() && key.isReadable()) {
+							read(key);
+						}
+						if (key.isValid() && key.isWritable()) {
+							write(key);
+						}
+					} catch (IOException | RuntimeException e) {
+						// only the client that caused it is dropped, the other games go on
+						disconnect(key);
+					}
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("game server stopped: " + e.getMessage());
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				try {
+					key.channel().close();
+				} catch (IOException e) {
+					// already closing everything
+				}
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// already closing everything
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = server.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		if (waiting == null) {
+			waiting = new Game();
+		}
+		Game game = waiting;
+		int player = game.players[0] == null ? 0 : 1;
+		Connection connection = new Connection(channel, game, player);
+		game.players[player] = connection;
+		if (player == 1) {
+			waiting = null;
+		}
+		connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+		// the first STATE is every field, since the client starts with nothing
+		sendState(connection, 0, true);
+	}
+
+	private void read(SelectionKey key) throws IOException {
+		Connection connection = (Connection) key.attachment();
+		ByteBuffer in = connection.in;
+		if (connection.channel.read(in) < 0) {
+			disconnect(key);
+			return;
+		}
+		in.flip();
+		while (in.remaining() >= 2 && key.isValid()) {
+			int length = in.getShort(in.position()) & 0xFFFF;
+			if (length > in.capacity() - 2) {
+				throw new IOException("frame too long: " + length);
+			}
+			if (length < GameProtocol.HEADER_BYTES - 2) {
+				throw new IOException("frame too short: " + length);
+			}
+			if (in.remaining() < length + 2) {
+				break;
+			}
+			int end = in.position() + 2 + length;
+			int limit = in.limit();
+			in.position(in.position() + 2);
+			int op = in.get();
+			if (length < GameProtocol.HEADER_BYTES - 2 + GameProtocol.argBytes(op)) {
+				throw new IOException("frame too short for op " + op + ": " + length);
+			}
+			int seq = in.getInt();
+			// handle() can't read into the next frame
+			in.limit(end);
+			handle(connection, op, seq, in);
+			in.limit(limit);
+			in.position(end);
+		}
+		in.compact();
+	}
+
+	/**
+	 * Runs one command for a player and sends out the changes.
+	 */
+	private void handle(Connection connection, int op, int seq, ByteBuffer args) {
+		Game game = connection.game;
+		Player player = connection.player == 0 ? game.model.getP1() : game.model.getP2();
+		AutoBattlerController controller = game.controller;
+		switch (op) {
+		case GameProtocol.BUY:
+			controller.buyCharacter(player, args.get());
+			break;
+		case GameProtocol.MOVE:
+			int[] origin = { args.get(), args.get() };
+			int[] destination = { args.get(), args.get() };
+			if (validSlot(origin) && validSlot(destination)) {
+				controller.changePosition(origin, connection.player + 1, destination);
+			}
+			break;
+		case GameProtocol.SELL:
+			int area = args.get();
+			int index = args.get();
+			if (validSlot(new int[] { area, index })) {
+				controller.sellChampion(player, area, index);
+			}
+			break;
+		case GameProtocol.REROLL:
+			controller.rerollShop(player);
+			break;
+		case GameProtocol.LEVEL_UP:
+			controller.levelup(player);
+			break;
+		case GameProtocol.READY:
+			game.ready[connection.player] = true;
+			if (game.allReady()) {
+				game.fight();
+			}
+			break;
+		default:
+			// unknown commands are ignored but still answered
+			break;
+		}
+		for (Connection other : game.players) {
+			if (other != null && other != connection) {
+				sendState(other, 0, false);
+			}
+		}
+		sendState(connection, seq, true);
+	}
+
+	private static boolean validSlot(int[] slot) {
+		return (slot[0] == 0 || slot[0] == 1) && slot[1] >= 0 && slot[1] < 7;
+	}
+
+	/**
+	 * Queues a STATE frame with whatever changed for this connection.
+	 * @param always send the frame even if nothing changed, so commands always get a reply
+	 */
+	private void sendState(Connection connection, int seq, boolean always) {
+		Game game = connection.game;
+		Player self = connection.player == 0 ? game.model.getP1() : game.model.getP2();
+		Player opponent = connection.player == 0 ? game.model.getP2() : game.model.getP1();
+		GameProtocol.snapshot(self, opponent, game.round, connection.now);
+		scratch.clear();
+		int changed = GameProtocol.writeState(seq, connection.sent, connection.now, scratch);
+		if (changed == 0 && !always) {
+			return;
+		}
+		if (connection.out.size() >= MAX_QUEUED) {
+			// it isn't reading, so its replies would pile up forever
+			disconnect(connection.key);
+			return;
+		}
+		scratch.flip();
+		ByteBuffer frame = ByteBuffer.allocate(scratch.remaining());
+		frame.put(scratch);
+		frame.flip();
+		connection.out.add(frame);
+		try {
+			write(connection.key);
+		} catch (IOException e) {
+			disconnect(connection.key);
+		}
+	}
+
+	private void write(SelectionKey key) throws IOException {
+		Connection connection = (Connection) key.attachment();
+		while (!connection.out.isEmpty()) {
+			ByteBuffer frame = connection.out.peek();
+			connection.channel.write(frame);
+			if (frame.hasRemaining()) {
+				// the socket is full, finish when it can take more
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				return;
+			}
+			connection.out.poll();
+		}
+		key.interestOps(SelectionKey.OP_READ);
+	}
+
+	private void disconnect(SelectionKey key) {
+		Connection connection = (Connection) key.attachment();
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// closing anyway
+		}
+		if (connection == null || connection.game.players[connection.player] != connection) {
+			// not a player, or already disconnected
+			return;
+		}
+		Game game = connection.game;
+		game.players[connection.player] = null;
+		if (waiting == game && connection.player == 0) {
+			waiting = null;
+			return;
+		}
+		if (game.players[1 - connection.player] == null) {
+			// nobody left, the game is dropped
+			return;
+		}
+		game.ai[connection.player] = true;
+		// the one left may have been waiting for this player to be ready
+		if (game.allReady()) {
+			game.fight();
+			Connection other = game.players[1 - connection.player];
+			sendState(other, 0, false);
+		}
+	}
+
+	/**
+	 * one model and the (up to two) players connected to it
+	 */
+	private static class Game {
+		private final AutoBattlerModel model;
+		private final AutoBattlerController controller;
+		private final Connection[] players;
+		private final boolean[] ready;
+		// sides played by the AI since their player left
+		private final boolean[] ai;
+		private ShopPlanner planner;
+		private int round;
+
+		Game() {
+			model = new AutoBattlerModel();
+			controller = new AutoBattlerController(model);
+			players = new Connection[2];
+			ready = new boolean[2];
+			ai = new boolean[2];
+			controller.startShopPhase();
+		}
+
+		boolean allReady() {
+			for (int i = 0; i < 2; i++) {
+				if (players[i] != null && !ready[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * fights the round and starts the next shop phase
+		 */
+		void fight() {
+			for (int i = 0; i < 2; i++) {
+				if (ai[i]) {
+					playAI(i == 0 ? model.getP1() : model.getP2(), i == 0 ? model.getP2() : model.getP1());
+				}
+			}
+			controller.giveTraitBonuses();
+			controller.startAttackPhase();
+			controller.startShopPhase();
+			round++;
+			ready[0] = false;
+			ready[1] = false;
+		}
+
+		/**
+		 * plays a shop phase for a player that left, with short planner calls so the
+		 * other games aren't held up
+		 */
+		private void playAI(Player player, Player opponent) {
+			if (planner == null) {
+				planner = new ShopPlanner(2, 4, 2_000_000L);
+			}
+			planner.playTurn(model, player);
+			ItemAssigner.apply(player, opponent.getBattleField());
+		}
+	}
+
+	private static class Connection {
+		private final SocketChannel channel;
+		private final Game game;
+		private final int player;
+		private final ByteBuffer in;
+		private final ArrayDeque<ByteBuffer> out;
+		// the fields this client has been sent, and scratch space for the current ones
+		private final int[] sent;
+		private final int[] now;
+		private SelectionKey key;
+
+		Connection(SocketChannel channel, Game game, int player) {
+			this.channel = channel;
+			this.game = game;
+			this.player = player;
+			in = ByteBuffer.allocate(1024);
+			out = new ArrayDeque<>();
+			sent = new int[GameProtocol.FIELDS];
+			now = new int[GameProtocol.FIELDS];
+		}
+	}
+}
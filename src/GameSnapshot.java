@@ -0,0 +1,136 @@
+package src;
+
+/**
+ * An immutable copy of everything visible in a game at one moment, published by
+ * GameActor after each batch of commands. It can be read from any thread while the
+ * game goes on, it never changes after it is made.
+ */
+public final class GameSnapshot {
+	private final long version;
+	private final int round;
+	private final PlayerState p1;
+	private final PlayerState p2;
+
+	private GameSnapshot(long version, AutoBattlerModel model) {
+		this.version = version;
+		round = model.getRound();
+		p1 = new PlayerState(model.getP1());
+		p2 = new PlayerState(model.getP2());
+	}
+
+	/**
+	 * Copies a model, only call this from the thread that owns it.
+	 * @param version how many batches the model's owner has run
+	 * @param model   the game to copy
+	 * @return the snapshot
+	 */
+	static GameSnapshot of(long version, AutoBattlerModel model) {
+		return new GameSnapshot(version, model);
+	}
+
+	/**
+	 * @return how many batches of commands had run when this was taken, later
+	 *         snapshots of the same game have higher versions
+	 */
+	public long getVersion() { return version; }
+
+	public int getRound() { return round; }
+
+	public PlayerState getP1() { return p1; }
+
+	public PlayerState getP2() { return p2; }
+
+	/**
+	 * one player's part of a snapshot
+	 */
+	public static final class PlayerState {
+		private final int gold;
+		private final int health;
+		private final int level;
+		private final ChampionState[] bench;
+		private final ChampionState[] battleField;
+		private final ChampionState[] shop;
+		private final String[] items;
+
+		private PlayerState(Player player) {
+			gold = player.getGold();
+			health = player.getHealth();
+			level = player.getLevel();
+			bench = copy(player.getBench());
+			battleField = copy(player.getBattleField());
+			shop = copy(player.getShop().getShop());
+			Item[] held = player.getItems();
+			items = new String[held.length];
+			for (int i = 0; i < held.length; i++) {
+				items[i] = held[i] == null ? null : held[i].getName();
+			}
+		}
+
+		private static ChampionState[] copy(Champion[] champions) {
+			ChampionState[] copies = new ChampionState[champions.length];
+			for (int i = 0; i < champions.length; i++) {
+				copies[i] = champions[i] == null ? null : new ChampionState(champions[i]);
+			}
+			return copies;
+		}
+
+		public int getGold() { return gold; }
+
+		public int getHealth() { return health; }
+
+		public int getLevel() { return level; }
+
+		/**
+		 * @return a copy of the bench, null for empty slots
+		 */
+		public ChampionState[] getBench() { return bench.clone(); }
+
+		/**
+		 * @return a copy of the battlefield, null for empty slots
+		 */
+		public ChampionState[] getBattleField() { return battleField.clone(); }
+
+		/**
+		 * @return a copy of the shop, null for champions already bought
+		 */
+		public ChampionState[] getShop() { return shop.clone(); }
+
+		/**
+		 * @return the names of the items held, null for empty slots
+		 */
+		public String[] getItems() { return items.clone(); }
+	}
+
+	/**
+	 * one champion's part of a snapshot
+	 */
+	public static final class ChampionState {
+		private final String name;
+		private final String type;
+		private final int stars;
+		private final int upgradeLevel;
+		private final int hp;
+		private final int atk;
+
+		private ChampionState(Champion champion) {
+			name = champion.getName();
+			type = champion.getType();
+			stars = champion.getStars();
+			upgradeLevel = champion.getUpgradeLevel();
+			hp = champion.getHp();
+			atk = champion.getAtk();
+		}
+
+		public String getName() { return name; }
+
+		public String getType() { return type; }
+
+		public int getStars() { return stars; }
+
+		public int getUpgradeLevel() { return upgradeLevel; }
+
+		public int getHp() { return hp; }
+
+		public int getAtk() { return atk; }
+	}
+}
@@ -0,0 +1,193 @@
+package src;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Java Flight Recorder events for the phases of the game loop and the controller's
+ * commands, so a slow round can be broken down into where the time went.
+ *
+ * The events are off unless a recording turns them on, game.jfc in the project folder
+ * does. With no recording, begin() and end() do nothing and the fields are never
+ * filled in, so the JIT drops the event altogether. They carry no stack trace since
+ * the nesting of the events is the breakdown. To record a game and fold the phases into
+ * the format flame graph tools read:
+ *
+ *     java -XX:StartFlightRecording:settings=game.jfc,filename=game.jfr src.AutoBattler
+ *     java src.GameTrace game.jfr > game.folded
+ */
+public class GameTrace {
+
+	/**
+	 * One phase of a game, like attackPhase() or the view's update().
+	 */
+	@Name("src.Phase")
+	@Label("Game Phase")
+	@Category("Auto Battler")
+	@Description("A phase of the game loop")
+	@Enabled(false)
+	@StackTrace(false)
+	public static class PhaseEvent extends Event {
+		@Label("Phase")
+		String phase;
+		@Label("Game")
+		long game;
+		@Label("Round")
+		int round;
+		@Label("P1 Units")
+		int p1Units;
+		@Label("P2 Units")
+		int p2Units;
+	}
+
+	/**
+	 * One command given to the controller, by a player or the GUI.
+	 */
+	@Name("src.Command")
+	@Label("Controller Command")
+	@Category("Auto Battler")
+	@Description("A command given to AutoBattlerController")
+	@Enabled(false)
+	@StackTrace(false)
+	public static class CommandEvent extends Event {
+		@Label("Command")
+		String command;
+		@Label("Game")
+		long game;
+		@Label("Round")
+		int round;
+		@Label("Player")
+		int player;
+		@Label("Units")
+		int units;
+	}
+
+	private GameTrace() {
+	}
+
+	/**
+	 * Starts timing a phase, give the event to end() when it's over.
+	 */
+	public static PhaseEvent phase() {
+		PhaseEvent event = new PhaseEvent();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Ends a phase, and records it if a recording wants it.
+	 * @param phase the name of the phase
+	 * @param model the game it happened in
+	 */
+	public static void end(PhaseEvent event, String phase, AutoBattlerModel model) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.phase = phase;
+			event.game = model.getGameId();
+			event.round = model.getRound();
+			event.p1Units = Integer.bitCount(model.getP1().getBattleFieldMask());
+			event.p2Units = Integer.bitCount(model.getP2().getBattleFieldMask());
+			event.commit();
+		}
+	}
+
+	/**
+	 * Starts timing a command, give the event to end() when it's over.
+	 */
+	public static CommandEvent command() {
+		CommandEvent event = new CommandEvent();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Ends a command, and records it if a recording wants it.
+	 * @param command the name of the command
+	 * @param model   the game it was given to
+	 * @param player  the player it was for, null if it wasn't for one
+	 */
+	public static void end(CommandEvent event, String command, AutoBattlerModel model, Player player) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.command = command;
+			event.game = model.getGameId();
+			event.round = model.getRound();
+			event.player = player == model.getP1() ? 1 : player == model.getP2() ? 2 : 0;
+			event.units = player == null ? 0 : Integer.bitCount(player.getBattleFieldMask());
+			event.commit();
+		}
+	}
+
+	/**
+	 * Folds the phases and commands of a recording into stacks, by which events each
+	 * one happened inside of on its thread.
+	 * @param recording the .jfr file
+	 * @return microseconds spent in each stack and not in anything inside it, by stacks
+	 *         like "main;AIturn;AIturn", the thread first
+	 * @throws IOException if the recording can't be read
+	 */
+	public static Map<String, Long> fold(Path recording) throws IOException {
+		HashMap<Long, List<RecordedEvent>> byThread = new HashMap<>();
+		for (RecordedEvent event : RecordingFile.readAllEvents(recording)) {
+			String type = event.getEventType().getName();
+			if ((type.equals("src.Phase") || type.equals("src.Command")) && event.getThread() != null) {
+				byThread.computeIfAbsent(event.getThread().getId(), k -> new ArrayList<>()).add(event);
+			}
+		}
+		Map<String, Long> folded = new TreeMap<>();
+		for (List<RecordedEvent> events : byThread.values()) {
+			// outer events first, they start no later and end no sooner
+			events.sort(Comparator.comparing(RecordedEvent::getStartTime)
+					.thenComparing(RecordedEvent::getEndTime, Comparator.reverseOrder()));
+			String thread = events.get(0).getThread().getJavaName();
+			ArrayDeque<RecordedEvent> open = new ArrayDeque<>();
+			ArrayDeque<String> stacks = new ArrayDeque<>();
+			for (RecordedEvent event : events) {
+				while (!open.isEmpty() && !open.peek().getEndTime().isAfter(event.getStartTime())) {
+					open.pop();
+					stacks.pop();
+				}
+				String stack = (stacks.isEmpty() ? thread : stacks.peek()) + ";" + name(event);
+				long micros = event.getDuration().toNanos() / 1000;
+				folded.merge(stack, micros, Long::sum);
+				if (!stacks.isEmpty()) {
+					// the parent's own time doesn't include this
+					folded.merge(stacks.peek(), -micros, Long::sum);
+				}
+				open.push(event);
+				stacks.push(stack);
+			}
+		}
+		return folded;
+	}
+
+	private static String name(RecordedEvent event) {
+		return event.hasField("phase") ? event.getString("phase") : event.getString("command");
+	}
+
+	/**
+	 * Prints the folded stacks of a recording, one "stack microseconds" a line.
+	 */
+	public static void main(String[] args) throws IOException {
+		for (Map.Entry<String, Long> stack : fold(Path.of(args[0])).entrySet()) {
+			System.out.println(stack.getKey() + " " + Math.max(0, stack.getValue()));
+		}
+	}
+}
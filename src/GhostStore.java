@@ -0,0 +1,300 @@
+package src;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Battlefields real players fielded, kept on disk so single player games can fight
+ * them instead of the AI. Every board is appended to a log file as a fixed size record.
+ * Only a sorted index of (round, level, strength, record number) packed into one long
+ * per board is kept on the heap, so finding a comparable board is a binary search and
+ * only the board that is picked is read back from disk.
+ *
+ * record() only copies the board, the disk write and index update happen on a
+ * background thread so a fight never waits on the disk.
+ */
+public class GhostStore implements AutoCloseable {
+	private static final int RECORD_BYTES = 64;
+	// how the index packs a board into a long, from the top bit down
+	private static final int ROUND_BITS = 10;
+	private static final int LEVEL_BITS = 4;
+	private static final int STRENGTH_BITS = 24;
+	private static final int RECORD_BITS = 64 - ROUND_BITS - LEVEL_BITS - STRENGTH_BITS;
+	private static final int MAX_STRENGTH = (1 << STRENGTH_BITS) - 1;
+	// new keys are kept sorted in a small array and merged into the big one when it fills
+	private static final int PENDING = 1024;
+
+	private final FileChannel log;
+	private final ExecutorService writer;
+	private long[] index;
+	private int indexSize;
+	private final long[] pending;
+	private int pendingSize;
+	private long records;
+
+	private GhostStore(FileChannel log) {
+		this.log = log;
+		writer = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "ghost-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		index = new long[PENDING];
+		pending = new long[PENDING];
+	}
+
+	/**
+	 * Opens the store in the given file, creating it if it doesn't exist yet. Reads
+	 * through the file once to build the index.
+	 * @param file the log file
+	 * @return the store
+	 * @throws IOException if the file can't be read
+	 */
+	public static GhostStore open(Path file) throws IOException {
+		FileChannel log = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		GhostStore store = new GhostStore(log);
+		long count = log.size() / RECORD_BYTES;
+		ByteBuffer chunk = ByteBuffer.allocateDirect(RECORD_BYTES * 4096);
+		long[] keys = new long[(int) Math.max(count, PENDING)];
+		long record = 0;
+		while (record < count) {
+			chunk.clear();
+			chunk.limit((int) Math.min(chunk.capacity(), (count - record) * RECORD_BYTES));
+			long position = record * RECORD_BYTES;
+			while (chunk.hasRemaining()) {
+				if (log.read(chunk, position + chunk.position()) < 0) {
+					throw new IOException("ghost log ended early");
+				}
+			}
+			chunk.flip();
+			for (int at = 0; at < chunk.limit(); at += RECORD_BYTES) {
+				keys[(int) record] = key(chunk.getShort(at), chunk.get(at + 2), chunk.getInt(at + 4), record);
+				record++;
+			}
+		}
+		Arrays.sort(keys, 0, (int) count);
+		store.index = keys;
+		store.indexSize = (int) count;
+		store.records = count;
+		return store;
+	}
+
+	/**
+	 * Saves a player's battlefield as they fight with it. Returns right away, the board
+	 * is written in the background.
+	 * @param round       the round being fought
+	 * @param level       the player's level
+	 * @param battleField the board. Its champions are saved at their initial stats, the
+	 *                    trait bonuses are given out again when the ghost is fought
+	 */
+	public void record(int round, int level, Champion[] battleField) {
+		ByteBuffer board = ByteBuffer.allocate(RECORD_BYTES);
+		board.putShort((short) Math.min(round, (1 << ROUND_BITS) - 1));
+		board.put((byte) Math.min(level, (1 << LEVEL_BITS) - 1));
+		board.put((byte) 0);
+		board.putInt(strength(battleField));
+		for (Champion champ : battleField) {
+			board.putShort((short) GameProtocol.championCode(champ));
+			board.putShort((short) (champ == null ? 0 : Math.min(champ.getInitialHp(), Short.MAX_VALUE)));
+			board.putShort((short) (champ == null ? 0 : Math.min(champ.getInitialAtk(), Short.MAX_VALUE)));
+		}
+		board.clear();
+		writer.execute(() -> append(board));
+	}
+
+	/**
+	 * Finds the stored board closest in strength to the given one, among the boards
+	 * fielded in the same round by a player of the same level. If there are none at that
+	 * level the nearest level that has any is used.
+	 * @param round    the round to be fought
+	 * @param level    the player's level
+	 * @param strength strength of the player's board, see strength()
+	 * @return a fresh copy of the board, null if no board was stored for that round
+	 * @throws IOException if the board can't be read
+	 */
+	public Champion[] findOpponent(int round, int level, int strength) throws IOException {
+		long record = -1;
+		synchronized (this) {
+			for (int d = 0; d < (1 << LEVEL_BITS) && record < 0; d++) {
+				record = nearest(round, level - d, strength);
+				if (record < 0 && d > 0) {
+					record = nearest(round, level + d, strength);
+				}
+			}
+		}
+		return record < 0 ? null : read(record);
+	}
+
+	/**
+	 * How strong a board is, the product of its total hp and total atk. When both
+	 * sides trade hits until one runs out, that is what decides who is left standing.
+	 * Initial stats are used, the same ones record() saves, so trait bonuses and damage
+	 * taken don't change a board's strength.
+	 * @param battleField the board
+	 * @return the strength, capped to fit the index
+	 */
+	public static int strength(Champion[] battleField) {
+		long hp = 0;
+		long atk = 0;
+		for (Champion champ : battleField) {
+			if (champ != null) {
+				hp += champ.getInitialHp();
+				atk += champ.getInitialAtk();
+			}
+		}
+		return (int) Math.min(hp * atk, MAX_STRENGTH);
+	}
+
+	/**
+	 * @return how many boards are stored and indexed, boards still being written in the
+	 *         background are not counted yet
+	 */
+	public synchronized long size() {
+		return indexSize + pendingSize;
+	}
+
+	/**
+	 * waits for every board passed to record() so far to be written
+	 */
+	public void flush() {
+		try {
+			writer.submit(() -> {
+				log.force(false);
+				return null;
+			}).get();
+		} catch (Exception e) {
+			throw new IllegalStateException("couldn't flush the ghost log", e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.shutdown();
+		try {
+			writer.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		log.close();
+	}
+
+	/**
+	 * writes a board to the end of the log and indexes it, only run on the writer thread
+	 */
+	private void append(ByteBuffer board) {
+		long record = records;
+		try {
+			while (board.hasRemaining()) {
+				log.write(board, record * RECORD_BYTES + board.position());
+			}
+		} catch (IOException e) {
+			System.err.println("couldn't save ghost board: " + e.getMessage());
+			return;
+		}
+		records++;
+		long key = key(board.getShort(0), board.get(2), board.getInt(4), record);
+		synchronized (this) {
+			int at = -Arrays.binarySearch(pending, 0, pendingSize, key) - 1;
+			System.arraycopy(pending, at, pending, at + 1, pendingSize - at);
+			pending[at] = key;
+			pendingSize++;
+			if (pendingSize == PENDING) {
+				mergePending();
+			}
+		}
+	}
+
+	/**
+	 * merges the pending keys into the index from the back, so it only needs a new
+	 * array when it has to grow
+	 */
+	private void mergePending() {
+		if (index.length < indexSize + pendingSize) {
+			index = Arrays.copyOf(index, indexSize + pendingSize + (indexSize >> 1));
+		}
+		int i = indexSize - 1;
+		int p = pendingSize - 1;
+		for (int out = indexSize + pendingSize - 1; p >= 0; out--) {
+			index[out] = i >= 0 && index[i] > pending[p] ? index[i--] : pending[p--];
+		}
+		indexSize += pendingSize;
+		pendingSize = 0;
+	}
+
+	/**
+	 * the record closest in strength with the same round and level, -1 if there is none
+	 */
+	private long nearest(int round, int level, int strength) {
+		if (level < 0 || level >= (1 << LEVEL_BITS)) {
+			return -1;
+		}
+		long target = key(Math.min(round, (1 << ROUND_BITS) - 1), level, Math.min(strength, MAX_STRENGTH), 0);
+		long best = nearest(index, indexSize, target);
+		long other = nearest(pending, pendingSize, target);
+		if (best == -1 || (other != -1 && Math.abs(strengthOf(other) - strength) < Math.abs(strengthOf(best) - strength))) {
+			best = other;
+		}
+		return best == -1 ? -1 : best & ((1L << RECORD_BITS) - 1);
+	}
+
+	/**
+	 * the key next to target with the same round and level and the closest strength
+	 */
+	private static long nearest(long[] keys, int size, long target) {
+		int at = Arrays.binarySearch(keys, 0, size, target);
+		if (at < 0) {
+			at = -at - 1;
+		}
+		long group = target >>> (STRENGTH_BITS + RECORD_BITS);
+		long best = -1;
+		int strength = strengthOf(target);
+		for (int i = at - 1; i <= at; i++) {
+			if (i >= 0 && i < size && keys[i] >>> (STRENGTH_BITS + RECORD_BITS) == group
+					&& (best == -1 || Math.abs(strengthOf(keys[i]) - strength) < Math.abs(strengthOf(best) - strength))) {
+				best = keys[i];
+			}
+		}
+		return best;
+	}
+
+	private Champion[] read(long record) throws IOException {
+		ByteBuffer board = ByteBuffer.allocate(RECORD_BYTES);
+		while (board.hasRemaining() && log.read(board, record * RECORD_BYTES + board.position()) > 0) {
+			// a record is tiny, this only loops on a short read
+		}
+		Champion[] battleField = new Champion[7];
+		for (int i = 0; i < 7; i++) {
+			int at = 8 + i * 6;
+			String name = GameProtocol.championName(board.getShort(at));
+			if (name == null) {
+				continue;
+			}
+			Champion champ = Shop.createChampion(name);
+			for (int level = 1; level < (board.getShort(at) >> 8); level++) {
+				champ.upgrade();
+			}
+			champ.restoreStats(board.getShort(at + 2), board.getShort(at + 4));
+			battleField[i] = champ;
+		}
+		return battleField;
+	}
+
+	private static long key(int round, int level, int strength, long record) {
+		return (long) round << (LEVEL_BITS + STRENGTH_BITS + RECORD_BITS)
+				| (long) level << (STRENGTH_BITS + RECORD_BITS)
+				| (long) strength << RECORD_BITS
+				| record;
+	}
+
+	private static int strengthOf(long key) {
+		return (int) (key >>> RECORD_BITS) & MAX_STRENGTH;
+	}
+}
@@ -5,6 +5,6 @@ public class Homa extends Item{
 	public Homa() {
         setName("homa");
         setRarity(3);
-        setType("Spear");
+        setType("Polearm");
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
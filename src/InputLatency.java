@@ -0,0 +1,165 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Measures how long it takes from the player's input to the scene showing what it did.
+ *
+ * The view calls input() when a mouse or key event arrives, before any handler runs,
+ * and pulse() from the scene's post layout pulse listener, which runs once the scene
+ * has been laid out with every change the handlers made and before it's rendered.
+ * Every input since the last pulse is given the time up to that pulse, sorted by the
+ * kind of input, like "shop" for a click on a shop card. Only use it from the FX thread.
+ *
+ * The latencies are kept in Latencies instead of GameMetrics.Histogram, whose buckets
+ * are powers of two so its percentiles can be off by up to twice. An overlay showing
+ * a p99 of 16.8 ms for inputs that really took 9 ms is no use for finding slow frames.
+ */
+public class InputLatency {
+	// inputs waiting for a pulse past this are dropped, they'd be from a stuck FX thread
+	private static final int MAX_PENDING = 64;
+
+	private final Map<String, Latencies> kinds = new LinkedHashMap<>();
+	private final Latencies all = new Latencies();
+	private final ArrayList<String> pendingKinds = new ArrayList<>();
+	private final long[] pendingTimes = new long[MAX_PENDING];
+
+	/**
+	 * Timestamps an input, it's measured at the next pulse.
+	 * @param kind  what the input was on
+	 * @param nanos System.nanoTime() when it arrived
+	 */
+	public void input(String kind, long nanos) {
+		if (pendingKinds.size() < MAX_PENDING) {
+			pendingTimes[pendingKinds.size()] = nanos;
+			pendingKinds.add(kind);
+		}
+	}
+
+	/**
+	 * Records every input waiting for this pulse.
+	 * @param nanos System.nanoTime() at the pulse
+	 * @return false if there were none
+	 */
+	public boolean pulse(long nanos) {
+		if (pendingKinds.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < pendingKinds.size(); i++) {
+			long latency = nanos - pendingTimes[i];
+			kinds.computeIfAbsent(pendingKinds.get(i), k -> new Latencies()).record(latency);
+			all.record(latency);
+		}
+		pendingKinds.clear();
+		return true;
+	}
+
+	/**
+	 * @return the latencies of one kind of input in nanoseconds, null if there were none
+	 */
+	public Latencies get(String kind) {
+		return kinds.get(kind);
+	}
+
+	/**
+	 * @return the latencies of every input in nanoseconds
+	 */
+	public Latencies getAll() {
+		return all;
+	}
+
+	/**
+	 * @return a line for every input kind with its count and percentiles in ms, all of
+	 *         them first
+	 */
+	public String summary() {
+		String res = line("all", all);
+		for (Map.Entry<String, Latencies> kind : kinds.entrySet()) {
+			res += "\n" + line(kind.getKey(), kind.getValue());
+		}
+		return res;
+	}
+
+	private static String line(String kind, Latencies latencies) {
+		return String.format("%s x%d: p50 %.1f p90 %.1f p99 %.1f max %.1f ms", kind, latencies.getCount(),
+				latencies.getPercentile(0.5) / 1e6, latencies.getPercentile(0.9) / 1e6,
+				latencies.getPercentile(0.99) / 1e6, latencies.getMax() / 1e6);
+	}
+
+	/**
+	 * A histogram like HdrHistogram's: every power of two is split into SUB_BUCKETS
+	 * buckets of the same width, so a percentile is at most 1 / SUB_BUCKETS above the
+	 * real value, about 3%. Values below SUB_BUCKETS get a bucket each. Only one thread
+	 * may use it.
+	 */
+	public static final class Latencies {
+		private static final int SUB_BITS = 5;
+		private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+		// up to bit 62 of a positive long
+		private final long[] buckets = new long[(64 - SUB_BITS) * SUB_BUCKETS];
+		private long count;
+		private long sum;
+		private long max;
+
+		/**
+		 * @param value the value, negative ones count as 0
+		 */
+		public void record(long value) {
+			value = Math.max(0, value);
+			buckets[index(value)]++;
+			count++;
+			sum += value;
+			max = Math.max(max, value);
+		}
+
+		public long getCount() { return count; }
+
+		public double getMean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		public long getMax() { return max; }
+
+		/**
+		 * @param share between 0 and 1
+		 * @return a value at least share of the values are below, 0 if there are none
+		 */
+		public long getPercentile(double share) {
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if (seen > 0 && seen >= share * count) {
+					return Math.min(highest(i), max);
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * the bucket of a value, the top SUB_BITS bits below its highest one
+		 */
+		static int index(long value) {
+			int highest = 63 - Long.numberOfLeadingZeros(value | 1);
+			if (highest < SUB_BITS) {
+				return (int) value;
+			}
+			int shift = highest - SUB_BITS;
+			return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+		}
+
+		/**
+		 * the highest value that goes in a bucket
+		 */
+		static long highest(int index) {
+			if (index < SUB_BUCKETS) {
+				return index;
+			}
+			int shift = index / SUB_BUCKETS - 1;
+			long top = SUB_BUCKETS + index % SUB_BUCKETS;
+			return ((top + 1) << shift) - 1;
+		}
+	}
+}
@@ -13,5 +13,5 @@ public abstract class Item{
     public int getRarity() { return rarity; }
     public void setRarity(int rarity) {this.rarity = rarity; }
     public String getType() { return type; }
-    public void setType(String name) {this.type = type; }
-}
\ No newline at end of file
+    public void setType(String type) {this.type = type; }
+}
\ No newline at end of file
@@ -0,0 +1,141 @@
+package src;
+
+import java.util.Arrays;
+
+/**
+ * Works out which battlefield champion each held item should go to.
+ *
+ * A champion's worth is estimated as the attacks it survives times the share of an
+ * enemy it kills with each one, (hp / enemy atk) x min(1, atk / enemy hp), against the
+ * average living champion of the enemy battlefield. So atk is worth most on champions
+ * that live long, and stops being worth anything once a champion kills in one hit.
+ * Since that isn't linear, items on the same champion affect each other, and the best
+ * assignment is found with a DP over the champions and the set of items given out so
+ * far: for each champion, every subset of the items left that it can hold is tried.
+ * With 6 items and 7 slots that is at most 7 x 3^6 steps.
+ *
+ * An item only goes to a champion if it makes the board better, so items that would
+ * be wasted stay in the inventory for a better holder later.
+ */
+public class ItemAssigner {
+	private static final int ITEMS = 6;
+
+	private ItemAssigner() {
+	}
+
+	/**
+	 * Finds the best assignment of a player's items to its battlefield.
+	 * @param player the player
+	 * @param enemy  the battlefield to fight, the player's own is used if it's empty
+	 * @return for every item slot, the battlefield slot to use it on, -1 to keep it
+	 */
+	public static int[] assign(Player player, Champion[] enemy) {
+		Item[] items = player.getItems();
+		Champion[] battleField = player.getBattleField();
+		double[] average = average(enemy);
+		if (average == null) {
+			average = average(battleField);
+		}
+		int[] assignment = new int[ITEMS];
+		Arrays.fill(assignment, -1);
+		if (average == null) {
+			return assignment;
+		}
+		int full = 1 << ITEMS;
+		int[] atk = new int[full];
+		int[] fits = new int[7];
+		for (int i = 0; i < ITEMS; i++) {
+			if (items[i] == null) {
+				continue;
+			}
+			for (int c = 0; c < 7; c++) {
+				if (battleField[c] != null && Player.canUse(items[i], battleField[c])) {
+					fits[c] |= 1 << i;
+				}
+			}
+		}
+		// atk of every set of items
+		for (int mask = 1; mask < full; mask++) {
+			int i = Integer.numberOfTrailingZeros(mask);
+			atk[mask] = atk[mask & (mask - 1)] + (items[i] == null ? 0 : Player.itemAtk(items[i]));
+		}
+		// best[c + 1][mask] is the most gained by giving the items in mask to champions 0..c
+		double[][] best = new double[8][full];
+		int[][] choice = new int[8][full];
+		for (int c = 0; c < 7; c++) {
+			for (int mask = 0; mask < full; mask++) {
+				best[c + 1][mask] = best[c][mask];
+				choice[c + 1][mask] = 0;
+				Champion champ = battleField[c];
+				int given = mask & fits[c];
+				if (champ == null || given == 0) {
+					continue;
+				}
+				double before = worth(champ.getHp(), champ.getAtk(), average);
+				for (int sub = given; sub != 0; sub = (sub - 1) & given) {
+					double gain = best[c][mask & ~sub] + worth(champ.getHp(), champ.getAtk() + atk[sub], average) - before;
+					if (gain > best[c + 1][mask] + 1e-9) {
+						best[c + 1][mask] = gain;
+						choice[c + 1][mask] = sub;
+					}
+				}
+			}
+		}
+		// the mask of every item gives the best, follow the choices back
+		int mask = full - 1;
+		for (int c = 7; c > 0; c--) {
+			int sub = choice[c][mask];
+			for (int i = 0; i < ITEMS; i++) {
+				if ((sub & 1 << i) != 0) {
+					assignment[i] = c - 1;
+				}
+			}
+			mask &= ~sub;
+		}
+		return assignment;
+	}
+
+	/**
+	 * Uses a player's items the way assign() says.
+	 * @return how many items were used
+	 */
+	public static int apply(Player player, Champion[] enemy) {
+		int[] assignment = assign(player, enemy);
+		Item[] items = player.getItems().clone();
+		int used = 0;
+		for (int i = 0; i < ITEMS; i++) {
+			if (assignment[i] >= 0) {
+				player.useItem(items[i], player.getBattleField()[assignment[i]]);
+				used++;
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * how much of the enemy team a champion is expected to take down
+	 */
+	static double worth(int hp, int atk, double[] enemy) {
+		return Math.max(0, hp) / enemy[1] * Math.min(1, Math.max(0, atk) / enemy[0]);
+	}
+
+	/**
+	 * @return {hp, atk} of the average living champion, null if there are none
+	 */
+	private static double[] average(Champion[] battleField) {
+		double hp = 0;
+		double atk = 0;
+		int alive = 0;
+		for (Champion champ : battleField) {
+			if (champ != null && champ.getHp() > 0) {
+				hp += champ.getHp();
+				atk += champ.getAtk();
+				alive++;
+			}
+		}
+		if (alive == 0) {
+			return null;
+		}
+		return new double[] { hp / alive, Math.max(1, atk / alive) };
+	}
+}
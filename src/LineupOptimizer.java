@@ -0,0 +1,382 @@
+package src;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Searches for the strongest battlefield a player can field at a level with a gold
+ * budget, using a genetic algorithm.
+ *
+ * A genome is the 7 battlefield slots in order, each a champion code like
+ * GameProtocol.championCode (0 for empty). Champions come from the shop tiers the
+ * level can roll, and a champion upgraded n times costs stars x 3^n, its sell value,
+ * so a genome is only legal if it fits the budget. Its fitness comes from simulated
+ * fights against a fixed reference population of random legal boards: a draw counts
+ * a quarter and a win half, plus half the share of hp left standing, so boards that
+ * beat every reference are still told apart by how easily. The fights follow
+ * attackPhase through CombatSimulator, with the trait bonuses giveOutTraitBonuses
+ * would give.
+ *
+ * Each generation keeps the best genomes, and fills the rest with children of
+ * tournament winners: a uniform crossover of the slots, then mutations that replace
+ * a unit, upgrade or downgrade one, or swap two slots (the leftmost living unit
+ * attacks, so order matters). Children are repaired to be boards a player could own:
+ * no three copies of a champion at one upgrade level, since they'd merge, and within
+ * the budget. Genomes are evaluated in parallel in a ForkJoinPool,
+ * and every fitness is cached by genome so a genome that comes up again is free.
+ *
+ * Run with: java src.LineupOptimizer level gold [generations] [population]
+ */
+public class LineupOptimizer {
+	private static final String[] NAMES = Shop.getChampionNames();
+	private static final int[] STARS = new int[NAMES.length + 1];
+	static {
+		for (int id = 1; id <= NAMES.length; id++) {
+			STARS[id] = Shop.createChampion(NAMES[id - 1]).getStars();
+		}
+	}
+	private static final int MAX_UPGRADE = 3;
+	private static final int ELITE = 4;
+	private static final int TOURNAMENT = 3;
+	private static final int REFERENCES = 64;
+	private static final int FIGHTS = 4;
+
+	private final int gold;
+	// champion ids the level can roll
+	private final int[] pool;
+	private final int population;
+	private final Random rng;
+	private final ForkJoinPool workers;
+	// hp and atk of every reference board, with trait bonuses
+	private final int[][] referenceHp;
+	private final int[][] referenceAtk;
+	private final ConcurrentHashMap<Long, Double> fitness;
+	private final AtomicLong evaluations;
+	private long lookups;
+
+	/**
+	 * @param level      the player's level, which tiers the shop rolls
+	 * @param gold       how much the board may cost
+	 * @param population genomes per generation
+	 * @param seed       seed for the reference boards and the search
+	 * @param workers    where genomes are evaluated
+	 */
+	public LineupOptimizer(int level, int gold, int population, long seed, ForkJoinPool workers) {
+		this.gold = gold;
+		this.population = population;
+		this.workers = workers;
+		rng = new Random(seed);
+		int[] copies = Shop.getTierCopies(level);
+		pool = IntStream.rangeClosed(1, NAMES.length)
+				.filter(id -> copies[STARS[id] - 1] > 0)
+				.toArray();
+		referenceHp = new int[REFERENCES][];
+		referenceAtk = new int[REFERENCES][];
+		for (int r = 0; r < REFERENCES; r++) {
+			Champion[] board = board(random());
+			referenceHp[r] = CombatSimulator.hpOf(board);
+			referenceAtk[r] = CombatSimulator.atkOf(board);
+		}
+		fitness = new ConcurrentHashMap<>();
+		evaluations = new AtomicLong();
+	}
+
+	public static void main(String[] args) {
+		int level = Integer.parseInt(args[0]);
+		int gold = Integer.parseInt(args[1]);
+		int generations = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+		int population = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+		LineupOptimizer optimizer = new LineupOptimizer(level, gold, population, 1, ForkJoinPool.commonPool());
+		Progress best = optimizer.run(generations, progress -> System.out.println(progress));
+		System.out.println("best: " + Arrays.toString(best.getBestNames()));
+	}
+
+	/**
+	 * Evolves the population.
+	 * @param generations how many generations to run
+	 * @param progress    gets the stats of every generation as it finishes, may be null
+	 * @return the last generation's stats, with the best genome found
+	 */
+	public Progress run(int generations, Consumer<Progress> progress) {
+		long start = System.nanoTime();
+		int[][] genomes = new int[population][];
+		for (int i = 0; i < population; i++) {
+			genomes[i] = random();
+		}
+		Progress last = null;
+		for (int g = 0; g < generations; g++) {
+			double[] scores = evaluate(genomes);
+			Integer[] order = IntStream.range(0, population).boxed()
+					.sorted((a, b) -> Double.compare(scores[b], scores[a])).toArray(Integer[]::new);
+			double mean = Arrays.stream(scores).average().orElse(0);
+			last = new Progress(g, genomes[order[0]].clone(), scores[order[0]], mean, evaluations.get(),
+					lookups, System.nanoTime() - start);
+			if (progress != null) {
+				progress.accept(last);
+			}
+			int[][] next = new int[population][];
+			for (int i = 0; i < ELITE && i < population; i++) {
+				next[i] = genomes[order[i]];
+			}
+			for (int i = Math.min(ELITE, population); i < population; i++) {
+				int[] child = crossover(select(genomes, scores), select(genomes, scores));
+				mutate(child);
+				repair(child);
+				next[i] = child;
+			}
+			genomes = next;
+		}
+		return last;
+	}
+
+	/**
+	 * fitness of every genome, from the cache when it's been seen before
+	 */
+	private double[] evaluate(int[][] genomes) {
+		lookups += genomes.length;
+		return workers.submit(() -> Arrays.stream(genomes).parallel()
+				.mapToDouble(genome -> fitness.computeIfAbsent(key(genome), k -> fight(genome)))
+				.toArray()).join();
+	}
+
+	/**
+	 * score of a genome against the reference population, from 0 to 1
+	 */
+	private double fight(int[] genome) {
+		evaluations.incrementAndGet();
+		Champion[] board = board(genome);
+		int[] hp = CombatSimulator.hpOf(board);
+		int[] atk = CombatSimulator.atkOf(board);
+		int total = Arrays.stream(hp).sum();
+		int[] hp1 = new int[7];
+		int[] hp2 = new int[7];
+		Random random = ThreadLocalRandom.current();
+		double score = 0;
+		for (int r = 0; r < REFERENCES; r++) {
+			for (int f = 0; f < FIGHTS; f++) {
+				System.arraycopy(hp, 0, hp1, 0, 7);
+				System.arraycopy(referenceHp[r], 0, hp2, 0, 7);
+				int result = CombatSimulator.fight(hp1, atk, hp2, referenceAtk[r], random);
+				if (result == 1) {
+					score += 0.5 + 0.5 * Arrays.stream(hp1).sum() / total;
+				} else if (result == 3) {
+					score += 0.25;
+				}
+			}
+		}
+		return score / (REFERENCES * FIGHTS);
+	}
+
+	/**
+	 * the champions of a genome, with the trait bonuses they'd get in a fight
+	 */
+	static Champion[] board(int[] genome) {
+		Player player = new Player();
+		for (int i = 0; i < 7; i++) {
+			if (genome[i] == 0) {
+				continue;
+			}
+			Champion champ = Shop.createChampion(GameProtocol.championName(genome[i]));
+			for (int level = 1; level < genome[i] >> 8; level++) {
+				champ.upgrade();
+			}
+			player.setBattleField(i, champ);
+		}
+		// what giveOutTraitBonuses does, without a model to notify
+		player.applyTraitBonuses();
+		return player.getBattleField();
+	}
+
+	/**
+	 * @return what buying every unit of a genome costs
+	 */
+	static int cost(int[] genome) {
+		int total = 0;
+		for (int code : genome) {
+			total += cost(code);
+		}
+		return total;
+	}
+
+	private static int cost(int code) {
+		if (code == 0) {
+			return 0;
+		}
+		int copies = 1;
+		for (int i = 1; i < code >> 8; i++) {
+			copies *= 3;
+		}
+		return STARS[code & 0xFF] * copies;
+	}
+
+	private int[] random() {
+		int[] genome = new int[7];
+		for (int i = 0; i < 7; i++) {
+			genome[i] = randomUnit();
+		}
+		repair(genome);
+		return genome;
+	}
+
+	private int randomUnit() {
+		return pool[rng.nextInt(pool.length)] | (1 + rng.nextInt(MAX_UPGRADE)) << 8;
+	}
+
+	private int[] select(int[][] genomes, double[] scores) {
+		int best = rng.nextInt(genomes.length);
+		for (int i = 1; i < TOURNAMENT; i++) {
+			int other = rng.nextInt(genomes.length);
+			if (scores[other] > scores[best]) {
+				best = other;
+			}
+		}
+		return genomes[best];
+	}
+
+	private int[] crossover(int[] a, int[] b) {
+		int[] child = new int[7];
+		for (int i = 0; i < 7; i++) {
+			child[i] = rng.nextBoolean() ? a[i] : b[i];
+		}
+		return child;
+	}
+
+	private void mutate(int[] genome) {
+		int slot = rng.nextInt(7);
+		switch (rng.nextInt(4)) {
+		case 0:
+			genome[slot] = randomUnit();
+			break;
+		case 1:
+			if (genome[slot] != 0 && genome[slot] >> 8 < MAX_UPGRADE) {
+				genome[slot] += 1 << 8;
+			}
+			break;
+		case 2:
+			if (genome[slot] >> 8 > 1) {
+				genome[slot] -= 1 << 8;
+			}
+			break;
+		default:
+			int other = rng.nextInt(7);
+			int swap = genome[slot];
+			genome[slot] = genome[other];
+			genome[other] = swap;
+			break;
+		}
+	}
+
+	/**
+	 * Downgrades the most expensive unit, or drops one that can't be downgraded, until
+	 * the genome fits the budget, then drops third copies, which a player can't own
+	 * since they'd merge.
+	 */
+	private void repair(int[] genome) {
+		while (cost(genome) > gold) {
+			int priciest = 0;
+			for (int i = 1; i < 7; i++) {
+				if (cost(genome[i]) > cost(genome[priciest])) {
+					priciest = i;
+				}
+			}
+			if (genome[priciest] >> 8 > 1) {
+				genome[priciest] -= 1 << 8;
+			} else {
+				genome[priciest] = 0;
+			}
+		}
+		for (int i = 0; i < 7; i++) {
+			int copies = 0;
+			for (int j = 0; j < i; j++) {
+				if (genome[j] == genome[i]) {
+					copies++;
+				}
+			}
+			if (copies >= 2) {
+				genome[i] = 0;
+			}
+		}
+	}
+
+	/**
+	 * packs a genome into a long, 7 bits a slot
+	 */
+	private static long key(int[] genome) {
+		long key = 0;
+		for (int code : genome) {
+			key = key << 7 | (code & 0x1F) | (code >> 8) << 5;
+		}
+		return key;
+	}
+
+	/**
+	 * How one generation went.
+	 */
+	public static class Progress {
+		private final int generation;
+		private final int[] best;
+		private final double bestFitness;
+		private final double meanFitness;
+		private final long evaluations;
+		private final long lookups;
+		private final long nanos;
+
+		Progress(int generation, int[] best, double bestFitness, double meanFitness, long evaluations,
+				long lookups, long nanos) {
+			this.generation = generation;
+			this.best = best;
+			this.bestFitness = bestFitness;
+			this.meanFitness = meanFitness;
+			this.evaluations = evaluations;
+			this.lookups = lookups;
+			this.nanos = nanos;
+		}
+
+		public int getGeneration() { return generation; }
+
+		/**
+		 * @return the best genome, battlefield slots as champion codes
+		 */
+		public int[] getBest() { return best.clone(); }
+
+		/**
+		 * @return the best genome's champion names, with upgrade levels above 1 as stars
+		 */
+		public String[] getBestNames() {
+			String[] names = new String[7];
+			for (int i = 0; i < 7; i++) {
+				names[i] = best[i] == 0 ? "-" : GameProtocol.championName(best[i]) + "*".repeat((best[i] >> 8) - 1);
+			}
+			return names;
+		}
+
+		public double getBestFitness() { return bestFitness; }
+
+		public double getMeanFitness() { return meanFitness; }
+
+		/**
+		 * @return genomes actually fought so far, cache misses
+		 */
+		public long getEvaluations() { return evaluations; }
+
+		public double getEvaluationsPerSecond() { return evaluations / (nanos / 1e9); }
+
+		/**
+		 * @return the share of fitness lookups answered by the cache
+		 */
+		public double getCacheHitRate() { return lookups == 0 ? 0 : 1 - evaluations / (double) lookups; }
+
+		@Override
+		public String toString() {
+			return String.format("generation %d: best %.3f, mean %.3f, %d evaluations, %.0f/s, %.0f%% cached",
+					generation, bestFitness, meanFitness, evaluations, getEvaluationsPerSecond(),
+					100 * getCacheHitRate());
+		}
+	}
+}
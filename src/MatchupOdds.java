@@ -0,0 +1,58 @@
+package src;
+
+/**
+ * The exact result of a fight between two battlefields, as worked out by CombatSolver.
+ */
+public class MatchupOdds {
+	private final double p1Win;
+	private final double p2Win;
+	private final double draw;
+	private final double p1Remaining;
+	private final double p2Remaining;
+	private final int statesSolved;
+
+	public MatchupOdds(double p1Win, double p2Win, double draw,
+			double p1Remaining, double p2Remaining, int statesSolved) {
+		this.p1Win = p1Win;
+		this.p2Win = p2Win;
+		this.draw = draw;
+		this.p1Remaining = p1Remaining;
+		this.p2Remaining = p2Remaining;
+		this.statesSolved = statesSolved;
+	}
+
+	/**
+	 * chance that player 1 wins the fight
+	 */
+	public double getP1Win() { return p1Win; }
+
+	/**
+	 * chance that player 2 wins the fight
+	 */
+	public double getP2Win() { return p2Win; }
+
+	/**
+	 * chance that every champion on both sides dies
+	 */
+	public double getDraw() { return draw; }
+
+	/**
+	 * expected number of player 1's champions alive at the end
+	 */
+	public double getP1Remaining() { return p1Remaining; }
+
+	/**
+	 * expected number of player 2's champions alive at the end
+	 */
+	public double getP2Remaining() { return p2Remaining; }
+
+	/**
+	 * how many fight states had to be solved, useful for benchmarks
+	 */
+	public int getStatesSolved() { return statesSolved; }
+
+	public String toString() {
+		return String.format("p1 %.4f, p2 %.4f, draw %.4f, left %.2f vs %.2f",
+				p1Win, p2Win, draw, p1Remaining, p2Remaining);
+	}
+}
@@ -2,8 +2,33 @@ package src;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 import org.junit.jupiter.api.Test;
 
@@ -99,5 +124,1237 @@ class ModelTestCases {
 		controller.AIturn();
 	
 	}
+
+	@Test
+	void testCombatSolver() {
+		// Noelle and Lisa always trade into each other, whoever starts
+		MatchupOdds trade = CombatSolver.solve(new Champion[] {new Noelle(), null, null, null, null, null, null},
+				new Champion[] {new Lisa(), null, null, null, null, null, null});
+		assertEquals(trade.getDraw(), 1.0, 1e-6);
+		assertEquals(trade.getP1Remaining(), 0.0, 1e-6);
+
+		Champion[] board = {new Zhongli(), new Mona(), new Amber(), null, null, null, null};
+		Champion[] same = {new Zhongli(), new Mona(), new Amber(), null, null, null, null};
+		MatchupOdds mirror = CombatSolver.solve(board, same);
+		assertEquals(mirror.getP1Win(), mirror.getP2Win(), 1e-6);
+		assertEquals(mirror.getP1Win() + mirror.getP2Win() + mirror.getDraw(), 1.0, 1e-6);
+	}
+
+	@Test
+	void testResultStore() throws IOException {
+		Path file = Files.createTempFile("results", ".bin");
+		Files.delete(file);
+		Champion[] board = {new Zhongli(), new Mona(), null, null, null, null, null};
+		Champion[] other = {new Amber(), null, new Keqing(), null, null, null, null};
+		try (ResultStore store = ResultStore.open(file, 1024)) {
+			assertNull(store.get(board, other));
+			store.add(board, other, new int[] {7, 2, 1});
+			store.add(board, other, new int[] {1, 0, 0});
+			assertArrayEquals(store.get(board, other), new long[] {8, 2, 1});
+			// the mirrored matchup shares the entry
+			assertArrayEquals(store.get(other, board), new long[] {2, 8, 1});
+		}
+		// still there after opening the file again
+		try (ResultStore store = ResultStore.open(file, 1024)) {
+			assertEquals(store.size(), 1);
+			assertArrayEquals(store.get(board, other), new long[] {8, 2, 1});
+		}
+		Files.delete(file);
+	}
+
+	@Test
+	void testMergeCopies() {
+		Player p = new Player();
+		p.earnGold(100);
+		for (int i = 0; i < 3; i++) {
+			p.getShop().getShop()[0] = new Noelle();
+			p.buyCharacter(0);
+		}
+		assertEquals(p.getBenchMask(), 1);
+		assertEquals(p.getBench()[0].getUpgradeLevel(), 2);
+		assertEquals(p.getBench()[0].getInitialHp(), 10);
+		assertEquals(p.getCopies("Noelle", 1), 0);
+		assertEquals(p.getCopies("Noelle", 2), 1);
+
+		// a full bench can still merge
+		for (int i = 1; i < 7; i++) {
+			p.setBench(i, new Amber());
+		}
+		p.getShop().getShop()[1] = new Lisa();
+		p.buyCharacter(1);
+		assertNotNull(p.getShop().getShop()[1]);
+		p.getShop().getShop()[1] = new Amber();
+		p.buyCharacter(1);
+		assertEquals(p.getCopies("Amber", 1), 4);
+		assertEquals(p.getCopies("Amber", 2), 1);
+	}
+
+	@Test
+	void testSpectatorFeed() {
+		AutoBattlerModel model = new AutoBattlerModel();
+		SpectatorFeed feed = new SpectatorFeed(model);
+		int[][] seen = new int[3][SpectatorFeed.FIELDS];
+		int[] frames = new int[3];
+		for (int s = 0; s < 2; s++) {
+			int spectator = s;
+			feed.subscribe(frame -> {
+				frame.position(frame.position() + GameProtocol.HEADER_BYTES);
+				GameProtocol.readState(frame, seen[spectator]);
+				frames[spectator]++;
+			});
+		}
+		model.getP1().earnGold(20);
+		model.shopPhase();
+		model.buyCharacter(model.getP1(), 0);
+		model.moveChampion(new int[] {0, 0}, 1, new int[] {1, 0});
+		model.AIturn();
+
+		int[] expected = new int[SpectatorFeed.FIELDS];
+		SpectatorFeed.snapshot(model, expected);
+		assertArrayEquals(expected, seen[0]);
+		assertArrayEquals(expected, seen[1]);
+		assertEquals(frames[0], frames[1]);
+
+		// a late spectator catches up from the keyframe alone
+		feed.subscribe(frame -> {
+			frame.position(frame.position() + GameProtocol.HEADER_BYTES);
+			GameProtocol.readState(frame, seen[2]);
+			frames[2]++;
+		});
+		assertEquals(1, frames[2]);
+		assertArrayEquals(expected, seen[2]);
+		model.attackPhase();
+		SpectatorFeed.snapshot(model, expected);
+		assertArrayEquals(expected, seen[0]);
+		assertArrayEquals(expected, seen[2]);
+		feed.close();
+	}
+
+	@Test
+	void testGhostStore() throws IOException {
+		Path file = Files.createTempFile("ghosts", ".dat");
+		try {
+			try (GhostStore ghosts = GhostStore.open(file)) {
+				for (int n = 1; n <= 5; n++) {
+					Champion[] board = new Champion[7];
+					for (int i = 0; i < n; i++) {
+						board[i] = Shop.createChampion("Noelle");
+					}
+					ghosts.record(1, 2, board);
+				}
+				ghosts.flush();
+				assertEquals(5, ghosts.size());
+				assertNull(ghosts.findOpponent(2, 2, 100));
+			}
+			try (GhostStore ghosts = GhostStore.open(file)) {
+				assertEquals(5, ghosts.size());
+				Champion[] three = new Champion[7];
+				for (int i = 0; i < 3; i++) {
+					three[i] = Shop.createChampion("Noelle");
+				}
+				// the closest board is found even at another level
+				Champion[] ghost = ghosts.findOpponent(1, 5, GhostStore.strength(three));
+				assertEquals(GhostStore.strength(three), GhostStore.strength(ghost));
+				assertEquals("Noelle", ghost[2].getName());
+				assertNull(ghost[3]);
+
+				AutoBattlerModel model = new AutoBattlerModel();
+				model.setGhostStore(ghosts);
+				for (int i = 0; i < 3; i++) {
+					model.getP1().setBattleField(i, Shop.createChampion("Noelle"));
+				}
+				model.AIturn();
+				assertEquals(GhostStore.strength(three), GhostStore.strength(model.getP2().getBattleField()));
+				model.attackPhase();
+				ghosts.flush();
+				// only p1's board is saved, p2's is already a ghost
+				assertEquals(6, ghosts.size());
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	void testGameActor() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(3);
+		try {
+			GameActor[] games = new GameActor[8];
+			for (int g = 0; g < games.length; g++) {
+				games[g] = new GameActor(pool);
+			}
+			int startGold = games[0].getSnapshot().getP1().getGold();
+			// several threads hammering every game at once, without any locking
+			Thread[] submitters = new Thread[4];
+			for (int t = 0; t < submitters.length; t++) {
+				submitters[t] = new Thread(() -> {
+					for (int i = 0; i < 1000; i++) {
+						for (GameActor game : games) {
+							game.submit(c -> c.getP1().earnGold(1));
+						}
+					}
+				});
+				submitters[t].start();
+			}
+			for (Thread submitter : submitters) {
+				submitter.join();
+			}
+			for (GameActor game : games) {
+				int gold = game.ask(c -> c.getP1().getGold()).get(10, TimeUnit.SECONDS);
+				assertEquals(startGold + 4000, gold);
+				// the ask ran in a batch whose snapshot is published by now or soon after
+				GameSnapshot last = game.getSnapshot();
+				for (int spin = 0; spin < 1000 && last.getP1().getGold() != gold; spin++) {
+					Thread.sleep(1);
+					last = game.getSnapshot();
+				}
+				assertEquals(gold, last.getP1().getGold());
+				assertTrue(last.getVersion() > 0);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	void testBattlerEnv() {
+		BattlerEnv env = new BattlerEnv();
+		float[] obs = env.getObservation();
+		assertEquals(10, obs[BattlerEnv.GOLD]);
+		int shopId = (int) obs[BattlerEnv.SHOP];
+		assertEquals(0, env.step(BattlerEnv.BUY), 0);
+		assertEquals(shopId, (int) obs[BattlerEnv.BENCH]);
+		assertEquals(0, obs[BattlerEnv.SHOP]);
+		// buying an empty shop slot does nothing
+		assertEquals(-BattlerEnv.INVALID_PENALTY, env.step(BattlerEnv.BUY), 0);
+		assertEquals(0, env.step(BattlerEnv.PLACE + 3), 0);
+		assertEquals(shopId, (int) obs[BattlerEnv.BATTLEFIELD + 3 * BattlerEnv.SLOT_FEATURES]);
+		assertEquals(0, obs[BattlerEnv.BENCH]);
+
+		int steps = 0;
+		while (!env.isDone()) {
+			env.step(BattlerEnv.END_TURN);
+			steps++;
+		}
+		assertTrue(steps <= BattlerEnv.MAX_ROUNDS);
+
+		try (VectorBattlerEnv envs = new VectorBattlerEnv(16, 3)) {
+			int[] actions = new int[envs.size()];
+			Arrays.fill(actions, BattlerEnv.BUY);
+			envs.step(actions);
+			for (int i = 0; i < envs.size(); i++) {
+				assertEquals(0, envs.getRewards()[i], 0);
+				assertTrue(envs.getObservations()[i * BattlerEnv.OBS_SIZE + BattlerEnv.BENCH] > 0);
+			}
+			Arrays.fill(actions, BattlerEnv.END_TURN);
+			boolean finished = false;
+			for (int round = 0; round < BattlerEnv.MAX_ROUNDS && !finished; round++) {
+				envs.step(actions);
+				for (boolean done : envs.getDones()) {
+					finished |= done;
+				}
+			}
+			assertTrue(finished);
+		}
+	}
+
+	@Test
+	void testTelemetry() throws IOException {
+		Path file = Files.createTempFile("telemetry", ".dat");
+		try {
+			Player cryo = new Player();
+			cryo.setBattleField(0, Shop.createChampion("QiQi"));
+			cryo.setBattleField(1, Shop.createChampion("Ayaka"));
+			cryo.setBattleField(2, Shop.createChampion("Ganyu"));
+			Player other = new Player();
+			other.setBattleField(0, Shop.createChampion("Noelle"));
+			int rows = TelemetryWriter.SEGMENT_ROWS + 1000;
+			try (TelemetryWriter telemetry = TelemetryWriter.create(file)) {
+				for (int i = 0; i < rows; i++) {
+					// the cryo board wins two rounds in three
+					telemetry.record(1 + i % 10, 1, cryo, i % 3 == 0 ? 2 : 1, cryo.getGold() - 2, cryo.getHealth());
+					telemetry.record(1 + i % 10, 2, other, i % 3 == 0 ? 2 : 1, other.getGold(), other.getHealth() + 1);
+				}
+				AutoBattlerModel model = new AutoBattlerModel();
+				model.setTelemetry(telemetry);
+				model.attackPhase();
+				assertEquals(rows * 2 + 2, telemetry.size());
+			}
+			try (TelemetryQuery query = TelemetryQuery.open(file)) {
+				assertEquals(rows * 2 + 2, query.size());
+				TelemetryQuery.Result cryoWins = query.where("cryo", TelemetryQuery.EQ, 3).mean("won");
+				assertEquals(rows, cryoWins.getCount());
+				assertEquals(rows - (rows + 2) / 3, cryoWins.getMean() * rows, 0.001);
+			}
+			try (TelemetryQuery query = TelemetryQuery.open(file)) {
+				TelemetryQuery.Result byPlayer = query.where("round", TelemetryQuery.LE, 10)
+						.where("round", TelemetryQuery.GE, 1).groupBy("player").mean("health_delta");
+				assertArrayEquals(new int[] {1, 2}, byPlayer.getGroups());
+				assertEquals(0, byPlayer.getMean(1), 0.001);
+				assertTrue(byPlayer.getMean(2) < 0);
+				assertEquals(2, query.where("round", TelemetryQuery.EQ, 1).where("player", TelemetryQuery.EQ, 1)
+						.where("champ0", TelemetryQuery.NE, 0).mean("gold_delta").getMean(), 0.001);
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	void testShopPlanner() {
+		ShopPlanner planner = new ShopPlanner(3, 8, 50_000_000L);
+		Player player = new Player();
+		long start = System.nanoTime();
+		ShopPlanner.Plan plan = planner.plan(player, 0);
+		// the first sample always finishes its first turn, so allow some slack
+		assertTrue(System.nanoTime() - start < 1_000_000_000L);
+		assertTrue(plan.getSamples() >= 1);
+		assertTrue(plan.getNodes() > 0);
+		// the vote can pick another line's first action, but it has to be one that can be played
+		int action = plan.getAction();
+		if (action == BattlerEnv.REROLL) {
+			assertTrue(player.getGold() >= 1);
+		} else if (action == BattlerEnv.LEVEL_UP) {
+			assertTrue(player.getGold() >= player.getLevel() * 5);
+		} else {
+			assertTrue(action >= BattlerEnv.BUY && action < BattlerEnv.BUY + 3);
+			Champion offered = player.getShop().getShop()[action - BattlerEnv.BUY];
+			assertNotNull(offered);
+			assertTrue(player.getGold() >= offered.getStars());
+		}
+		assertTrue(plan.getHitRate() >= 0 && plan.getHitRate() <= 1);
+		// with 10 gold and an empty board, ending the turn right away throws the round away
+		assertNotEquals(BattlerEnv.END_TURN, plan.getAction());
+
+		// nothing to do without gold
+		player.spendGold(player.getGold());
+		assertEquals(BattlerEnv.END_TURN, planner.plan(player, 0).getAction());
+
+		assertEquals(ShopPlanner.draw(7, 3, 1, 2, 4), ShopPlanner.draw(7, 3, 1, 2, 4));
+
+		AutoBattlerModel model = new AutoBattlerModel();
+		model.setPlanner(new ShopPlanner(2, 4, 5_000_000L));
+		model.AIturn();
+		Player ai = model.getP2();
+		assertTrue(ai.getGold() >= 0 && ai.getGold() < 10);
+		assertNotEquals(0, ai.getBattleFieldMask());
+	}
+
+	@Test
+	void testBackgroundAI() throws InterruptedException {
+		AutoBattlerModel model = new AutoBattlerModel();
+		model.setPlanner(new ShopPlanner(2, 8, 5_000_000L));
+		model.shopPhase();
+		Player ai = model.getP2();
+		Champion[] shop = ai.getShop().getShop().clone();
+		model.startAIturn(System.nanoTime() + 300_000_000L);
+		Thread.sleep(400);
+		// the turn is played on a copy, the real player only changes once it's committed
+		assertEquals(10, ai.getGold());
+		assertEquals(0, ai.getBenchMask());
+		assertArrayEquals(shop, ai.getShop().getShop());
+		model.AIturn();
+		assertTrue(ai.getGold() < 10);
+		assertNotEquals(0, ai.getBattleFieldMask());
+
+		// a turn committed long before its deadline doesn't wait for the search
+		model.attackPhase();
+		model.shopPhase();
+		model.startAIturn(System.nanoTime() + 10_000_000_000L);
+		Thread.sleep(50);
+		long start = System.nanoTime();
+		model.AIturn();
+		assertTrue(System.nanoTime() - start < 200_000_000L);
+		int gold = ai.getGold();
+		int bench = ai.getBenchMask();
+		Thread.sleep(100);
+		assertEquals(gold, ai.getGold());
+		assertEquals(bench, ai.getBenchMask());
+	}
+
+	@Test
+	void testModifierStack() {
+		Zhongli zhongli = new Zhongli();
+		int atk = zhongli.getAtk();
+		zhongli.addBonus("Geo");
+		zhongli.loseHp(10);
+		assertEquals(6, zhongli.getHp());
+		Polearm polearm = new Polearm();
+		polearm.setAtk(4);
+		zhongli.addItem(polearm);
+		assertEquals(atk + 5 + 4, zhongli.getAtk());
+		// dropping the bonus keeps the damage and the item
+		zhongli.clearBonus();
+		assertEquals(3, zhongli.getHp());
+		assertEquals(atk + 4, zhongli.getAtk());
+		zhongli.loseHp(100);
+		assertEquals(0, zhongli.getHp());
+		zhongli.resetStats();
+		assertEquals(13, zhongli.getHp());
+		assertEquals(atk + 4, zhongli.getInitialAtk());
+
+		AutoBattlerModel model = new AutoBattlerModel();
+		Player p1 = model.getP1();
+		Champion[] geo = { new Zhongli(), new Zhongli(), new Zhongli() };
+		for (int i = 0; i < geo.length; i++) {
+			p1.setBattleField(i, geo[i]);
+		}
+		// giving bonuses twice doesn't stack them
+		model.giveOutTraitBonuses(p1);
+		int buffed = geo[0].getHp();
+		model.giveOutTraitBonuses(p1);
+		assertEquals(buffed, geo[0].getHp());
+		assertTrue(buffed > geo[0].getInitialHp());
+		model.getP2().setBattleField(0, new Amber());
+		model.attackPhase();
+		for (Champion champ : geo) {
+			assertEquals(champ.getInitialHp(), champ.getHp());
+			assertEquals(champ.getInitialAtk(), champ.getAtk());
+		}
+	}
+
+	@Test
+	void testLineupOptimizer() {
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			LineupOptimizer optimizer = new LineupOptimizer(3, 12, 32, 5, pool);
+			List<LineupOptimizer.Progress> generations = new ArrayList<>();
+			LineupOptimizer.Progress last = optimizer.run(5, generations::add);
+			assertEquals(5, generations.size());
+			assertSame(last, generations.get(4));
+			int[] best = last.getBest();
+			assertTrue(LineupOptimizer.cost(best) <= 12);
+			for (int code : best) {
+				if (code != 0) {
+					assertTrue(Arrays.stream(best).filter(c -> c == code).count() <= 2);
+				}
+			}
+			// the elites come back every generation, so they are cached
+			assertTrue(last.getCacheHitRate() > 0);
+			assertTrue(last.getBestFitness() >= last.getMeanFitness());
+			assertTrue(last.getBestFitness() >= generations.get(0).getBestFitness());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	void testItemAssigner() {
+		Player player = new Player();
+		player.setBattleField(0, new Amber());
+		player.setBattleField(1, new Ganyu());
+		player.setBattleField(2, new Noelle());
+		player.addItem(new Polarstar());
+		player.addItem(new Great_Sword());
+		player.addItem(new Homa());
+		Champion[] enemy = { new Beidou(), new Beidou(), null, null, null, null, null };
+		// Ganyu already kills a Beidou in one hit, so the bow does more on Amber, and
+		// nobody can hold a polearm
+		assertArrayEquals(new int[] { 0, 2, -1, -1, -1, -1 }, ItemAssigner.assign(player, enemy));
+		assertEquals(2, ItemAssigner.apply(player, enemy));
+		assertEquals(2 + 6, player.getBattleField()[0].getAtk());
+		assertEquals(1 + 2, player.getBattleField()[2].getAtk());
+		assertEquals(1, player.getItemCount());
+		assertEquals("homa", player.getItems()[2].getName());
+		// the freed slots are used again
+		player.addItem(new Moonbow());
+		assertEquals("moonbow", player.getItems()[0].getName());
+
+		AutoBattlerModel model = new AutoBattlerModel();
+		model.getP2().addItem(new Polarstar());
+		model.getP2().getShop().rerollShop(1);
+		model.AIturn();
+	}
+
+	@Test
+	void testPositionOptimizer() {
+		PositionOptimizer optimizer = new PositionOptimizer(1_000_000_000L, ForkJoinPool.commonPool());
+		Champion[] battleField = { new Amber(), new Lisa(), new Ganyu(), new Zhongli(), new Jean(), new Beidou(),
+				new Amber() };
+		Champion[] enemy = { new Xiao(), new Hutao(), new Keqing(), new Mona(), null, null, null };
+		PositionOptimizer.Result result = optimizer.optimize(battleField, List.<Champion[]>of(enemy));
+		assertEquals(5040, result.getOrders());
+		// the two Ambers can swap places
+		assertEquals(2520, result.getDistinctOrders());
+		assertTrue(result.getNanos() < 1_000_000_000L);
+		List<Champion> ordered = Arrays.asList(result.getBattleField());
+		for (Champion champ : battleField) {
+			assertTrue(ordered.contains(champ));
+		}
+		// asked again, the fights already played are kept
+		PositionOptimizer.Result again = optimizer.optimize(battleField, List.<Champion[]>of(enemy));
+		assertTrue(again.getFights() < result.getFights());
+
+		Player player = new Player();
+		player.setBattleField(4, new Noelle());
+		player.setBattleField(6, new Ganyu());
+		PositionOptimizer.arrange(player, optimizer.optimize(player.getBattleField(), List.<Champion[]>of(enemy)));
+		assertNotNull(player.getBattleField()[0]);
+		assertNotNull(player.getBattleField()[1]);
+		assertNull(player.getBattleField()[6]);
+
+		// the budget holds even when the first heat can't finish in it
+		Champion[] distinct = { new Amber(), new Lisa(), new Ganyu(), new Zhongli(), new Jean(), new Beidou(),
+				new Xiangling() };
+		PositionOptimizer quick = new PositionOptimizer(20_000_000L, ForkJoinPool.commonPool());
+		result = quick.optimize(distinct, List.<Champion[]>of(enemy));
+		assertEquals(5040, result.getDistinctOrders());
+		assertTrue(result.getNanos() < 100_000_000L);
+	}
+
+	@Test
+	void testShopOdds() {
+		int amber = ShopOdds.championId("Amber");
+		int zhongli = ShopOdds.championId("ZhongLi");
+		double p = 4 / 30.0;
+		assertEquals(p, ShopOdds.slotChance(1, amber), 1e-12);
+		assertEquals(1 - Math.pow(1 - p, 3), ShopOdds.hitChance(1, amber, 1), 1e-12);
+		assertEquals(1 - Math.pow(1 - p, 6), ShopOdds.hitChance(1, "Amber", 2), 1e-12);
+		assertEquals(Math.pow(p, 3), ShopOdds.copiesChance(1, amber, 3, 1), 1e-12);
+		assertEquals(0, ShopOdds.hitChance(1, amber, 0), 1e-12);
+		// no three stars below level 3
+		assertEquals(0, ShopOdds.hitChance(1, zhongli, 50), 1e-12);
+		assertEquals(-1, ShopOdds.rollsFor(1, zhongli, 0.5));
+		int rolls = ShopOdds.rollsFor(3, zhongli, 0.5);
+		assertTrue(ShopOdds.hitChance(3, zhongli, rolls) >= 0.5);
+		assertTrue(ShopOdds.hitChance(3, zhongli, rolls - 1) < 0.5);
+		// levels past the last row use it
+		assertEquals(ShopOdds.tierChance(5, 3, 4), ShopOdds.tierChance(9, 3, 4), 1e-12);
+
+		// compare with the real shop
+		Shop shop = new Shop();
+		int found = 0;
+		int tries = 20000;
+		for (int i = 0; i < tries; i++) {
+			for (Champion champ : shop.rerollShop(3)) {
+				if (champ.getName().equals("ZhongLi")) {
+					found++;
+					break;
+				}
+			}
+		}
+		assertEquals(ShopOdds.hitChance(3, zhongli, 1), (double) found / tries, 0.01);
+	}
+
+	@Test
+	void testWinPreview() throws InterruptedException {
+		AutoBattlerModel model = new AutoBattlerModel();
+		Player player = model.getP1();
+		Champion ganyu = new Ganyu();
+		Champion amber = new Amber();
+		player.setBattleField(0, amber);
+		player.setBench(2, ganyu);
+		Champion[] board = model.previewMove(player, new int[] { 0, 2 }, new int[] { 1, 0 });
+		assertSame(ganyu, board[0]);
+		// nothing was moved
+		assertSame(amber, player.getBattleField()[0]);
+		assertSame(ganyu, player.getBench()[2]);
+
+		Champion[] enemy = { new Noelle(), null, null, null, null, null, null };
+		WinPreview preview = new WinPreview(20_000_000L);
+		CountDownLatch done = new CountDownLatch(1);
+		WinPreview.Result[] results = new WinPreview.Result[2];
+		preview.preview(player.getBattleField(), enemy, (result) -> results[0] = result);
+		preview.preview(board, enemy, (result) -> {
+			results[1] = result;
+			done.countDown();
+		});
+		// the board changing now doesn't change the preview
+		player.setBattleField(0, null);
+		assertTrue(done.await(1, TimeUnit.SECONDS));
+		preview.close();
+		// the first one went stale
+		assertNull(results[0]);
+		assertTrue(results[1].getFights() > 0);
+		assertEquals(1.0, results[1].getWinChance(), 1e-9);
+	}
+
+	@Test
+	void testGameMetrics() throws Exception {
+		GameMetrics.Histogram histogram = new GameMetrics.Histogram();
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i);
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(50.5, histogram.getMean(), 1e-9);
+		assertEquals(100, histogram.getMax());
+		// 99 is in the bucket from 64 to 127, the max is lower
+		assertEquals(100, histogram.getPercentile(0.99));
+		assertEquals(63, histogram.getPercentile(0.5));
+
+		GameMetrics metrics = GameMetrics.METRICS;
+		long rounds = metrics.getRounds();
+		long buys = metrics.getBuys();
+		long sells = metrics.getSells();
+		long notifications = metrics.getNotifications();
+		AutoBattlerModel model = new AutoBattlerModel();
+		Player p1 = model.getP1();
+		p1.getShop().rerollShop(1);
+		model.buyCharacter(p1, 0);
+		model.sellChampion(p1, 0, 0);
+		p1.setBattleField(0, new Ganyu());
+		model.getP2().setBattleField(0, new Noelle());
+		model.attackPhase();
+		assertEquals(rounds + 1, metrics.getRounds());
+		assertEquals(buys + 1, metrics.getBuys());
+		assertEquals(sells + 1, metrics.getSells());
+		assertTrue(metrics.getNotifications() > notifications);
+
+		GameMetrics.register();
+		GameMetrics.register();
+		Object seen = ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(GameMetrics.NAME), "Rounds");
+		assertEquals(metrics.getRounds(), seen);
+	}
+
+	@Test
+	void testGameTrace() throws IOException {
+		AutoBattlerModel model = new AutoBattlerModel();
+		AutoBattlerController controller = new AutoBattlerController(model);
+		Path file = Files.createTempFile("trace", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("src.Phase");
+			recording.enable("src.Command");
+			recording.start();
+			controller.startShopPhase();
+			controller.buyCharacter(model.getP1(), 0);
+			model.getP1().setBattleField(0, new Ganyu());
+			controller.AIturn();
+			controller.giveTraitBonuses();
+			controller.startAttackPhase();
+			recording.stop();
+			recording.dump(file);
+
+			boolean bought = false;
+			for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+				if (event.getEventType().getName().equals("src.Command")
+						&& event.getString("command").equals("buyCharacter")) {
+					bought = true;
+					assertEquals(1, event.getInt("player"));
+					assertEquals(model.getGameId(), event.getLong("game"));
+				}
+			}
+			assertTrue(bought);
+			Map<String, Long> folded = GameTrace.fold(file);
+			String thread = Thread.currentThread().getName();
+			assertTrue(folded.containsKey(thread + ";startAttackPhase;attackPhase;endFight"));
+			assertTrue(folded.containsKey(thread + ";AIturn;AIturn"));
+			assertTrue(folded.containsKey(thread + ";giveTraitBonuses;giveOutTraitBonuses"));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	void testSoakBenchmark() {
+		HashMap<String, Long> settings = new HashMap<>();
+		settings.put("games", 20L);
+		settings.put("heapEvery", 10L);
+		settings.put("p99Micros", 1_000_000L);
+		// 20 games are too few for the default, lost items vary a lot between games
+		settings.put("itemsLostPer100Games", 1000L);
+		SoakBenchmark.Report report = new SoakBenchmark(settings).run();
+		assertTrue(report.getRounds() >= 20);
+		assertTrue(report.getBytesPerRound() > 0);
+		assertTrue(report.getItemsLost() >= 0);
+		assertEquals(report.getRounds(), report.getPhase("attack").getCount());
+		assertTrue(report.getFailures().isEmpty(), report.getFailures().toString());
+
+		// nothing fits in one byte a round
+		settings.put("bytesPerRound", 1L);
+		report = new SoakBenchmark(settings).run();
+		assertEquals(1, report.getFailures().size());
+		assertTrue(report.getFailures().get(0).startsWith("bytesPerRound"));
+
+		// 20 games always lose some items to full inventories
+		settings.remove("bytesPerRound");
+		settings.put("itemsLostPer100Games", 0L);
+		report = new SoakBenchmark(settings).run();
+		assertTrue(report.getItemsLost() > 0);
+		assertEquals(1, report.getFailures().size());
+		assertTrue(report.getFailures().get(0).startsWith("itemsLostPer100Games"));
+	}
+
+	@Test
+	void testInputLatency() {
+		InputLatency latency = new InputLatency();
+		assertFalse(latency.pulse(100));
+		latency.input("shop", 1_000_000);
+		latency.input("bench", 3_000_000);
+		assertTrue(latency.pulse(5_000_000));
+		// already measured
+		assertFalse(latency.pulse(9_000_000));
+		assertEquals(2, latency.getAll().getCount());
+		assertEquals(4_000_000, latency.get("shop").getMax());
+		assertEquals(2_000_000, latency.get("bench").getMax());
+		assertNull(latency.get("battlefield"));
+		assertTrue(latency.summary().startsWith("all x2"));
+		// a thousand latencies from 9 to 10 ms, power of two buckets would say 16.8 ms for all
+		InputLatency.Latencies latencies = new InputLatency.Latencies();
+		for (int i = 1; i <= 1000; i++) {
+			latencies.record(9_000_000 + i * 1000);
+		}
+		assertEquals(9_500_000, latencies.getPercentile(0.5), 9_500_000 / 32.0);
+		assertEquals(9_990_000, latencies.getPercentile(0.99), 9_990_000 / 32.0);
+		assertEquals(10_000_000, latencies.getMax());
+		assertTrue(latencies.getPercentile(0.5) >= 9_500_000);
+		// every bucket is within 1 / 32 of its values, and ones below 32 are exact
+		for (long value = 0; value < 100_000; value += 7) {
+			assertEquals(value, InputLatency.Latencies.highest(InputLatency.Latencies.index(value)), value / 32.0);
+			assertTrue(InputLatency.Latencies.highest(InputLatency.Latencies.index(value)) >= value);
+		}
+		assertEquals(31, InputLatency.Latencies.highest(InputLatency.Latencies.index(31)));
+	}
+
+	@Test
+	void testBoardLayout() {
+		BoardLayout layout = new BoardLayout(100, 50, 0.5);
+		double step = (BoardLayout.SLOT + BoardLayout.GAP) * 0.5;
+		assertArrayEquals(new int[] { BoardLayout.OPPONENT, 0 }, layout.hitTest(101, 51));
+		assertArrayEquals(new int[] { BoardLayout.FIELD, 3 }, layout.hitTest(100 + 3 * step + 10, layout.rowY(2) + 10));
+		// the shop only has three slots
+		assertArrayEquals(new int[] { BoardLayout.SHOP, 2 }, layout.hitTest(100 + 2 * step + 1, layout.rowY(1) + 1));
+		assertNull(layout.hitTest(100 + 3 * step + 1, layout.rowY(1) + 1));
+		// in the gap between two slots, and off the board
+		assertNull(layout.hitTest(100 + step - 1, 51));
+		assertNull(layout.hitTest(99, 51));
+		assertNull(layout.hitTest(101, layout.getY() + layout.getHeight() + 1));
+		BoardLayout[] grid = BoardLayout.grid(8, 1600, 900);
+		assertEquals(8, grid.length);
+		for (BoardLayout board : grid) {
+			assertTrue(board.getX() + board.getWidth() <= 1600 + 1e-6);
+			assertTrue(board.getY() + board.getHeight() <= 900 + 1e-6);
+			assertArrayEquals(new int[] { BoardLayout.BENCH, 6 },
+					board.hitTest(board.slotX(6) + 1, board.rowY(BoardLayout.BENCH) + 1));
+		}
+	}
+
+	@Test
+	void testCombatEvents() {
+		AutoBattlerModel model = new AutoBattlerModel();
+		Random rng = new Random(4);
+		Champion[] p1 = Benchmark.randomBoard(rng);
+		Champion[] p2 = Benchmark.randomBoard(rng);
+		for (int i = 0; i < 7; i++) {
+			model.getP1().setBattleField(i, p1[i]);
+			model.getP2().setBattleField(i, p2[i]);
+		}
+		int[][] hp = { null, CombatSimulator.hpOf(p1), CombatSimulator.hpOf(p2) };
+		List<CombatEvent> attacks = new ArrayList<>();
+		model.addObserver((o, arg) -> {
+			if (arg instanceof CombatEvent) {
+				attacks.add((CombatEvent) arg);
+			}
+		});
+		model.attackPhase();
+		assertFalse(attacks.isEmpty());
+		// playing the attacks back from the hp before the fight gives the hp they report
+		for (CombatEvent attack : attacks) {
+			assertEquals(model.getRound(), attack.getRound());
+			assertTrue(hp[attack.getAttacker()][attack.getAttackerSlot()] > 0);
+			assertTrue(hp[attack.getDefender()][attack.getDefenderSlot()] > 0);
+			hp[attack.getAttacker()][attack.getAttackerSlot()] -= attack.getAttackerDamage();
+			hp[attack.getDefender()][attack.getDefenderSlot()] -= attack.getDefenderDamage();
+			assertEquals(hp[attack.getAttacker()][attack.getAttackerSlot()], attack.getAttackerHp());
+			assertEquals(hp[attack.getDefender()][attack.getDefenderSlot()], attack.getDefenderHp());
+		}
+		CombatEvent last = attacks.get(attacks.size() - 1);
+		assertTrue(last.attackerDied() || last.defenderDied());
+	}
+
+	@Test
+	void testCombatEngine() {
+		assertEquals(CombatEngine.VAPORIZE, CombatEngine.REACTION[CombatEngine.HYDRO][CombatEngine.PYRO]);
+		assertEquals(150, CombatEngine.PERCENT[CombatEngine.HYDRO][CombatEngine.PYRO]);
+		assertEquals(CombatEngine.NONE, CombatEngine.REACTION[CombatEngine.GEO][CombatEngine.PYRO]);
+		assertEquals(CombatEngine.PYRO, CombatEngine.element(new Xiangling().getType()));
+		// a fast hitter against a slow one
+		CombatEngine engine = new CombatEngine();
+		engine.load(1, 0, 10, 5, CombatEngine.NONE, 10);
+		engine.load(2, 3, 20, 1, CombatEngine.NONE, 100);
+		assertEquals(1, engine.fight(new Random(1)));
+		assertTrue(engine.getHp(0) >= 9);
+		assertEquals(0, engine.getHp(10));
+		// hydro on the target, then pyro vaporizes it. It can't die, so time runs out
+		engine = new CombatEngine();
+		engine.load(1, 0, 100, 1, CombatEngine.HYDRO, 50);
+		engine.load(1, 1, 100, 10, CombatEngine.PYRO, 50);
+		engine.load(2, 0, 1_000_000, 0, CombatEngine.NONE, 100);
+		List<Integer> vaporized = new ArrayList<>();
+		engine.setListener((time, attacker, target, damage, reaction, ability) -> {
+			if (reaction == CombatEngine.VAPORIZE && !ability) {
+				vaporized.add(damage);
+			}
+		});
+		assertEquals(3, engine.fight(new Random(2)));
+		assertTrue(engine.getTime() > CombatEngine.MAX_TICKS);
+		assertFalse(vaporized.isEmpty());
+		assertEquals(15, (int) vaporized.get(0));
+		// the same seed plays the same fight, without allocating anything
+		Random rng = new Random(3);
+		engine = new CombatEngine();
+		engine.load(Benchmark.randomBoard(rng), Benchmark.randomBoard(rng));
+		int result = engine.fight(new Random(4));
+		int time = engine.getTime();
+		assertEquals(result, engine.fight(new Random(4)));
+		assertEquals(time, engine.getTime());
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		engine.simulate(10_000, rng);
+		long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		engine.simulate(10_000, rng);
+		assertTrue(threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes < 10_000);
+	}
+
+	@Test
+	void testTimedAttackPhase() {
+		AutoBattlerModel model = new AutoBattlerModel();
+		model.setCombatEngine(new CombatEngine());
+		Random rng = new Random(5);
+		Champion[] p1 = Benchmark.randomBoard(rng);
+		Champion[] p2 = Benchmark.randomBoard(rng);
+		for (int i = 0; i < 7; i++) {
+			model.getP1().setBattleField(i, p1[i]);
+			model.getP2().setBattleField(i, p2[i]);
+		}
+		List<CombatEvent> hits = new ArrayList<>();
+		model.addObserver((o, arg) -> {
+			if (arg instanceof CombatEvent) {
+				hits.add((CombatEvent) arg);
+			}
+		});
+		model.attackPhase();
+		assertFalse(hits.isEmpty());
+		for (CombatEvent hit : hits) {
+			assertEquals(0, hit.getAttackerDamage());
+		}
+		// the fight's damage is gone afterwards
+		for (int i = 0; i < 7; i++) {
+			assertEquals(p1[i].getInitialHp(), p1[i].getHp());
+		}
+	}
+
+	@Test
+	void testGameServerDropsBadFrames() throws Exception {
+		GameServer server = new GameServer(0);
+		Thread thread = new Thread(server);
+		thread.start();
+		try (Socket bad = new Socket("localhost", server.getPort());
+				Socket good = new Socket("localhost", server.getPort())) {
+			bad.setSoTimeout(5000);
+			good.setSoTimeout(5000);
+			// a BUY without its shop index
+			DataOutputStream badOut = new DataOutputStream(bad.getOutputStream());
+			badOut.writeShort(5);
+			badOut.writeByte(GameProtocol.BUY);
+			badOut.writeInt(1);
+			badOut.flush();
+			// the bad client gets its first STATE and is dropped
+			InputStream badIn = bad.getInputStream();
+			while (badIn.read() >= 0) {
+			}
+			// the server still answers the other one
+			DataOutputStream goodOut = new DataOutputStream(good.getOutputStream());
+			ByteBuffer command = ByteBuffer.allocate(GameProtocol.MAX_FRAME);
+			GameProtocol.writeCommand(GameProtocol.REROLL, 7, command);
+			goodOut.write(command.array(), 0, command.position());
+			goodOut.flush();
+			DataInputStream goodIn = new DataInputStream(good.getInputStream());
+			int seq = 0;
+			while (seq != 7) {
+				byte[] frame = new byte[goodIn.readUnsignedShort()];
+				goodIn.readFully(frame);
+				seq = ByteBuffer.wrap(frame, 1, 4).getInt();
+			}
+		} finally {
+			server.stop();
+			thread.join();
+		}
+	}
+
+	@Test
+	void testBackgroundAIOrders() throws InterruptedException {
+		AutoBattlerModel model = new AutoBattlerModel();
+		model.setPlanner(new ShopPlanner(2, 8, 5_000_000L));
+		model.setPositionOptimizer(new PositionOptimizer(50_000_000L, ForkJoinPool.commonPool()));
+		model.getP1().setBattleField(0, new Xiao());
+		model.getP1().setBattleField(1, new Hutao());
+		model.shopPhase();
+		model.startAIturn(System.nanoTime() + 400_000_000L);
+		Thread.sleep(500);
+		// the order was found in the background, committing it doesn't search
+		long start = System.nanoTime();
+		model.AIturn();
+		assertTrue(System.nanoTime() - start < 20_000_000L);
+		assertNotEquals(0, model.getP2().getBattleFieldMask());
+	}
+
+	@Test
+	void testBatchCombatSimulator() {
+		Random rng = new Random(27);
+		int matches = 3000;
+		int[][] hp1 = new int[matches][7];
+		int[][] atk1 = new int[matches][7];
+		int[][] hp2 = new int[matches][7];
+		int[][] atk2 = new int[matches][7];
+		for (int m = 0; m < matches; m++) {
+			for (int i = 0; i < 7; i++) {
+				// some empty slots, and some matches with a whole side empty
+				hp1[m][i] = m % 500 == 0 ? 0 : rng.nextInt(4) == 0 ? 0 : 1 + rng.nextInt(30);
+				atk1[m][i] = 1 + rng.nextInt(10);
+				hp2[m][i] = rng.nextInt(4) == 0 ? 0 : 1 + rng.nextInt(30);
+				atk2[m][i] = 1 + rng.nextInt(10);
+			}
+		}
+		// the vector simulator, when this JVM has one, gives exactly the scalar results
+		BatchCombatSimulator fastest = BatchCombatSimulator.create(32);
+		BatchCombatSimulator scalar = new BatchCombatSimulator(32);
+		assertArrayEquals(scalar.simulate(hp1, atk1, hp2, atk2, 5), fastest.simulate(hp1, atk1, hp2, atk2, 5));
+		assertEquals(3, fastest.simulate(new int[1][7], new int[1][7], new int[1][7], new int[1][7], 1)[0]);
+
+		// and both play by the same rules as CombatSimulator
+		Champion[] p1 = {new Zhongli(), new Mona(), new Amber(), new Lisa(), null, null, null};
+		Champion[] p2 = {new Ganyu(), new Noelle(), new Xiangling(), new Barbara(), new QiQi(), null, null};
+		int fights = 20000;
+		int[][] sameHp1 = new int[fights][];
+		int[][] sameAtk1 = new int[fights][];
+		int[][] sameHp2 = new int[fights][];
+		int[][] sameAtk2 = new int[fights][];
+		int simulatorWins = 0;
+		for (int m = 0; m < fights; m++) {
+			sameHp1[m] = CombatSimulator.hpOf(p1);
+			sameAtk1[m] = CombatSimulator.atkOf(p1);
+			sameHp2[m] = CombatSimulator.hpOf(p2);
+			sameAtk2[m] = CombatSimulator.atkOf(p2);
+			if (CombatSimulator.fight(CombatSimulator.hpOf(p1), sameAtk1[m], CombatSimulator.hpOf(p2), sameAtk2[m], rng) == 1) {
+				simulatorWins++;
+			}
+		}
+		int batchWins = 0;
+		for (int result : fastest.simulate(sameHp1, sameAtk1, sameHp2, sameAtk2, 9)) {
+			if (result == 1) {
+				batchWins++;
+			}
+		}
+		assertTrue(simulatorWins > fights / 10 && simulatorWins < fights * 9 / 10, "one sided matchup " + simulatorWins);
+		assertEquals(simulatorWins / (double) fights, batchWins / (double) fights, 0.02);
+	}
+
+	@Test
+	void testSimulationCoordinatorReplacesWorkers() throws Exception {
+		// the first worker dies holding its first unit, the unit is retried on a replacement
+		SimulationCoordinator coordinator = new SimulationCoordinator(SimulationCoordinator.createUnits(4, 2, 3), 10);
+		coordinator.run(2, 0);
+		assertEquals(0, coordinator.getFailedUnits());
+		assertTrue(coordinator.getRetries() >= 1);
+		long played = 0;
+		for (long[] rate : coordinator.getChampionWinRates().values()) {
+			played += rate[1];
+		}
+		// 4 units of 2 matchups of 10 fights, 14 champions in each
+		assertEquals(4 * 2 * 10 * 14, played);
+
+		// workers that die before they ever connect used to leave run() waiting forever
+		String classPath = System.getProperty("java.class.path");
+		ExecutorService runner = Executors.newSingleThreadExecutor();
+		System.setProperty("java.class.path", Files.createTempDirectory("noworker").toString());
+		try {
+			SimulationCoordinator stuck = new SimulationCoordinator(SimulationCoordinator.createUnits(2, 1, 3), 10);
+			runner.submit(() -> {
+				stuck.run(1, -1);
+				return null;
+			}).get(60, TimeUnit.SECONDS);
+			assertEquals(2, stuck.getFailedUnits());
+		} finally {
+			System.setProperty("java.class.path", classPath);
+			runner.shutdownNow();
+		}
+	}
+
+	@Test
+	void testGhostStoreSkipsTraitBonuses() throws IOException {
+		Path file = Files.createTempFile("ghosts", ".dat");
+		try (GhostStore ghosts = GhostStore.open(file)) {
+			AutoBattlerModel model = new AutoBattlerModel();
+			Champion[] geo = {new Noelle(), new Noelle(), new Noelle()};
+			for (int i = 0; i < geo.length; i++) {
+				model.getP1().setBattleField(i, geo[i]);
+			}
+			model.giveOutTraitBonuses(model.getP1());
+			assertTrue(geo[0].getHp() > geo[0].getInitialHp());
+			ghosts.record(1, 1, model.getP1().getBattleField());
+			ghosts.flush();
+
+			// the ghost comes back without the bonus, so fighting it gives it out only once
+			Champion[] ghost = ghosts.findOpponent(1, 1, GhostStore.strength(geo));
+			for (int i = 0; i < geo.length; i++) {
+				assertEquals(geo[i].getInitialHp(), ghost[i].getHp());
+				assertEquals(geo[i].getInitialAtk(), ghost[i].getAtk());
+				model.getP2().setBattleField(i, ghost[i]);
+			}
+			model.giveOutTraitBonuses(model.getP2());
+			for (int i = 0; i < geo.length; i++) {
+				assertEquals(geo[i].getHp(), ghost[i].getHp());
+				assertEquals(geo[i].getAtk(), ghost[i].getAtk());
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	void testWinPreviewTraitBonuses() {
+		Champion[] board = {new Noelle(), new Noelle(), new Noelle(), null, null, null, null};
+		int hp = board[0].getHp();
+		int atk = board[0].getAtk();
+		// the preview fights with the Geo bonus the board gets in the attack phase
+		Champion[] fighting = WinPreview.withBonuses(board);
+		assertEquals(hp + 3, fighting[0].getHp());
+		assertEquals(atk + 5, fighting[2].getAtk());
+		assertNull(fighting[3]);
+		assertEquals(hp, board[0].getHp());
+		// a board that already has its bonus doesn't get it twice
+		board[0].addBonus("Geo");
+		assertEquals(hp + 3, WinPreview.withBonuses(board)[0].getHp());
+		// one Noelle has no trait
+		assertEquals(hp, WinPreview.withBonuses(new Champion[] {new Noelle(), null, null, null, null, null, null})[0].getHp());
+	}
+
+	@Test
+	void testBattlerEnvReusesModel() {
+		BattlerEnv env = new BattlerEnv();
+		AutoBattlerModel model = env.getModel();
+		long game = model.getGameId();
+		env.step(BattlerEnv.BUY);
+		env.step(BattlerEnv.END_TURN);
+		env.reset();
+		assertSame(model, env.getModel());
+		assertNotEquals(game, model.getGameId());
+		assertEquals(0, model.getRound());
+		assertEquals(10, env.getObservation()[BattlerEnv.GOLD], 0);
+		assertEquals(30, model.getP2().getHealth());
+		assertEquals(0, model.getP1().getBenchMask() | model.getP1().getBattleFieldMask());
+		assertNotNull(model.getP1().getShop().getShop()[0]);
+
+		// once the shop is bought out, the other shop actions don't allocate
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		int[] actions = { BattlerEnv.PLACE, BattlerEnv.PLACE + 7 + 1, BattlerEnv.PLACE + 1, BattlerEnv.SELL_BATTLEFIELD + 1,
+				BattlerEnv.BUY, BattlerEnv.SELL_BENCH + 6, BattlerEnv.LEVEL_UP, BattlerEnv.SELL_BATTLEFIELD };
+		long allocated = 0;
+		for (int n = 0; n < 5; n++) {
+			env.reset();
+			env.step(BattlerEnv.BUY);
+			env.step(BattlerEnv.BUY + 1);
+			env.step(BattlerEnv.BUY + 2);
+			long before = threads.getThreadAllocatedBytes(thread);
+			for (int action : actions) {
+				env.step(action);
+			}
+			allocated = threads.getThreadAllocatedBytes(thread) - before;
+		}
+		assertEquals(0, allocated);
+
+		// rerolls show the champions nobody bought again, once every one has been made
+		Shop shop = model.getP1().getShop();
+		for (int n = 0; n < 100_000; n++) {
+			shop.rerollShop(1);
+		}
+		for (int n = 0; n < 5; n++) {
+			env.reset();
+			long before = threads.getThreadAllocatedBytes(thread);
+			for (int i = 0; i < 3; i++) {
+				env.step(BattlerEnv.REROLL);
+			}
+			allocated = threads.getThreadAllocatedBytes(thread) - before;
+		}
+		assertEquals(0, allocated);
+	}
+
+	@Test
+	void testHighUpgradeLevels() {
+		Player p = new Player();
+		Champion amber = new Amber();
+		for (int i = 0; i < 4; i++) {
+			amber.upgrade();
+		}
+		// the copy index grows past the levels a merge normally reaches
+		p.setBench(0, amber);
+		assertEquals(1, p.getCopies("Amber", amber.getUpgradeLevel()));
+		p.setBattleField(2, amber);
+		p.setBench(0, null);
+		assertEquals(1, p.getCopies("Amber", amber.getUpgradeLevel()));
+		assertEquals(1 << 2, p.getBattleFieldMask());
+		assertEquals(0, p.getBenchMask());
+	}
+
+	@Test
+	void testCombatSolverFullBoards() {
+		// the tankiest full boards in Benchmark, they have to fit in the default cap
+		Champion[] p1 = { new Zhongli(), new Ningguang(), new Mona(), new Xiao(), new Jean(), new Noelle(), new Kokomi() };
+		Champion[] p2 = { new Ningguang(), new Zhongli(), new Ayaka(), new Jean(), new Mona(), new Ganyu(), new Xiangling() };
+		MatchupOdds odds = CombatSolver.solve(p1, p2);
+		assertNotNull(odds);
+		int fights = 200000;
+		int[] sampled = CombatSimulator.simulate(p1, p2, fights, new Random(26));
+		assertEquals(odds.getP1Win(), sampled[0] / (double) fights, 0.005);
+		assertEquals(odds.getP2Win(), sampled[1] / (double) fights, 0.005);
+		assertEquals(odds.getDraw(), sampled[2] / (double) fights, 0.005);
+		// still gives up past the cap it is given
+		assertNull(CombatSolver.solve(CombatSimulator.hpOf(p1), CombatSimulator.atkOf(p1),
+				CombatSimulator.hpOf(p2), CombatSimulator.atkOf(p2), 1000));
+	}
+
+	@Test
+	void testResultStoreBusySlot() throws IOException {
+		Path file = Files.createTempFile("results", ".bin");
+		Files.delete(file);
+		Champion[] board = {new Zhongli(), null, null, null, null, null, null};
+		Champion[] other = {new Amber(), null, null, null, null, null, null};
+		// find the slot the matchup goes in
+		long slot;
+		try (ResultStore store = ResultStore.open(file, 2)) {
+			store.add(board, other, new int[] {1, 0, 0});
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+			raf.seek(64);
+			slot = raf.readLong() != 0 ? 0 : 1;
+		}
+		Files.delete(file);
+		try (ResultStore store = ResultStore.open(file, 2)) {
+			// a writer that died while holding that slot, the matchup must not go in the
+			// other one since the busy slot could be holding it
+			try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+				raf.seek(64 + slot * 64);
+				raf.writeLong(-1);
+			}
+			assertFalse(store.add(board, other, new int[] {1, 0, 0}));
+			assertNull(store.get(board, other));
+			assertEquals(store.size(), 0);
+		}
+		Files.delete(file);
+	}
+
+	@Test
+	void testAIturnUsesItems() throws InterruptedException {
+		// the planned turns have to use the AI's items too, not just the greedy one
+		AutoBattlerModel model = new AutoBattlerModel();
+		model.setPlanner(new ShopPlanner(2, 4, 5_000_000L));
+		Player ai = model.getP2();
+		Item[] items = { new Basic_Book(), new Dull_Blade(), new Great_Sword(), new Polearm(), new Regular_Bow() };
+		for (Item item : items) {
+			ai.addItem(item);
+		}
+		model.AIturn();
+		assertNotEquals(0, ai.getBattleFieldMask());
+		assertTrue(ai.getItemCount() < items.length);
+
+		// the same for a turn planned in the background
+		model = new AutoBattlerModel();
+		model.setPlanner(new ShopPlanner(2, 4, 5_000_000L));
+		ai = model.getP2();
+		for (Item item : new Item[] { new Basic_Book(), new Dull_Blade(), new Great_Sword(), new Polearm(),
+				new Regular_Bow() }) {
+			ai.addItem(item);
+		}
+		model.shopPhase();
+		model.startAIturn(System.nanoTime() + 300_000_000L);
+		Thread.sleep(400);
+		model.AIturn();
+		assertNotEquals(0, ai.getBattleFieldMask());
+		assertTrue(ai.getItemCount() < items.length);
+	}
+
+	@Test
+	void testGhostStatsSurviveFights() throws IOException {
+		Path file = Files.createTempFile("ghosts", ".dat");
+		try (GhostStore ghosts = GhostStore.open(file)) {
+			// a champion with an item, its atk has to come back as its base
+			Player player = new Player();
+			player.setBattleField(0, new Noelle());
+			player.setBattleField(1, new Zhongli());
+			player.addItem(new Great_Sword());
+			player.useItem(player.getItems()[0], player.getBattleField()[0]);
+			Champion[] recorded = player.getBattleField();
+			ghosts.record(1, 1, recorded);
+			ghosts.flush();
+
+			AutoBattlerModel model = new AutoBattlerModel();
+			Champion[] ghost = ghosts.findOpponent(1, 1, GhostStore.strength(recorded));
+			for (int i = 0; i < 2; i++) {
+				model.getP2().setBattleField(i, ghost[i]);
+			}
+			model.getP1().setBattleField(0, new Keqing());
+			model.attackPhase();
+			// endFight drops the combat changes, not the stats the ghost was stored with
+			for (int i = 0; i < 2; i++) {
+				assertEquals(recorded[i].getInitialHp(), ghost[i].getHp());
+				assertEquals(recorded[i].getInitialAtk(), ghost[i].getAtk());
+				assertEquals(recorded[i].getInitialAtk(), ghost[i].getInitialAtk());
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	void testGameServerReplacesLeavers() throws Exception {
+		GameServer server = new GameServer(0);
+		Thread thread = new Thread(server);
+		thread.start();
+		try (Socket stays = new Socket("localhost", server.getPort())) {
+			stays.setSoTimeout(5000);
+			DataInputStream in = new DataInputStream(stays.getInputStream());
+			int[] state = new int[GameProtocol.FIELDS];
+			try (Socket leaves = new Socket("localhost", server.getPort())) {
+				// both are in the game once the second one has its first STATE
+				leaves.setSoTimeout(5000);
+				DataInputStream leftIn = new DataInputStream(leaves.getInputStream());
+				leftIn.readFully(new byte[leftIn.readUnsignedShort()]);
+			}
+			DataOutputStream out = new DataOutputStream(stays.getOutputStream());
+			ByteBuffer command = ByteBuffer.allocate(GameProtocol.MAX_FRAME);
+			GameProtocol.writeCommand(GameProtocol.READY, 3, command);
+			out.write(command.array(), 0, command.position());
+			out.flush();
+			// the AI shops for the side that left, so the round is fought against its
+			// champions instead of an empty board
+			while (state[GameProtocol.ROUND] < 1) {
+				byte[] frame = new byte[in.readUnsignedShort()];
+				in.readFully(frame);
+				GameProtocol.readState(ByteBuffer.wrap(frame, 5, frame.length - 5), state);
+			}
+			assertTrue(state[GameProtocol.HEALTH] < 30);
+		} finally {
+			server.stop();
+			thread.join();
+		}
+	}
+
+	@Test
+	void testResultStoreSimulatesOnce() throws IOException {
+		Path file = Files.createTempFile("results", ".bin");
+		Files.delete(file);
+		Champion[] board = {new Zhongli(), new Mona(), null, null, null, null, null};
+		Champion[] other = {new Amber(), null, new Keqing(), null, null, null, null};
+		try (ResultStore store = ResultStore.open(file, 1024)) {
+			// another process stores the matchup while this one is still simulating it
+			Random racing = new Random(28) {
+				private boolean stored;
+
+				@Override
+				protected int next(int bits) {
+					if (!stored) {
+						stored = true;
+						store.add(board, other, new int[] {60, 30, 10});
+					}
+					return super.next(bits);
+				}
+			};
+			// only the first results go in, not both
+			assertArrayEquals(new long[] {60, 30, 10}, store.getOrSimulate(board, other, 100, racing));
+			assertArrayEquals(new long[] {60, 30, 10}, store.get(board, other));
+			assertArrayEquals(new long[] {30, 60, 10}, store.getOrSimulate(other, board, 100, new Random(1)));
+		}
+		Files.delete(file);
+	}
 }
 	
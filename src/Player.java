@@ -1,6 +1,7 @@
 package src;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -18,6 +19,13 @@ public class Player {
     private Shop shop;
     private Item[] items;
     private int itemCount;
+    // bit i is set when bench slot i is taken
+    private int benchMask;
+    // bit i is set when battlefield slot i is taken
+    private int battleFieldMask;
+    // name of a champion to the slots holding copies of it, indexed by upgrade level.
+    // bench slots are bits 0-6 and battlefield slots are bits 7-13
+    private final HashMap<String, int[]> copies;
 
     /**
      * Creates player object with default stats and zero champions.
@@ -32,6 +40,28 @@ public class Player {
         shop 		= new Shop();
         items 		= new Item[6];
         itemCount  	= 0;
+        copies		= new HashMap<>();
+        // every champion has an entry from the start, so buying one doesn't allocate
+        for (String name : Shop.getChampionNames()) {
+        	copies.put(name, new int[4]);
+        }
+    }
+
+    /**
+     * Puts the player back where a new game starts, with no champions or items. The
+     * arrays and the copy index are kept, so replaying games doesn't need new players.
+     */
+    public void reset() {
+    	for (int i = 0; i < 7; i++) {
+    		setBench(i, null);
+    		setBattleField(i, null);
+    	}
+        health      = 30;
+        gold        = 10;
+        level 		= 1;
+        shop.clear();
+        Arrays.fill(items, null);
+        itemCount  	= 0;
     }
 
     /**
@@ -75,7 +105,9 @@ public class Player {
     }
 
     /**
-     * Allows access to player's champions in the bench.
+     * Allows access to player's champions in the bench. This is the player's own array,
+     * not a copy, so it costs nothing to read. Don't write to it, use setBench(), or the
+     * slot masks and copy index go out of date.
      * @return Arraylist of champions.
      */
     public Champion[] getBench() {
@@ -129,7 +161,25 @@ public class Player {
     }
     
     /**
-     * Allows access to player's champions on the battlefield.
+     * Gives every champion on the battlefield the bonus of its type if that trait is
+     * active, replacing any bonus it already has
+     */
+    public void applyTraitBonuses() {
+    	HashMap<String, Integer> traits = getActiveTraits();
+    	for (Champion champ : battleField) {
+    		if (champ == null) {
+    			continue;
+    		}
+    		champ.clearBonus();
+    		if (traits.containsKey(champ.getType())) {
+    			champ.addBonus(champ.getType());
+    		}
+    	}
+    }
+    
+    /**
+     * Allows access to player's champions on the battlefield. Like getBench() this is
+     * the player's own array, use setBattleField() to change it.
      * @return Array of champions.
      */
     public Champion[] getBattleField() {
@@ -175,25 +225,202 @@ public class Player {
     
     /**
      * Buys the character denoted by the index in the shop, removes champion from
-     * shop if player buys it
+     * shop if player buys it. If the player already owns two copies of the champion
+     * the three are merged into one upgraded champion, even if the bench is full.
      * @param index
+     * @return the champion in the shop at that index, null if the index is not in the shop
      */
     public Champion buyCharacter(int index) {
-    	try {
-    		Champion toBuy = shop.getShop()[index];
-    		int i = 0;
-            while (bench[i] != null)
-                i++;
-        	if (i <= 7 && toBuy != null) {
-        		if (gold >= toBuy.getStars()) {
-        			bench[i] = toBuy;
-        			spendGold(toBuy.getStars());
-        			shop.getShop()[index] = null;
-        		}
-        	}
-        	return toBuy;
-    	} catch (Exception ArrayIndexOutOfBoundsException){
-    		return new Hutao();
+    	if (index < 0 || index >= shop.getShop().length) {
+    		return null;
+    	}
+    	Champion toBuy = shop.getShop()[index];
+    	if (toBuy == null || gold < toBuy.getStars()) {
+    		return toBuy;
+    	}
+    	boolean merges = canMerge(toBuy);
+    	int free = Integer.numberOfTrailingZeros(~benchMask & 0x7F);
+    	if (!merges && free >= 7) {
+    		// bench is full
+    		return toBuy;
+    	}
+    	spendGold(toBuy.getStars());
+    	GameMetrics.METRICS.buy();
+    	shop.getShop()[index] = null;
+    	if (merges) {
+    		merge(toBuy);
+    	} else {
+    		setBench(free, toBuy);
+    	}
+    	return toBuy;
+    }
+    
+    /**
+     * Checks if getting this champion would merge it with two copies the player
+     * already owns
+     * @param champion the champion the player would get
+     * @return true if the player owns two copies with the same name and upgrade level
+     */
+    public boolean canMerge(Champion champion) {
+    	return getCopies(champion.getName(), champion.getUpgradeLevel()) >= 2;
+    }
+    
+    /**
+     * Returns how many copies of a champion the player owns on the bench and battlefield
+     * @param name the name of the champion
+     * @param upgradeLevel the upgrade level of the copies to count
+     * @return the number of copies
+     */
+    public int getCopies(String name, int upgradeLevel) {
+    	return Integer.bitCount(copySlots(name, upgradeLevel));
+    }
+    
+    /**
+     * Merges a new champion with the two copies the player owns. The upgraded champion
+     * stays where one of the copies was, preferring the battlefield, and the other copy
+     * is removed. Keeps merging if that makes a third copy of the upgraded champion.
+     * @param champion the new copy, not on the bench or battlefield
+     */
+    private void merge(Champion champion) {
+    	// the new copy isn't on the board yet, so two owned copies are enough the first time
+    	int needed = 2;
+    	while (getCopies(champion.getName(), champion.getUpgradeLevel()) >= needed) {
+    		int slots = copySlots(champion.getName(), champion.getUpgradeLevel());
+    		// the leftmost battlefield copy if there is one, otherwise the lowest bench slot
+    		int keep = (slots >>> 7) != 0 ? 7 + Integer.numberOfTrailingZeros(slots >>> 7)
+    				: Integer.numberOfTrailingZeros(slots);
+    		int others = slots & ~(1 << keep);
+    		for (int i = 1; i < needed; i++) {
+    			setSlot(Integer.numberOfTrailingZeros(others), null);
+    			others &= others - 1;
+    		}
+    		champion = slotChampion(keep);
+    		// take it off the index while its upgrade level changes
+    		setSlot(keep, null);
+    		champion.upgrade();
+    		setSlot(keep, champion);
+    		needed = 3;
+    	}
+    }
+    
+    /**
+     * Puts a champion on the bench, use this instead of changing getBench() directly
+     * so the player's slot index stays correct
+     * @param index the bench slot
+     * @param champion the champion to put there, null to empty the slot
+     */
+    public void setBench(int index, Champion champion) {
+    	setSlot(index, champion);
+    }
+    
+    /**
+     * Puts a champion on the battlefield, use this instead of changing getBattleField()
+     * directly so the player's slot index stays correct
+     * @param index the battlefield slot
+     * @param champion the champion to put there, null to empty the slot
+     */
+    public void setBattleField(int index, Champion champion) {
+    	setSlot(index + 7, champion);
+    }
+    
+    /**
+     * returns a bitmask of the taken bench slots, bit i for slot i
+     * @return
+     */
+    public int getBenchMask() {
+    	return benchMask;
+    }
+    
+    /**
+     * returns a bitmask of the taken battlefield slots, bit i for slot i
+     * @return
+     */
+    public int getBattleFieldMask() {
+    	return battleFieldMask;
+    }
+    
+    /**
+     * returns the index of the first empty bench slot, -1 if the bench is full
+     * @return
+     */
+    public int getFreeBenchSlot() {
+    	int free = Integer.numberOfTrailingZeros(~benchMask & 0x7F);
+    	return free < 7 ? free : -1;
+    }
+    
+    /**
+     * Sets a slot and keeps the masks and copy index up to date.
+     * @param slot 0-6 for the bench, 7-13 for the battlefield
+     * @param champion the champion to put there, null to empty the slot
+     */
+    private void setSlot(int slot, Champion champion) {
+    	Champion old = slotChampion(slot);
+    	if (old != null) {
+    		copies.get(old.getName())[old.getUpgradeLevel()] &= ~(1 << slot);
+    	}
+    	if (champion != null) {
+    		int[] levels = copies.get(champion.getName());
+    		if (levels == null || levels.length <= champion.getUpgradeLevel()) {
+    			levels = levels == null ? new int[Math.max(4, champion.getUpgradeLevel() + 1)]
+    					: Arrays.copyOf(levels, champion.getUpgradeLevel() + 1);
+    			copies.put(champion.getName(), levels);
+    		}
+    		levels[champion.getUpgradeLevel()] |= 1 << slot;
+    	}
+    	if (slot < 7) {
+    		bench[slot] = champion;
+    		benchMask = champion == null ? benchMask & ~(1 << slot) : benchMask | (1 << slot);
+    	} else {
+    		battleField[slot - 7] = champion;
+    		battleFieldMask = champion == null ? battleFieldMask & ~(1 << (slot - 7))
+    				: battleFieldMask | (1 << (slot - 7));
+    	}
+    }
+    
+    private Champion slotChampion(int slot) {
+    	return slot < 7 ? bench[slot] : battleField[slot - 7];
+    }
+    
+    /**
+     * the slots holding copies of a champion at an upgrade level, as a mask
+     */
+    private int copySlots(String name, int upgradeLevel) {
+    	int[] levels = copies.get(name);
+    	return levels == null || upgradeLevel >= levels.length ? 0 : levels[upgradeLevel];
+    }
+
+    /**
+     * A copy of the player with copies of its champions and shop, that can be changed
+     * on another thread while this one is still being read. The items are shared.
+     * @return the copy
+     */
+    public Player copy() {
+    	Player copy = new Player();
+    	copy.health = health;
+    	copy.gold = gold;
+    	copy.level = level;
+    	copy.shop = shop.copy();
+    	copy.items = items.clone();
+    	copy.itemCount = itemCount;
+    	for (int i = 0; i < 7; i++) {
+    		copy.setBench(i, bench[i] == null ? null : bench[i].copy());
+    		copy.setBattleField(i, battleField[i] == null ? null : battleField[i].copy());
+    	}
+    	return copy;
+    }
+    
+    /**
+     * Takes what a shop phase can change from a copy(): the gold, level, shop and
+     * champions. The copy's champions and shop are moved over, so don't use it after.
+     * @param copy the copy the turn was played on
+     */
+    public void takeTurn(Player copy) {
+    	gold = copy.gold;
+    	level = copy.level;
+    	shop = copy.shop;
+    	for (int i = 0; i < 7; i++) {
+    		setBench(i, copy.bench[i]);
+    		setBattleField(i, copy.battleField[i]);
     	}
     }
 
@@ -208,13 +435,20 @@ public class Player {
     /**
      * adds the item to the pool of the players items
      * @param item
+     * @return false if the player already has 6 items and the item is lost
      */
-    public void addItem(Item item) {
+    public boolean addItem(Item item) {
     	if (itemCount >= 6) {
-    		return;
+    		return false;
     	}
-    	items[itemCount] = item;
+    	// used items leave gaps, so take the first free slot
+    	int free = 0;
+    	while (items[free] != null) {
+    		free++;
+    	}
+    	items[free] = item;
     	itemCount += 1;
+    	return true;
     }
 
     /**
@@ -226,20 +460,11 @@ public class Player {
     	if (item == null || champion == null) {
     		return;
     	}
-    	String itemType = item.getType();
-    	if (champion.getWeaponType().equals(itemType)) {
-    		if (item.getRarity() == 1) {
-    			item.setAtk(2);
-    		}
-    		if (item.getRarity() == 2) {
-    			item.setAtk(4);
-    		}
-    		if (item.getRarity() == 3) {
-    			item.setAtk(6);
-    		}
+    	if (canUse(item, champion)) {
+    		item.setAtk(itemAtk(item));
         	champion.addItem(item);
         	for (int i = 0; i < 6; i++) {
-        		if (items[i].equals(item)) {
+        		if (items[i] == item) {
         			items[i] = null;
         		}
         	}
@@ -247,8 +472,27 @@ public class Player {
     	}
     }
     
+    /**
+     * Checks if a champion can hold an item, only items of its weapon type fit
+     * @param item
+     * @param champion
+     * @return true if useItem would put the item on the champion
+     */
+    public static boolean canUse(Item item, Champion champion) {
+    	return item.getType() != null && item.getType().equals(champion.getWeaponType());
+    }
+    
+    /**
+     * Returns the atk an item gives once it's used, 2 for each level of rarity
+     * @param item
+     * @return the atk
+     */
+    public static int itemAtk(Item item) {
+    	return 2 * item.getRarity();
+    }
+    
     public int getItemCount() {
     	return itemCount;
     }
     
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -5,6 +5,6 @@ public class Polearm extends Item{
 	public Polearm() {
         setName("polearm");
         setRarity(1);
-        setType("Spear");
+        setType("Polearm");
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
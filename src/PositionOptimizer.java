@@ -0,0 +1,280 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Finds the order to put a battlefield's champions in. The leftmost living champion
+ * always attacks, so the order changes who fights first and who gets worn down.
+ * Empty slots change nothing, only the order of the champions does, so a lineup of n
+ * champions has n! orders, 5040 at most.
+ *
+ * Champions with the same hp and atk can swap places without changing anything, so
+ * only orders that are different as hp and atk are tried. CombatSolver is far too slow
+ * to solve thousands of full 7v7 fights in a second, so every order is raced with
+ * CombatSimulator instead: all of them fight every opponent a few times, the best
+ * quarter go on to fight four times as often, and so on until one is left, the fights
+ * run out or the time does. The time is checked between the fights of every order, so
+ * a big lineup can't overrun it in the first heat, the orders that didn't get to fight
+ * then just score 0. Every order uses the same random seeds, so they're
+ * compared on the same luck. Orders are raced in parallel in a ForkJoinPool, and the
+ * results are kept, so asking again about the same lineup and opponents goes on from
+ * where it stopped.
+ */
+public class PositionOptimizer {
+	private static final int FIRST_FIGHTS = 16;
+	private static final int MAX_FIGHTS = 4096;
+	// orders that always make it to the next heat
+	private static final int MIN_KEPT = 8;
+	private static final int MAX_CACHED = 1 << 16;
+
+	private final long budgetNanos;
+	private final ForkJoinPool workers;
+	// {wins plus half the draws, fights} by order and opponents
+	private final ConcurrentHashMap<String, double[]> results;
+
+	/**
+	 * @param budgetNanos how long optimize() may take
+	 * @param workers     where orders are raced
+	 */
+	public PositionOptimizer(long budgetNanos, ForkJoinPool workers) {
+		this.budgetNanos = budgetNanos;
+		this.workers = workers;
+		results = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Finds the best order for a battlefield against some opponents.
+	 * @param battleField the champions to order, as they are now
+	 * @param opponents   battlefields it could fight, each counting the same
+	 * @return the best order found
+	 */
+	public Result optimize(Champion[] battleField, List<Champion[]> opponents) {
+		long start = System.nanoTime();
+		long deadline = start + budgetNanos;
+		List<Champion> units = new ArrayList<>();
+		for (Champion champ : battleField) {
+			if (champ != null) {
+				units.add(champ);
+			}
+		}
+		int n = units.size();
+		int[][] opponentHp = new int[opponents.size()][];
+		int[][] opponentAtk = new int[opponents.size()][];
+		StringBuilder against = new StringBuilder("|");
+		for (int o = 0; o < opponents.size(); o++) {
+			opponentHp[o] = CombatSimulator.hpOf(opponents.get(o));
+			opponentAtk[o] = CombatSimulator.atkOf(opponents.get(o));
+			against.append(Arrays.toString(opponentHp[o])).append(Arrays.toString(opponentAtk[o]));
+		}
+		// sorted by hp and atk, so equal champions sit together and the first permutation is sorted
+		units.sort(Comparator.comparingInt(Champion::getHp).thenComparingInt(Champion::getAtk));
+		int[] kinds = new int[n];
+		int[] kindHp = new int[n];
+		int[] kindAtk = new int[n];
+		for (int i = 0; i < n; i++) {
+			Champion champ = units.get(i);
+			if (i > 0) {
+				Champion last = units.get(i - 1);
+				kinds[i] = kinds[i - 1] + (last.getHp() == champ.getHp() && last.getAtk() == champ.getAtk() ? 0 : 1);
+			}
+			kindHp[kinds[i]] = champ.getHp();
+			kindAtk[kinds[i]] = champ.getAtk();
+		}
+		List<Candidate> field = new ArrayList<>();
+		int[] order = kinds.clone();
+		do {
+			StringBuilder key = new StringBuilder();
+			for (int kind : order) {
+				key.append(kindHp[kind]).append('/').append(kindAtk[kind]).append(' ');
+			}
+			field.add(new Candidate(order.clone(), key.append(against).toString()));
+		} while (nextPermutation(order));
+
+		long fights = 0;
+		int perOpponent = FIRST_FIGHTS;
+		List<Candidate> heat = field;
+		while (!opponents.isEmpty() && n > 0) {
+			int target = perOpponent;
+			List<Candidate> racing = heat;
+			long played = workers.submit(() -> racing.parallelStream()
+					.mapToLong(c -> race(c, kindHp, kindAtk, opponentHp, opponentAtk, target, deadline))
+					.sum()).join();
+			fights += played;
+			heat.sort(Comparator.comparingDouble(Candidate::score).reversed());
+			if (heat.size() == 1 || perOpponent >= MAX_FIGHTS || System.nanoTime() > deadline) {
+				break;
+			}
+			heat = new ArrayList<>(heat.subList(0, Math.min(heat.size(), Math.max(MIN_KEPT, heat.size() / 4))));
+			perOpponent *= 4;
+		}
+		if (results.size() > MAX_CACHED) {
+			results.clear();
+		}
+		Candidate best = heat.get(0);
+		Champion[] arranged = new Champion[7];
+		boolean[] used = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			// any champion of the right kind will do
+			for (int u = 0; u < n; u++) {
+				if (!used[u] && kinds[u] == best.order[i]) {
+					used[u] = true;
+					arranged[i] = units.get(u);
+					break;
+				}
+			}
+		}
+		return new Result(arranged, best.score(), factorial(n), field.size(), fights, System.nanoTime() - start);
+	}
+
+	/**
+	 * Puts a player's battlefield in the order found, champions from the left.
+	 */
+	public static void arrange(Player player, Result result) {
+		Champion[] order = result.getBattleField();
+		for (int i = 0; i < 7; i++) {
+			player.setBattleField(i, null);
+		}
+		for (int i = 0; i < 7; i++) {
+			player.setBattleField(i, order[i]);
+		}
+	}
+
+	/**
+	 * plays fights until the candidate has fought every opponent target times, or the
+	 * deadline passes
+	 * @return how many fights were played
+	 */
+	private long race(Candidate candidate, int[] kindHp, int[] kindAtk, int[][] opponentHp, int[][] opponentAtk,
+			int target, long deadline) {
+		double[] record = results.computeIfAbsent(candidate.key, k -> new double[2]);
+		synchronized (record) {
+			int[] hp = new int[7];
+			int[] atk = new int[7];
+			for (int i = 0; i < candidate.order.length; i++) {
+				hp[i] = kindHp[candidate.order[i]];
+				atk[i] = kindAtk[candidate.order[i]];
+			}
+			int[] hp1 = new int[7];
+			int[] hp2 = new int[7];
+			int done = (int) (record[1] / opponentHp.length);
+			long played = 0;
+			for (int f = done; f < target && System.nanoTime() < deadline; f++) {
+				for (int o = 0; o < opponentHp.length; o++) {
+					// the same seed for every order, so they face the same luck
+					Random rng = new Random(f * 31L + o);
+					System.arraycopy(hp, 0, hp1, 0, 7);
+					System.arraycopy(opponentHp[o], 0, hp2, 0, 7);
+					int result = CombatSimulator.fight(hp1, atk, hp2, opponentAtk[o], rng);
+					record[0] += result == 1 ? 1 : result == 3 ? 0.5 : 0;
+					record[1]++;
+					played++;
+				}
+			}
+			candidate.record = record.clone();
+			return played;
+		}
+	}
+
+	/**
+	 * steps to the next permutation in lexicographic order, which skips repeats
+	 * @return false once the last one has been reached
+	 */
+	private static boolean nextPermutation(int[] order) {
+		int i = order.length - 2;
+		while (i >= 0 && order[i] >= order[i + 1]) {
+			i--;
+		}
+		if (i < 0) {
+			return false;
+		}
+		int j = order.length - 1;
+		while (order[j] <= order[i]) {
+			j--;
+		}
+		int swap = order[i];
+		order[i] = order[j];
+		order[j] = swap;
+		for (int a = i + 1, b = order.length - 1; a < b; a++, b--) {
+			swap = order[a];
+			order[a] = order[b];
+			order[b] = swap;
+		}
+		return true;
+	}
+
+	private static int factorial(int n) {
+		return n <= 1 ? 1 : n * factorial(n - 1);
+	}
+
+	private static final class Candidate {
+		private final int[] order;
+		private final String key;
+		private double[] record;
+
+		Candidate(int[] order, String key) {
+			this.order = order;
+			this.key = key;
+		}
+
+		double score() {
+			return record == null || record[1] == 0 ? 0 : record[0] / record[1];
+		}
+	}
+
+	/**
+	 * The best order found for a battlefield, and how the search went.
+	 */
+	public static class Result {
+		private final Champion[] battleField;
+		private final double winChance;
+		private final int orders;
+		private final int distinctOrders;
+		private final long fights;
+		private final long nanos;
+
+		Result(Champion[] battleField, double winChance, int orders, int distinctOrders, long fights, long nanos) {
+			this.battleField = battleField;
+			this.winChance = winChance;
+			this.orders = orders;
+			this.distinctOrders = distinctOrders;
+			this.fights = fights;
+			this.nanos = nanos;
+		}
+
+		/**
+		 * @return the champions in the best order from the left, null after the last one
+		 */
+		public Champion[] getBattleField() { return battleField.clone(); }
+
+		/**
+		 * @return chance to win with a draw counting half, from the fights played
+		 */
+		public double getWinChance() { return winChance; }
+
+		/**
+		 * @return how many orders the champions have
+		 */
+		public int getOrders() { return orders; }
+
+		/**
+		 * @return how many of those differ in hp and atk, the ones that were raced
+		 */
+		public int getDistinctOrders() { return distinctOrders; }
+
+		public long getFights() { return fights; }
+
+		public long getNanos() { return nanos; }
+
+		@Override
+		public String toString() {
+			return String.format("win %.3f, %d orders (%d distinct), %d fights in %.0f ms", winChance, orders,
+					distinctOrders, fights, nanos / 1e6);
+		}
+	}
+}
@@ -0,0 +1,331 @@
+package src;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Fight results shared between processes through a memory-mapped file, so a sweep split
+ * over several JVMs on one machine doesn't play the same matchup twice, and results
+ * are still there after a restart.
+ *
+ * The file is a fixed size open addressing hash table. Every slot is 64 bytes:
+ * a tag, four longs of key and three counts (p1 wins, p2 wins, draws). All access to
+ * the tag and counts goes through atomic VarHandle operations on the mapped memory,
+ * which also work between processes mapping the same file:
+ * - an empty slot has tag 0, a writer claims it by swapping the tag to BUSY,
+ * - writes the key and counts, then publishes the slot's hash as its tag,
+ * - adding to an existing entry is an atomic add on its counts.
+ *
+ * Nothing is kept on the heap per entry, so the table can be as big as the disk allows.
+ * The capacity is fixed when the file is created.
+ */
+public class ResultStore implements AutoCloseable {
+	private static final long MAGIC = 0x4155544f42415454L;
+	private static final int HEADER_BYTES = 64;
+	private static final int SLOT_BYTES = 64;
+	// slots per mapped chunk, a single mapping can't be bigger than 2GB
+	private static final int CHUNK_SLOTS = 1 << 24;
+	private static final long EMPTY = 0;
+	private static final long BUSY = -1;
+	// how long to wait on a slot another process is writing before giving up on the
+	// key, a writer that died halfway leaves its slot busy for good
+	private static final int BUSY_SPINS = 1 << 20;
+	private static final int MAX_PROBES = 4096;
+
+	private static final VarHandle LONGS =
+			MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+	private final MappedByteBuffer header;
+	private final MappedByteBuffer[] chunks;
+	private final long capacity;
+
+	private ResultStore(MappedByteBuffer header, MappedByteBuffer[] chunks, long capacity) {
+		this.header = header;
+		this.chunks = chunks;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Opens the store in the given file, creating it if it doesn't exist yet.
+	 * @param file     the file to use, every process should open the same one
+	 * @param capacity how many entries the table has room for, only used when creating
+	 *                 the file. Keep it well above the expected entries, probing gets
+	 *                 slow once the table is more than about 70% full.
+	 * @return the opened store
+	 * @throws IOException if the file can't be opened or isn't a result store
+	 */
+	public static ResultStore open(Path file, long capacity) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+			FileChannel channel = raf.getChannel();
+			// the file has to be the right size before another process maps it
+			FileLock lock = channel.lock();
+			try {
+				if (channel.size() == 0) {
+					raf.setLength(HEADER_BYTES + capacity * SLOT_BYTES);
+					MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+					header.order(ByteOrder.nativeOrder());
+					header.putLong(8, capacity);
+					header.putLong(0, MAGIC);
+					header.force();
+				}
+			} finally {
+				lock.release();
+			}
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+			header.order(ByteOrder.nativeOrder());
+			if (header.getLong(0) != MAGIC) {
+				throw new IOException(file + " is not a result store");
+			}
+			long storedCapacity = header.getLong(8);
+			int chunkCount = (int) ((storedCapacity + CHUNK_SLOTS - 1) / CHUNK_SLOTS);
+			MappedByteBuffer[] chunks = new MappedByteBuffer[chunkCount];
+			for (int i = 0; i < chunkCount; i++) {
+				long slots = Math.min(CHUNK_SLOTS, storedCapacity - (long) i * CHUNK_SLOTS);
+				chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+						HEADER_BYTES + (long) i * CHUNK_SLOTS * SLOT_BYTES, slots * SLOT_BYTES);
+			}
+			// the mappings stay valid after the channel is closed
+			return new ResultStore(header, chunks, storedCapacity);
+		}
+	}
+
+	/**
+	 * @return how many entries the table has room for
+	 */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return how many distinct matchups are stored, across every process
+	 */
+	public long size() {
+		return (long) LONGS.getVolatile(header, 16);
+	}
+
+	/**
+	 * Looks up the results for a matchup.
+	 * @return {p1 wins, p2 wins, draws}, or null if the matchup isn't stored
+	 */
+	public long[] get(Champion[] p1Board, Champion[] p2Board) {
+		Key key = new Key(p1Board, p2Board);
+		long slot = find(key, null, false);
+		if (slot < 0) {
+			return null;
+		}
+		return key.orient(readCounts(slot));
+	}
+
+	/**
+	 * Adds fight results for a matchup, adding to any results already stored for it.
+	 * @param counts {p1 wins, p2 wins, draws} as returned by CombatSimulator
+	 * @return false if the table is too full to add a new matchup, or a slot on the
+	 *         way stayed busy too long
+	 */
+	public boolean add(Champion[] p1Board, Champion[] p2Board, int[] counts) {
+		Key key = new Key(p1Board, p2Board);
+		long[] oriented = key.orient(new long[] { counts[0], counts[1], counts[2] });
+		return find(key, oriented, true) >= 0;
+	}
+
+	/**
+	 * Returns the stored results for a matchup, simulating and storing them first if no
+	 * process has played it yet. Two processes can both miss and simulate the same
+	 * matchup, then only the first one's results are stored and both get those, so an
+	 * entry never ends up with the fights of both.
+	 * @param fights how many fights to simulate for a new matchup
+	 * @return {p1 wins, p2 wins, draws}
+	 */
+	public long[] getOrSimulate(Champion[] p1Board, Champion[] p2Board, int fights, Random rng) {
+		long[] stored = get(p1Board, p2Board);
+		if (stored != null) {
+			return stored;
+		}
+		int[] counts = CombatSimulator.simulate(p1Board, p2Board, fights, rng);
+		Key key = new Key(p1Board, p2Board);
+		long slot = find(key, key.orient(new long[] { counts[0], counts[1], counts[2] }), false);
+		if (slot < 0) {
+			// too full to store it, the results are still good
+			return new long[] { counts[0], counts[1], counts[2] };
+		}
+		return key.orient(readCounts(slot));
+	}
+
+	/**
+	 * Writes everything to disk. Entries are visible to other processes right away,
+	 * this only matters for surviving a crash of the whole machine.
+	 */
+	public void flush() {
+		header.force();
+		for (MappedByteBuffer chunk : chunks) {
+			chunk.force();
+		}
+	}
+
+	@Override
+	public void close() {
+		flush();
+	}
+
+	/**
+	 * Finds the slot holding a key, optionally adding counts to it.
+	 * @param counts counts to add to the key's slot, claiming an empty slot if the key
+	 *               isn't there yet. null to only look the key up.
+	 * @param merge  whether counts are added to a slot the key already has, otherwise
+	 *               they only go in a new slot
+	 * @return the slot, or -1 if the key isn't there (or the table is full when adding),
+	 *         or a slot on the way was still being written after BUSY_SPINS
+	 */
+	private long find(Key key, long[] counts, boolean merge) {
+		long tag = key.tag();
+		long slot = Long.remainderUnsigned(key.hash(), capacity);
+		for (int probe = 0; probe < MAX_PROBES && probe < capacity; probe++) {
+			MappedByteBuffer chunk = chunk(slot);
+			int offset = offset(slot);
+			long current = (long) LONGS.getAcquire(chunk, offset);
+			if (current == EMPTY) {
+				if (counts == null) {
+					return -1;
+				}
+				if (LONGS.compareAndSet(chunk, offset, EMPTY, BUSY)) {
+					for (int i = 0; i < 4; i++) {
+						LONGS.set(chunk, offset + 8 + i * 8, key.parts[i]);
+					}
+					for (int i = 0; i < 3; i++) {
+						LONGS.set(chunk, offset + 40 + i * 8, counts[i]);
+					}
+					LONGS.setRelease(chunk, offset, tag);
+					LONGS.getAndAdd(header, 16, 1L);
+					return slot;
+				}
+				// someone else took it first, look at what they wrote
+				current = (long) LONGS.getAcquire(chunk, offset);
+			}
+			for (int spins = 0; current == BUSY && spins < BUSY_SPINS; spins++) {
+				Thread.onSpinWait();
+				current = (long) LONGS.getAcquire(chunk, offset);
+			}
+			if (current == BUSY) {
+				// it could be this key, going past it could add a second copy
+				return -1;
+			}
+			if (current == tag && key.matches(chunk, offset)) {
+				if (counts != null && merge) {
+					for (int i = 0; i < 3; i++) {
+						LONGS.getAndAdd(chunk, offset + 40 + i * 8, counts[i]);
+					}
+				}
+				return slot;
+			}
+			slot = slot + 1 == capacity ? 0 : slot + 1;
+		}
+		return -1;
+	}
+
+	private long[] readCounts(long slot) {
+		MappedByteBuffer chunk = chunk(slot);
+		int offset = offset(slot);
+		long[] counts = new long[3];
+		for (int i = 0; i < 3; i++) {
+			counts[i] = (long) LONGS.getVolatile(chunk, offset + 40 + i * 8);
+		}
+		return counts;
+	}
+
+	private MappedByteBuffer chunk(long slot) {
+		return chunks[(int) (slot / CHUNK_SLOTS)];
+	}
+
+	private static int offset(long slot) {
+		return (int) (slot % CHUNK_SLOTS) * SLOT_BYTES;
+	}
+
+	/**
+	 * A matchup reduced to what decides the fight: the hp and atk of the living
+	 * champions on each side in order. The two sides are sorted so a matchup and its
+	 * mirror share one entry.
+	 */
+	private static final class Key {
+		private final long[] parts = new long[4];
+		private final boolean swapped;
+
+		Key(Champion[] p1Board, Champion[] p2Board) {
+			long[] first = encode(p1Board);
+			long[] second = encode(p2Board);
+			swapped = first[0] > second[0] || (first[0] == second[0] && first[1] > second[1]);
+			long[] low = swapped ? second : first;
+			long[] high = swapped ? first : second;
+			parts[0] = low[0];
+			parts[1] = low[1];
+			parts[2] = high[0];
+			parts[3] = high[1];
+		}
+
+		/**
+		 * 16 bits per living champion, hp then atk, lowest bits first
+		 */
+		private static long[] encode(Champion[] board) {
+			long[] encoded = new long[2];
+			int count = 0;
+			for (int i = 0; i < 7; i++) {
+				Champion champ = board[i];
+				if (champ == null || champ.getHp() <= 0) {
+					continue;
+				}
+				if (champ.getHp() > 0xFF || champ.getAtk() < 0 || champ.getAtk() > 0xFF) {
+					throw new IllegalArgumentException("can't store " + champ.getName()
+							+ " with hp " + champ.getHp() + " and atk " + champ.getAtk());
+				}
+				long unit = (long) champ.getHp() << 8 | champ.getAtk();
+				encoded[count / 4] |= unit << ((count % 4) * 16);
+				count++;
+			}
+			return encoded;
+		}
+
+		/**
+		 * flips the counts around if the sides were swapped in the key
+		 */
+		long[] orient(long[] counts) {
+			if (swapped) {
+				long temp = counts[0];
+				counts[0] = counts[1];
+				counts[1] = temp;
+			}
+			return counts;
+		}
+
+		long hash() {
+			long h = 0;
+			for (long part : parts) {
+				h = (h ^ part) * 0x9E3779B97F4A7C15L;
+				h ^= h >>> 31;
+			}
+			return h;
+		}
+
+		/**
+		 * tag stored in a filled slot, never EMPTY or BUSY
+		 */
+		long tag() {
+			return (hash() >>> 1) | 1;
+		}
+
+		boolean matches(MappedByteBuffer chunk, int offset) {
+			for (int i = 0; i < 4; i++) {
+				if ((long) LONGS.get(chunk, offset + 8 + i * 8) != parts[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
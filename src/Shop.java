@@ -1,17 +1,35 @@
 package src;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
 
 public class Shop {
+	// copies of the one, two and three star pools in the shop's choices by level,
+	// the last row is for level 5 and up
+	private static final int[][] TIER_COPIES = {
+			{ 4, 1, 0 }, { 3, 3, 1 }, { 2, 2, 1 }, { 1, 1, 1 }, { 1, 2, 3 } };
+	// every champion by tier, only the ones that end up in a shop are created
+	private static final List<List<Supplier<Champion>>> TIERS = List.of(
+			List.of(Sucrose::new, QiQi::new, Lisa::new, Noelle::new, Barbara::new, Amber::new),
+			List.of(Jean::new, Ayaka::new, Beidou::new, Ningguang::new, Kokomi::new, Xiangling::new),
+			List.of(Xiao::new, Ganyu::new, Keqing::new, Zhongli::new, Mona::new, Hutao::new));
+	private static final String[] NAMES = new String[18];
 	private Champion[] shop;
-	private ArrayList<Champion> ones = new ArrayList<>(Arrays.asList(
-			new Sucrose(), new QiQi(), new Lisa(), new Noelle(), new Barbara(), new Amber()));
-	private ArrayList<Champion> twos = new ArrayList<>(Arrays.asList(
-			new Jean(), new Ayaka(), new Beidou(), new Ningguang(), new Kokomi(), new Xiangling()));
-	private ArrayList<Champion> threes = new ArrayList<>(Arrays.asList(
-			new Xiao(), new Ganyu(), new Keqing(), new Zhongli(), new Mona(), new Hutao()));
+	// the champions the last reroll put in the shop and their ids, those still there
+	// when it is rolled again were never bought and can be shown again
+	private final Champion[] shown = new Champion[3];
+	private final int[] shownIds = new int[3];
+	// champions that were shown and not bought, by id, at most 3 of each
+	private final Champion[][] spare = new Champion[NAMES.length][3];
+	private final int[] spareCount = new int[NAMES.length];
+
+	static {
+		for (int i = 0; i < NAMES.length; i++) {
+			NAMES[i] = TIERS.get(i / 6).get(i % 6).get().getName();
+		}
+	}
 
 	public Shop() {
 		shop = new Champion[3];
@@ -28,6 +46,17 @@ public class Shop {
 		return shop;
 	}
 	
+	/**
+	 * @return a shop offering copies of the same champions
+	 */
+	public Shop copy() {
+		Shop copy = new Shop();
+		for (int i = 0; i < shop.length; i++) {
+			copy.shop[i] = shop[i] == null ? null : shop[i].copy();
+		}
+		return copy;
+	}
+
 	public Champion[] rerollShop(int level) {
 		createChoices(level);
 		return shop;
@@ -39,81 +68,100 @@ public class Shop {
 	 * @param level the level of the the current player
 	 */
 	private void createChoices(int level) {
-		// choices is total champion pool without probability for the level
-		// we can change the probabilities by adding more of a star character
-		//to this list
-		ArrayList<Champion> choices = new ArrayList<>();
-		if (level == 1) {
-			choices.addAll(ones);
-			choices.addAll(ones);
-			choices.addAll(ones);
-			choices.addAll(ones);
-			choices.addAll(twos);
-		} 
-		if (level == 2) {
-			choices.addAll(ones);
-			choices.addAll(ones);
-			choices.addAll(ones);
-			choices.addAll(twos);
-			choices.addAll(twos);
-			choices.addAll(twos);
-			choices.addAll(threes);
-		}
-		if (level == 3) {
-			choices.addAll(ones);
-			choices.addAll(ones);
-			choices.addAll(twos);
-			choices.addAll(twos);
-			choices.addAll(threes);
-		} 
-		if (level == 4) {
-			choices.addAll(ones);
-			choices.addAll(twos);
-			choices.addAll(threes);
-		}
-		if (level >= 5) {
-			choices.addAll(ones);
-			choices.addAll(twos);
-			choices.addAll(twos);
-			choices.addAll(threes);
-			choices.addAll(threes);
-			choices.addAll(threes);
-		}
-		createShop(choices);
+		// the pool has copies[t] of every champion of tier t, we can change the
+		// probabilities by changing TIER_COPIES
+		int[] copies = TIER_COPIES[Math.max(0, Math.min(level, TIER_COPIES.length) - 1)];
+		createShop(copies, 6 * (copies[0] + copies[1] + copies[2]));
+	}
+	
+	/**
+	 * How many times each tier of champions is put in the pool the shop draws from at
+	 * a level. Every tier has 6 champions and every shop slot is drawn uniformly from
+	 * the pool, so these are the odds of each tier.
+	 * 
+	 * @param level the level of the player
+	 * @return the copies of the one, two and three star champions
+	 */
+	public static int[] getTierCopies(int level) {
+		return TIER_COPIES[Math.max(0, Math.min(level, TIER_COPIES.length) - 1)].clone();
+	}
+	
+	/**
+	 * @return how many levels have their own odds, the ones above use the last level's
+	 */
+	static int tierLevels() {
+		return TIER_COPIES.length;
 	}
 	
 	/**
 	 * Generates the shop that the player will see on their board in the shop phase.
-	 * No duplicates, size of shop is set to 3. Also removes everything from the past shop
+	 * Every slot is drawn from the whole pool, size of shop is set to 3. Also removes
+	 * everything from the past shop. Only the three champions shown are created, and
+	 * champions that were shown before and never bought are used again, so rolling
+	 * doesn't allocate once every champion has been shown.
 	 * 
-	 * @param choices the Total champion pool the player can access
+	 * @param copies how many times each tier is in the pool
+	 * @param pool   the size of the pool
 	 */
-	private void createShop(ArrayList<Champion> choices) {
-		Random rand = new Random();
+	private void createShop(int[] copies, int pool) {
+		Random rand = ThreadLocalRandom.current();
 		//removes all previous from previous shop
-		Champion[] newShop = new Champion[3];
+		clear();
 		for (int i = 0; i < 3; i++) {
-			int toAdd = rand.nextInt(choices.size());
-			int starCount = choices.get(toAdd).getStars();
-			ArrayList<Champion> newToAdd = new ArrayList<Champion>();
-			if (starCount == 1) {
-				newToAdd = new ArrayList<>(Arrays.asList(
-						new Sucrose(), new QiQi(), new Lisa(), new Noelle(), new Barbara(), new Amber()));
-			} else if (starCount == 2) {
-				newToAdd = new ArrayList<>(Arrays.asList(
-						new Jean(), new Ayaka(), new Beidou(), new Ningguang(), new Kokomi(), new Xiangling()));
-			} else if (starCount == 3) {
-				newToAdd = new ArrayList<>(Arrays.asList(
-						new Xiao(), new Ganyu(), new Keqing(), new Zhongli(), new Mona(), new Hutao()));
+			int toAdd = rand.nextInt(pool);
+			int tier = 0;
+			while (toAdd >= 6 * copies[tier]) {
+				toAdd -= 6 * copies[tier];
+				tier++;
 			}
-			for (Champion champ: newToAdd) {
-				if (choices.get(toAdd).getName().equals(champ.getName())) {
-					newShop[i] = champ;
-					break;
-				}
+			int id = tier * 6 + toAdd % 6;
+			Champion champ = spareCount[id] > 0 ? spare[id][--spareCount[id]]
+					: TIERS.get(tier).get(toAdd % 6).get();
+			spare[id][spareCount[id]] = null;
+			shop[i] = champ;
+			shown[i] = champ;
+			shownIds[i] = id;
+		}
+	}
+
+	/**
+	 * empties the shop, for a new game or a reroll. Champions that were never bought
+	 * are kept to show again
+	 */
+	void clear() {
+		for (int i = 0; i < 3; i++) {
+			if (shown[i] != null && shop[i] == shown[i]) {
+				spare[shownIds[i]][spareCount[shownIds[i]]++] = shown[i];
+			}
+			shop[i] = null;
+			shown[i] = null;
+		}
+	}
+	
+	/**
+	 * Creates a new champion from its name, used to rebuild boards that were sent
+	 * or saved as names
+	 * 
+	 * @param name the name of the champion
+	 * @return a new champion with that name, null if no champion has that name
+	 */
+	public static Champion createChampion(String name) {
+		for (int i = 0; i < NAMES.length; i++) {
+			if (NAMES[i].equals(name)) {
+				return TIERS.get(i / 6).get(i % 6).get();
 			}
 		}
-		shop = newShop;
+		return null;
+	}
+	
+	/**
+	 * Returns the names of every champion in the game, one star champions first.
+	 * The order never changes so the index can be used as an id for a champion.
+	 * 
+	 * @return the champion names
+	 */
+	public static String[] getChampionNames() {
+		return NAMES.clone();
 	}
 	
 	public String toString() {
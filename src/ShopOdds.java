@@ -0,0 +1,158 @@
+package src;
+
+import java.util.HashMap;
+
+/**
+ * Chances of finding champions in the shop, worked out once when the class loads so
+ * every question is an array lookup.
+ *
+ * Every shop slot is drawn on its own from a pool holding getTierCopies(level) copies of
+ * each tier's 6 champions, so a champion is in a slot with a chance that only depends on
+ * the level and its tier, and every roll is 3 more tries. A reroll costs 1 gold, so
+ * gold spent and rolls are the same thing. Rolls are the new shops seen, not counting the
+ * one already on the board. Past MAX_ROLLS the chances for MAX_ROLLS are given.
+ */
+public class ShopOdds {
+	public static final int MAX_ROLLS = 64;
+	// the most copies asked about, three make an upgrade
+	public static final int MAX_COPIES = 3;
+	private static final int TIERS = 3;
+	private static final int PER_TIER = 6;
+	private static final int SLOTS = 3;
+	private static final int LEVELS = Shop.tierLevels();
+	private static final String[] NAMES = Shop.getChampionNames();
+	private static final HashMap<String, Integer> IDS = new HashMap<>();
+
+	// [level][tier] chance a slot holds one given champion of the tier
+	private static final double[][] SLOT = new double[LEVELS][TIERS];
+	// [level][tier][copies][rolls] chance of seeing at least that many copies of one champion
+	private static final double[][][][] COPIES = new double[LEVELS][TIERS][MAX_COPIES + 1][MAX_ROLLS + 1];
+	// [level][tier][rolls] chance of seeing any champion of the tier
+	private static final double[][][] ANY = new double[LEVELS][TIERS][MAX_ROLLS + 1];
+	// [level][tier][percent] fewest rolls to see one champion with that chance, -1 if too many
+	private static final int[][][] ROLLS_FOR = new int[LEVELS][TIERS][101];
+
+	static {
+		for (int i = 0; i < NAMES.length; i++) {
+			IDS.put(NAMES[i], i);
+		}
+		for (int level = 0; level < LEVELS; level++) {
+			int[] copies = Shop.getTierCopies(level + 1);
+			int pool = PER_TIER * (copies[0] + copies[1] + copies[2]);
+			for (int tier = 0; tier < TIERS; tier++) {
+				double p = (double) copies[tier] / pool;
+				SLOT[level][tier] = p;
+				// dist[k] is the chance of k copies so far, the last one counts MAX_COPIES or more
+				double[] dist = new double[MAX_COPIES + 1];
+				dist[0] = 1;
+				for (int rolls = 0; rolls <= MAX_ROLLS; rolls++) {
+					double atLeast = 0;
+					for (int k = MAX_COPIES; k > 0; k--) {
+						atLeast += dist[k];
+						COPIES[level][tier][k][rolls] = atLeast;
+					}
+					COPIES[level][tier][0][rolls] = 1;
+					ANY[level][tier][rolls] = 1 - Math.pow(1 - p * PER_TIER, SLOTS * rolls);
+					for (int slot = 0; slot < SLOTS; slot++) {
+						dist[MAX_COPIES] += dist[MAX_COPIES - 1] * p;
+						for (int k = MAX_COPIES - 1; k > 0; k--) {
+							dist[k] = dist[k] * (1 - p) + dist[k - 1] * p;
+						}
+						dist[0] *= 1 - p;
+					}
+				}
+				for (int percent = 0; percent <= 100; percent++) {
+					ROLLS_FOR[level][tier][percent] = -1;
+					for (int rolls = 0; rolls <= MAX_ROLLS; rolls++) {
+						// a little slack so 100% means as good as certain
+						if (COPIES[level][tier][1][rolls] >= percent / 100.0 - 1e-9) {
+							ROLLS_FOR[level][tier][percent] = rolls;
+							break;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private ShopOdds() {
+	}
+
+	/**
+	 * @return the id of a champion, its index in Shop.getChampionNames(), -1 if there's none
+	 */
+	public static int championId(String name) {
+		Integer id = IDS.get(name);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Chance that one shop slot holds a champion.
+	 * @param level    the player's level
+	 * @param champion the champion's id
+	 */
+	public static double slotChance(int level, int champion) {
+		return SLOT[row(level)][champion / PER_TIER];
+	}
+
+	/**
+	 * Chance of seeing a champion at least once.
+	 * @param level    the player's level
+	 * @param champion the champion's id
+	 * @param rolls    rerolls, or gold spent on them
+	 */
+	public static double hitChance(int level, int champion, int rolls) {
+		return COPIES[row(level)][champion / PER_TIER][1][clamp(rolls)];
+	}
+
+	/**
+	 * @see #hitChance(int, int, int)
+	 */
+	public static double hitChance(int level, String champion, int rolls) {
+		int id = championId(champion);
+		return id < 0 ? 0 : hitChance(level, id, rolls);
+	}
+
+	/**
+	 * Chance of seeing some number of copies of a champion, counting every slot it's in.
+	 * @param copies how many copies, up to MAX_COPIES
+	 */
+	public static double copiesChance(int level, int champion, int copies, int rolls) {
+		return COPIES[row(level)][champion / PER_TIER][Math.min(copies, MAX_COPIES)][clamp(rolls)];
+	}
+
+	/**
+	 * Chance of seeing at least one champion of a tier.
+	 * @param stars the tier, 1 to 3
+	 */
+	public static double tierChance(int level, int stars, int rolls) {
+		return ANY[row(level)][stars - 1][clamp(rolls)];
+	}
+
+	/**
+	 * Fewest rolls to see a champion at least once with some chance.
+	 * @param chance the chance wanted, 0 to 1
+	 * @return the rolls, -1 if it takes more than MAX_ROLLS or the champion can't show up
+	 */
+	public static int rollsFor(int level, int champion, double chance) {
+		int percent = (int) Math.ceil(Math.max(0, Math.min(1, chance)) * 100);
+		return ROLLS_FOR[row(level)][champion / PER_TIER][percent];
+	}
+
+	/**
+	 * Average number of rolls until a champion shows up.
+	 * @return the rolls, infinite if it can't show up at the level
+	 */
+	public static double expectedRolls(int level, int champion) {
+		double perRoll = COPIES[row(level)][champion / PER_TIER][1][1];
+		return 1 / perRoll;
+	}
+
+	private static int row(int level) {
+		return Math.max(0, Math.min(level, LEVELS) - 1);
+	}
+
+	private static int clamp(int rolls) {
+		return Math.max(0, Math.min(rolls, MAX_ROLLS));
+	}
+}
@@ -0,0 +1,619 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Plans a player's buys, rerolls and level ups over the next few rounds with a beam
+ * search over economy and board states.
+ *
+ * A state is the round, gold, level, expected health, the shop on offer and every unit
+ * owned, as codes like GameProtocol.championCode with copies merged the way Player
+ * merges them. Ending the turn fights against an estimate of the AI's board for that
+ * round. The strongest 7 units fight, and the chance to win is our strength over the
+ * total, with strength as in GhostStore.strength(). The gold and health that follow
+ * use the formulas in attackPhase(): round x 2 gold for the winner, round x 1 for the
+ * loser, the loser losing round health. On top of that every exchange pays 2 gold to
+ * one side, about 2 x the smaller board per side.
+ *
+ * Shops are random, so a search is run on a sampled future: every shop that would come
+ * up is drawn once, with the odds of Shop.getTierCopies(). Each sample is searched one
+ * turn at a time. Every action sequence within a turn is expanded, keeping the best
+ * beamWidth states at each step, and the best ends of turn go on to the next turn.
+ * A transposition table of state hashes stops a state reached by different orders of
+ * the same actions from being expanded twice. Samples are searched until the deadline
+ * and they vote on the first action, which is what gets played. The whole search is
+ * run again for the next action.
+ *
+ * Actions use the codes of BattlerEnv: END_TURN, REROLL, LEVEL_UP and BUY + slot.
+ */
+public class ShopPlanner {
+	private static final int MAX_ACTIONS_PER_TURN = 10;
+	private static final int MAX_UNITS = 14;
+	private static final int TABLE_BITS = 20;
+	// how much a gold and a chance of winning the next round are worth, in health
+	private static final float GOLD_VALUE = 0.2f;
+	private static final float WIN_VALUE = 3f;
+
+	private static final String[] NAMES = Shop.getChampionNames();
+	private static final int[] HP = new int[NAMES.length + 1];
+	private static final int[] ATK = new int[NAMES.length + 1];
+	private static final int[] STARS = new int[NAMES.length + 1];
+	// champion ids of each tier
+	private static final int[][] TIERS = new int[3][];
+	static {
+		List<List<Integer>> tiers = new ArrayList<>();
+		for (int t = 0; t < 3; t++) {
+			tiers.add(new ArrayList<>());
+		}
+		for (int id = 1; id <= NAMES.length; id++) {
+			Champion champ = Shop.createChampion(NAMES[id - 1]);
+			HP[id] = champ.getHp();
+			ATK[id] = champ.getAtk();
+			STARS[id] = champ.getStars();
+			tiers.get(champ.getStars() - 1).add(id);
+		}
+		for (int t = 0; t < 3; t++) {
+			TIERS[t] = tiers.get(t).stream().mapToInt(Integer::intValue).toArray();
+		}
+	}
+
+	private final int horizon;
+	private final int beamWidth;
+	private final long budgetNanos;
+	// expected strength and unit count of the AI's board in each round
+	private final double[] opponentStrength;
+	private final int[] opponentUnits;
+	private final long[] table;
+	// the generation each table entry was written in, entries from older samples are
+	// treated as empty so the table doesn't have to be cleared for every sample
+	private final int[] stamps;
+	private int generation;
+	private long seed;
+	private long lookups;
+	private long hits;
+	private long nodes;
+
+	/**
+	 * @param horizon     how many rounds ahead to plan
+	 * @param beamWidth   how many states to keep at each step
+	 * @param budgetNanos how long plan() may take
+	 */
+	public ShopPlanner(int horizon, int beamWidth, long budgetNanos) {
+		this.horizon = horizon;
+		this.beamWidth = beamWidth;
+		this.budgetNanos = budgetNanos;
+		table = new long[1 << TABLE_BITS];
+		stamps = new int[table.length];
+		opponentStrength = new double[BattlerEnv.MAX_ROUNDS + horizon + 2];
+		opponentUnits = new int[opponentStrength.length];
+		estimateOpponent();
+		seed = 1;
+	}
+
+	/**
+	 * Picks the next action for a player.
+	 * @param player the player to plan for, not changed
+	 * @param round  how many rounds have been fought
+	 * @return the plan, with the action to play now
+	 */
+	public Plan plan(Player player, int round) {
+		long start = System.nanoTime();
+		long deadline = start + budgetNanos;
+		lookups = 0;
+		hits = 0;
+		nodes = 0;
+		Node root = Node.of(player, round);
+		int[] votes = new int[BattlerEnv.BUY + 3];
+		Node best = null;
+		int samples = 0;
+		do {
+			Node leaf = search(root, seed++, deadline, samples == 0);
+			if (leaf == null) {
+				break;
+			}
+			samples++;
+			votes[firstAction(leaf)]++;
+			if (best == null || leaf.value > best.value) {
+				best = leaf;
+			}
+		} while (System.nanoTime() < deadline);
+		if (best == null) {
+			// not even one sample finished in time, end the turn
+			return new Plan(BattlerEnv.END_TURN, new int[] { BattlerEnv.END_TURN }, player.getHealth(),
+					0, nodes, System.nanoTime() - start, lookups, hits);
+		}
+		int action = firstAction(best);
+		for (int a = 0; a < votes.length; a++) {
+			if (votes[a] > votes[action]) {
+				action = a;
+			}
+		}
+		return new Plan(action, path(best), best.health, samples, nodes, System.nanoTime() - start,
+				lookups, hits);
+	}
+
+	/**
+	 * Plays a whole shop phase for a player, planning before every action, then puts
+	 * the strongest champions on the battlefield.
+	 * @param model  the game
+	 * @param player the player whose turn it is
+	 */
+	public void playTurn(AutoBattlerModel model, Player player) {
+		for (int i = 0; i < MAX_ACTIONS_PER_TURN; i++) {
+			int action = plan(player, model.getRound()).getAction();
+			if (action == BattlerEnv.END_TURN) {
+				break;
+			} else if (action == BattlerEnv.REROLL) {
+				model.rerollShop(player);
+			} else if (action == BattlerEnv.LEVEL_UP) {
+				model.playerLevelUp(player);
+			} else {
+				model.buyCharacter(player, action - BattlerEnv.BUY);
+			}
+		}
+		arrange(player);
+	}
+
+	/**
+	 * puts the 7 strongest champions on the battlefield and the rest on the bench
+	 */
+	static void arrange(Player player) {
+		List<Champion> owned = new ArrayList<>();
+		for (int i = 0; i < 7; i++) {
+			if (player.getBattleField()[i] != null) {
+				owned.add(player.getBattleField()[i]);
+			}
+			if (player.getBench()[i] != null) {
+				owned.add(player.getBench()[i]);
+			}
+			player.setBattleField(i, null);
+			player.setBench(i, null);
+		}
+		owned.sort(Comparator.comparingInt((Champion c) -> c.getHp() * c.getAtk()).reversed());
+		for (int i = 0; i < owned.size(); i++) {
+			if (i < 7) {
+				player.setBattleField(i, owned.get(i));
+			} else {
+				player.setBench(i - 7, owned.get(i));
+			}
+		}
+	}
+
+	/**
+	 * beam search on one sampled future
+	 * @param first the first sample of a plan, which finishes at least its first turn
+	 * @return the best state after horizon turns, null if the deadline passed first
+	 */
+	private Node search(Node root, long sample, long deadline, boolean first) {
+		if (++generation == 0) {
+			// wrapped around, old stamps could look current
+			Arrays.fill(stamps, 0);
+			generation = 1;
+		}
+		List<Node> beam = Collections.singletonList(root);
+		for (int turn = 0; turn < horizon; turn++) {
+			List<Node> ends = new ArrayList<>();
+			List<Node> frontier = beam;
+			for (int step = 0; step <= MAX_ACTIONS_PER_TURN && !frontier.isEmpty(); step++) {
+				if (System.nanoTime() > deadline && (!first || turn > 0)) {
+					return first ? best(beam) : null;
+				}
+				List<Node> next = new ArrayList<>();
+				for (Node node : frontier) {
+					ends.add(endTurn(node, sample));
+					if (step == MAX_ACTIONS_PER_TURN) {
+						continue;
+					}
+					for (int action = BattlerEnv.REROLL; action < BattlerEnv.BUY + 3; action++) {
+						Node child = act(node, action, sample);
+						if (child != null && firstVisit(child.hash())) {
+							child.value = value(endTurn(child, sample));
+							next.add(child);
+						}
+					}
+				}
+				frontier = top(next);
+			}
+			beam = top(ends);
+		}
+		return best(beam);
+	}
+
+	private List<Node> top(List<Node> nodes) {
+		if (nodes.size() > beamWidth) {
+			nodes.sort(Comparator.comparingDouble((Node n) -> n.value).reversed());
+			return new ArrayList<>(nodes.subList(0, beamWidth));
+		}
+		return nodes;
+	}
+
+	private static Node best(List<Node> nodes) {
+		Node best = null;
+		for (Node node : nodes) {
+			if (best == null || node.value > best.value) {
+				best = node;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * a shop action, null if it can't be done
+	 */
+	private Node act(Node node, int action, long sample) {
+		nodes++;
+		if (action == BattlerEnv.REROLL) {
+			if (node.gold < 1) {
+				return null;
+			}
+			Node child = node.child(action);
+			child.gold--;
+			child.rerolls++;
+			child.rollShop(sample);
+			return child;
+		}
+		if (action == BattlerEnv.LEVEL_UP) {
+			if (node.gold < node.level * 5 || node.level > 5) {
+				return null;
+			}
+			Node child = node.child(action);
+			child.gold -= node.level * 5;
+			child.level++;
+			return child;
+		}
+		int slot = action - BattlerEnv.BUY;
+		int id = node.shop[slot];
+		if (id == 0 || node.gold < STARS[id] || (node.units.length >= MAX_UNITS && node.copies(id | 1 << 8) < 2)) {
+			return null;
+		}
+		Node child = node.child(action);
+		child.gold -= STARS[id];
+		child.shop[slot] = 0;
+		child.add(id | 1 << 8);
+		return child;
+	}
+
+	/**
+	 * the state after fighting this round, with expected gold and health
+	 */
+	private Node endTurn(Node node, long sample) {
+		nodes++;
+		Node end = node.child(BattlerEnv.END_TURN);
+		int round = node.round + 1;
+		double strength = strength(node.units);
+		int units = Math.min(7, node.units.length);
+		double opponent = opponentStrength[Math.min(round, opponentStrength.length - 1)];
+		double win = strength + opponent == 0 ? 0 : strength / (strength + opponent);
+		int fightGold = 2 * Math.min(units, opponentUnits[Math.min(round, opponentUnits.length - 1)]);
+		end.round = round;
+		end.gold += (int) Math.round(round * (1 + win)) + fightGold;
+		end.health -= (float) ((1 - win) * round);
+		end.win = (float) win;
+		end.rerolls = 0;
+		end.rollShop(sample);
+		end.value = value(end);
+		return end;
+	}
+
+	/**
+	 * what a state is worth, its expected health with something for gold and for how
+	 * likely it is to win the next round
+	 */
+	private float value(Node end) {
+		int next = Math.min(end.round + 1, opponentStrength.length - 1);
+		double strength = strength(end.units);
+		double win = strength + opponentStrength[next] == 0 ? 0 : strength / (strength + opponentStrength[next]);
+		return end.health + GOLD_VALUE * end.gold + WIN_VALUE * (float) win;
+	}
+
+	private boolean firstVisit(long hash) {
+		lookups++;
+		int mask = table.length - 1;
+		for (int i = (int) hash & mask;; i = (i + 1) & mask) {
+			if (stamps[i] != generation) {
+				stamps[i] = generation;
+				table[i] = hash;
+				return true;
+			}
+			if (table[i] == hash) {
+				hits++;
+				return false;
+			}
+			if (i == (((int) hash - 1) & mask)) {
+				// the table is full, treat everything as new
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Strength of the 7 strongest units, total hp times total atk like
+	 * GhostStore.strength(). Units are sorted strongest first.
+	 */
+	static double strength(short[] units) {
+		long hp = 0;
+		long atk = 0;
+		for (int i = 0; i < units.length && i < 7; i++) {
+			int scale = 1 << ((units[i] >> 8) - 1);
+			hp += HP[units[i] & 0xFF] * scale;
+			atk += ATK[units[i] & 0xFF] * scale;
+		}
+		return (double) hp * atk;
+	}
+
+	/**
+	 * Expected board of the built in AI each round. It spends all its gold every turn
+	 * the way AIturn does, levelling up first, and is assumed to win half its rounds.
+	 */
+	private void estimateOpponent() {
+		int samples = 16;
+		for (int s = 0; s < samples; s++) {
+			long sample = -1 - s;
+			Node node = Node.start();
+			node.rollShop(sample);
+			for (int round = 1; round < opponentStrength.length; round++) {
+				while (node.gold >= 1) {
+					if (node.gold >= node.level * 5 && node.level <= 5) {
+						node.gold -= node.level * 5;
+						node.level++;
+					}
+					for (int slot = 0; slot < 3; slot++) {
+						int id = node.shop[slot];
+						if (id != 0 && node.gold >= STARS[id] && node.units.length < MAX_UNITS) {
+							node.gold -= STARS[id];
+							node.shop[slot] = 0;
+							node.add(id | 1 << 8);
+						}
+					}
+					if (node.gold >= 1) {
+						node.gold--;
+						node.rerolls++;
+						node.rollShop(sample);
+					}
+				}
+				opponentStrength[round] += strength(node.units) / samples;
+				opponentUnits[round] += Math.min(7, node.units.length);
+				node.round = round;
+				node.gold += (int) Math.round(round * 1.5) + 2 * Math.min(7, node.units.length);
+				node.rerolls = 0;
+				node.rollShop(sample);
+			}
+		}
+		for (int round = 0; round < opponentUnits.length; round++) {
+			opponentUnits[round] = Math.round(opponentUnits[round] / (float) samples);
+		}
+	}
+
+	private static int firstAction(Node leaf) {
+		int action = BattlerEnv.END_TURN;
+		for (Node node = leaf; node.parent != null; node = node.parent) {
+			action = node.action;
+		}
+		return action;
+	}
+
+	private static int[] path(Node leaf) {
+		int length = 0;
+		for (Node node = leaf; node.parent != null; node = node.parent) {
+			length++;
+		}
+		int[] actions = new int[length];
+		for (Node node = leaf; node.parent != null; node = node.parent) {
+			actions[--length] = node.action;
+		}
+		return actions;
+	}
+
+	/**
+	 * The champion id a sampled future puts in a shop slot. The same sample, round,
+	 * reroll and slot always give the same draw, whatever path led there.
+	 */
+	static int draw(long sample, int round, int rerolls, int slot, int level) {
+		long h = mix(mix(mix(mix(sample) + round) + rerolls) + slot);
+		int[] copies = Shop.getTierCopies(level);
+		int total = copies[0] + copies[1] + copies[2];
+		// every tier has the same number of champions, so a tier's odds are its copies
+		int pick = (int) Long.remainderUnsigned(h, total);
+		int tier = pick < copies[0] ? 0 : pick < copies[0] + copies[1] ? 1 : 2;
+		return TIERS[tier][(int) Long.remainderUnsigned(h >>> 32, TIERS[tier].length)];
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * one state of the search
+	 */
+	private static final class Node {
+		private Node parent;
+		private int action;
+		private int round;
+		private int gold;
+		private int level;
+		private float health;
+		private int rerolls;
+		private int[] shop;
+		// owned units, strongest first
+		private short[] units;
+		private float win;
+		private float value;
+
+		static Node start() {
+			Node node = new Node();
+			node.gold = 10;
+			node.level = 1;
+			node.health = 30;
+			node.shop = new int[3];
+			node.units = new short[0];
+			return node;
+		}
+
+		static Node of(Player player, int round) {
+			Node node = new Node();
+			node.round = round;
+			node.gold = player.getGold();
+			node.level = player.getLevel();
+			node.health = player.getHealth();
+			node.shop = new int[3];
+			for (int i = 0; i < 3; i++) {
+				node.shop[i] = GameProtocol.championCode(player.getShop().getShop()[i]) & 0xFF;
+			}
+			node.units = new short[0];
+			for (int i = 0; i < 7; i++) {
+				for (Champion champ : new Champion[] { player.getBattleField()[i], player.getBench()[i] }) {
+					if (champ != null) {
+						node.insert((short) GameProtocol.championCode(champ));
+					}
+				}
+			}
+			return node;
+		}
+
+		Node child(int action) {
+			Node child = new Node();
+			child.parent = this;
+			child.action = action;
+			child.round = round;
+			child.gold = gold;
+			child.level = level;
+			child.health = health;
+			child.rerolls = rerolls;
+			child.shop = shop.clone();
+			child.units = units;
+			child.win = win;
+			return child;
+		}
+
+		void rollShop(long sample) {
+			shop = new int[3];
+			for (int slot = 0; slot < 3; slot++) {
+				shop[slot] = draw(sample, round, rerolls, slot, level);
+			}
+		}
+
+		int copies(int code) {
+			int count = 0;
+			for (short unit : units) {
+				if (unit == code) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * adds a unit and merges three copies into an upgraded one, like Player
+		 */
+		void add(int code) {
+			while (copies(code) == 2) {
+				short[] kept = new short[units.length - 2];
+				int k = 0;
+				for (short unit : units) {
+					if (unit != code) {
+						kept[k++] = unit;
+					}
+				}
+				units = kept;
+				code += 1 << 8;
+			}
+			insert((short) code);
+		}
+
+		private void insert(short code) {
+			short[] more = new short[units.length + 1];
+			int at = 0;
+			while (at < units.length && power(units[at]) >= power(code)) {
+				at++;
+			}
+			System.arraycopy(units, 0, more, 0, at);
+			more[at] = code;
+			System.arraycopy(units, at, more, at + 1, units.length - at);
+			units = more;
+		}
+
+		private static long power(short code) {
+			long scale = 1L << ((code >> 8) - 1);
+			return HP[code & 0xFF] * scale * ATK[code & 0xFF] * scale * 64 + (code & 0xFFFF);
+		}
+
+		long hash() {
+			long h = mix(round * 31L + rerolls);
+			h = mix(h + gold * 131L + level);
+			h = mix(h + Math.round(health * 16));
+			h = mix(h + (shop[0] | shop[1] << 8 | shop[2] << 16));
+			for (short unit : units) {
+				h = mix(h + unit);
+			}
+			return h == 0 ? 1 : h;
+		}
+	}
+
+	/**
+	 * What plan() decided, and how the search went.
+	 */
+	public static class Plan {
+		private final int action;
+		private final int[] actions;
+		private final float expectedHealth;
+		private final int samples;
+		private final long nodes;
+		private final long nanos;
+		private final long lookups;
+		private final long hits;
+
+		Plan(int action, int[] actions, float expectedHealth, int samples, long nodes, long nanos,
+				long lookups, long hits) {
+			this.action = action;
+			this.actions = actions;
+			this.expectedHealth = expectedHealth;
+			this.samples = samples;
+			this.nodes = nodes;
+			this.nanos = nanos;
+			this.lookups = lookups;
+			this.hits = hits;
+		}
+
+		/**
+		 * @return the action to play now
+		 */
+		public int getAction() { return action; }
+
+		/**
+		 * @return every action of the best line found, END_TURN between turns
+		 */
+		public int[] getActions() { return actions.clone(); }
+
+		/**
+		 * @return health expected at the end of the best line
+		 */
+		public float getExpectedHealth() { return expectedHealth; }
+
+		/**
+		 * @return how many sampled futures were searched
+		 */
+		public int getSamples() { return samples; }
+
+		public long getNodes() { return nodes; }
+
+		public double getNodesPerSecond() { return nodes / (nanos / 1e9); }
+
+		/**
+		 * @return the share of states found already in the transposition table
+		 */
+		public double getHitRate() { return lookups == 0 ? 0 : hits / (double) lookups; }
+
+		@Override
+		public String toString() {
+			return String.format("action %d, %d samples, %d nodes, %.0f nodes/s, %.1f%% table hits, "
+					+ "expected health %.1f", action, samples, nodes, getNodesPerSecond(),
+					100 * getHitRate(), expectedHealth);
+		}
+	}
+}
@@ -0,0 +1,404 @@
+package src;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Splits a big matchup sweep into work units and hands them out to SimulationWorker
+ * processes over local sockets. Workers ask for the next unit as soon as they finish
+ * one, so faster workers simply do more of them. If a worker dies or takes too long,
+ * its unit goes back in the queue. Every worker process is watched, and one that exits
+ * while there is still work left is replaced, whether it died holding a unit, before it
+ * connected or while it was waiting. Once every unit has been handed out only a worker
+ * that died holding one is replaced, and none are once the sweep is shutting down. If
+ * workers keep dying without any unit getting done, the remaining units are failed
+ * instead of waiting for workers that never come.
+ *
+ * Run with: java src.SimulationCoordinator workers units matchupsPerUnit fights [crashAfter]
+ * crashAfter makes the first worker die after that many units, to check retries.
+ */
+public class SimulationCoordinator {
+	static final int SHUTDOWN = -1;
+	private static final int MAX_ATTEMPTS = 3;
+	private static final int UNIT_TIMEOUT_MS = 60_000;
+	// replacements started without a unit finishing in between, per worker, before giving up
+	private static final int MAX_RELAUNCHES = 3;
+
+	private final List<WorkUnit> units;
+	private final int fights;
+	private final BlockingQueue<WorkUnit> queue;
+	private final AtomicIntegerArray done;
+	private final CountDownLatch finished;
+	// [unit][matchup] = {p1 wins, p2 wins, draws}
+	private final int[][][] results;
+	private final AtomicInteger retries;
+	private final AtomicInteger failedUnits;
+	private final List<Process> processes;
+	// the unit each connected worker is working on, by pid
+	private final Map<Long, WorkUnit> busy;
+	// set once every unit is done or failed, guarded by processes
+	private boolean shuttingDown;
+	// workers that exited since the last unit was finished
+	private final AtomicInteger deaths;
+	private int workers;
+	private int port;
+
+	/**
+	 * @param units  the work to hand out
+	 * @param fights how many fights to play for every matchup
+	 */
+	public SimulationCoordinator(List<WorkUnit> units, int fights) {
+		this.units = units;
+		this.fights = fights;
+		queue = new LinkedBlockingQueue<>(units);
+		done = new AtomicIntegerArray(units.size());
+		finished = new CountDownLatch(units.size());
+		results = new int[units.size()][][];
+		retries = new AtomicInteger();
+		failedUnits = new AtomicInteger();
+		processes = new ArrayList<>();
+		busy = new ConcurrentHashMap<>();
+		deaths = new AtomicInteger();
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int workers = Integer.parseInt(args[0]);
+		int unitCount = Integer.parseInt(args[1]);
+		int matchups = Integer.parseInt(args[2]);
+		int fights = Integer.parseInt(args[3]);
+		int crashAfter = args.length > 4 ? Integer.parseInt(args[4]) : -1;
+
+		SimulationCoordinator coordinator = new SimulationCoordinator(createUnits(unitCount, matchups, 1), fights);
+		long start = System.nanoTime();
+		coordinator.run(workers, crashAfter);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long total = (long) unitCount * matchups * fights;
+		System.out.printf("%d workers: %d fights in %.2f s, %.0f fights/s, %d retries, %d failed units%n",
+				workers, total, seconds, total / seconds, coordinator.getRetries(), coordinator.getFailedUnits());
+		coordinator.printChampionWinRates();
+	}
+
+	/**
+	 * Draws random matchups the way players would build them, by rolling shops at a
+	 * random level until both battlefields are full.
+	 * @param count    how many work units to make
+	 * @param matchups how many matchups in each unit
+	 * @param seed     seed for the levels and the fight results
+	 * @return the work units
+	 */
+	public static List<WorkUnit> createUnits(int count, int matchups, long seed) {
+		Random rng = new Random(seed);
+		Shop shop = new Shop();
+		List<WorkUnit> created = new ArrayList<>();
+		for (int u = 0; u < count; u++) {
+			String[][] boards = new String[matchups * 2][];
+			for (int b = 0; b < boards.length; b++) {
+				int level = 1 + rng.nextInt(5);
+				String[] board = new String[7];
+				int filled = 0;
+				while (filled < 7) {
+					for (Champion champ: shop.rerollShop(level)) {
+						if (champ != null && filled < 7) {
+							board[filled++] = champ.getName();
+						}
+					}
+				}
+				boards[b] = board;
+			}
+			created.add(new WorkUnit(u, rng.nextLong(), boards));
+		}
+		return created;
+	}
+
+	/**
+	 * Starts the workers and waits until every unit is done or has failed too often.
+	 * @param workers    how many worker processes to start
+	 * @param crashAfter make the first worker die after this many units, -1 for never
+	 */
+	public void run(int workers, int crashAfter) throws IOException, InterruptedException {
+		this.workers = workers;
+		try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			port = server.getLocalPort();
+			Thread acceptor = new Thread(() -> {
+				while (!server.isClosed()) {
+					try {
+						Socket socket = server.accept();
+						Thread handler = new Thread(() -> serve(socket), "coordinator-" + socket.getPort());
+						handler.setDaemon(true);
+						handler.start();
+					} catch (IOException e) {
+						// closed once everything is done
+					}
+				}
+			}, "coordinator-accept");
+			acceptor.setDaemon(true);
+			acceptor.start();
+			for (int i = 0; i < workers; i++) {
+				launchWorker(i == 0 ? crashAfter : -1);
+			}
+			finished.await();
+		} finally {
+			synchronized (processes) {
+				// workers exit once they get SHUTDOWN, none of them is replaced now
+				shuttingDown = true;
+				for (Process process : processes) {
+					if (!process.waitFor(2, TimeUnit.SECONDS)) {
+						process.destroy();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Hands units to one connected worker until there are none left or the worker fails.
+	 */
+	private void serve(Socket socket) {
+		WorkUnit unit = null;
+		long pid = -1;
+		try (Socket s = socket) {
+			s.setSoTimeout(UNIT_TIMEOUT_MS);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+			// so a worker that stops answering can be killed, and then replaced when it exits
+			pid = in.readLong();
+			while (finished.getCount() > 0) {
+				unit = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (unit == null) {
+					continue;
+				}
+				busy.put(pid, unit);
+				send(out, unit);
+				int unitId = in.readInt();
+				int matchups = in.readInt();
+				int[][] counts = new int[matchups][3];
+				for (int m = 0; m < matchups; m++) {
+					counts[m][0] = in.readInt();
+					counts[m][1] = in.readInt();
+					counts[m][2] = in.readInt();
+				}
+				complete(unitId, counts);
+				busy.remove(pid);
+				unit = null;
+			}
+			out.writeInt(SHUTDOWN);
+			out.flush();
+		} catch (IOException | InterruptedException e) {
+			if (unit != null) {
+				retry(unit);
+			}
+			busy.remove(pid);
+			kill(pid);
+		}
+	}
+
+	/**
+	 * kills the worker with this pid, only if it is one of the processes started here
+	 */
+	private void kill(long pid) {
+		synchronized (processes) {
+			for (Process process : processes) {
+				if (process.pid() == pid) {
+					process.destroyForcibly();
+				}
+			}
+		}
+	}
+
+	private void send(DataOutputStream out, WorkUnit unit) throws IOException {
+		out.writeInt(unit.id);
+		out.writeLong(unit.seed);
+		out.writeInt(fights);
+		out.writeInt(unit.boards.length / 2);
+		for (String[] board : unit.boards) {
+			for (String name : board) {
+				out.writeUTF(name == null ? "" : name);
+			}
+		}
+		out.flush();
+	}
+
+	private void complete(int unitId, int[][] counts) {
+		if (done.compareAndSet(unitId, 0, 1)) {
+			results[unitId] = counts;
+			deaths.set(0);
+			finished.countDown();
+		}
+	}
+
+	/**
+	 * puts a unit back in the queue after its worker failed, the worker is replaced
+	 * once its process has exited
+	 */
+	private void retry(WorkUnit unit) {
+		retries.incrementAndGet();
+		unit.attempts++;
+		if (unit.attempts >= MAX_ATTEMPTS) {
+			if (done.compareAndSet(unit.id, 0, 1)) {
+				failedUnits.incrementAndGet();
+				finished.countDown();
+			}
+		} else {
+			queue.add(unit);
+			// its worker may have exited before the unit was back, when there was
+			// nothing to replace it for
+			synchronized (processes) {
+				for (Process process : processes) {
+					if (process.isAlive()) {
+						return;
+					}
+				}
+			}
+			replace();
+		}
+	}
+
+	/**
+	 * Replaces a worker whose process exited while there were still units to hand out
+	 * or it was holding one.
+	 */
+	private void exited(Process process) {
+		if (finished.getCount() == 0) {
+			return;
+		}
+		if (queue.isEmpty() && !busy.containsKey(process.pid())) {
+			// every unit is handed out and this worker wasn't holding one
+			return;
+		}
+		replace();
+	}
+
+	/**
+	 * starts a new worker, or fails every unit left if too many have died since a unit
+	 * was last finished
+	 */
+	private void replace() {
+		if (deaths.incrementAndGet() > MAX_RELAUNCHES * workers) {
+			System.err.println("workers keep exiting without finishing anything, giving up");
+			failRemaining();
+			return;
+		}
+		try {
+			launchWorker(-1);
+		} catch (IOException e) {
+			System.err.println("couldn't start a replacement worker: " + e.getMessage());
+			failRemaining();
+		}
+	}
+
+	private void failRemaining() {
+		for (int u = 0; u < units.size(); u++) {
+			if (done.compareAndSet(u, 0, 1)) {
+				failedUnits.incrementAndGet();
+				finished.countDown();
+			}
+		}
+	}
+
+	private void launchWorker(int crashAfter) throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				SimulationWorker.class.getName(), Integer.toString(port), Integer.toString(crashAfter));
+		builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		synchronized (processes) {
+			if (shuttingDown) {
+				return;
+			}
+			Process process = builder.start();
+			processes.add(process);
+			process.onExit().thenAccept(this::exited);
+		}
+	}
+
+	/**
+	 * @return how many times a unit was put back after its worker failed
+	 */
+	public int getRetries() {
+		return retries.get();
+	}
+
+	/**
+	 * @return units given up on, either after failing too often or because no worker
+	 *         could finish anything
+	 */
+	public int getFailedUnits() {
+		return failedUnits.get();
+	}
+
+	/**
+	 * Win rate of every champion over all the finished matchups, counting a fight as a
+	 * win for every champion on the winning battlefield.
+	 * @return champion name to {fights won, fights played}
+	 */
+	public Map<String, long[]> getChampionWinRates() {
+		Map<String, long[]> rates = new HashMap<>();
+		for (int u = 0; u < units.size(); u++) {
+			if (results[u] == null) {
+				continue;
+			}
+			String[][] boards = units.get(u).boards;
+			for (int m = 0; m < results[u].length; m++) {
+				int[] counts = results[u][m];
+				long played = counts[0] + counts[1] + counts[2];
+				addBoard(rates, boards[m * 2], counts[0], played);
+				addBoard(rates, boards[m * 2 + 1], counts[1], played);
+			}
+		}
+		return rates;
+	}
+
+	private static void addBoard(Map<String, long[]> rates, String[] board, long wins, long played) {
+		for (String name : board) {
+			if (name != null) {
+				long[] rate = rates.computeIfAbsent(name, k -> new long[2]);
+				rate[0] += wins;
+				rate[1] += played;
+			}
+		}
+	}
+
+	private void printChampionWinRates() {
+		getChampionWinRates().entrySet().stream()
+				.sorted((a, b) -> Double.compare(b.getValue()[0] / (double) b.getValue()[1],
+						a.getValue()[0] / (double) a.getValue()[1]))
+				.forEach(e -> System.out.printf("  %-10s %.3f%n", e.getKey(),
+						e.getValue()[0] / (double) e.getValue()[1]));
+	}
+
+	/**
+	 * A batch of matchups handed to one worker. boards holds the two battlefields of
+	 * each matchup one after the other, as champion names.
+	 */
+	public static class WorkUnit {
+		private final int id;
+		private final long seed;
+		private final String[][] boards;
+		private int attempts;
+
+		public WorkUnit(int id, long seed, String[][] boards) {
+			this.id = id;
+			this.seed = seed;
+			this.boards = boards;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package src;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Random;
+
+/**
+ * Worker process for a distributed simulation. Connects to a SimulationCoordinator,
+ * then plays every work unit it is sent and sends back the results, until the
+ * coordinator tells it to stop.
+ *
+ * Run with: java src.SimulationWorker port [units before crashing]
+ * The second argument makes the worker exit without answering after that many units,
+ * which is only useful for testing the coordinator's retries.
+ */
+public class SimulationWorker {
+
+	public static void main(String[] args) throws IOException {
+		int port = Integer.parseInt(args[0]);
+		int failAfter = args.length > 1 ? Integer.parseInt(args[1]) : -1;
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeLong(ProcessHandle.current().pid());
+			out.flush();
+			int done = 0;
+			while (true) {
+				int unitId = in.readInt();
+				if (unitId == SimulationCoordinator.SHUTDOWN) {
+					return;
+				}
+				long seed = in.readLong();
+				int fights = in.readInt();
+				int matchups = in.readInt();
+				Champion[][] p1Boards = new Champion[matchups][];
+				Champion[][] p2Boards = new Champion[matchups][];
+				for (int m = 0; m < matchups; m++) {
+					p1Boards[m] = readBoard(in);
+					p2Boards[m] = readBoard(in);
+				}
+				if (done == failAfter) {
+					System.exit(1);
+				}
+
+				Random rng = new Random(seed);
+				out.writeInt(unitId);
+				out.writeInt(matchups);
+				for (int m = 0; m < matchups; m++) {
+					int[] counts = CombatSimulator.simulate(p1Boards[m], p2Boards[m], fights, rng);
+					out.writeInt(counts[0]);
+					out.writeInt(counts[1]);
+					out.writeInt(counts[2]);
+				}
+				out.flush();
+				done++;
+			}
+		}
+	}
+
+	/**
+	 * reads a battlefield sent as 7 champion names, empty for an empty slot
+	 */
+	private static Champion[] readBoard(DataInputStream in) throws IOException {
+		Champion[] board = new Champion[7];
+		for (int i = 0; i < 7; i++) {
+			String name = in.readUTF();
+			if (!name.isEmpty()) {
+				board[i] = Shop.createChampion(name);
+			}
+		}
+		return board;
+	}
+}
@@ -0,0 +1,271 @@
+package src;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plays full headless games back to back and checks them against budgets, to catch
+ * what only shows up over thousands of games: allocation creeping up, the heap or the
+ * thread count growing from game to game, items lost to full inventories or storms of
+ * notifications.
+ *
+ * Every round goes through the controller like the GUI does: the shop phase, player 1's
+ * turn played greedily, the AI's turn, the trait bonuses and the attack phase. Bytes
+ * allocated by the thread are read from ThreadMXBean around every round. Every
+ * heapEvery games the heap is collected and its size after the first check is taken as
+ * the baseline, so growth past it is what the later games leaked.
+ *
+ * Run with key=value arguments to change the budgets, like
+ *     java src.SoakBenchmark games=2000 bytesPerRound=200000
+ * It exits with 1 if a budget was exceeded.
+ */
+public class SoakBenchmark {
+	public static final String[] PHASES = { "shop", "player", "AIturn", "traits", "attack" };
+	// a game that goes on this long is called a draw
+	private static final int MAX_ROUNDS = 200;
+
+	private final Map<String, Long> settings;
+	private final com.sun.management.ThreadMXBean threads;
+	private final MemoryMXBean memory;
+
+	/**
+	 * @param settings budgets and run settings by name, defaults() are used for the rest
+	 */
+	public SoakBenchmark(Map<String, Long> settings) {
+		this.settings = new LinkedHashMap<>(defaults());
+		this.settings.putAll(settings);
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		memory = ManagementFactory.getMemoryMXBean();
+	}
+
+	/**
+	 * @return every setting and its default
+	 */
+	public static Map<String, Long> defaults() {
+		Map<String, Long> defaults = new LinkedHashMap<>();
+		defaults.put("games", 1000L);
+		defaults.put("heapEvery", 100L);
+		defaults.put("bytesPerRound", 2_000_000L);
+		defaults.put("heapGrowth", 16L << 20);
+		defaults.put("threadGrowth", 0L);
+		defaults.put("notificationsPerRound", 400L);
+		defaults.put("p99Micros", 20_000L);
+		// items that dropped for a player whose 6 slots were full, per 100 games.
+		// About 80 are lost now, far more means champions stopped taking their items
+		defaults.put("itemsLostPer100Games", 150L);
+		return defaults;
+	}
+
+	/**
+	 * Plays the games and checks the budgets.
+	 */
+	public Report run() {
+		long games = settings.get("games");
+		long heapEvery = Math.max(1, settings.get("heapEvery"));
+		Map<String, GameMetrics.Histogram> phases = new LinkedHashMap<>();
+		for (String phase : PHASES) {
+			phases.put(phase, new GameMetrics.Histogram());
+		}
+		GameMetrics.Histogram bytesPerRound = new GameMetrics.Histogram();
+		long thread = Thread.currentThread().getId();
+		long gcs = gcCount();
+		int startThreads = threads.getThreadCount();
+		long notifications = GameMetrics.METRICS.getNotifications();
+		long itemsLost = GameMetrics.METRICS.getItemsLost();
+		long rounds = 0;
+		long baseHeap = -1;
+		long heap = 0;
+		long start = System.nanoTime();
+		for (long game = 0; game < games; game++) {
+			AutoBattlerModel model = new AutoBattlerModel();
+			AutoBattlerController controller = new AutoBattlerController(model);
+			for (int round = 0; round < MAX_ROUNDS && !controller.isGameOver(); round++) {
+				long bytes = threads.getThreadAllocatedBytes(thread);
+				long t = System.nanoTime();
+				controller.startShopPhase();
+				t = time(phases.get("shop"), t);
+				playerTurn(controller, model.getP1());
+				t = time(phases.get("player"), t);
+				controller.AIturn();
+				t = time(phases.get("AIturn"), t);
+				controller.giveTraitBonuses();
+				t = time(phases.get("traits"), t);
+				controller.startAttackPhase();
+				time(phases.get("attack"), t);
+				bytesPerRound.record(threads.getThreadAllocatedBytes(thread) - bytes);
+				rounds++;
+			}
+			if ((game + 1) % heapEvery == 0 || game + 1 == games) {
+				heap = liveHeap();
+				if (baseHeap < 0) {
+					baseHeap = heap;
+				}
+			}
+		}
+		Report report = new Report();
+		report.games = games;
+		report.rounds = rounds;
+		report.seconds = (System.nanoTime() - start) / 1e9;
+		report.bytesPerRound = bytesPerRound;
+		report.gcs = gcCount() - gcs;
+		report.heapGrowth = heap - baseHeap;
+		report.threadGrowth = threads.getThreadCount() - startThreads;
+		report.notificationsPerRound = rounds == 0 ? 0
+				: (double) (GameMetrics.METRICS.getNotifications() - notifications) / rounds;
+		report.itemsLost = GameMetrics.METRICS.getItemsLost() - itemsLost;
+		report.phases = phases;
+		check(report);
+		return report;
+	}
+
+	/**
+	 * buys everything it can afford, levels up with what's left, and fills the battlefield
+	 */
+	private static void playerTurn(AutoBattlerController controller, Player player) {
+		for (int i = 0; i < 3; i++) {
+			controller.buyCharacter(player, i);
+		}
+		if (player.getGold() >= 4) {
+			controller.levelup(player);
+		}
+		for (int bench = 0; bench < 7; bench++) {
+			int free = Integer.numberOfTrailingZeros(~player.getBattleFieldMask() & 0x7F);
+			if (free >= 7) {
+				break;
+			}
+			if (player.getBench()[bench] != null) {
+				controller.changePosition(new int[] { 0, bench }, 1, new int[] { 1, free });
+			}
+		}
+		ItemAssigner.apply(player, player.getBattleField());
+	}
+
+	private void check(Report report) {
+		long p99 = settings.get("p99Micros") * 1000;
+		budget(report, "bytesPerRound", (long) report.bytesPerRound.getMean());
+		budget(report, "heapGrowth", report.heapGrowth);
+		budget(report, "threadGrowth", report.threadGrowth);
+		budget(report, "notificationsPerRound", (long) Math.ceil(report.notificationsPerRound));
+		budget(report, "itemsLostPer100Games", report.games == 0 ? 0 : report.itemsLost * 100 / report.games);
+		for (Map.Entry<String, GameMetrics.Histogram> phase : report.phases.entrySet()) {
+			long value = phase.getValue().getPercentile(0.99);
+			if (value > p99) {
+				report.failures.add(String.format("%s p99 %d us over %d us", phase.getKey(), value / 1000,
+						p99 / 1000));
+			}
+		}
+	}
+
+	private void budget(Report report, String name, long value) {
+		if (value > settings.get(name)) {
+			report.failures.add(String.format("%s %d over %d", name, value, settings.get(name)));
+		}
+	}
+
+	private static long time(GameMetrics.Histogram phase, long start) {
+		long now = System.nanoTime();
+		phase.record(now - start);
+		return now;
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private long liveHeap() {
+		System.gc();
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	/**
+	 * What a soak run measured, and the budgets it went over.
+	 */
+	public static class Report {
+		private long games;
+		private long rounds;
+		private double seconds;
+		private GameMetrics.Histogram bytesPerRound;
+		private long gcs;
+		private long heapGrowth;
+		private long threadGrowth;
+		private double notificationsPerRound;
+		private long itemsLost;
+		private Map<String, GameMetrics.Histogram> phases;
+		private final List<String> failures = new ArrayList<>();
+
+		public long getRounds() { return rounds; }
+
+		/**
+		 * @return the average bytes allocated in a round
+		 */
+		public double getBytesPerRound() { return bytesPerRound.getMean(); }
+
+		public long getGcs() { return gcs; }
+
+		/**
+		 * @return bytes the live heap grew by after the first check
+		 */
+		public long getHeapGrowth() { return heapGrowth; }
+
+		public long getThreadGrowth() { return threadGrowth; }
+
+		public double getNotificationsPerRound() { return notificationsPerRound; }
+
+		/**
+		 * @return items that dropped while the player's inventory was full
+		 */
+		public long getItemsLost() { return itemsLost; }
+
+		/**
+		 * @return how long a phase took, in nanoseconds
+		 */
+		public GameMetrics.Histogram getPhase(String phase) { return phases.get(phase); }
+
+		/**
+		 * @return one line per budget that was exceeded, empty if the run passed
+		 */
+		public List<String> getFailures() { return failures; }
+
+		@Override
+		public String toString() {
+			String res = String.format("%d games, %d rounds in %.1f s, %.0f bytes/round (max %d), %d GCs,"
+					+ " heap grew %d bytes, threads grew %d, %.1f notifications/round, %d items lost%n",
+					games, rounds, seconds, bytesPerRound.getMean(), bytesPerRound.getMax(), gcs, heapGrowth,
+					threadGrowth, notificationsPerRound, itemsLost);
+			for (Map.Entry<String, GameMetrics.Histogram> phase : phases.entrySet()) {
+				GameMetrics.Histogram h = phase.getValue();
+				res += String.format("%-7s mean %.1f us, p50 %d us, p99 %d us, max %d us%n", phase.getKey(),
+						h.getMean() / 1e3, h.getPercentile(0.5) / 1000, h.getPercentile(0.99) / 1000,
+						h.getMax() / 1000);
+			}
+			for (String failure : failures) {
+				res += "FAILED " + failure + "\n";
+			}
+			return res;
+		}
+	}
+
+	public static void main(String[] args) {
+		Map<String, Long> settings = new LinkedHashMap<>();
+		for (String arg : args) {
+			String[] pair = arg.split("=", 2);
+			if (pair.length != 2 || !defaults().containsKey(pair[0])) {
+				System.err.println("settings are key=value, the keys are " + defaults().keySet());
+				System.exit(2);
+			}
+			settings.put(pair[0], Long.parseLong(pair[1]));
+		}
+		Report report = new SoakBenchmark(settings).run();
+		System.out.print(report);
+		System.exit(report.getFailures().isEmpty() ? 0 : 1);
+	}
+}
@@ -0,0 +1,136 @@
+package src;
+
+import java.nio.ByteBuffer;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Lets any number of spectators watch a game. Observes an AutoBattlerModel, and every
+ * time the model changes it encodes the fields that changed into one DELTA frame that
+ * is handed to every spectator. Each frame is encoded once, however many spectators
+ * there are. Spectators only get read-only views of it, so they cost no more than their
+ * entry in the subscriber list.
+ *
+ * A new spectator is first sent a KEYFRAME with the whole state, then the DELTAs that
+ * follow. Frames use the GameProtocol layout (see GameProtocol.readState), with the
+ * fields below. The sequence number counts the DELTAs, and a KEYFRAME carries the
+ * number of the last DELTA it includes.
+ */
+public class SpectatorFeed implements Observer {
+	public static final int ROUND = 0;
+	// where each player's fields start
+	public static final int P1 = 1;
+	public static final int P2 = P1 + 24;
+	// offsets from P1 or P2
+	public static final int GOLD = 0;
+	public static final int HEALTH = 1;
+	public static final int LEVEL = 2;
+	public static final int BENCH = 3;
+	public static final int BATTLEFIELD = BENCH + 7;
+	public static final int BATTLEFIELD_HP = BATTLEFIELD + 7;
+	public static final int FIELDS = P2 + 24;
+	public static final int MAX_FRAME = GameProtocol.HEADER_BYTES + 1 + FIELDS * 5;
+
+	private final AutoBattlerModel model;
+	private final CopyOnWriteArrayList<Consumer<ByteBuffer>> spectators;
+	// what has been broadcast, and scratch space for the model's current fields
+	private final int[] sent;
+	private final int[] now;
+	// every DELTA is written here, spectators can't keep frames so it can be reused
+	private final ByteBuffer delta;
+	private ByteBuffer keyframe;
+	private int seq;
+
+	/**
+	 * Starts watching a model.
+	 * @param model the game to broadcast
+	 */
+	public SpectatorFeed(AutoBattlerModel model) {
+		this.model = model;
+		spectators = new CopyOnWriteArrayList<>();
+		sent = new int[FIELDS];
+		now = new int[FIELDS];
+		delta = ByteBuffer.allocate(MAX_FRAME);
+		snapshot(model, sent);
+		model.addObserver(this);
+	}
+
+	/**
+	 * Adds a spectator. It is sent a KEYFRAME right away, then every DELTA after it.
+	 * Frames are passed to it on the thread changing the model, it must not keep them
+	 * past the call without copying.
+	 * @param spectator takes each frame, positioned at the start of the frame
+	 */
+	public synchronized void subscribe(Consumer<ByteBuffer> spectator) {
+		if (keyframe == null) {
+			ByteBuffer frame = ByteBuffer.allocate(MAX_FRAME);
+			GameProtocol.writeFields(GameProtocol.KEYFRAME, seq, new int[FIELDS], sent, frame);
+			frame.flip();
+			keyframe = frame.asReadOnlyBuffer();
+		}
+		spectator.accept(keyframe.duplicate());
+		spectators.add(spectator);
+	}
+
+	/**
+	 * Stops sending frames to a spectator.
+	 */
+	public void unsubscribe(Consumer<ByteBuffer> spectator) {
+		spectators.remove(spectator);
+	}
+
+	/**
+	 * @return how many spectators are watching
+	 */
+	public int getSpectatorCount() {
+		return spectators.size();
+	}
+
+	/**
+	 * stops watching the model
+	 */
+	public void close() {
+		model.deleteObserver(this);
+		spectators.clear();
+	}
+
+	@Override
+	public synchronized void update(Observable o, Object arg) {
+		snapshot(model, now);
+		delta.clear();
+		if (GameProtocol.writeFields(GameProtocol.DELTA, seq + 1, sent, now, delta) == 0) {
+			return;
+		}
+		seq++;
+		keyframe = null;
+		delta.flip();
+		ByteBuffer shared = delta.asReadOnlyBuffer();
+		for (Consumer<ByteBuffer> spectator : spectators) {
+			spectator.accept(shared.duplicate());
+		}
+	}
+
+	/**
+	 * Fills in everything a spectator can see of the game.
+	 * @param fields array of length FIELDS to fill
+	 */
+	public static void snapshot(AutoBattlerModel model, int[] fields) {
+		fields[ROUND] = model.getRound();
+		snapshot(model.getP1(), fields, P1);
+		snapshot(model.getP2(), fields, P2);
+	}
+
+	private static void snapshot(Player player, int[] fields, int offset) {
+		fields[offset + GOLD] = player.getGold();
+		fields[offset + HEALTH] = player.getHealth();
+		fields[offset + LEVEL] = player.getLevel();
+		for (int i = 0; i < 7; i++) {
+			Champion fighting = player.getBattleField()[i];
+			fields[offset + BENCH + i] = GameProtocol.championCode(player.getBench()[i]);
+			fields[offset + BATTLEFIELD + i] = GameProtocol.championCode(fighting);
+			fields[offset + BATTLEFIELD_HP + i] = fighting == null ? 0 : fighting.getHp();
+		}
+	}
+}
@@ -0,0 +1,322 @@
+package src;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Filters and aggregates a file written by TelemetryWriter. Only the columns a query
+ * uses are read, segments are scanned in parallel, and every value is a primitive int
+ * while scanning.
+ *
+ * For example the win rate of boards with 3 Cryo units at level 4:
+ *   query.where("cryo", EQ, 3).where("level", EQ, 4).mean("won")
+ *
+ * Run with: java src.TelemetryQuery file column [by=column] [column(=,!=,<,<=,>,>=,&)value ...]
+ * to print the mean of a column over the matching rows.
+ */
+public class TelemetryQuery implements AutoCloseable {
+	public static final int EQ = 0;
+	public static final int NE = 1;
+	public static final int LT = 2;
+	public static final int LE = 3;
+	public static final int GT = 4;
+	public static final int GE = 5;
+	// value & argument != 0, for the active column
+	public static final int HAS = 6;
+	private static final String[] OPS = { "!=", "<=", ">=", "=", "<", ">", "&" };
+	private static final int[] OP_CODES = { NE, LE, GE, EQ, LT, GT, HAS };
+
+	// group values are shorts at most, offset so they can index an array
+	private static final int GROUP_OFFSET = 1 << 15;
+
+	private final FileChannel file;
+	// file position of every segment and its row count
+	private final long[] segmentStart;
+	private final int[] segmentRows;
+	private final List<int[]> filters;
+	private int groupBy;
+
+	private TelemetryQuery(FileChannel file, long[] segmentStart, int[] segmentRows) {
+		this.file = file;
+		this.segmentStart = segmentStart;
+		this.segmentRows = segmentRows;
+		filters = new ArrayList<>();
+		groupBy = -1;
+	}
+
+	/**
+	 * Opens a telemetry file. Only reads the segment headers.
+	 * @param path the file
+	 * @return a query matching every row
+	 * @throws IOException if the file can't be read or isn't a telemetry file
+	 */
+	public static TelemetryQuery open(Path path) throws IOException {
+		FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+		ByteBuffer header = read(file, 0, TelemetryWriter.HEADER_BYTES);
+		if (header.getLong() != TelemetryWriter.MAGIC || header.getInt() != TelemetryWriter.COLUMNS.length) {
+			file.close();
+			throw new IOException(path + " is not a telemetry file");
+		}
+		List<Long> starts = new ArrayList<>();
+		List<Integer> rows = new ArrayList<>();
+		long position = TelemetryWriter.HEADER_BYTES;
+		while (position + 4 <= file.size()) {
+			int count = read(file, position, 4).getInt();
+			starts.add(position + 4);
+			rows.add(count);
+			position += 4 + (long) count * TelemetryWriter.ROW_BYTES;
+		}
+		long[] segmentStart = new long[starts.size()];
+		int[] segmentRows = new int[rows.size()];
+		for (int i = 0; i < segmentStart.length; i++) {
+			segmentStart[i] = starts.get(i);
+			segmentRows[i] = rows.get(i);
+		}
+		return new TelemetryQuery(file, segmentStart, segmentRows);
+	}
+
+	public static void main(String[] args) throws IOException {
+		try (TelemetryQuery query = open(Paths.get(args[0]))) {
+			String mean = args[1];
+			for (int a = 2; a < args.length; a++) {
+				if (args[a].startsWith("by=")) {
+					query.groupBy(args[a].substring(3));
+					continue;
+				}
+				for (int o = 0; o < OPS.length; o++) {
+					int at = args[a].indexOf(OPS[o]);
+					if (at > 0) {
+						query.where(args[a].substring(0, at), OP_CODES[o],
+								Integer.parseInt(args[a].substring(at + OPS[o].length())));
+						break;
+					}
+				}
+			}
+			long start = System.nanoTime();
+			Result result = query.mean(mean);
+			double ms = (System.nanoTime() - start) / 1e6;
+			for (int group : result.getGroups()) {
+				System.out.printf("%6d  %10d rows  mean %s %.4f%n", group, result.getCount(group), mean,
+						result.getMean(group));
+			}
+			System.out.printf("total   %10d rows  mean %s %.4f  (%d rows scanned in %.1f ms)%n",
+					result.getCount(), mean, result.getMean(), query.size(), ms);
+		}
+	}
+
+	/**
+	 * Only keeps rows where the column compares to the value with op. Filters add up,
+	 * a row has to match all of them.
+	 * @return this query
+	 */
+	public TelemetryQuery where(String column, int op, int value) {
+		filters.add(new int[] { TelemetryWriter.column(column), op, value });
+		return this;
+	}
+
+	/**
+	 * Aggregates separately for every value of a column.
+	 * @return this query
+	 */
+	public TelemetryQuery groupBy(String column) {
+		groupBy = TelemetryWriter.column(column);
+		return this;
+	}
+
+	/**
+	 * @return how many rows the file has
+	 */
+	public long size() {
+		long rows = 0;
+		for (int count : segmentRows) {
+			rows += count;
+		}
+		return rows;
+	}
+
+	/**
+	 * Counts the matching rows and sums a column over them.
+	 * @param column the column to average
+	 * @return the counts and means, per group if groupBy was used
+	 */
+	public Result mean(String column) {
+		int value = TelemetryWriter.column(column);
+		int groups = groupBy < 0 ? 1 : 2 * GROUP_OFFSET;
+		long[] totals = IntStream.range(0, segmentStart.length).parallel()
+				.mapToObj(s -> scan(s, value, groups))
+				.reduce((a, b) -> {
+					for (int i = 0; i < a.length; i++) {
+						a[i] += b[i];
+					}
+					return a;
+				}).orElse(new long[groups * 2]);
+		return new Result(totals, groups);
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * scans one segment
+	 * @return counts of matching rows per group, followed by the column sums per group
+	 */
+	private long[] scan(int segment, int valueColumn, int groups) {
+		int rows = segmentRows[segment];
+		// rows still matching, narrowed by each filter in turn
+		int[] selected = new int[rows];
+		int matching = rows;
+		for (int i = 0; i < rows; i++) {
+			selected[i] = i;
+		}
+		for (int[] filter : filters) {
+			int[] values = column(segment, filter[0]);
+			int op = filter[1];
+			int arg = filter[2];
+			int kept = 0;
+			for (int i = 0; i < matching; i++) {
+				int v = values[selected[i]];
+				boolean match;
+				switch (op) {
+				case EQ: match = v == arg; break;
+				case NE: match = v != arg; break;
+				case LT: match = v < arg; break;
+				case LE: match = v <= arg; break;
+				case GT: match = v > arg; break;
+				case GE: match = v >= arg; break;
+				default: match = (v & arg) != 0; break;
+				}
+				if (match) {
+					selected[kept++] = selected[i];
+				}
+			}
+			matching = kept;
+		}
+		long[] totals = new long[groups * 2];
+		if (matching == 0) {
+			return totals;
+		}
+		int[] values = column(segment, valueColumn);
+		int[] keys = groupBy < 0 ? null : column(segment, groupBy);
+		for (int i = 0; i < matching; i++) {
+			int row = selected[i];
+			int group = keys == null ? 0 : keys[row] + GROUP_OFFSET;
+			totals[group]++;
+			totals[groups + group] += values[row];
+		}
+		return totals;
+	}
+
+	/**
+	 * reads one column of a segment
+	 */
+	private int[] column(int segment, int column) {
+		int rows = segmentRows[segment];
+		long position = segmentStart[segment];
+		for (int c = 0; c < column; c++) {
+			position += (long) rows * TelemetryWriter.WIDTHS[c];
+		}
+		int width = TelemetryWriter.WIDTHS[column];
+		ByteBuffer bytes;
+		try {
+			bytes = read(file, position, rows * width);
+		} catch (IOException e) {
+			throw new IllegalStateException("couldn't read telemetry", e);
+		}
+		int[] values = new int[rows];
+		switch (width) {
+		case 1:
+			for (int i = 0; i < rows; i++) {
+				values[i] = bytes.get();
+			}
+			break;
+		case 2:
+			for (int i = 0; i < rows; i++) {
+				values[i] = bytes.getShort();
+			}
+			break;
+		default:
+			for (int i = 0; i < rows; i++) {
+				values[i] = bytes.getInt();
+			}
+			break;
+		}
+		return values;
+	}
+
+	private static ByteBuffer read(FileChannel file, long position, int length) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(length);
+		while (bytes.hasRemaining()) {
+			if (file.read(bytes, position + bytes.position()) < 0) {
+				throw new IOException("telemetry file ended early");
+			}
+		}
+		bytes.flip();
+		return bytes;
+	}
+
+	/**
+	 * Counts and means from a query.
+	 */
+	public static class Result {
+		private final long[] totals;
+		private final int groups;
+
+		private Result(long[] totals, int groups) {
+			this.totals = totals;
+			this.groups = groups;
+		}
+
+		/**
+		 * @return how many rows matched
+		 */
+		public long getCount() {
+			long count = 0;
+			for (int g = 0; g < groups; g++) {
+				count += totals[g];
+			}
+			return count;
+		}
+
+		/**
+		 * @return the mean of the column over every matching row, NaN if none matched
+		 */
+		public double getMean() {
+			long sum = 0;
+			for (int g = 0; g < groups; g++) {
+				sum += totals[groups + g];
+			}
+			return sum / (double) getCount();
+		}
+
+		/**
+		 * @return the values of the groupBy column that had matching rows, in order
+		 */
+		public int[] getGroups() {
+			if (groups == 1) {
+				return new int[0];
+			}
+			return IntStream.range(0, groups).filter(g -> totals[g] > 0).map(g -> g - GROUP_OFFSET).toArray();
+		}
+
+		public long getCount(int group) {
+			return totals[index(group)];
+		}
+
+		public double getMean(int group) {
+			return totals[groups + index(group)] / (double) totals[index(group)];
+		}
+
+		private int index(int group) {
+			return groups == 1 ? 0 : group + GROUP_OFFSET;
+		}
+	}
+}
@@ -0,0 +1,258 @@
+package src;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Records a row for every player in every round fought, into a columnar file that
+ * TelemetryQuery can scan.
+ *
+ * Rows are collected column by column in a segment of SEGMENT_ROWS rows. A full segment
+ * is handed to a background thread, which writes it while the next one fills, so there
+ * are never more than two segments in memory. On disk a segment is its row count
+ * followed by each column in turn, every value stored in the column's width.
+ */
+public class TelemetryWriter implements AutoCloseable {
+	static final long MAGIC = 0x54454c454d455431L;
+	static final int HEADER_BYTES = 16;
+	public static final int SEGMENT_ROWS = 1 << 16;
+
+	// the champion types, in the order of their columns
+	public static final String[] TYPES = { "Anemo", "Cryo", "Electro", "Geo", "Hydro", "Pyro" };
+	// every item by getName(), the position plus one is its id in the item columns
+	public static final String[] ITEMS = {
+			"dullBlade", "greatSword", "polearm", "bookBasic", "bowRegular",
+			"festeringDesire", "dragonPike", "Rainslaher", "favoniusBook", "moonbow",
+			"skyward", "homa", "graveStone", "electroBOok", "polarStar" };
+
+	/*
+	 * The columns. won and lost are 0 or 1, a draw is neither. The type columns count
+	 * the units of each type on the battlefield, active has bit i set if getActiveTraits()
+	 * has TYPES[i]. champ columns hold the battlefield's champion ids (see
+	 * GameProtocol.championCode), item columns the held items' ids.
+	 */
+	public static final String[] COLUMNS = {
+			"round", "player", "level", "won", "lost", "gold", "health", "gold_delta", "health_delta",
+			"anemo", "cryo", "electro", "geo", "hydro", "pyro", "active",
+			"champ0", "champ1", "champ2", "champ3", "champ4", "champ5", "champ6",
+			"item0", "item1", "item2", "item3", "item4", "item5" };
+	static final int[] WIDTHS = {
+			2, 1, 1, 1, 1, 2, 2, 2, 2,
+			1, 1, 1, 1, 1, 1, 1,
+			2, 2, 2, 2, 2, 2, 2,
+			1, 1, 1, 1, 1, 1 };
+	static final int ROW_BYTES;
+	static {
+		int bytes = 0;
+		for (int width : WIDTHS) {
+			bytes += width;
+		}
+		ROW_BYTES = bytes;
+	}
+	private static final int TYPE_COLUMN = 9;
+	private static final int CHAMP_COLUMN = 16;
+	private static final int ITEM_COLUMN = 23;
+
+	private static final HashMap<String, Integer> TYPE_IDS = ids(TYPES, 0);
+	private static final HashMap<String, Integer> ITEM_IDS = ids(ITEMS, 1);
+
+	private final FileChannel file;
+	private final ExecutorService writer;
+	private int[][] segment;
+	// the segment being written in the background, reused once it's done
+	private int[][] spare;
+	private Future<?> writing;
+	private int rows;
+	private long total;
+
+	private TelemetryWriter(FileChannel file) {
+		this.file = file;
+		writer = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "telemetry-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		segment = new int[COLUMNS.length][SEGMENT_ROWS];
+		spare = new int[COLUMNS.length][SEGMENT_ROWS];
+	}
+
+	/**
+	 * Creates a new telemetry file, replacing any file already there.
+	 * @param path where to write
+	 * @return the writer
+	 * @throws IOException if the file can't be created
+	 */
+	public static TelemetryWriter create(Path path) throws IOException {
+		FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putLong(MAGIC);
+		header.putInt(COLUMNS.length);
+		header.putInt(SEGMENT_ROWS);
+		header.flip();
+		while (header.hasRemaining()) {
+			file.write(header);
+		}
+		return new TelemetryWriter(file);
+	}
+
+	/**
+	 * @param name a column name
+	 * @return the column's position in COLUMNS
+	 * @throws IllegalArgumentException if there is no such column
+	 */
+	public static int column(String name) {
+		for (int i = 0; i < COLUMNS.length; i++) {
+			if (COLUMNS[i].equals(name)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("no telemetry column " + name);
+	}
+
+	/**
+	 * Adds a row for one player's round. Call it after the fight, with how much gold
+	 * and health the player had before it.
+	 * @param round      the round fought
+	 * @param playerId   1 or 2
+	 * @param player     the player
+	 * @param outcome    AutoBattlerModel.isRoundOver() for the round
+	 * @param goldBefore the player's gold before the fight
+	 * @param healthBefore the player's health before the fight
+	 */
+	public synchronized void record(int round, int playerId, Player player, int outcome,
+			int goldBefore, int healthBefore) {
+		int[][] s = segment;
+		int row = rows;
+		s[0][row] = round;
+		s[1][row] = playerId;
+		s[2][row] = player.getLevel();
+		s[3][row] = outcome == playerId ? 1 : 0;
+		s[4][row] = outcome == 3 - playerId ? 1 : 0;
+		s[5][row] = player.getGold();
+		s[6][row] = player.getHealth();
+		s[7][row] = player.getGold() - goldBefore;
+		s[8][row] = player.getHealth() - healthBefore;
+		for (int t = 0; t < TYPES.length; t++) {
+			s[TYPE_COLUMN + t][row] = 0;
+		}
+		Champion[] battleField = player.getBattleField();
+		for (int i = 0; i < 7; i++) {
+			Champion champ = battleField[i];
+			s[CHAMP_COLUMN + i][row] = GameProtocol.championCode(champ);
+			Integer type = champ == null ? null : TYPE_IDS.get(champ.getType());
+			if (type != null) {
+				s[TYPE_COLUMN + type][row]++;
+			}
+		}
+		int active = 0;
+		for (String trait : player.getActiveTraits().keySet()) {
+			Integer type = TYPE_IDS.get(trait);
+			if (type != null) {
+				active |= 1 << type;
+			}
+		}
+		s[TYPE_COLUMN + TYPES.length][row] = active;
+		Item[] items = player.getItems();
+		for (int i = 0; i < 6; i++) {
+			s[ITEM_COLUMN + i][row] = items[i] == null ? 0 : ITEM_IDS.getOrDefault(items[i].getName(), 0);
+		}
+		rows++;
+		total++;
+		if (rows == SEGMENT_ROWS) {
+			flushSegment();
+		}
+	}
+
+	/**
+	 * @return how many rows have been recorded
+	 */
+	public synchronized long size() {
+		return total;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (rows > 0) {
+			flushSegment();
+		}
+		waitForWrite();
+		writer.shutdown();
+		file.close();
+	}
+
+	/**
+	 * hands the full segment to the writer thread and starts filling the spare one
+	 */
+	private void flushSegment() {
+		waitForWrite();
+		int[][] full = segment;
+		int count = rows;
+		writing = writer.submit(() -> {
+			write(full, count);
+			return null;
+		});
+		segment = spare;
+		spare = full;
+		rows = 0;
+	}
+
+	private void waitForWrite() {
+		if (writing == null) {
+			return;
+		}
+		try {
+			writing.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("couldn't write telemetry", e.getCause());
+		}
+		writing = null;
+	}
+
+	private void write(int[][] columns, int count) throws IOException {
+		ByteBuffer out = ByteBuffer.allocate(4 + count * ROW_BYTES);
+		out.putInt(count);
+		for (int c = 0; c < columns.length; c++) {
+			int[] values = columns[c];
+			switch (WIDTHS[c]) {
+			case 1:
+				for (int i = 0; i < count; i++) {
+					out.put((byte) values[i]);
+				}
+				break;
+			case 2:
+				for (int i = 0; i < count; i++) {
+					out.putShort((short) values[i]);
+				}
+				break;
+			default:
+				for (int i = 0; i < count; i++) {
+					out.putInt(values[i]);
+				}
+				break;
+			}
+		}
+		out.flip();
+		while (out.hasRemaining()) {
+			file.write(out);
+		}
+	}
+
+	private static HashMap<String, Integer> ids(String[] names, int first) {
+		HashMap<String, Integer> ids = new HashMap<>();
+		for (int i = 0; i < names.length; i++) {
+			ids.put(names[i], first + i);
+		}
+		return ids;
+	}
+}
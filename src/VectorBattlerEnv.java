@@ -0,0 +1,129 @@
+package src;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Steps many BattlerEnvs in lockstep, split over a fixed set of threads. Observations
+ * for every environment sit in one float array, environment i at i * OBS_SIZE, and
+ * rewards and done flags in arrays indexed by environment. A finished game is reset
+ * right away, so its done flag is set and its observation is already the new game's.
+ *
+ * The worker threads are started once and woken with park/unpark for each step, so
+ * stepping allocates nothing itself.
+ */
+public class VectorBattlerEnv implements AutoCloseable {
+	private final BattlerEnv[] envs;
+	private final float[] obs;
+	private final float[] rewards;
+	private final boolean[] dones;
+	private final Thread[] workers;
+	private final AtomicInteger remaining;
+	private final Thread caller;
+	private int[] actions;
+	// bumped for every step, workers step their share when it changes
+	private volatile long generation;
+	private volatile boolean closed;
+
+	/**
+	 * @param count   how many environments
+	 * @param threads how many threads to step them on, including the caller's
+	 */
+	public VectorBattlerEnv(int count, int threads) {
+		envs = new BattlerEnv[count];
+		obs = new float[count * BattlerEnv.OBS_SIZE];
+		rewards = new float[count];
+		dones = new boolean[count];
+		for (int i = 0; i < count; i++) {
+			envs[i] = new BattlerEnv(obs, i * BattlerEnv.OBS_SIZE);
+		}
+		threads = Math.max(1, Math.min(threads, count));
+		remaining = new AtomicInteger();
+		caller = Thread.currentThread();
+		workers = new Thread[threads - 1];
+		for (int w = 0; w < workers.length; w++) {
+			int part = w + 1;
+			int parts = threads;
+			workers[w] = new Thread(() -> work(part, parts), "env-worker-" + part);
+			workers[w].setDaemon(true);
+			workers[w].start();
+		}
+	}
+
+	/**
+	 * Steps every environment once. Only call from the thread that made this.
+	 * @param actions one action per environment
+	 */
+	public void step(int[] actions) {
+		this.actions = actions;
+		remaining.set(workers.length);
+		generation++;
+		for (Thread worker : workers) {
+			LockSupport.unpark(worker);
+		}
+		stepPart(0, workers.length + 1);
+		while (remaining.get() > 0) {
+			LockSupport.park(this);
+		}
+	}
+
+	/**
+	 * @return every environment's observation, environment i starting at i * OBS_SIZE
+	 */
+	public float[] getObservations() {
+		return obs;
+	}
+
+	/**
+	 * @return the last step's reward for each environment
+	 */
+	public float[] getRewards() {
+		return rewards;
+	}
+
+	/**
+	 * @return whether each environment's game ended on the last step
+	 */
+	public boolean[] getDones() {
+		return dones;
+	}
+
+	public int size() {
+		return envs.length;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		for (Thread worker : workers) {
+			LockSupport.unpark(worker);
+		}
+	}
+
+	private void work(int part, int parts) {
+		long seen = 0;
+		while (!closed) {
+			if (generation == seen) {
+				LockSupport.park(this);
+				continue;
+			}
+			seen = generation;
+			stepPart(part, parts);
+			if (remaining.decrementAndGet() == 0) {
+				LockSupport.unpark(caller);
+			}
+		}
+	}
+
+	private void stepPart(int part, int parts) {
+		int from = (int) ((long) envs.length * part / parts);
+		int to = (int) ((long) envs.length * (part + 1) / parts);
+		for (int i = from; i < to; i++) {
+			rewards[i] = envs[i].step(actions[i]);
+			dones[i] = envs[i].isDone();
+			if (dones[i]) {
+				envs[i].reset();
+			}
+		}
+	}
+}
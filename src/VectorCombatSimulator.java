@@ -0,0 +1,151 @@
+package src;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * BatchCombatSimulator with the attacks done by the Vector API, one vector of lanes at
+ * a time instead of one lane at a time. It needs the incubator module, so compile and
+ * run with --add-modules jdk.incubator.vector, and get one from
+ * BatchCombatSimulator.create() rather than by name so the scalar one is used when the
+ * module isn't there.
+ *
+ * The lanes are stored the same way as in BatchCombatSimulator and every lane does
+ * exactly what the scalar attack() does, so for the same seed and lane count both give
+ * the same results. Finding the attacker and the nth living defender is done with bit
+ * tricks on the alive masks since the JDK 17 API has no bit count or trailing zeros,
+ * and the hp and atk of the two champions are gathered and scattered by index.
+ * Finished lanes are still refilled one by one, that only happens once per fight.
+ */
+public class VectorCombatSimulator extends BatchCombatSimulator {
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+	private static final int P1_MASK = 0x7F;
+	private static final int P2_MASK = 0x7F00;
+
+	private final int width = SPECIES.length();
+	// lane i's offset into hp and atk, relative to the first lane of the vector
+	private final IntVector laneOffsets = IntVector.zero(SPECIES).addIndex(16);
+	// the slots being gathered from, the API only takes indexes from an array
+	private final int[] attackers = new int[width];
+	private final int[] defenders = new int[width];
+
+	private VectorCombatSimulator(int lanes) {
+		super(lanes);
+	}
+
+	/**
+	 * @param lanes how many matches are played together, rounded up to whole vectors
+	 * @return null if the CPU has less than 256 bit vectors, where the scalar loop is
+	 *         about as fast
+	 */
+	public static VectorCombatSimulator create(int lanes) {
+		int width = SPECIES.length();
+		if (width < 8) {
+			return null;
+		}
+		return new VectorCombatSimulator((Math.max(1, lanes) + width - 1) / width * width);
+	}
+
+	@Override
+	public int[] simulate(int[][] p1Hp, int[][] p1Atk, int[][] p2Hp, int[][] p2Atk, long seed) {
+		int[] results = new int[p1Hp.length];
+		int next = 0;
+		start(seed);
+		int running = lanes;
+		while (running > 0) {
+			running = 0;
+			for (int l = 0; l < lanes; l += width) {
+				IntVector mask = IntVector.fromArray(SPECIES, alive, l);
+				VectorMask<Integer> playing = playing(mask);
+				if (!playing.allTrue()) {
+					for (int i = 0; i < width; i++) {
+						if (!playing.laneIsSet(i)) {
+							next = refill(l + i, next, results, p1Hp, p1Atk, p2Hp, p2Atk);
+						}
+					}
+					mask = IntVector.fromArray(SPECIES, alive, l);
+					playing = playing(mask);
+				}
+				if (playing.anyTrue()) {
+					attack(l, mask, playing);
+					running += playing.trueCount();
+				}
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * lanes with someone alive on both sides
+	 */
+	private static VectorMask<Integer> playing(IntVector mask) {
+		return mask.and(P1_MASK).compare(VectorOperators.NE, 0)
+				.and(mask.and(P2_MASK).compare(VectorOperators.NE, 0));
+	}
+
+	/**
+	 * one attack in each playing lane of the vector starting at lane l
+	 */
+	private void attack(int l, IntVector mask, VectorMask<Integer> playing) {
+		IntVector x = IntVector.fromArray(SPECIES, rng, l);
+		x = x.lanewise(VectorOperators.XOR, x.lanewise(VectorOperators.LSHL, 13));
+		x = x.lanewise(VectorOperators.XOR, x.lanewise(VectorOperators.LSHR, 17));
+		x = x.lanewise(VectorOperators.XOR, x.lanewise(VectorOperators.LSHL, 5));
+		x.intoArray(rng, l, playing);
+
+		IntVector turns = IntVector.fromArray(SPECIES, turn, l);
+		// 0 when p1 attacks and 8 when p2 does, the attacking side's first bit
+		IntVector attackShift = turns.lanewise(VectorOperators.LSHL, 3);
+		IntVector defendShift = attackShift.lanewise(VectorOperators.XOR, 8);
+		IntVector attacking = mask.lanewise(VectorOperators.LSHR, attackShift).and(P1_MASK);
+		IntVector defending = mask.lanewise(VectorOperators.LSHR, defendShift).and(P1_MASK);
+
+		// the attacker is the lowest living bit
+		IntVector attackerBit = attacking.and(attacking.neg());
+		// pick = (unsigned x * count) >>> 32, split in halves so it fits in an int
+		IntVector count = bitCount(defending);
+		IntVector pick = x.lanewise(VectorOperators.LSHR, 16).mul(count)
+				.add(x.and(0xFFFF).mul(count).lanewise(VectorOperators.LSHR, 16))
+				.lanewise(VectorOperators.LSHR, 16);
+		// drop the lowest living defender pick times, there are at most 7
+		for (int i = 1; i < 7; i++) {
+			VectorMask<Integer> more = pick.compare(VectorOperators.GE, i);
+			defending = defending.blend(defending.and(defending.sub(1)), more);
+		}
+		IntVector defenderBit = defending.and(defending.neg());
+
+		// slots from the bits, idle lanes have no bit and are kept inside their own lane
+		IntVector base = laneOffsets.add(l * 16);
+		IntVector attacker = bitCount(attackerBit.sub(1)).and(7).add(attackShift).add(base);
+		IntVector defender = bitCount(defenderBit.sub(1)).and(7).add(defendShift).add(base);
+		attacker.intoArray(attackers, 0);
+		defender.intoArray(defenders, 0);
+
+		IntVector attackerHp = IntVector.fromArray(SPECIES, hp, 0, attackers, 0);
+		IntVector defenderHp = IntVector.fromArray(SPECIES, hp, 0, defenders, 0);
+		IntVector attackerAtk = IntVector.fromArray(SPECIES, atk, 0, attackers, 0);
+		IntVector defenderAtk = IntVector.fromArray(SPECIES, atk, 0, defenders, 0);
+		attackerHp = attackerHp.sub(defenderAtk).max(0);
+		defenderHp = defenderHp.sub(attackerAtk).max(0);
+		attackerHp.intoArray(hp, 0, attackers, 0, playing);
+		defenderHp.intoArray(hp, 0, defenders, 0, playing);
+
+		IntVector dead = attackerBit.lanewise(VectorOperators.LSHL, attackShift)
+				.and(attackerHp.compare(VectorOperators.EQ, 0).toVector())
+				.or(defenderBit.lanewise(VectorOperators.LSHL, defendShift)
+						.and(defenderHp.compare(VectorOperators.EQ, 0).toVector()));
+		mask.and(dead.not()).intoArray(alive, l, playing);
+		turns.lanewise(VectorOperators.XOR, 1).intoArray(turn, l, playing);
+	}
+
+	/**
+	 * set bits of each lane's low byte
+	 */
+	private static IntVector bitCount(IntVector v) {
+		v = v.sub(v.lanewise(VectorOperators.LSHR, 1).and(0x55));
+		v = v.and(0x33).add(v.lanewise(VectorOperators.LSHR, 2).and(0x33));
+		return v.add(v.lanewise(VectorOperators.LSHR, 4)).and(0x0F);
+	}
+}
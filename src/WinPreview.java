@@ -0,0 +1,138 @@
+package src;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Works out the chance a board beats another on a background thread, for showing while
+ * the player moves champions around.
+ *
+ * preview() copies the hp and atk of both boards on the calling thread, with the trait
+ * bonuses each board would get in the fight, so the boards can change right after and
+ * the champions are never touched. The fights are played on the copies by CombatSimulator in
+ * batches until the time is up. Every preview makes the ones before it stale: a stale
+ * preview stops after the batch it is on and never reports, so only the last board asked
+ * about shows up. Nothing here waits, so it can be called from the FX thread.
+ */
+public class WinPreview {
+	private static final int BATCH = 64;
+
+	private final long budgetNanos;
+	private final ExecutorService thread;
+	// bumped by every preview and cancel, a preview stops once it has changed
+	private volatile int request;
+
+	/**
+	 * @param budgetNanos how long to play fights for before reporting
+	 */
+	public WinPreview(long budgetNanos) {
+		this.budgetNanos = budgetNanos;
+		thread = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "win-preview");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Starts working out the chance a board beats another, dropping any preview still
+	 * running. Call it from one thread only.
+	 * @param board the board to check
+	 * @param enemy the board it fights
+	 * @param done  given the result on the background thread, unless a newer preview
+	 *              came first
+	 */
+	public void preview(Champion[] board, Champion[] enemy, Consumer<Result> done) {
+		board = withBonuses(board);
+		enemy = withBonuses(enemy);
+		int[] hp1 = CombatSimulator.hpOf(board);
+		int[] atk1 = CombatSimulator.atkOf(board);
+		int[] hp2 = CombatSimulator.hpOf(enemy);
+		int[] atk2 = CombatSimulator.atkOf(enemy);
+		int id = ++request;
+		thread.execute(() -> run(id, hp1, atk1, hp2, atk2, done));
+	}
+
+	/**
+	 * copies of a board's champions with the trait bonuses it would fight with
+	 */
+	static Champion[] withBonuses(Champion[] board) {
+		Player player = new Player();
+		for (int i = 0; i < 7; i++) {
+			player.setBattleField(i, board[i] == null ? null : board[i].copy());
+		}
+		player.applyTraitBonuses();
+		return player.getBattleField();
+	}
+
+	/**
+	 * makes the preview running stale, so it never reports
+	 */
+	public void cancel() {
+		request++;
+	}
+
+	/**
+	 * stops the background thread
+	 */
+	public void close() {
+		request++;
+		thread.shutdown();
+	}
+
+	private void run(int id, int[] hp1, int[] atk1, int[] hp2, int[] atk2, Consumer<Result> done) {
+		long start = System.nanoTime();
+		Random rng = new Random();
+		int[] results = new int[3];
+		do {
+			if (request != id) {
+				return;
+			}
+			int[] batch = CombatSimulator.simulate(hp1, atk1, hp2, atk2, BATCH, rng);
+			for (int i = 0; i < 3; i++) {
+				results[i] += batch[i];
+			}
+		} while (System.nanoTime() - start < budgetNanos);
+		if (request == id) {
+			done.accept(new Result(results[0], results[1], results[2], System.nanoTime() - start));
+		}
+	}
+
+	/**
+	 * How the fights of one preview went.
+	 */
+	public static class Result {
+		private final int wins;
+		private final int losses;
+		private final int draws;
+		private final long nanos;
+
+		Result(int wins, int losses, int draws, long nanos) {
+			this.wins = wins;
+			this.losses = losses;
+			this.draws = draws;
+			this.nanos = nanos;
+		}
+
+		/**
+		 * @return share of the fights the board won
+		 */
+		public double getWinChance() { return (double) wins / getFights(); }
+
+		/**
+		 * @return share of the fights where both boards died
+		 */
+		public double getDrawChance() { return (double) draws / getFights(); }
+
+		public int getFights() { return wins + losses + draws; }
+
+		public long getNanos() { return nanos; }
+
+		@Override
+		public String toString() {
+			return String.format("Win %.0f%%, draw %.0f%%", getWinChance() * 100, getDrawChance() * 100);
+		}
+	}
+}